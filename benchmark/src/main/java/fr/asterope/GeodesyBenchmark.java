@@ -0,0 +1,117 @@
+/**
+ * 
+ * AndroidRun, basic runner's android application. Calculates distance, speed
+ * and other usefull values taken from GPS device.
+ * 
+ * Copyright (C) 2014 Bruno Vedder
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ * 
+ */
+
+package fr.asterope;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Scalar distance between two points, for near, mid-range and long-haul
+ * pairs.
+ *
+ * @author bruno
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class GeodesyBenchmark
+{
+
+    @Param(
+    {
+        "NEAR", "MID", "LONG"
+    })
+    public String pair;
+
+    private double lat1;
+    private double long1;
+    private double lat2;
+    private double long2;
+    private WGS84Point src;
+    private WGS84Point dest;
+    private VincentySolver solver;
+
+
+    @Setup
+    public void setup()
+    {
+        double[] p = SyntheticTrack.pair(pair);
+        lat1 = p[0];
+        long1 = p[1];
+        lat2 = p[2];
+        long2 = p[3];
+        src = new WGS84Point(lat1, long1);
+        dest = new WGS84Point(lat2, long2);
+        solver = new VincentySolver();
+    }
+
+
+    @Benchmark
+    public double greatCircle()
+    {
+        return WGS84.distance(lat1, long1, lat2, long2);
+    }
+
+
+    @Benchmark
+    public double haversine()
+    {
+        return WGS84.haversineDistance(lat1, long1, lat2, long2);
+    }
+
+
+    @Benchmark
+    public double vincenty()
+    {
+        return WGS84.vincentyDistance(lat1, long1, lat2, long2);
+    }
+
+
+    @Benchmark
+    public double vincentyPoints()
+    {
+        return WGS84.vincentyDistance(src, dest);
+    }
+
+
+    @Benchmark
+    public double vincentySolver()
+    {
+        return solver.distance(lat1, long1, lat2, long2);
+    }
+}
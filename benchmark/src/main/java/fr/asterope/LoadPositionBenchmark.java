@@ -0,0 +1,106 @@
+/**
+ * 
+ * AndroidRun, basic runner's android application. Calculates distance, speed
+ * and other usefull values taken from GPS device.
+ * 
+ * Copyright (C) 2014 Bruno Vedder
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ * 
+ */
+
+package fr.asterope;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Parsing of position files written in the loadPosition text format, and
+ * distance streamed from such a file.
+ *
+ * @author bruno
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend =
+{
+    "-Xms3g", "-Xmx3g"
+})
+@State(Scope.Benchmark)
+public class LoadPositionBenchmark
+{
+
+    @Param(
+    {
+        "10000", "100000", "1000000"
+    })
+    public int points;
+
+    private File file;
+    private String filename;
+
+
+    @Setup
+    public void setup() throws IOException
+    {
+        file = SyntheticTrack.writePositionFile(points);
+        filename = file.getAbsolutePath();
+    }
+
+
+    @TearDown
+    public void tearDown()
+    {
+        file.delete();
+    }
+
+
+    @Benchmark
+    public ArrayList<WGS84Point> loadPosition() throws IOException
+    {
+        return WGS84.loadPosition(filename);
+    }
+
+
+    @Benchmark
+    public double[][] parserArrays() throws IOException
+    {
+        return PositionFileParser.load(filename);
+    }
+
+
+    @Benchmark
+    public double streamedTrackDistance() throws IOException
+    {
+        return WGS84.computeTrackDistance(filename, WGS84.VINCENTY);
+    }
+}
@@ -0,0 +1,104 @@
+/**
+ * 
+ * AndroidRun, basic runner's android application. Calculates distance, speed
+ * and other usefull values taken from GPS device.
+ * 
+ * Copyright (C) 2014 Bruno Vedder
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ * 
+ */
+
+package fr.asterope;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Formatting one OLC line, with String.format and with DecimalFormatter.
+ *
+ * @author bruno
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class LogFormatBenchmark
+{
+
+    private static final String[] STATE_LABELS =
+    {
+        "No tracking", "Tracking OK", "Bad accuracy"
+    };
+
+    private final LogRecord record = new LogRecord();
+    private final DecimalFormatter formatter = new DecimalFormatter();
+    private final StringBuilder line = new StringBuilder(256);
+
+
+    @Setup
+    public void setup()
+    {
+        Random random = new Random(42);
+        record.time = System.currentTimeMillis();
+        record.distance = (float) (random.nextDouble() * 42195.0);
+        record.deltaDistance = random.nextDouble() * 30.0;
+        record.accuracy = (float) (random.nextDouble() * 10.0);
+        record.speed = (float) (random.nextDouble() * 5.0);
+        record.deltaTime = 8.0f;
+        record.altitude = 150.0 + random.nextDouble() * 100.0;
+        record.bearing = (float) (random.nextDouble() * 360.0);
+        record.latitude = 48.0 + random.nextDouble();
+        record.longitude = 2.0 + random.nextDouble();
+        record.lastAltitude = 200.0;
+        record.ascent = 123.4f;
+        record.descent = -98.7f;
+        record.satellites = 9;
+        record.updateCount = 1234;
+        record.state = LogRecord.STATE_TRACKING_OK;
+    }
+
+
+    @Benchmark
+    public String stringFormat()
+    {
+        return String.format("OLC; %4.2f; %4.2f; %4.2f; %4.2f; %4.2f; %4.2f; %4.2f; %9.6f; %9.6f; %4.1f; %3.1f; %3.1f; %d; %d; %s;",
+                record.distance, record.deltaDistance, record.accuracy, record.speed, record.deltaTime, record.altitude, record.bearing,
+                record.latitude, record.longitude, record.lastAltitude, record.ascent, record.descent, record.satellites, record.updateCount,
+                record.stateLabel(STATE_LABELS));
+    }
+
+
+    @Benchmark
+    public int decimalFormatter()
+    {
+        line.setLength(0);
+        record.appendTo(line, formatter, STATE_LABELS);
+        return line.length();
+    }
+}
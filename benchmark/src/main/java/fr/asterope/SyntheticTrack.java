@@ -0,0 +1,145 @@
+/**
+ * 
+ * AndroidRun, basic runner's android application. Calculates distance, speed
+ * and other usefull values taken from GPS device.
+ * 
+ * Copyright (C) 2014 Bruno Vedder
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ * 
+ */
+
+package fr.asterope;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Random;
+
+
+/**
+ * Deterministic synthetic data for the benchmarks: a random walk of a runner
+ * starting from Paris, with steps of a few meters, and reference point pairs.
+ *
+ * @author bruno
+ */
+final class SyntheticTrack
+{
+
+    static final double START_LATITUDE = 48.8588589;
+    static final double START_LONGITUDE = 2.3470599;
+
+    // About 3 meters in latitude.
+    static final private double STEP_DEGREE = 0.00003;
+
+
+    private SyntheticTrack()
+    {
+    }
+
+
+    /**
+     * Point pair for the scalar distance benchmarks : {lat1, long1, lat2,
+     * long2} in decimal degree.
+     *
+     * @param pair : NEAR (about 10 m, a GPS update), MID (Paris - La Mure,
+     * about 500 km) or LONG (Paris - Sydney, about 17000 km).
+     * @return point pair.
+     */
+    static double[] pair(String pair)
+    {
+        if ("NEAR".equals(pair))
+        {
+            return new double[]
+            {
+                START_LATITUDE, START_LONGITUDE, START_LATITUDE + 0.00007, START_LONGITUDE + 0.00009
+            };
+        }
+        if ("MID".equals(pair))
+        {
+            return new double[]
+            {
+                START_LATITUDE, START_LONGITUDE, 44.9102669, 5.7860659
+            };
+        }
+        if ("LONG".equals(pair))
+        {
+            return new double[]
+            {
+                START_LATITUDE, START_LONGITUDE, -33.8688197, 151.2092955
+            };
+        }
+        throw new IllegalArgumentException("Unknown pair : " + pair);
+    }
+
+
+    /**
+     * Fill the given arrays with a random walk.
+     *
+     * @param latitudes : latitudes in decimal degree.
+     * @param longitudes : longitudes in decimal degree.
+     */
+    static void fill(double[] latitudes, double[] longitudes)
+    {
+        Random random = new Random(42);
+        double lat = START_LATITUDE;
+        double lon = START_LONGITUDE;
+
+        for (int i = 0; i < latitudes.length; i++)
+        {
+            lat += random.nextGaussian() * STEP_DEGREE;
+            lon += random.nextGaussian() * STEP_DEGREE;
+            latitudes[i] = lat;
+            longitudes[i] = lon;
+        }
+    }
+
+
+    /**
+     * Write a random walk of the given size in the loadPosition text format.
+     * Values are rounded to 7 decimals, like GPS outputs.
+     *
+     * @param points : number of lines.
+     * @return temporary file, deleted on exit.
+     * @throws IOException
+     */
+    static File writePositionFile(int points) throws IOException
+    {
+        double[] latitudes = new double[points];
+        double[] longitudes = new double[points];
+        fill(latitudes, longitudes);
+
+        File file = File.createTempFile("androidrun-positions-", ".txt");
+        file.deleteOnExit();
+
+        BufferedWriter writer = new BufferedWriter(new FileWriter(file), 1 << 16);
+        try
+        {
+            for (int i = 0; i < points; i++)
+            {
+                writer.write(Double.toString(Math.round(latitudes[i] * 1e7) / 1e7));
+                writer.write(' ');
+                writer.write(Double.toString(Math.round(longitudes[i] * 1e7) / 1e7));
+                writer.write('\n');
+            }
+        }
+        finally
+        {
+            writer.close();
+        }
+        return file;
+    }
+}
@@ -0,0 +1,137 @@
+/**
+ * 
+ * AndroidRun, basic runner's android application. Calculates distance, speed
+ * and other usefull values taken from GPS device.
+ * 
+ * Copyright (C) 2014 Bruno Vedder
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ * 
+ */
+
+package fr.asterope;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Integral distance over synthetic tracks of 10k to 10M points, for each
+ * algorithm, with the ArrayList&lt;WGS84Point&gt;, the array and the parallel
+ * versions of computeTrackDistance.
+ *
+ * @author bruno
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend =
+{
+    "-Xms3g", "-Xmx3g"
+})
+@State(Scope.Benchmark)
+public class TrackDistanceBenchmark
+{
+
+    @Param(
+    {
+        "10000", "100000", "1000000", "10000000"
+    })
+    public int points;
+
+    @Param(
+    {
+        "1", "2", "3"   // GREAT_CIRCLE, HAVERSINE, VINCENTY
+    })
+    public int algorithm;
+
+    private double[] latitudes;
+    private double[] longitudes;
+    private double[] segments;
+    private ArrayList<WGS84Point> track;
+    private ParallelTrackDistance parallel;
+    private Track fixedPointTrack;
+
+
+    @Setup
+    public void setup()
+    {
+        latitudes = new double[points];
+        longitudes = new double[points];
+        segments = new double[points];
+        SyntheticTrack.fill(latitudes, longitudes);
+
+        parallel = new ParallelTrackDistance();
+
+        fixedPointTrack = new Track(points, true);
+        for (int i = 0; i < points; i++)
+        {
+            fixedPointTrack.add(latitudes[i], longitudes[i]);
+        }
+
+        track = new ArrayList<WGS84Point>(points);
+        for (int i = 0; i < points; i++)
+        {
+            track.add(new WGS84Point(latitudes[i], longitudes[i]));
+        }
+    }
+
+
+    @Benchmark
+    public double pointList()
+    {
+        return WGS84.computeTrackDistance(track, algorithm);
+    }
+
+
+    @Benchmark
+    public double arrays()
+    {
+        return WGS84.computeTrackDistance(latitudes, longitudes, 0, points, algorithm, null);
+    }
+
+
+    @Benchmark
+    public double arraysWithSegments()
+    {
+        return WGS84.computeTrackDistance(latitudes, longitudes, 0, points, algorithm, segments);
+    }
+
+
+    @Benchmark
+    public double parallelArrays()
+    {
+        return parallel.computeTrackDistance(latitudes, longitudes, 0, points, algorithm, null);
+    }
+
+
+    @Benchmark
+    public double fixedPointTrack()
+    {
+        return WGS84.computeTrackDistance(fixedPointTrack, algorithm);
+    }
+}
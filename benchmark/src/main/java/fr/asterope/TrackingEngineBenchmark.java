@@ -0,0 +1,107 @@
+/**
+ * 
+ * AndroidRun, basic runner's android application. Calculates distance, speed
+ * and other usefull values taken from GPS device.
+ * 
+ * Copyright (C) 2014 Bruno Vedder
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ * 
+ */
+
+
+package fr.asterope;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Synthetic tracks of 10k to 1M fixes, one per second, fed to the
+ * TrackingEngine as the application does with each location.
+ *
+ * @author bruno
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend =
+{
+    "-Xms3g", "-Xmx3g"
+})
+@State(Scope.Benchmark)
+public class TrackingEngineBenchmark
+{
+
+    @Param(
+    {
+        "10000", "100000", "1000000"
+    })
+    public int points;
+
+    private double[] latitudes;
+    private double[] longitudes;
+    private final TrackingEngine engine = new TrackingEngine();
+    private final LogRecord record = new LogRecord();
+
+
+    @Setup
+    public void setup()
+    {
+        latitudes = new double[points];
+        longitudes = new double[points];
+        SyntheticTrack.fill(latitudes, longitudes);
+    }
+
+
+    @Benchmark
+    public float onFix()
+    {
+        engine.reset();
+        engine.setStarted(true);
+        for (int i = 0; i < points; i++)
+        {
+            engine.onFix(i * 1000000000L, i * 1000L, latitudes[i], longitudes[i], 50.0 + (i & 15), 5.0f, 3.0f, 0.0f, 8);
+        }
+        return engine.getDistance();
+    }
+
+
+    @Benchmark
+    public double onFixWithRecord()
+    {
+        double sum = 0.0;
+        engine.reset();
+        engine.setStarted(true);
+        for (int i = 0; i < points; i++)
+        {
+            engine.onFix(i * 1000000000L, i * 1000L, latitudes[i], longitudes[i], 50.0 + (i & 15), 5.0f, 3.0f, 0.0f, 8);
+            engine.fillRecord(record);
+            sum += record.deltaDistance;
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,165 @@
+/**
+ * 
+ * AndroidRun, basic runner's android application. Calculates distance, speed
+ * and other usefull values taken from GPS device.
+ * 
+ * Copyright (C) 2014 Bruno Vedder
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ * 
+ */
+
+package fr.asterope;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import org.junit.Assert;
+import org.junit.Test;
+
+
+/**
+ * Naming, listing and reading of rotated log segments.
+ *
+ * @author bruno
+ */
+public class LogSegmentsTest
+{
+
+    static final private String LOG_NAME = "Run_20170101_120000.csv";
+
+
+    /**
+     * Segment index goes before the extension, on at least 3 digits.
+     */
+    @Test
+    public void segmentNames()
+    {
+        Assert.assertEquals("Run_20170101_120000.001.csv", LogSegments.segmentName(LOG_NAME, 1));
+        Assert.assertEquals("Run_20170101_120000.042.csv", LogSegments.segmentName(LOG_NAME, 42));
+        Assert.assertEquals("Run_20170101_120000.1234.csv", LogSegments.segmentName(LOG_NAME, 1234));
+        Assert.assertEquals("run.007.journal", LogSegments.segmentName("run.journal", 7));
+        Assert.assertEquals("log.001", LogSegments.segmentName("log", 1));
+    }
+
+
+    /**
+     * Segments are listed in index order, compressed ones instead of the
+     * uncompressed leftovers, ignoring other files.
+     */
+    @Test
+    public void listAndNextIndex() throws IOException
+    {
+        File directory = TempDirectory.create("LogSegmentsTest");
+        File log = new File(directory, LOG_NAME);
+
+        try
+        {
+            Assert.assertEquals(0, LogSegments.list(log).length);
+            Assert.assertEquals(1, LogSegments.nextIndex(log));
+
+            write(new File(directory, LogSegments.segmentName(LOG_NAME, 10)), "j");
+            write(new File(directory, LogSegments.segmentName(LOG_NAME, 2)), "b");
+            write(new File(directory, LogSegments.segmentName(LOG_NAME, 2) + LogSegments.GZIP_EXTENSION), "");
+            write(new File(directory, LogSegments.segmentName(LOG_NAME, 9)), "i");
+            write(new File(directory, "Run_20170101_120000.abc.csv"), "");
+            write(new File(directory, "Run_20170101_130000.003.csv"), "");
+            write(new File(directory, "Run_20170101_120000.004.olc"), "");
+            write(log, "active");
+
+            File[] segments = LogSegments.list(log);
+            Assert.assertEquals(3, segments.length);
+            Assert.assertEquals(LogSegments.segmentName(LOG_NAME, 2) + LogSegments.GZIP_EXTENSION, segments[0].getName());
+            Assert.assertEquals(LogSegments.segmentName(LOG_NAME, 9), segments[1].getName());
+            Assert.assertEquals(LogSegments.segmentName(LOG_NAME, 10), segments[2].getName());
+            Assert.assertEquals(11, LogSegments.nextIndex(log));
+        }
+        finally
+        {
+            TempDirectory.delete(directory);
+        }
+    }
+
+
+    /**
+     * open() reads compressed and plain segments, then the active file, as a
+     * single stream.
+     */
+    @Test
+    public void openReadsSegmentsThenActiveFile() throws IOException
+    {
+        File directory = TempDirectory.create("LogSegmentsTest");
+        File log = new File(directory, LOG_NAME);
+
+        try
+        {
+            File first = new File(directory, LogSegments.segmentName(LOG_NAME, 1));
+            write(first, "line 1\nline 2\n");
+            File compressed = LogSegments.compress(first);
+            Assert.assertFalse(first.exists());
+            Assert.assertEquals(first.getName() + LogSegments.GZIP_EXTENSION, compressed.getName());
+
+            write(new File(directory, LogSegments.segmentName(LOG_NAME, 2)), "line 3\n");
+            write(log, "line 4\n");
+
+            Assert.assertEquals("line 1\nline 2\nline 3\nline 4\n", read(LogSegments.open(log)));
+
+            // The active file may not exist yet.
+            log.delete();
+            Assert.assertEquals("line 1\nline 2\nline 3\n", read(LogSegments.open(log)));
+        }
+        finally
+        {
+            TempDirectory.delete(directory);
+        }
+    }
+
+
+    private static void write(File file, String content) throws IOException
+    {
+        OutputStream out = new FileOutputStream(file);
+        try
+        {
+            out.write(content.getBytes("UTF-8"));
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+
+    private static String read(InputStream in) throws IOException
+    {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        try
+        {
+            byte[] buffer = new byte[1024];
+            int n;
+            while ((n = in.read(buffer)) >= 0)
+            {
+                content.write(buffer, 0, n);
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+        return content.toString("UTF-8");
+    }
+}
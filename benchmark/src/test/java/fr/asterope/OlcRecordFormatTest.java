@@ -0,0 +1,285 @@
+/**
+ * 
+ * AndroidRun, basic runner's android application. Calculates distance, speed
+ * and other usefull values taken from GPS device.
+ * 
+ * Copyright (C) 2014 Bruno Vedder
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ * 
+ */
+
+package fr.asterope;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import org.junit.Assert;
+import org.junit.Test;
+
+
+/**
+ * Write / read round trips of binary OLC record files.
+ *
+ * @author bruno
+ */
+public class OlcRecordFormatTest
+{
+
+    static final private int RECORDS = 1500;                // Several writer and reader buffers.
+    static final private Locale LOCALE = Locale.FRANCE;
+    static final private TimeZone TIME_ZONE = TimeZone.getTimeZone("Europe/Paris");
+    static final private String[] STATE_LABELS =
+    {
+        "Pas de suivi", "OK", "Précision insuffisante"
+    };
+
+
+    /**
+     * Every field of every record, the state labels, the locale and the time
+     * zone are read back.
+     */
+    @Test
+    public void roundTrip() throws IOException
+    {
+        File file = File.createTempFile("Run_test", RunFiles.RECORD_EXTENSION);
+
+        try
+        {
+            writeRecords(file, 0, RECORDS);
+
+            OlcRecordReader reader = new OlcRecordReader(file.getPath());
+            try
+            {
+                Assert.assertEquals(RECORDS, reader.getRecordCount());
+                Assert.assertArrayEquals(STATE_LABELS, reader.getStateLabels());
+                Assert.assertEquals(LOCALE, reader.getLocale());
+                Assert.assertEquals(TIME_ZONE.getID(), reader.getTimeZone().getID());
+
+                LogRecord read = new LogRecord();
+                for (int i = 0; i < RECORDS; i++)
+                {
+                    Assert.assertTrue(reader.read(read));
+                    assertRecord(record(i), read);
+                }
+                Assert.assertFalse(reader.read(read));
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+
+    /**
+     * The last record was partially written : readers ignore it, and a new
+     * writer drops it before appending.
+     */
+    @Test
+    public void partialRecordIsDroppedOnAppend() throws IOException
+    {
+        File file = File.createTempFile("Run_test", RunFiles.RECORD_EXTENSION);
+
+        try
+        {
+            writeRecords(file, 0, 10);
+            long size = file.length();
+
+            OutputStream out = new FileOutputStream(file, true);
+            try
+            {
+                out.write(new byte[OlcRecordFormat.RECORD_SIZE / 2]);
+            }
+            finally
+            {
+                out.close();
+            }
+
+            OlcRecordReader reader = new OlcRecordReader(file.getPath());
+            Assert.assertEquals(10, reader.getRecordCount());
+            reader.close();
+
+            writeRecords(file, 10, 5);
+            Assert.assertEquals(size + 5 * OlcRecordFormat.RECORD_SIZE, file.length());
+
+            reader = new OlcRecordReader(file.getPath());
+            try
+            {
+                Assert.assertEquals(15, reader.getRecordCount());
+                LogRecord read = new LogRecord();
+                for (int i = 0; i < 15; i++)
+                {
+                    Assert.assertTrue(reader.read(read));
+                    assertRecord(record(i), read);
+                }
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+
+    /**
+     * Converted back to CSV, each record gives the line the synchronous
+     * logger writes, in the locale and time zone of the file.
+     */
+    @Test
+    public void toCsvGivesLogLines() throws IOException
+    {
+        File file = File.createTempFile("Run_test", RunFiles.RECORD_EXTENSION);
+
+        try
+        {
+            writeRecords(file, 0, 100);
+            StringBuilder csv = new StringBuilder();
+            Assert.assertEquals(100, OlcRecordReader.toCsv(file.getPath(), csv));
+
+            SimpleDateFormat dateFormat = new SimpleDateFormat("HH:mm:ss", LOCALE);
+            dateFormat.setTimeZone(TIME_ZONE);
+            StringBuilder expected = new StringBuilder();
+            for (int i = 0; i < 100; i++)
+            {
+                LogRecord record = record(i);
+                expected.append(dateFormat.format(new Date(record.time))).append(" : ").append(record.format(LOCALE, STATE_LABELS)).append('\n');
+            }
+            Assert.assertEquals(expected.toString(), csv.toString());
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+
+    /**
+     * A file that isn't a record file is refused.
+     */
+    @Test
+    public void badMagicIsRefused() throws IOException
+    {
+        File file = File.createTempFile("Run_test", RunFiles.RECORD_EXTENSION);
+
+        try
+        {
+            OutputStream out = new FileOutputStream(file);
+            try
+            {
+                out.write("12:00:00 : OLC; 0,00; 0,00\n".getBytes("UTF-8"));
+            }
+            finally
+            {
+                out.close();
+            }
+
+            try
+            {
+                new OlcRecordReader(file.getPath()).close();
+                Assert.fail("CSV log read as a record file.");
+            }
+            catch (IOException e)
+            {
+                // Expected.
+            }
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+
+    /**
+     * Write records first to first + count - 1, appending to the file.
+     */
+    private static void writeRecords(File file, int first, int count) throws IOException
+    {
+        OlcRecordWriter writer = new OlcRecordWriter(file.getPath(), STATE_LABELS, LOCALE, TIME_ZONE);
+        try
+        {
+            for (int i = first; i < first + count; i++)
+            {
+                writer.onRecord(record(i));
+            }
+            Assert.assertEquals(first + count, writer.getRecordCount());
+        }
+        finally
+        {
+            writer.close();
+        }
+    }
+
+
+    /**
+     * Record i of a run, every field different.
+     */
+    private static LogRecord record(int i)
+    {
+        LogRecord record = new LogRecord();
+        record.time = 1500000000000L + 1000L * i;
+        record.distance = 3.1 * i;
+        record.deltaDistance = 3.1 + 0.001 * i;
+        record.accuracy = 10.0 + i % 20;
+        record.speed = 3.0 + 0.002 * i;
+        record.deltaTime = 1.0 + 0.0001 * i;
+        record.altitude = 300.0 + 0.25 * i;
+        record.bearing = i % 360;
+        record.latitude = 45.0 + 3e-5 * i;
+        record.longitude = 5.0 - 2e-5 * i;
+        record.lastAltitude = 300.0 + 0.2 * i;
+        record.ascent = 0.1 * i;
+        record.descent = -0.05 * i;
+        record.satellites = 4 + i % 9;
+        record.updateCount = i + 1;
+        record.state = i % LogRecord.STATE_COUNT;
+        return record;
+    }
+
+
+    private static void assertRecord(LogRecord expected, LogRecord actual)
+    {
+        Assert.assertEquals(expected.time, actual.time);
+        Assert.assertEquals(expected.distance, actual.distance, 0.0);
+        Assert.assertEquals(expected.deltaDistance, actual.deltaDistance, 0.0);
+        Assert.assertEquals(expected.accuracy, actual.accuracy, 0.0);
+        Assert.assertEquals(expected.speed, actual.speed, 0.0);
+        Assert.assertEquals(expected.deltaTime, actual.deltaTime, 0.0);
+        Assert.assertEquals(expected.altitude, actual.altitude, 0.0);
+        Assert.assertEquals(expected.bearing, actual.bearing, 0.0);
+        Assert.assertEquals(expected.latitude, actual.latitude, 0.0);
+        Assert.assertEquals(expected.longitude, actual.longitude, 0.0);
+        Assert.assertEquals(expected.lastAltitude, actual.lastAltitude, 0.0);
+        Assert.assertEquals(expected.ascent, actual.ascent, 0.0);
+        Assert.assertEquals(expected.descent, actual.descent, 0.0);
+        Assert.assertEquals(expected.satellites, actual.satellites);
+        Assert.assertEquals(expected.updateCount, actual.updateCount);
+        Assert.assertEquals(expected.state, actual.state);
+    }
+}
@@ -0,0 +1,111 @@
+/**
+ * 
+ * AndroidRun, basic runner's android application. Calculates distance, speed
+ * and other usefull values taken from GPS device.
+ * 
+ * Copyright (C) 2014 Bruno Vedder
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ * 
+ */
+
+package fr.asterope;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+
+/**
+ * Replay of the records logged by the application engine.
+ *
+ * @author bruno
+ */
+public class OlcReplayTest
+{
+
+    static final private double METERS_PER_DEGREE = 111200.0;
+    static final private double RADIUS = 500.0;             // Loop radius, in m.
+    static final private double SPEED = 3.0;                // in m.s-1
+    static final private int INTERVAL = 8;                  // in s.
+    static final private int FIXES = 3600 / INTERVAL;
+
+
+    /**
+     * An hour on a hilly loop, 15 to 35 m fixes every 8 s, a few of them too
+     * inaccurate : replaying the records gives back the engine totals.
+     */
+    @Test
+    public void replayGivesBackEngineTotals() throws IOException
+    {
+        File run = File.createTempFile("Run_test", RunFiles.RECORD_EXTENSION);
+        TrackingEngine engine = TrackingEngine.createApplicationEngine();
+
+        try
+        {
+            OlcRecordWriter writer = new OlcRecordWriter(run.getPath(), OlcReplay.DEFAULT_STATE_LABELS);
+            try
+            {
+                logLoop(engine, writer, new Random(1));
+            }
+            finally
+            {
+                writer.close();
+            }
+
+            RunSummary summary = new OlcReplay().replay(run);
+            Assert.assertEquals(FIXES, summary.fixes);
+            Assert.assertEquals(engine.getDistance(), summary.distance, 0.0f);
+            Assert.assertEquals(engine.getAscent(), summary.ascent, 0.0f);
+            Assert.assertEquals(engine.getDescent(), summary.descent, 0.0f);
+            Assert.assertEquals(engine.getDistance(), summary.loggedDistance, 0.0);
+        }
+        finally
+        {
+            run.delete();
+        }
+    }
+
+
+    /**
+     * Feed the fixes of the loop to the engine, and log them as MainActivity
+     * does.
+     */
+    private static void logLoop(TrackingEngine engine, OlcRecordWriter writer, Random random) throws IOException
+    {
+        double metersPerDegreeLongitude = METERS_PER_DEGREE * Math.cos(Math.toRadians(45.0));
+        LogRecord record = new LogRecord();
+
+        engine.setStarted(true);
+        for (int i = 0; i < FIXES; i++)
+        {
+            long seconds = (long) i * INTERVAL;
+            double angle = SPEED * seconds / RADIUS;
+            float accuracy = (i % 50 == 49) ? 80.0f : 15.0f + 20.0f * random.nextFloat();
+            double sigma = accuracy / Math.sqrt(2.0);
+            double north = RADIUS * Math.sin(angle) + random.nextGaussian() * sigma;
+            double east = RADIUS * (1.0 - Math.cos(angle)) + random.nextGaussian() * sigma;
+            double altitude = 300.0 + 20.0 * Math.sin(3.0 * angle) + random.nextGaussian() * sigma * 1.5;
+
+            engine.onFix(seconds * 1000000000L, seconds * 1000L, 45.0 + north / METERS_PER_DEGREE, 5.0 + east / metersPerDegreeLongitude, altitude,
+                accuracy, (float) SPEED, 0.0f, 8);
+            engine.fillRecord(record);
+            record.time = seconds * 1000L;
+            writer.onRecord(record);
+        }
+    }
+}
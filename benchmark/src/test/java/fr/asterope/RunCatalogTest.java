@@ -0,0 +1,250 @@
+/**
+ * 
+ * AndroidRun, basic runner's android application. Calculates distance, speed
+ * and other usefull values taken from GPS device.
+ * 
+ * Copyright (C) 2014 Bruno Vedder
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ * 
+ */
+
+package fr.asterope;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import org.junit.Assert;
+import org.junit.Test;
+
+
+/**
+ * Run index : entries built from the logs, saved and reloaded, replayed
+ * again only when the run changed.
+ *
+ * @author bruno
+ */
+public class RunCatalogTest
+{
+
+    static final private String FIRST_RUN = "Run_20170101_120000" + RunFiles.RECORD_EXTENSION;
+    static final private String SECOND_RUN = "Run_20170102_120000" + RunFiles.RECORD_EXTENSION;
+    static final private long FIRST_START = 1483272000000L;
+    static final private long SECOND_START = FIRST_START + 24L * 3600L * 1000L;
+    static final private double METERS_PER_DEGREE = 111200.0;
+    static final private double SPEED = 3.0;                // in m.s-1
+    static final private int INTERVAL = 4;                  // in s.
+
+
+    /**
+     * Entries hold the logged totals and the replayed duration, fixes and
+     * bounding box, and are the same once reloaded from the index.
+     */
+    @Test
+    public void indexAndReload() throws IOException
+    {
+        File directory = TempDirectory.create("RunCatalogTest");
+
+        try
+        {
+            // Listed by start time, not by creation order.
+            File second = new File(directory, SECOND_RUN);
+            File first = new File(directory, FIRST_RUN);
+            writeRun(second, TrackingEngine.createApplicationEngine(), SECOND_START, 0, 300);
+            writeRun(first, TrackingEngine.createApplicationEngine(), FIRST_START, 0, 200);
+
+            RunCatalog catalog = new RunCatalog(directory);
+            Assert.assertEquals(0, catalog.size());
+            Assert.assertEquals(2, catalog.refresh());
+            Assert.assertTrue(catalog.getIndexFile().exists());
+
+            RunCatalog.Entry[] entries = catalog.list();
+            Assert.assertEquals(2, entries.length);
+            Assert.assertEquals(FIRST_RUN, entries[0].name);
+            Assert.assertEquals(SECOND_RUN, entries[1].name);
+            assertEntry(new OlcReplay().replay(first), entries[0]);
+            assertEntry(new OlcReplay().replay(second), entries[1]);
+            Assert.assertEquals(1, catalog.list(SECOND_START, SECOND_START + 1).length);
+            Assert.assertEquals(entries[0].distance + entries[1].distance, catalog.getTotalDistance(), 1e-9);
+            Assert.assertEquals(entries[0].duration + entries[1].duration, catalog.getTotalDuration());
+
+            RunCatalog reloaded = new RunCatalog(directory);
+            Assert.assertEquals(2, reloaded.size());
+            for (int i = 0; i < entries.length; i++)
+            {
+                assertSameEntry(entries[i], reloaded.get(entries[i].name));
+            }
+            Assert.assertEquals(0, reloaded.refresh());
+        }
+        finally
+        {
+            TempDirectory.delete(directory);
+        }
+    }
+
+
+    /**
+     * An entry is kept while its run is unchanged, and replayed once the run
+     * grew.
+     */
+    @Test
+    public void staleEntryIsReplayed() throws IOException
+    {
+        File directory = TempDirectory.create("RunCatalogTest");
+
+        try
+        {
+            File run = new File(directory, FIRST_RUN);
+            TrackingEngine engine = TrackingEngine.createApplicationEngine();
+            writeRun(run, engine, FIRST_START, 0, 200);
+            run.setLastModified(FIRST_START + 1000000L);
+
+            RunCatalog catalog = new RunCatalog(directory);
+            RunCatalog.Entry entry = catalog.update(run);
+            Assert.assertTrue(catalog.update(run) == entry);
+
+            writeRun(run, engine, FIRST_START, 200, 100);
+            run.setLastModified(FIRST_START + 2000000L);
+
+            RunCatalog.Entry updated = catalog.update(run);
+            Assert.assertTrue(updated != entry);
+            Assert.assertEquals(run.length(), updated.size);
+            Assert.assertEquals(FIRST_START + 2000000L, updated.lastModified);
+            Assert.assertTrue(updated.points > entry.points);
+            Assert.assertTrue(updated.distance > entry.distance);
+            assertEntry(new OlcReplay().replay(run), updated);
+
+            assertSameEntry(updated, new RunCatalog(directory).get(FIRST_RUN));
+        }
+        finally
+        {
+            TempDirectory.delete(directory);
+        }
+    }
+
+
+    /**
+     * A corrupted index is an empty one, rebuilt by refresh(), and runs
+     * deleted from the directory leave the index.
+     */
+    @Test
+    public void corruptedIndexIsRebuilt() throws IOException
+    {
+        File directory = TempDirectory.create("RunCatalogTest");
+
+        try
+        {
+            File first = new File(directory, FIRST_RUN);
+            writeRun(first, TrackingEngine.createApplicationEngine(), FIRST_START, 0, 200);
+            writeRun(new File(directory, SECOND_RUN), TrackingEngine.createApplicationEngine(), SECOND_START, 0, 300);
+
+            RunCatalog catalog = new RunCatalog(directory);
+            Assert.assertEquals(2, catalog.refresh());
+
+            RandomAccessFile index = new RandomAccessFile(catalog.getIndexFile(), "rw");
+            try
+            {
+                index.seek(index.length() / 2);
+                int b = index.read();
+                index.seek(index.length() / 2);
+                index.write(b ^ 0x01);
+            }
+            finally
+            {
+                index.close();
+            }
+
+            catalog = new RunCatalog(directory);
+            Assert.assertEquals(0, catalog.size());
+            Assert.assertEquals(2, catalog.refresh());
+
+            first.delete();
+            Assert.assertEquals(0, catalog.refresh());
+            Assert.assertEquals(1, catalog.size());
+            Assert.assertNull(catalog.get(FIRST_RUN));
+            Assert.assertEquals(1, new RunCatalog(directory).size());
+        }
+        finally
+        {
+            TempDirectory.delete(directory);
+        }
+    }
+
+
+    /**
+     * Log count fixes of a straight uphill run, going on from fix first,
+     * appending to the record file.
+     */
+    private static void writeRun(File run, TrackingEngine engine, long startTime, int first, int count) throws IOException
+    {
+        OlcRecordWriter writer = new OlcRecordWriter(run.getPath(), OlcReplay.DEFAULT_STATE_LABELS);
+        LogRecord record = new LogRecord();
+
+        try
+        {
+            engine.setStarted(true);
+            for (int i = first; i < first + count; i++)
+            {
+                long seconds = (long) i * INTERVAL;
+                double north = SPEED * seconds;
+
+                engine.onFix(seconds * 1000000000L, startTime + seconds * 1000L, 45.0 + north / METERS_PER_DEGREE, 5.0, 300.0 + 0.05 * north,
+                    5.0f, (float) SPEED, 0.0f, 9);
+                engine.fillRecord(record);
+                record.time = startTime + seconds * 1000L;
+                writer.onRecord(record);
+            }
+        }
+        finally
+        {
+            writer.close();
+        }
+    }
+
+
+    private static void assertEntry(RunSummary expected, RunCatalog.Entry actual)
+    {
+        Assert.assertEquals(expected.startTime, actual.startTime);
+        Assert.assertEquals(expected.getDuration(), actual.duration);
+        Assert.assertEquals(expected.loggedDistance, actual.distance, 0.0);
+        Assert.assertEquals((float) expected.loggedAscent, actual.ascent, 0.0f);
+        Assert.assertEquals((float) expected.loggedDescent, actual.descent, 0.0f);
+        Assert.assertEquals(expected.acceptedFixes, actual.points);
+        Assert.assertEquals(expected.minLatitude, actual.minLatitude, 0.0);
+        Assert.assertEquals(expected.maxLatitude, actual.maxLatitude, 0.0);
+        Assert.assertEquals(expected.minLongitude, actual.minLongitude, 0.0);
+        Assert.assertEquals(expected.maxLongitude, actual.maxLongitude, 0.0);
+        Assert.assertTrue(actual.distance > 0.0);
+        Assert.assertTrue(actual.ascent > 0.0f);
+    }
+
+
+    private static void assertSameEntry(RunCatalog.Entry expected, RunCatalog.Entry actual)
+    {
+        Assert.assertEquals(expected.name, actual.name);
+        Assert.assertEquals(expected.size, actual.size);
+        Assert.assertEquals(expected.lastModified, actual.lastModified);
+        Assert.assertEquals(expected.startTime, actual.startTime);
+        Assert.assertEquals(expected.duration, actual.duration);
+        Assert.assertEquals(expected.distance, actual.distance, 0.0);
+        Assert.assertEquals(expected.ascent, actual.ascent, 0.0f);
+        Assert.assertEquals(expected.descent, actual.descent, 0.0f);
+        Assert.assertEquals(expected.points, actual.points);
+        Assert.assertEquals(expected.minLatitude, actual.minLatitude, 0.0);
+        Assert.assertEquals(expected.maxLatitude, actual.maxLatitude, 0.0);
+        Assert.assertEquals(expected.minLongitude, actual.minLongitude, 0.0);
+        Assert.assertEquals(expected.maxLongitude, actual.maxLongitude, 0.0);
+    }
+}
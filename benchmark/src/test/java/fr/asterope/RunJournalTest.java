@@ -0,0 +1,393 @@
+/**
+ * 
+ * AndroidRun, basic runner's android application. Calculates distance, speed
+ * and other usefull values taken from GPS device.
+ * 
+ * Copyright (C) 2014 Bruno Vedder
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ * 
+ */
+
+package fr.asterope;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import org.junit.Assert;
+import org.junit.Test;
+
+
+/**
+ * Crash safety of the run journal : what recover() gives back after a clean
+ * close, a torn write, a corrupted entry or a crash between segments.
+ *
+ * @author bruno
+ */
+public class RunJournalTest
+{
+
+    static final private String JOURNAL_NAME = "run.journal";
+    static final private long COMMIT_INTERVAL_MS = 60000;      // Commits are asked by the tests.
+    static final private long COMMIT_TIMEOUT_MS = 5000;
+
+
+    /**
+     * A checkpoint then deltas, written in several commits : the last state
+     * is recovered, field by field.
+     */
+    @Test
+    public void appendThenRecover() throws IOException
+    {
+        File directory = TempDirectory.create("RunJournalTest");
+        File journalFile = new File(directory, JOURNAL_NAME);
+
+        try
+        {
+            RunJournal journal = new RunJournal(journalFile, COMMIT_INTERVAL_MS, RunJournal.DEFAULT_CHECKPOINT_INTERVAL);
+            for (int i = 1; i <= 20; i++)
+            {
+                journal.append(state(i));
+                if (i % 5 == 0)
+                {
+                    commitAndWait(journal);
+                }
+            }
+            journal.close();
+
+            Assert.assertNull(journal.getLastFailure());
+            Assert.assertEquals(1, journal.getCheckpointCount());
+            Assert.assertEquals(1, LogSegments.list(journalFile).length);
+
+            RunState recovered = new RunState();
+            Assert.assertTrue(RunJournal.recover(journalFile, recovered));
+            assertState(state(20), recovered);
+        }
+        finally
+        {
+            TempDirectory.delete(directory);
+        }
+    }
+
+
+    /**
+     * The last entry was partially written : the state before it is
+     * recovered.
+     */
+    @Test
+    public void truncatedLastEntryIsIgnored() throws IOException
+    {
+        File directory = TempDirectory.create("RunJournalTest");
+        File journalFile = new File(directory, JOURNAL_NAME);
+
+        try
+        {
+            writeStates(journalFile, 5, RunJournal.DEFAULT_CHECKPOINT_INTERVAL);
+            File segment = LogSegments.list(journalFile)[0];
+
+            RandomAccessFile file = new RandomAccessFile(segment, "rw");
+            try
+            {
+                file.setLength(file.length() - 3);
+            }
+            finally
+            {
+                file.close();
+            }
+
+            RunState recovered = new RunState();
+            Assert.assertTrue(RunJournal.recover(journalFile, recovered));
+            assertState(state(4), recovered);
+        }
+        finally
+        {
+            TempDirectory.delete(directory);
+        }
+    }
+
+
+    /**
+     * A byte of the last entry changed on disk : its CRC doesn't match, the
+     * state before it is recovered.
+     */
+    @Test
+    public void corruptedLastEntryIsIgnored() throws IOException
+    {
+        File directory = TempDirectory.create("RunJournalTest");
+        File journalFile = new File(directory, JOURNAL_NAME);
+
+        try
+        {
+            writeStates(journalFile, 5, RunJournal.DEFAULT_CHECKPOINT_INTERVAL);
+            File segment = LogSegments.list(journalFile)[0];
+
+            RandomAccessFile file = new RandomAccessFile(segment, "rw");
+            try
+            {
+                // In the payload of the last entry, before its CRC.
+                long position = file.length() - 6;
+                file.seek(position);
+                int b = file.read();
+                file.seek(position);
+                file.write(b ^ 0x10);
+            }
+            finally
+            {
+                file.close();
+            }
+
+            RunState recovered = new RunState();
+            Assert.assertTrue(RunJournal.recover(journalFile, recovered));
+            assertState(state(4), recovered);
+        }
+        finally
+        {
+            TempDirectory.delete(directory);
+        }
+    }
+
+
+    /**
+     * Every checkpointInterval deltas a checkpoint starts a new segment, and
+     * the older one is deleted once it is on disk.
+     */
+    @Test
+    public void checkpointSwitchesSegment() throws IOException
+    {
+        File directory = TempDirectory.create("RunJournalTest");
+        File journalFile = new File(directory, JOURNAL_NAME);
+
+        try
+        {
+            // Checkpoint, 3 deltas, checkpoint, delta.
+            RunJournal journal = writeStates(journalFile, 6, 3);
+
+            Assert.assertEquals(2, journal.getCheckpointCount());
+            File[] segments = LogSegments.list(journalFile);
+            Assert.assertEquals(1, segments.length);
+            Assert.assertEquals(LogSegments.segmentName(JOURNAL_NAME, 2), segments[0].getName());
+
+            RunState recovered = new RunState();
+            Assert.assertTrue(RunJournal.recover(journalFile, recovered));
+            assertState(state(6), recovered);
+        }
+        finally
+        {
+            TempDirectory.delete(directory);
+        }
+    }
+
+
+    /**
+     * Crash after creating a new segment, before its checkpoint was written :
+     * the previous segment is still there and is recovered.
+     */
+    @Test
+    public void segmentWithoutCheckpointIsSkipped() throws IOException
+    {
+        File directory = TempDirectory.create("RunJournalTest");
+        File journalFile = new File(directory, JOURNAL_NAME);
+
+        try
+        {
+            writeStates(journalFile, 5, RunJournal.DEFAULT_CHECKPOINT_INTERVAL);
+            File segment = LogSegments.list(journalFile)[0];
+
+            // Header only.
+            byte[] header = new byte[8];
+            RandomAccessFile file = new RandomAccessFile(segment, "r");
+            try
+            {
+                file.readFully(header);
+            }
+            finally
+            {
+                file.close();
+            }
+            file = new RandomAccessFile(new File(directory, LogSegments.segmentName(JOURNAL_NAME, 2)), "rw");
+            try
+            {
+                file.write(header);
+            }
+            finally
+            {
+                file.close();
+            }
+
+            RunState recovered = new RunState();
+            Assert.assertTrue(RunJournal.recover(journalFile, recovered));
+            assertState(state(5), recovered);
+        }
+        finally
+        {
+            TempDirectory.delete(directory);
+        }
+    }
+
+
+    /**
+     * The application recovers the state, then journals again in the same
+     * file : the new journal starts a new segment and deletes the recovered
+     * one.
+     */
+    @Test
+    public void reopenAfterRecovery() throws IOException
+    {
+        File directory = TempDirectory.create("RunJournalTest");
+        File journalFile = new File(directory, JOURNAL_NAME);
+
+        try
+        {
+            writeStates(journalFile, 3, RunJournal.DEFAULT_CHECKPOINT_INTERVAL);
+
+            RunState recovered = new RunState();
+            Assert.assertTrue(RunJournal.recover(journalFile, recovered));
+            assertState(state(3), recovered);
+
+            RunJournal journal = new RunJournal(journalFile, COMMIT_INTERVAL_MS, RunJournal.DEFAULT_CHECKPOINT_INTERVAL);
+            journal.append(recovered);
+            commitAndWait(journal);
+            journal.append(state(4));
+            journal.close();
+
+            File[] segments = LogSegments.list(journalFile);
+            Assert.assertEquals(1, segments.length);
+            Assert.assertEquals(LogSegments.segmentName(JOURNAL_NAME, 2), segments[0].getName());
+
+            Assert.assertTrue(RunJournal.recover(journalFile, recovered));
+            assertState(state(4), recovered);
+
+            RunJournal.delete(journalFile);
+            Assert.assertEquals(0, LogSegments.list(journalFile).length);
+            Assert.assertFalse(RunJournal.recover(journalFile, recovered));
+            assertState(state(4), recovered);
+        }
+        finally
+        {
+            TempDirectory.delete(directory);
+        }
+    }
+
+
+    /**
+     * Journal states 1 to count, one commit each, then close the journal.
+     */
+    private static RunJournal writeStates(File journalFile, int count, int checkpointInterval) throws IOException
+    {
+        RunJournal journal = new RunJournal(journalFile, COMMIT_INTERVAL_MS, checkpointInterval);
+        for (int i = 1; i <= count; i++)
+        {
+            journal.append(state(i));
+            commitAndWait(journal);
+        }
+        journal.close();
+        Assert.assertNull(journal.getLastFailure());
+        return journal;
+    }
+
+
+    /**
+     * Ask for a commit and wait until it is done.
+     */
+    private static void commitAndWait(RunJournal journal) throws IOException
+    {
+        long count = journal.getCommitCount();
+        long deadline = System.currentTimeMillis() + COMMIT_TIMEOUT_MS;
+
+        while (journal.getCommitCount() == count)
+        {
+            if (System.currentTimeMillis() > deadline)
+            {
+                throw new IOException("Journal commit timed out.");
+            }
+            journal.commit();
+            try
+            {
+                Thread.sleep(1);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted.");
+            }
+        }
+    }
+
+
+    /**
+     * Run state after n updates. Some fields change at each update, others
+     * only from time to time, like in a run.
+     */
+    private static RunState state(int n)
+    {
+        RunState state = new RunState();
+        state.started = true;
+        state.firstFixReceived = (n > 1);
+        state.distance = 12.5f * n;
+        state.instSpeed = 3.0f + 0.01f * n;
+        state.averageSpeed = 2.9f;
+        state.elapsedSeconds = 4.0f * n;
+        state.updateCount = n;
+        state.latitude = 45.0 + 1e-5 * n;
+        state.longitude = 5.0 - 1e-5 * n;
+        state.satelliteNumber = 8 + n % 3;
+        state.lastAltitude = 300.0 + n / 4;
+        state.ascent = n / 4;
+        state.descent = -n / 8;
+        state.pauseStarted = (n % 7 == 0) ? 1000L * n : -1;
+        state.hasLastPosition = true;
+        state.lastPositionLatitude = state.latitude;
+        state.lastPositionLongitude = state.longitude;
+        state.lastPositionAltitude = 300.0 + 0.5 * n;
+        state.lastPositionElapsedRealtimeNanos = 4000000000L * n;
+        state.lastPositionTime = 1500000000000L + 4000L * n;
+        state.lastPositionSpeed = state.instSpeed;
+        state.lastPositionBearing = 90.0f;
+        state.lastPositionAccuracy = 10.0f + n % 5;
+        state.gpsStatus = (n < 3) ? "Recherche" : "Précis";
+        state.logFilename = "Run_20170101_120000.olc";
+        return state;
+    }
+
+
+    private static void assertState(RunState expected, RunState actual)
+    {
+        Assert.assertEquals(expected.started, actual.started);
+        Assert.assertEquals(expected.firstFixReceived, actual.firstFixReceived);
+        Assert.assertEquals(expected.distance, actual.distance, 0.0f);
+        Assert.assertEquals(expected.instSpeed, actual.instSpeed, 0.0f);
+        Assert.assertEquals(expected.averageSpeed, actual.averageSpeed, 0.0f);
+        Assert.assertEquals(expected.elapsedSeconds, actual.elapsedSeconds, 0.0f);
+        Assert.assertEquals(expected.updateCount, actual.updateCount);
+        Assert.assertEquals(expected.latitude, actual.latitude, 0.0);
+        Assert.assertEquals(expected.longitude, actual.longitude, 0.0);
+        Assert.assertEquals(expected.satelliteNumber, actual.satelliteNumber);
+        Assert.assertEquals(expected.lastAltitude, actual.lastAltitude, 0.0);
+        Assert.assertEquals(expected.ascent, actual.ascent, 0.0f);
+        Assert.assertEquals(expected.descent, actual.descent, 0.0f);
+        Assert.assertEquals(expected.pauseStarted, actual.pauseStarted);
+        Assert.assertEquals(expected.hasLastPosition, actual.hasLastPosition);
+        Assert.assertEquals(expected.lastPositionLatitude, actual.lastPositionLatitude, 0.0);
+        Assert.assertEquals(expected.lastPositionLongitude, actual.lastPositionLongitude, 0.0);
+        Assert.assertEquals(expected.lastPositionAltitude, actual.lastPositionAltitude, 0.0);
+        Assert.assertEquals(expected.lastPositionElapsedRealtimeNanos, actual.lastPositionElapsedRealtimeNanos);
+        Assert.assertEquals(expected.lastPositionTime, actual.lastPositionTime);
+        Assert.assertEquals(expected.lastPositionSpeed, actual.lastPositionSpeed, 0.0f);
+        Assert.assertEquals(expected.lastPositionBearing, actual.lastPositionBearing, 0.0f);
+        Assert.assertEquals(expected.lastPositionAccuracy, actual.lastPositionAccuracy, 0.0f);
+        Assert.assertEquals(expected.gpsStatus, actual.gpsStatus);
+        Assert.assertEquals(expected.logFilename, actual.logFilename);
+    }
+}
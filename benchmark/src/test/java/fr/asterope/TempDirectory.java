@@ -0,0 +1,78 @@
+/**
+ * 
+ * AndroidRun, basic runner's android application. Calculates distance, speed
+ * and other usefull values taken from GPS device.
+ * 
+ * Copyright (C) 2014 Bruno Vedder
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ * 
+ */
+
+package fr.asterope;
+
+import java.io.File;
+import java.io.IOException;
+
+
+/**
+ * Temporary directories of the file format tests.
+ *
+ * @author bruno
+ */
+final class TempDirectory
+{
+
+    private TempDirectory()
+    {
+    }
+
+
+    /**
+     * Create an empty temporary directory.
+     *
+     * @param prefix : directory name prefix.
+     * @return new directory.
+     * @throws IOException
+     */
+    static File create(String prefix) throws IOException
+    {
+        File directory = File.createTempFile(prefix, "");
+        if ((directory.delete() == false) || (directory.mkdir() == false))
+        {
+            throw new IOException("Can't create directory " + directory + ".");
+        }
+        return directory;
+    }
+
+
+    /**
+     * Delete a temporary directory and its files.
+     *
+     * @param directory : directory to delete.
+     */
+    static void delete(File directory)
+    {
+        File[] files = directory.listFiles();
+        if (files != null)
+        {
+            for (int i = 0; i < files.length; i++)
+            {
+                files[i].delete();
+            }
+        }
+        directory.delete();
+    }
+}
@@ -0,0 +1,267 @@
+/**
+ * 
+ * AndroidRun, basic runner's android application. Calculates distance, speed
+ * and other usefull values taken from GPS device.
+ * 
+ * Copyright (C) 2014 Bruno Vedder
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ * 
+ */
+
+package fr.asterope;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+
+/**
+ * Write / read round trips of binary track files.
+ *
+ * @author bruno
+ */
+public class TrackFileTest
+{
+
+    static final private int SAMPLES = 2000;
+    static final private double HALF_MICRO_DEGREE = 0.5e-6;
+    static final private double HALF_CENTIMETER = 0.005;
+
+
+    /**
+     * A fixed point track with altitudes and times is read back exactly.
+     */
+    @Test
+    public void fixedPointRoundTrip() throws IOException
+    {
+        Track track = walk(new Random(1), true);
+        File file = File.createTempFile("TrackFileTest", ".trk");
+
+        try
+        {
+            TrackFile.write(track, file.getPath());
+            Track read = TrackFile.read(file.getPath());
+
+            Assert.assertTrue(read.isFixedPoint());
+            Assert.assertTrue(read.hasAltitude());
+            Assert.assertTrue(read.hasTime());
+            Assert.assertEquals(track.size(), read.size());
+            for (int i = 0; i < track.size(); i++)
+            {
+                Assert.assertEquals(track.getLatitude(i), read.getLatitude(i), 0.0);
+                Assert.assertEquals(track.getLongitude(i), read.getLongitude(i), 0.0);
+                Assert.assertEquals(track.getAltitude(i), read.getAltitude(i), 0.0);
+                Assert.assertEquals(track.getTime(i), read.getTime(i));
+            }
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+
+    /**
+     * A floating point track is read back to the micro-degree and the
+     * centimeter.
+     */
+    @Test
+    public void floatingPointRoundTrip() throws IOException
+    {
+        Track track = walk(new Random(2), false);
+        File file = File.createTempFile("TrackFileTest", ".trk");
+
+        try
+        {
+            TrackFile.write(track, file.getPath());
+            Track read = TrackFile.read(file.getPath());
+
+            Assert.assertEquals(track.size(), read.size());
+            for (int i = 0; i < track.size(); i++)
+            {
+                Assert.assertEquals(track.getLatitude(i), read.getLatitude(i), HALF_MICRO_DEGREE);
+                Assert.assertEquals(track.getLongitude(i), read.getLongitude(i), HALF_MICRO_DEGREE);
+                Assert.assertEquals(track.getAltitude(i), read.getAltitude(i), HALF_CENTIMETER);
+                Assert.assertEquals(track.getTime(i), read.getTime(i));
+            }
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+
+    /**
+     * The writer didn't close the file (count 0) and the last sample is
+     * partially written : the complete samples are read.
+     */
+    @Test
+    public void unclosedFileIsReadUpToLastCompleteSample() throws IOException
+    {
+        Track track = walk(new Random(3), true);
+        File file = File.createTempFile("TrackFileTest", ".trk");
+
+        try
+        {
+            TrackFile.write(track, file.getPath());
+            RandomAccessFile raw = new RandomAccessFile(file, "rw");
+            try
+            {
+                raw.seek(TrackFile.COUNT_OFFSET);
+                raw.writeLong(0L);
+                raw.setLength(raw.length() - 1);
+            }
+            finally
+            {
+                raw.close();
+            }
+
+            Track read = TrackFile.read(file.getPath());
+            Assert.assertEquals(track.size() - 1, read.size());
+            for (int i = 0; i < read.size(); i++)
+            {
+                Assert.assertEquals(track.getLatitude(i), read.getLatitude(i), 0.0);
+                Assert.assertEquals(track.getLongitude(i), read.getLongitude(i), 0.0);
+                Assert.assertEquals(track.getAltitude(i), read.getAltitude(i), 0.0);
+                Assert.assertEquals(track.getTime(i), read.getTime(i));
+            }
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+
+    /**
+     * A closed file missing samples is reported, not silently shortened.
+     */
+    @Test
+    public void truncatedClosedFileFails() throws IOException
+    {
+        Track track = walk(new Random(4), true);
+        File file = File.createTempFile("TrackFileTest", ".trk");
+
+        try
+        {
+            TrackFile.write(track, file.getPath());
+            RandomAccessFile raw = new RandomAccessFile(file, "rw");
+            try
+            {
+                raw.setLength(raw.length() - 1);
+            }
+            finally
+            {
+                raw.close();
+            }
+
+            try
+            {
+                TrackFile.read(file.getPath());
+                Assert.fail("Truncated file read without error.");
+            }
+            catch (IOException e)
+            {
+                // Expected.
+            }
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+
+    /**
+     * A text position file converted to a track file gives the same
+     * positions, to the micro-degree, and the same distance.
+     */
+    @Test
+    public void convertPositionFile() throws IOException
+    {
+        Track track = walk(new Random(5), false);
+        File text = File.createTempFile("TrackFileTest", ".txt");
+        File file = File.createTempFile("TrackFileTest", ".trk");
+
+        try
+        {
+            OutputStream out = new FileOutputStream(text);
+            try
+            {
+                StringBuilder line = new StringBuilder();
+                for (int i = 0; i < track.size(); i++)
+                {
+                    line.setLength(0);
+                    line.append(track.getLatitude(i)).append('\t').append(track.getLongitude(i)).append('\n');
+                    out.write(line.toString().getBytes("US-ASCII"));
+                }
+            }
+            finally
+            {
+                out.close();
+            }
+
+            Assert.assertEquals(track.size(), TrackFile.convert(text.getPath(), file.getPath()));
+            Track read = TrackFile.read(file.getPath());
+
+            Assert.assertFalse(read.hasAltitude());
+            Assert.assertFalse(read.hasTime());
+            Assert.assertEquals(track.size(), read.size());
+            for (int i = 0; i < track.size(); i++)
+            {
+                Assert.assertEquals(track.getLatitude(i), read.getLatitude(i), HALF_MICRO_DEGREE);
+                Assert.assertEquals(track.getLongitude(i), read.getLongitude(i), HALF_MICRO_DEGREE);
+            }
+
+            double expected = WGS84.computeTrackDistance(track, WGS84.HAVERSINE);
+            Assert.assertEquals(expected, WGS84.computeTrackDistance(read, WGS84.HAVERSINE), expected * 1e-4);
+        }
+        finally
+        {
+            text.delete();
+            file.delete();
+        }
+    }
+
+
+    /**
+     * Random walk at running pace, one position per second.
+     */
+    private static Track walk(Random random, boolean fixedPoint)
+    {
+        Track track = new Track(SAMPLES, fixedPoint);
+        double latitude = 45.0;
+        double longitude = 5.0;
+        double altitude = 300.0;
+        long time = 1500000000000L;
+
+        for (int i = 0; i < SAMPLES; i++)
+        {
+            latitude += 2e-5 + random.nextGaussian() * 1e-5;
+            longitude += random.nextGaussian() * 2e-5;
+            altitude += random.nextGaussian() * 0.5;
+            time += 1000L + random.nextInt(50);
+            track.add(latitude, longitude, altitude, time);
+        }
+        return track;
+    }
+}
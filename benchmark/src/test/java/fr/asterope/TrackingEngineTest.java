@@ -0,0 +1,91 @@
+/**
+ * 
+ * AndroidRun, basic runner's android application. Calculates distance, speed
+ * and other usefull values taken from GPS device.
+ * 
+ * Copyright (C) 2014 Bruno Vedder
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ * 
+ */
+
+package fr.asterope;
+
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+
+/**
+ * Distance integrated by the TrackingEngine from noisy fixes.
+ *
+ * @author bruno
+ */
+public class TrackingEngineTest
+{
+
+    static final private double SPEED = 3.0;                // in m.s-1
+    static final private float ACCURACY = 25.0f;            // in m.
+    static final private int DURATION = 3600;               // in s.
+    static final private double METERS_PER_DEGREE = 111200.0;
+    static final private double MAX_DISTANCE_ERROR = 0.05;
+
+
+    /**
+     * An hour at running pace on a straight line, with 25 m fixes : the
+     * jitter of the filtered positions must not be counted as distance.
+     */
+    @Test
+    public void filteredDistanceOnNoisyStraightTrack()
+    {
+        int[] intervals =
+        {
+            1, 3, 8
+        };
+
+        for (int i = 0; i < intervals.length; i++)
+        {
+            TrackingEngine engine = new TrackingEngine(50.0f, new KalmanFilter());
+            double expected = straightTrack(engine, intervals[i], new Random(intervals[i]));
+            double error = (engine.getDistance() - expected) / expected;
+            Assert.assertTrue("Distance error " + error + " with fixes every " + intervals[i] + " s.", Math.abs(error) < MAX_DISTANCE_ERROR);
+        }
+    }
+
+
+    /**
+     * Feed fixes along a meridian, with a gaussian error of the given
+     * accuracy.
+     *
+     * @return true distance, in m.
+     */
+    private static double straightTrack(TrackingEngine engine, int interval, Random random)
+    {
+        double sigma = ACCURACY / Math.sqrt(2.0);               // Per axis, the accuracy is a radius.
+        double metersPerDegreeLongitude = METERS_PER_DEGREE * Math.cos(Math.toRadians(45.0));
+        int fixes = DURATION / interval;
+
+        engine.setStarted(true);
+        for (int i = 0; i < fixes; i++)
+        {
+            long seconds = (long) i * interval;
+            double north = SPEED * seconds + random.nextGaussian() * sigma;
+            double east = random.nextGaussian() * sigma;
+            engine.onFix(seconds * 1000000000L, seconds * 1000L, 45.0 + north / METERS_PER_DEGREE, 5.0 + east / metersPerDegreeLongitude, 300.0,
+                ACCURACY, (float) SPEED, 0.0f, 8);
+        }
+        return SPEED * interval * (fixes - 1);
+    }
+}
@@ -0,0 +1,205 @@
+/**
+ * 
+ * AndroidRun, basic runner's android application. Calculates distance, speed
+ * and other usefull values taken from GPS device.
+ * 
+ * Copyright (C) 2014 Bruno Vedder
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ * 
+ */
+
+package fr.asterope;
+
+
+/**
+ * Sampling following the runner : slow when standing still, normal while
+ * running straight, fast on quick or twisty sections.
+ *
+ * Each fix gives a target mode :
+ * - still : speed below STILL_SPEED. Long interval and a minimum distance,
+ * the GPS reports again once the runner moves.
+ * - fast : speed above FAST_SPEED, or heading changing faster than
+ * MAX_TURN_RATE. Short fix intervals keep the track on the turns.
+ * - normal : otherwise.
+ *
+ * Fixes with an accuracy worse than POOR_ACCURACY keep the current mode :
+ * their speed and bearing can't be trusted, and sampling faster under poor
+ * reception only spends more power on fixes the engine ignores.
+ *
+ * A faster mode is taken at once, a slower one after SLOWER_CONFIRMATIONS
+ * fixes in a row asking for it, so that a single fix doesn't make the
+ * interval flap.
+ *
+ * @author bruno
+ */
+public class AdaptiveSamplingPolicy implements SamplingPolicy
+{
+
+    static final public int STILL = 0;
+    static final public int NORMAL = 1;
+    static final public int FAST = 2;
+
+    static final public float STILL_SPEED = 0.5f;           // in m.s-1
+    static final public float FAST_SPEED = 4.0f;            // in m.s-1, 14.4 km/h.
+    static final public float MAX_TURN_RATE = 10.0f;        // in degree.s-1
+    static final public float POOR_ACCURACY = 15.0f;        // in m.
+    static final public int SLOWER_CONFIRMATIONS = 3;
+    static final private String[] MODE_NAMES =
+    {
+        "still", "normal", "fast"
+    };
+
+    private final long[] intervals;
+    private final float[] minDistances;
+
+    private int mode = NORMAL;
+    private int slowerFixes = 0;            // Consecutive fixes asking for a slower mode.
+    private boolean hasLastFix = false;
+    private long lastNanos = 0;
+    private float lastSpeed = 0.0f;
+    private float lastBearing = 0.0f;
+
+
+    /**
+     * Constructor with the application settings : 16 s and 5 m when still,
+     * 8 s when running, 3 s on fast sections.
+     */
+    public AdaptiveSamplingPolicy()
+    {
+        this(16000, 5.0f, 8000, 3000);
+    }
+
+
+    /**
+     * Constructor.
+     *
+     * @param stillInterval : interval when still, in milliseconds.
+     * @param stillMinDistance : minimum distance when still, in m.
+     * @param normalInterval : interval while running, in milliseconds.
+     * @param fastInterval : interval on fast sections, in milliseconds.
+     */
+    public AdaptiveSamplingPolicy(long stillInterval, float stillMinDistance, long normalInterval, long fastInterval)
+    {
+        if ((stillInterval < 0) || (stillMinDistance < 0.0f) || (normalInterval < 0) || (fastInterval < 0))
+        {
+            throw new IllegalArgumentException("Negative sampling limit.");
+        }
+        intervals = new long[]
+        {
+            stillInterval, normalInterval, fastInterval
+        };
+        minDistances = new float[]
+        {
+            stillMinDistance, 0.0f, 0.0f
+        };
+    }
+
+
+    public boolean onFix(long elapsedRealtimeNanos, float speed, float bearing, float accuracy)
+    {
+        if (accuracy > POOR_ACCURACY)
+        {
+            return false;
+        }
+
+        int target = NORMAL;
+        if (speed < STILL_SPEED)
+        {
+            target = STILL;
+        }
+        else if ((speed > FAST_SPEED) || (getTurnRate(elapsedRealtimeNanos, speed, bearing) > MAX_TURN_RATE))
+        {
+            target = FAST;
+        }
+
+        hasLastFix = true;
+        lastNanos = elapsedRealtimeNanos;
+        lastSpeed = speed;
+        lastBearing = bearing;
+
+        if (target > mode)
+        {
+            mode = target;
+            slowerFixes = 0;
+            return true;
+        }
+        if (target == mode)
+        {
+            slowerFixes = 0;
+            return false;
+        }
+
+        slowerFixes++;
+        if (slowerFixes < SLOWER_CONFIRMATIONS)
+        {
+            return false;
+        }
+        mode = target;
+        slowerFixes = 0;
+        return true;
+    }
+
+
+    public long getInterval()
+    {
+        return intervals[mode];
+    }
+
+
+    public float getMinDistance()
+    {
+        return minDistances[mode];
+    }
+
+
+    public String getMode()
+    {
+        return MODE_NAMES[mode];
+    }
+
+
+    /**
+     * Current mode, as a value.
+     *
+     * @return STILL, NORMAL or FAST.
+     */
+    public int getModeValue()
+    {
+        return mode;
+    }
+
+
+    /**
+     * Heading change since the previous fix. Bearing is only meaningful while
+     * moving, so 0 if either fix is still.
+     *
+     * @return in degree.s-1
+     */
+    private float getTurnRate(long elapsedRealtimeNanos, float speed, float bearing)
+    {
+        if ((hasLastFix == false) || (lastSpeed < STILL_SPEED) || (speed < STILL_SPEED) || (elapsedRealtimeNanos <= lastNanos))
+        {
+            return 0.0f;
+        }
+
+        float turn = Math.abs(bearing - lastBearing) % 360.0f;
+        if (turn > 180.0f)
+        {
+            turn = 360.0f - turn;
+        }
+        return turn / ((elapsedRealtimeNanos - lastNanos) / 1000000000.0f);
+    }
+}
@@ -0,0 +1,87 @@
+/**
+ * 
+ * AndroidRun, basic runner's android application. Calculates distance, speed
+ * and other usefull values taken from GPS device.
+ * 
+ * Copyright (C) 2014 Bruno Vedder
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ * 
+ */
+
+package fr.asterope;
+
+
+/**
+ * Neumaier compensated summation : the rounding error of each addition is
+ * accumulated apart and added back at the end, so that long sums of small
+ * segments don't drift.
+ *
+ * @author bruno
+ */
+final class CompensatedSum
+{
+
+    private double sum = 0.0;
+    private double compensation = 0.0;
+
+
+    /**
+     * Add a value.
+     *
+     * @param value : value to add.
+     */
+    void add(double value)
+    {
+        double total = sum + value;
+        compensation += error(sum, value, total);
+        sum = total;
+    }
+
+
+    /**
+     * Back to zero.
+     */
+    void reset()
+    {
+        sum = 0.0;
+        compensation = 0.0;
+    }
+
+
+    /**
+     * Compensated sum getter.
+     *
+     * @return sum of the values added.
+     */
+    double get()
+    {
+        return sum + compensation;
+    }
+
+
+    /**
+     * Rounding error of an addition, for sums kept in arrays.
+     *
+     * @param sum : sum before the addition.
+     * @param value : value added.
+     * @param total : sum + value, as rounded.
+     * @return error to add to the compensation.
+     */
+    static double error(double sum, double value, double total)
+    {
+        return (Math.abs(sum) >= Math.abs(value)) ? (sum - total) + value : (value - total) + sum;
+    }
+}
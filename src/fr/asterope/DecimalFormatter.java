@@ -0,0 +1,226 @@
+/**
+ * 
+ * AndroidRun, basic runner's android application. Calculates distance, speed
+ * and other usefull values taken from GPS device.
+ * 
+ * Copyright (C) 2014 Bruno Vedder
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ * 
+ */
+
+package fr.asterope;
+
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+
+
+/**
+ * Format numbers into a StringBuilder like String.format does with "%w.pf",
+ * "%d" and "%0wd", without parsing a format string nor boxing the arguments.
+ *
+ * Doubles are scaled by 10^p and rounded half up, which gives the same digits
+ * as java.util.Formatter unless the scaled value is within a few ulps of a
+ * tie, or too large to be exact. Those values, non finite values, and
+ * locales with non ASCII digits are handed to String.format, so the output is
+ * always the same as String.format with the same locale, decimal separator and
+ * "-0.00" included.
+ *
+ * Not thread safe : use one instance per thread.
+ *
+ * @author bruno
+ */
+public final class DecimalFormatter
+{
+
+    static final public int MAX_PRECISION = 9;
+
+    static final private double MAX_EXACT_SCALED = 1e15;
+    static final private double TIE_MARGIN_ULPS = 8.0;
+
+    static final private long[] POWERS_OF_TEN =
+    {
+        1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L
+    };
+
+    private final Locale locale;
+    private final char decimalSeparator;
+    private final boolean asciiDigits;
+    private final char[] scratch = new char[32];
+
+
+    /**
+     * Constructor, with the default locale.
+     */
+    public DecimalFormatter()
+    {
+        this(Locale.getDefault());
+    }
+
+
+    /**
+     * Constructor.
+     *
+     * @param locale : locale giving the decimal separator.
+     */
+    public DecimalFormatter(Locale locale)
+    {
+        this.locale = locale;
+        DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance(locale);
+        decimalSeparator = symbols.getDecimalSeparator();
+        asciiDigits = (symbols.getZeroDigit() == '0');
+    }
+
+
+    /**
+     * Append a double as "%w.pf" would.
+     *
+     * @param out : destination.
+     * @param value : value to format.
+     * @param width : minimum width, left padded with spaces, 0 for none.
+     * @param precision : number of decimals, up to MAX_PRECISION.
+     * @return out.
+     */
+    public StringBuilder append(StringBuilder out, double value, int width, int precision)
+    {
+        if ((asciiDigits == false) || (precision < 0) || (precision > MAX_PRECISION)
+                || (Double.isNaN(value) == true) || (Double.isInfinite(value) == true))
+        {
+            return appendSlow(out, value, width, precision);
+        }
+
+        // Sign bit : -0.0 gives "-0.00" as with String.format.
+        boolean negative = (Double.doubleToRawLongBits(value) < 0);
+        double scaled = Math.abs(value) * POWERS_OF_TEN[precision];
+        if (scaled >= MAX_EXACT_SCALED)
+        {
+            return appendSlow(out, value, width, precision);
+        }
+
+        double floor = Math.floor(scaled);
+        double fraction = scaled - floor;
+        if (Math.abs(fraction - 0.5) <= TIE_MARGIN_ULPS * Math.ulp(scaled))
+        {
+            return appendSlow(out, value, width, precision);
+        }
+
+        long rounded = (long) floor + ((fraction > 0.5) ? 1 : 0);
+
+        // Digits are written backward from the end of scratch.
+        int pos = scratch.length;
+        for (int i = 0; i < precision; i++)
+        {
+            scratch[--pos] = (char) ('0' + (rounded % 10));
+            rounded /= 10;
+        }
+        if (precision > 0)
+        {
+            scratch[--pos] = decimalSeparator;
+        }
+        pos = putDigits(rounded, pos);
+        if (negative == true)
+        {
+            scratch[--pos] = '-';
+        }
+
+        return appendScratch(out, pos, width, ' ');
+    }
+
+
+    /**
+     * Append a long as "%d" would.
+     *
+     * @param out : destination.
+     * @param value : value to format.
+     * @return out.
+     */
+    public StringBuilder append(StringBuilder out, long value)
+    {
+        return append(out, value, 0, false);
+    }
+
+
+    /**
+     * Append a long as "%wd" or "%0wd" would.
+     *
+     * @param out : destination.
+     * @param value : value to format.
+     * @param width : minimum width, 0 for none.
+     * @param zeroPad : true to pad with zeros, false with spaces.
+     * @return out.
+     */
+    public StringBuilder append(StringBuilder out, long value, int width, boolean zeroPad)
+    {
+        if ((asciiDigits == false) || (value == Long.MIN_VALUE) || ((zeroPad == true) && (value < 0)))
+        {
+            String format = (width > 0) ? ("%" + (zeroPad ? "0" : "") + width + "d") : "%d";
+            return out.append(String.format(locale, format, value));
+        }
+
+        int pos = putDigits(Math.abs(value), scratch.length);
+        if (value < 0)
+        {
+            scratch[--pos] = '-';
+        }
+
+        return appendScratch(out, pos, width, zeroPad ? '0' : ' ');
+    }
+
+
+    /**
+     * Locale getter.
+     *
+     * @return locale of the formatter.
+     */
+    public Locale getLocale()
+    {
+        return locale;
+    }
+
+
+    /**
+     * Write the digits of a positive value backward, at least one digit.
+     *
+     * @return position of the first digit.
+     */
+    private int putDigits(long value, int pos)
+    {
+        do
+        {
+            scratch[--pos] = (char) ('0' + (value % 10));
+            value /= 10;
+        }
+        while (value != 0);
+
+        return pos;
+    }
+
+
+    private StringBuilder appendScratch(StringBuilder out, int pos, int width, char pad)
+    {
+        for (int i = scratch.length - pos; i < width; i++)
+        {
+            out.append(pad);
+        }
+        return out.append(scratch, pos, scratch.length - pos);
+    }
+
+
+    private StringBuilder appendSlow(StringBuilder out, double value, int width, int precision)
+    {
+        String format = "%" + ((width > 0) ? Integer.toString(width) : "") + "." + precision + "f";
+        return out.append(String.format(locale, format, value));
+    }
+}
@@ -0,0 +1,223 @@
+/**
+ * 
+ * AndroidRun, basic runner's android application. Calculates distance, speed
+ * and other usefull values taken from GPS device.
+ * 
+ * Copyright (C) 2014 Bruno Vedder
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ * 
+ */
+
+package fr.asterope;
+
+/**
+ * Parse decimal numbers straight from ASCII bytes, without creating any
+ * String.
+ *
+ * Numbers with at most 2^53 as significand and a power of ten up to 22 (the
+ * GPS outputs we read have 6 to 10 decimals) are converted with one exact
+ * multiplication or division, which gives the correctly rounded value. Other
+ * numbers are handed to Double.parseDouble, so the result is always the same
+ * as Double.parseDouble.
+ *
+ * '.' and ',' are both accepted as decimal separator.
+ *
+ * @author bruno
+ */
+final class DecimalParser
+{
+
+    static final private long MAX_EXACT_SIGNIFICAND = 1L << 53;
+
+    // Powers of ten exactly represented as double.
+    static final private double[] POWERS_OF_TEN =
+    {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+
+    private DecimalParser()
+    {
+    }
+
+
+    /**
+     * Parse the number written in buffer[start, end[.
+     *
+     * @param buffer : ASCII bytes.
+     * @param start : index of the first character.
+     * @param end : index after the last character.
+     * @return parsed value.
+     * @throws NumberFormatException if the bytes aren't a number.
+     */
+    static double parse(byte[] buffer, int start, int end)
+    {
+        int i = start;
+        boolean negative = false;
+
+        if (i < end && (buffer[i] == '-' || buffer[i] == '+'))
+        {
+            negative = (buffer[i] == '-');
+            i++;
+        }
+
+        long significand = 0;
+        int exponent = 0;           // Power of ten applied to significand.
+        int digits = 0;
+        boolean exact = true;
+
+        // Integer part.
+        while (i < end && buffer[i] >= '0' && buffer[i] <= '9')
+        {
+            if (significand < MAX_EXACT_SIGNIFICAND / 10)
+            {
+                significand = significand * 10 + (buffer[i] - '0');
+            }
+            else
+            {
+                exact = false;
+            }
+            digits++;
+            i++;
+        }
+
+        // Fractional part.
+        if (i < end && (buffer[i] == '.' || buffer[i] == ','))
+        {
+            i++;
+            while (i < end && buffer[i] >= '0' && buffer[i] <= '9')
+            {
+                if (significand < MAX_EXACT_SIGNIFICAND / 10)
+                {
+                    significand = significand * 10 + (buffer[i] - '0');
+                    exponent--;
+                }
+                else if (buffer[i] != '0')
+                {
+                    exact = false;
+                }
+                digits++;
+                i++;
+            }
+        }
+
+        if (digits == 0)
+        {
+            return slowParse(buffer, start, end);
+        }
+
+        // Exponent.
+        if (i < end && (buffer[i] == 'e' || buffer[i] == 'E'))
+        {
+            i++;
+            boolean negativeExponent = false;
+            if (i < end && (buffer[i] == '-' || buffer[i] == '+'))
+            {
+                negativeExponent = (buffer[i] == '-');
+                i++;
+            }
+
+            int exp = 0;
+            int expDigits = 0;
+            while (i < end && buffer[i] >= '0' && buffer[i] <= '9')
+            {
+                if (exp < 10000)
+                {
+                    exp = exp * 10 + (buffer[i] - '0');
+                }
+                expDigits++;
+                i++;
+            }
+
+            if (expDigits == 0)
+            {
+                return slowParse(buffer, start, end);
+            }
+            exponent += negativeExponent ? -exp : exp;
+        }
+
+        if ((i != end) || (exact == false) || (exponent < -22) || (exponent > 22))
+        {
+            return slowParse(buffer, start, end);
+        }
+
+        double value = (double) significand;
+        if (exponent < 0)
+        {
+            value = value / POWERS_OF_TEN[-exponent];
+        }
+        else
+        {
+            value = value * POWERS_OF_TEN[exponent];
+        }
+        return negative ? -value : value;
+    }
+
+
+    /**
+     * Find the next token in buffer[start, end[. Tokens are separated by
+     * spaces, tabulations or the given separator.
+     *
+     * @param buffer : ASCII bytes.
+     * @param start : where to start looking.
+     * @param end : index after the last character.
+     * @param separator : extra separator character, 0 for none.
+     * @return index of the first character of the token, end if none.
+     */
+    static int skipSeparators(byte[] buffer, int start, int end, byte separator)
+    {
+        while (start < end && (buffer[start] == ' ' || buffer[start] == '\t' || (separator != 0 && buffer[start] == separator)))
+        {
+            start++;
+        }
+        return start;
+    }
+
+
+    /**
+     * Find the end of the token starting at start.
+     *
+     * @param buffer : ASCII bytes.
+     * @param start : first character of the token.
+     * @param end : index after the last character.
+     * @param separator : extra separator character, 0 for none.
+     * @return index after the last character of the token.
+     */
+    static int tokenEnd(byte[] buffer, int start, int end, byte separator)
+    {
+        while (start < end && buffer[start] != ' ' && buffer[start] != '\t' && (separator == 0 || buffer[start] != separator))
+        {
+            start++;
+        }
+        return start;
+    }
+
+
+    /**
+     * Rare path : let Double.parseDouble handle it (and reject it).
+     */
+    private static double slowParse(byte[] buffer, int start, int end)
+    {
+        char[] chars = new char[end - start];
+        for (int i = 0; i < chars.length; i++)
+        {
+            char c = (char) (buffer[start + i] & 0xFF);
+            chars[i] = (c == ',') ? '.' : c;
+        }
+        return Double.parseDouble(new String(chars));
+    }
+}
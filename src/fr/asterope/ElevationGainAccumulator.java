@@ -0,0 +1,145 @@
+/**
+ * 
+ * AndroidRun, basic runner's android application. Calculates distance, speed
+ * and other usefull values taken from GPS device.
+ * 
+ * Copyright (C) 2014 Bruno Vedder
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ * 
+ */
+
+package fr.asterope;
+
+
+/**
+ * Cumulated ascent and descent of a run, from the raw altitudes of the
+ * location updates.
+ *
+ * MAX_ELEVATION_DELTA_PER_SECOND is used to skip false values. False value
+ * occurs when the satellite number reach 4, the minimal number in order to get
+ * altitude. Before altitude was 0, and after the altitude is the altitude of
+ * your location. This cause an artificial elevation gain that we need to skip.
+ *
+ * @author bruno
+ */
+public class ElevationGainAccumulator
+{
+
+    static final public double MAX_ELEVATION_DELTA_PER_SECOND = 5.0;
+
+    private double lastAltitude = -1.0f;        // -1.0f means non initialised.
+    private float ascent = 0.0f;                // positive elevation gain in m.
+    private float descent = 0.0f;               // negative elevation gain in m.
+
+
+    /**
+     * Compute elevation gain, based on altitude received on location update.
+     *
+     * @param alt : raw altitude received in Location oject.
+     * @param deltaT: delta time between two measures in seconds.
+     */
+    public void update(double alt, float deltaT)
+    {
+        // Check for infinity / NaN values.
+        if (Double.isInfinite(alt) || Double.isNaN(alt) || (alt < 0.0))
+        {
+            return;
+        }
+
+        // lastAltitude first value is -1.0, meaning never updated, so update it once with alt value.
+        if (lastAltitude > 0.0)
+        {
+            // We already have an averaged altitude value, we can compute elevation gain.
+            double deltaH = alt - lastAltitude;
+
+            // Basic check on delta elevation : No more  than a max value per second.
+            if ((Math.abs(deltaH) / deltaT) <= MAX_ELEVATION_DELTA_PER_SECOND)
+            {
+                if (deltaH < 0)
+                {
+                    // descent only cumulates negatives values.
+                    descent += deltaH;
+                }
+                else
+                {
+                    // ascent only cumulates positives values.
+                    ascent += deltaH;
+                }
+            }
+        }
+
+        lastAltitude = alt;
+    }
+
+
+    /**
+     * Back to a new run.
+     */
+    public void reset()
+    {
+        lastAltitude = -1.0f;
+        ascent = 0.0f;
+        descent = 0.0f;
+    }
+
+
+    /**
+     * Restore a saved state.
+     *
+     * @param lastAlt : last altitude, -1.0 if none.
+     * @param asc : ascent in m.
+     * @param desc : descent in m.
+     */
+    public void restore(double lastAlt, float asc, float desc)
+    {
+        lastAltitude = lastAlt;
+        ascent = asc;
+        descent = desc;
+    }
+
+
+    /**
+     * Last altitude getter.
+     *
+     * @return last altitude taken into account, -1.0 if none.
+     */
+    public double getLastAltitude()
+    {
+        return lastAltitude;
+    }
+
+
+    /**
+     * Ascent getter.
+     *
+     * @return positive elevation gain in m.
+     */
+    public float getAscent()
+    {
+        return ascent;
+    }
+
+
+    /**
+     * Descent getter.
+     *
+     * @return negative elevation gain in m.
+     */
+    public float getDescent()
+    {
+        return descent;
+    }
+}
@@ -24,36 +24,174 @@
 package fr.asterope;
 
 import android.os.Environment;
+import java.io.BufferedWriter;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 
 /**
+ * Log file on the external storage.
+ *
+ * In synchronous mode (default), each write opens, appends and closes the
+ * file. In asynchronous mode, write only queues the line : a writer thread
+ * keeps the file open and batches lines into a large buffer, written every
+ * FLUSH_SIZE characters or FLUSH_DELAY_MS milliseconds, whichever comes first,
+ * or when flush() / close() are called.
+ *
+ * An asynchronous logger may also get location updates as records, through a
+ * lock-free ring buffer : the caller doesn't allocate nor format anything, the
+ * writer thread formats the OLC lines. Records may instead be written to a
+ * binary OLC record file next to the log (see OlcRecordWriter), the OLC lines
+ * being produced on demand by OlcRecordReader.
+ *
+ * With a rotation policy, the asynchronous logfile is renamed as a numbered
+ * segment when it gets too large or too old, and compressed by a background
+ * thread (see LogSegments). The writer thread only renames the file. With a
+ * binary record file, the records are not rotated and the event log, only a
+ * few lines, is rotated on its size only.
+ *
+ * Write latency, throughput, failures and queue depth are counted in
+ * LoggerMetrics, see getMetrics(). An asynchronous logger may also write them
+ * into the log periodically.
  *
  * @author bruno
  */
 public class ExternalFileLogger
 {
 
+    static final public int FLUSH_SIZE = 16 * 1024;            // in characters.
+    static final public long FLUSH_DELAY_MS = 5000;
+    static final private int BUFFER_SIZE = 64 * 1024;
+    static final private int QUEUE_CAPACITY = 4096;
+    static final private long CLOSE_TIMEOUT_MS = 2000;
+
     private File logFile = null;
     private boolean logFileReady = false;
     private String filename = null;
 
+    // Owned by the writer thread in asynchronous mode.
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("HH:mm:ss");
+    private final Date date = new Date();
+    private final LogRecord drainedRecord = new LogRecord();
+    private final DecimalFormatter recordFormatter = new DecimalFormatter();
+    private final StringBuilder recordLine = new StringBuilder(256);
+    private char[] recordChars = new char[256];
+    private OlcRecordWriter recordWriter = null;
+    private long activeBytes = 0;                   // Size of the logfile.
+    private long activeOpenedAt = 0;
+    private int nextSegment = -1;                   // -1 until the directory is scanned.
+    private ExecutorService compressor = null;
+
+    private final boolean async;
+    private BlockingQueue<LogLine> queue = null;
+    private LogRecordRingBuffer records = null;
+    private String[] stateLabels = null;
+    private String recordFilename = null;
+    private Thread writerThread = null;
+    private volatile IOException writerFailure = null;
+    private volatile boolean flushRequested = false;
+    private volatile boolean closed = false;
+    private volatile LogRotationPolicy rotationPolicy = null;
+    private volatile long rotationCount = 0;
+    private volatile long compressionFailures = 0;
+    private final LoggerMetrics metrics = new LoggerMetrics();
+    private volatile long metricsIntervalMs = 0;
+
 
     /**
-     * Constructor
+     * Constructor, synchronous logger.
      *
      * @param filename : filename of the logfile.
      */
     public ExternalFileLogger(String fileName)
+    {
+        this(fileName, false);
+    }
+
+
+    /**
+     * Constructor
+     *
+     * @param filename : filename of the logfile.
+     * @param async : true to write from a dedicated thread.
+     */
+    public ExternalFileLogger(String fileName, boolean async)
     {
         filename = fileName;
-        generateLogFile();
+        this.async = async;
+
+        if (async == true)
+        {
+            queue = new ArrayBlockingQueue<LogLine>(QUEUE_CAPACITY);
+            startWriter();
+        }
+        else
+        {
+            generateLogFile();
+        }
+    }
+
+
+    /**
+     * Constructor, asynchronous logger receiving records.
+     *
+     * @param filename : filename of the logfile.
+     * @param records : ring buffer records are written to, see writeRecord.
+     * @param stateLabels : label of each record state code.
+     */
+    public ExternalFileLogger(String fileName, LogRecordRingBuffer records, String[] stateLabels)
+    {
+        this(fileName, records, stateLabels, null);
+    }
+
+
+    /**
+     * Constructor, asynchronous logger writing records into a binary record
+     * file.
+     *
+     * @param filename : filename of the logfile.
+     * @param records : ring buffer records are written to, see writeRecord.
+     * @param stateLabels : label of each record state code.
+     * @param recordFileName : filename of the binary record file, null to
+     * write OLC lines into the logfile.
+     */
+    public ExternalFileLogger(String fileName, LogRecordRingBuffer records, String[] stateLabels, String recordFileName)
+    {
+        filename = fileName;
+        async = true;
+        queue = new ArrayBlockingQueue<LogLine>(QUEUE_CAPACITY);
+        this.records = records;
+        this.stateLabels = stateLabels.clone();
+        recordFilename = recordFileName;
+        startWriter();
+    }
+
+
+    private void startWriter()
+    {
+        writerThread = new Thread(new Runnable()
+        {
+            public void run()
+            {
+                drain();
+            }
+        }, "ExternalFileLogger");
+        writerThread.setDaemon(true);
+        writerThread.start();
     }
 
 
@@ -63,6 +201,7 @@ public class ExternalFileLogger
      */
     private void generateLogFile()
     {
+        long start = System.nanoTime();
         if (isExternalStorageWritable() == true)
         {
             try
@@ -79,6 +218,7 @@ public class ExternalFileLogger
         {
             logFileReady = false;
         }
+        metrics.addLogFileAttempt(System.nanoTime() - start, logFileReady);
     }
 
 
@@ -88,23 +228,648 @@ public class ExternalFileLogger
      * 
      * @param msg: message to log.
      * @throws java.io.FileNotFoundException
+     * @throws IOException if the write failed, or in asynchronous mode if the
+     * logger is closed or the line was dropped, the queue being full.
      */
     public void write(String msg) throws FileNotFoundException, IOException
+    {
+        long start = System.nanoTime();
+        try
+        {
+            if (async == true)
+            {
+                enqueue(msg);
+                return;
+            }
+
+            if (logFileReady == false)
+            {
+                generateLogFile();
+            }
+
+            if (logFileReady == true)
+            {
+                FileOutputStream outFile = new FileOutputStream(logFile, true);
+                OutputStreamWriter ofw = new OutputStreamWriter(outFile);
+                writeLine(ofw, System.currentTimeMillis(), msg);
+                ofw.close();
+            }
+        }
+        catch (IOException e)
+        {
+            metrics.addFailedWrite();
+            throw e;
+        }
+        finally
+        {
+            metrics.addWrite(System.nanoTime() - start);
+        }
+    }
+
+
+    /**
+     * Log a location update. The record is copied into the ring buffer,
+     * following its overflow policy, and formatted by the writer thread.
+     * Single producer : always call from the same thread.
+     *
+     * @param record : record to log, may be reused after the call.
+     * @return false if the record was dropped.
+     * @throws IOException if the logger is closed, or the writer thread
+     * failed.
+     */
+    public boolean writeRecord(LogRecord record) throws IOException
+    {
+        if (records == null)
+        {
+            throw new IOException("Log file " + filename + " doesn't accept records.");
+        }
+        if (closed == true)
+        {
+            metrics.addFailedWrite();
+            throw new IOException("Log file " + filename + " is closed.");
+        }
+
+        long start = System.nanoTime();
+        boolean published = records.offer(record);
+        LockSupport.unpark(writerThread);
+        metrics.sampleQueueDepth(getQueueDepth());
+        metrics.addWrite(System.nanoTime() - start);
+        checkWriterFailure();
+        return published;
+    }
+
+
+    /**
+     * Log a location update, without exception.
+     *
+     * @param record : record to log.
+     * @return true if the record was queued, false otherwise.
+     */
+    public boolean safeWriteRecord(LogRecord record)
+    {
+        try
+        {
+            return writeRecord(record);
+        }
+        catch (IOException e)
+        {
+            return false;
+        }
+    }
+
+
+    /**
+     * Ask the writer thread to write buffered lines now, without waiting for
+     * it. Does nothing in synchronous mode.
+     */
+    public void flush()
+    {
+        if ((async == true) && (closed == false))
+        {
+            flushRequested = true;
+            LockSupport.unpark(writerThread);
+        }
+    }
+
+
+    /**
+     * Write pending lines and close the file. Waits for the writer thread at
+     * most CLOSE_TIMEOUT_MS milliseconds. Further writes fail.
+     */
+    public void close()
+    {
+        if ((async == false) || (closed == true))
+        {
+            return;
+        }
+        closed = true;
+        LockSupport.unpark(writerThread);
+
+        try
+        {
+            writerThread.join(CLOSE_TIMEOUT_MS);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    /**
+     * Set the rotation policy of the logfile. Asynchronous mode only.
+     *
+     * @param policy : rotation policy, null for a single unbounded file.
+     */
+    public void setRotationPolicy(LogRotationPolicy policy)
+    {
+        if (async == false)
+        {
+            throw new IllegalStateException("Log rotation requires the asynchronous mode.");
+        }
+        rotationPolicy = policy;
+    }
+
+
+    /**
+     * Number of segments rotated by this logger.
+     *
+     * @return rotation count.
+     */
+    public long getRotationCount()
+    {
+        return rotationCount;
+    }
+
+
+    /**
+     * Number of segments that couldn't be compressed. They are left
+     * uncompressed.
+     *
+     * @return compression failure count.
+     */
+    public long getCompressionFailures()
+    {
+        return compressionFailures;
+    }
+
+
+    /**
+     * Number of lines dropped because the writer thread couldn't keep up.
+     *
+     * @return dropped line count.
+     */
+    public long getDroppedLines()
+    {
+        return metrics.getDroppedLines();
+    }
+
+
+    /**
+     * Write the logger metrics into the log every interval. Asynchronous mode
+     * only.
+     *
+     * @param intervalMs : interval in ms, 0 for never.
+     */
+    public void setMetricsInterval(long intervalMs)
+    {
+        if (async == false)
+        {
+            throw new IllegalStateException("Metrics dump requires the asynchronous mode.");
+        }
+        metricsIntervalMs = intervalMs;
+        LockSupport.unpark(writerThread);
+    }
+
+
+    /**
+     * Metrics getter.
+     *
+     * @return metrics of this logger, updated live.
+     */
+    public LoggerMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+
+    /**
+     * Lines and records waiting for the writer thread.
+     *
+     * @return queue depth, 0 in synchronous mode.
+     */
+    public int getQueueDepth()
+    {
+        if (async == false)
+        {
+            return 0;
+        }
+        return queue.size() + ((records != null) ? records.size() : 0);
+    }
+
+
+    /**
+     * Asynchronous mode getter.
+     *
+     * @return true if lines are written by a dedicated thread.
+     */
+    public boolean isAsync()
+    {
+        return async;
+    }
+
+
+    /**
+     * Queue a line for the writer thread.
+     */
+    private void enqueue(String msg) throws IOException
+    {
+        if (closed == true)
+        {
+            throw new IOException("Log file " + filename + " is closed.");
+        }
+
+        long recordSequence = (records != null) ? records.getWriteSequence() : 0;
+        boolean queued = queue.offer(new LogLine(System.currentTimeMillis(), msg, recordSequence));
+        LockSupport.unpark(writerThread);
+        metrics.sampleQueueDepth(getQueueDepth());
+        checkWriterFailure();
+        if (queued == false)
+        {
+            metrics.addDroppedLine();
+            throw new IOException("Log file " + filename + " : queue full, line dropped.");
+        }
+    }
+
+
+    /**
+     * A failure of the writer thread is reported (once) to the next caller.
+     */
+    private void checkWriterFailure() throws IOException
+    {
+        IOException failure = writerFailure;
+        if (failure != null)
+        {
+            writerFailure = null;
+            throw failure;
+        }
+    }
+
+
+    /**
+     * Writer thread loop : append queued lines and records to the open file,
+     * in call order, flush by size, by delay, or on request. Lines remember
+     * how many records were published before them.
+     */
+    private void drain()
+    {
+        Writer out = null;
+        long pending = 0;           // Characters written since last flush.
+        long lastFlush = System.currentTimeMillis();
+        long lastMetrics = lastFlush;
+        boolean recordPending = false;
+
+        while (true)
+        {
+            // Read closed first : everything queued before close() is written.
+            boolean closing = closed;
+            boolean flushNow = flushRequested;
+            boolean idle = false;
+
+            try
+            {
+                if ((recordPending == false) && (records != null))
+                {
+                    recordPending = records.poll(drainedRecord);
+                }
+
+                LogLine line = queue.peek();
+                if ((line != null) && ((recordPending == false) || (line.recordSequence <= records.getLastReadSequence())))
+                {
+                    queue.poll();
+                    if (out == null)
+                    {
+                        out = openLogFile();
+                    }
+                    if (out != null)
+                    {
+                        pending += writeLine(out, line.time, line.msg);
+                    }
+                }
+                else if ((recordPending == true) && (recordFilename != null))
+                {
+                    recordPending = false;
+                    if (recordWriter == null)
+                    {
+                        recordWriter = openRecordFile();
+                    }
+                    if (recordWriter != null)
+                    {
+                        recordWriter.onRecord(drainedRecord);
+                        pending += OlcRecordFormat.RECORD_SIZE;
+                        metrics.addRecord(OlcRecordFormat.RECORD_SIZE);
+                    }
+                }
+                else if (recordPending == true)
+                {
+                    recordPending = false;
+                    if (out == null)
+                    {
+                        out = openLogFile();
+                    }
+                    if (out != null)
+                    {
+                        recordLine.setLength(0);
+                        drainedRecord.appendTo(recordLine, recordFormatter, stateLabels);
+                        pending += writeLine(out, drainedRecord.time, recordLine);
+                        metrics.addRecord(0);
+                    }
+                }
+                else
+                {
+                    idle = true;
+                }
+
+                long now = System.currentTimeMillis();
+                LogRotationPolicy policy = rotationPolicy;
+                if ((out != null) && (policy != null) && (isRotationDue(policy, now) == true))
+                {
+                    out.close();
+                    out = null;
+                    rotate(now);
+                }
+
+                long interval = metricsIntervalMs;
+                if ((interval > 0) && (now - lastMetrics >= interval))
+                {
+                    lastMetrics = now;
+                    if (out == null)
+                    {
+                        out = openLogFile();
+                    }
+                    if (out != null)
+                    {
+                        pending += writeMetrics(out, now);
+                    }
+                }
+
+                if ((pending >= FLUSH_SIZE) || ((pending > 0) && (now - lastFlush >= FLUSH_DELAY_MS)))
+                {
+                    flushNow = true;
+                }
+
+                // Explicit flush and close only once all queued data is written.
+                if ((flushNow == true) && ((idle == true) || (pending >= FLUSH_SIZE)))
+                {
+                    long start = System.nanoTime();
+                    if (out != null)
+                    {
+                        out.flush();
+                    }
+                    if (recordWriter != null)
+                    {
+                        recordWriter.flush();
+                    }
+                    metrics.addFlush(System.nanoTime() - start);
+                    if (idle == true)
+                    {
+                        flushRequested = false;
+                    }
+                    pending = 0;
+                    lastFlush = now;
+                }
+            }
+            catch (IOException e)
+            {
+                // Lines of the current batch are lost. Reopen on next line.
+                writerFailure = e;
+                metrics.addFailedWrite();
+                closeQuietly(out);
+                closeQuietly(recordWriter);
+                out = null;
+                recordWriter = null;
+                logFileReady = false;
+                pending = 0;
+            }
+
+            if (idle == true)
+            {
+                if (closing == true)
+                {
+                    break;
+                }
+
+                long interval = metricsIntervalMs;
+                long wakeUp = (pending > 0) ? lastFlush + FLUSH_DELAY_MS : Long.MAX_VALUE;
+                if (interval > 0)
+                {
+                    wakeUp = Math.min(wakeUp, lastMetrics + interval);
+                }
+
+                if (wakeUp != Long.MAX_VALUE)
+                {
+                    LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(Math.max(1, wakeUp - System.currentTimeMillis())));
+                }
+                else
+                {
+                    LockSupport.park(this);
+                }
+            }
+        }
+
+        if ((records != null) && (records.getDroppedCount() > 0) && (out != null))
+        {
+            try
+            {
+                writeLine(out, System.currentTimeMillis(), "Dropped records : " + records.getDroppedCount());
+            }
+            catch (IOException e)
+            {
+                writerFailure = e;
+            }
+        }
+        if ((metricsIntervalMs > 0) && (out != null))
+        {
+            try
+            {
+                writeMetrics(out, System.currentTimeMillis());
+            }
+            catch (IOException e)
+            {
+                writerFailure = e;
+            }
+        }
+        closeQuietly(out);
+        closeQuietly(recordWriter);
+        recordWriter = null;
+
+        if (compressor != null)
+        {
+            // Queued compressions complete in the background.
+            compressor.shutdown();
+        }
+    }
+
+
+    /**
+     * With a record file, the event log is only rotated on its size : the
+     * records aren't rotated, and a segment per period would only hold a few
+     * lines.
+     */
+    private boolean isRotationDue(LogRotationPolicy policy, long now)
+    {
+        if (recordFilename != null)
+        {
+            return policy.isSizeLimitReached(activeBytes);
+        }
+        return policy.isRotationDue(activeBytes, activeOpenedAt, now);
+    }
+
+
+    /**
+     * Rename the closed logfile as the next segment, and queue its
+     * compression. The next line opens a new logfile.
+     */
+    private void rotate(long now)
+    {
+        if (nextSegment < 0)
+        {
+            nextSegment = LogSegments.nextIndex(logFile);
+        }
+
+        final File segment = new File(logFile.getParentFile(), LogSegments.segmentName(logFile.getName(), nextSegment));
+        if (logFile.renameTo(segment) == false)
+        {
+            // Keep appending, retry after another period.
+            activeOpenedAt = now;
+            activeBytes = 0;
+            return;
+        }
+        nextSegment++;
+        rotationCount++;
+
+        if (compressor == null)
+        {
+            compressor = Executors.newSingleThreadExecutor(new ThreadFactory()
+            {
+                public Thread newThread(Runnable r)
+                {
+                    Thread t = new Thread(r, "ExternalFileLogger-gzip");
+                    t.setDaemon(true);
+                    t.setPriority(Thread.MIN_PRIORITY);
+                    return t;
+                }
+            });
+        }
+
+        compressor.execute(new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    LogSegments.compress(segment);
+                }
+                catch (IOException e)
+                {
+                    compressionFailures++;
+                }
+            }
+        });
+    }
+
+
+    /**
+     * Open the binary record file in append mode, null if the storage is
+     * unavailable.
+     */
+    private OlcRecordWriter openRecordFile() throws IOException
+    {
+        if (isExternalStorageWritable() == true)
+        {
+            File recordFile = new File(Environment.getExternalStorageDirectory(), recordFilename);
+            return new OlcRecordWriter(recordFile.getPath(), stateLabels);
+        }
+        return null;
+    }
+
+
+    /**
+     * Open the log file in append mode, null if the storage is unavailable.
+     */
+    private Writer openLogFile() throws IOException
     {
         if (logFileReady == false)
         {
             generateLogFile();
         }
-        
+
         if (logFileReady == true)
         {
-            SimpleDateFormat sdf = new SimpleDateFormat("HH:mm:ss");
-            String now = sdf.format(new Date());
+            activeBytes = logFile.length();
+            activeOpenedAt = System.currentTimeMillis();
+            return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(logFile, true)), BUFFER_SIZE);
+        }
+        return null;
+    }
+
+
+    /**
+     * Write a line prepended with its time.
+     *
+     * @return number of characters written.
+     */
+    private int writeLine(Writer out, long time, String msg) throws IOException
+    {
+        date.setTime(time);
+        String now = dateFormat.format(date);
+
+        out.write(now);
+        out.write(" : ");
+        out.write(msg);
+        out.write('\n');
+
+        int written = now.length() + msg.length() + 4;
+        activeBytes += written;
+        metrics.addLine(written);
+        return written;
+    }
+
+
+    /**
+     * Write a line held in a StringBuilder, without copying it into a String.
+     *
+     * @return number of characters written.
+     */
+    private int writeLine(Writer out, long time, StringBuilder msg) throws IOException
+    {
+        int length = msg.length();
+        if (recordChars.length < length)
+        {
+            recordChars = new char[length * 2];
+        }
+        msg.getChars(0, length, recordChars, 0);
 
-            FileOutputStream outFile = new FileOutputStream(logFile, true);
-            OutputStreamWriter ofw = new OutputStreamWriter(outFile);
-            ofw.write(now + " : " + msg + "\n");
-            ofw.close();
+        date.setTime(time);
+        String now = dateFormat.format(date);
+
+        out.write(now);
+        out.write(" : ");
+        out.write(recordChars, 0, length);
+        out.write('\n');
+
+        int written = now.length() + length + 4;
+        activeBytes += written;
+        metrics.addLine(written);
+        return written;
+    }
+
+
+    /**
+     * Write the metrics line.
+     *
+     * @return number of characters written.
+     */
+    private int writeMetrics(Writer out, long time) throws IOException
+    {
+        recordLine.setLength(0);
+        metrics.appendTo(recordLine, getQueueDepth(), (records != null) ? records.getDroppedCount() : 0);
+        return writeLine(out, time, recordLine);
+    }
+
+
+    private static void closeQuietly(Closeable out)
+    {
+        if (out != null)
+        {
+            try
+            {
+                out.close();
+            }
+            catch (IOException e)
+            {
+                // Nothing more to do.
+            }
         }
     }
 
@@ -139,4 +904,24 @@ public class ExternalFileLogger
         String state = Environment.getExternalStorageState();
         return Environment.MEDIA_MOUNTED.equals(state);
     }
+
+
+    /**
+     * Queued line.
+     */
+    private static final class LogLine
+    {
+
+        final long time;
+        final String msg;
+        final long recordSequence;      // Records published before this line.
+
+
+        LogLine(long time, String msg, long recordSequence)
+        {
+            this.time = time;
+            this.msg = msg;
+            this.recordSequence = recordSequence;
+        }
+    }
 }
@@ -0,0 +1,78 @@
+/**
+ * 
+ * AndroidRun, basic runner's android application. Calculates distance, speed
+ * and other usefull values taken from GPS device.
+ * 
+ * Copyright (C) 2014 Bruno Vedder
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ * 
+ */
+
+package fr.asterope;
+
+
+/**
+ * Constant interval and minimum distance, whatever the fixes.
+ *
+ * @author bruno
+ */
+public class FixedSamplingPolicy implements SamplingPolicy
+{
+
+    private final long interval;
+    private final float minDistance;
+
+
+    /**
+     * Constructor.
+     *
+     * @param interval : in milliseconds, 0 means as fast as possible.
+     * @param minDistance : in m, 0 means any distance.
+     */
+    public FixedSamplingPolicy(long interval, float minDistance)
+    {
+        if ((interval < 0) || (minDistance < 0.0f))
+        {
+            throw new IllegalArgumentException("Negative sampling limit.");
+        }
+        this.interval = interval;
+        this.minDistance = minDistance;
+    }
+
+
+    public boolean onFix(long elapsedRealtimeNanos, float speed, float bearing, float accuracy)
+    {
+        return false;
+    }
+
+
+    public long getInterval()
+    {
+        return interval;
+    }
+
+
+    public float getMinDistance()
+    {
+        return minDistance;
+    }
+
+
+    public String getMode()
+    {
+        return "fixed";
+    }
+}
@@ -0,0 +1,334 @@
+/**
+ * 
+ * AndroidRun, basic runner's android application. Calculates distance, speed
+ * and other usefull values taken from GPS device.
+ * 
+ * Copyright (C) 2014 Bruno Vedder
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ * 
+ */
+
+package fr.asterope;
+
+
+/**
+ * Streaming Kalman filter smoothing GPS fixes : position and speed in a local
+ * east / north plane, and altitude.
+ *
+ * Each axis (east, north, up) is a constant velocity model : position and
+ * speed, with a white noise acceleration. Fixes are weighted by their
+ * reported accuracy, so a 30 m fix under trees only nudges the estimate
+ * while a 5 m one pulls it. The plane is tangent to the Earth at an origin
+ * fix, moved when the estimate goes further than RECENTER_DISTANCE.
+ *
+ * A fix whose innovation is too large for the estimated uncertainties is
+ * rejected as an outlier. After MAX_REJECTED_FIXES consecutive rejections,
+ * the filter restarts from the next fix.
+ *
+ * update() is O(1) and doesn't allocate : all the state is in fields.
+ *
+ * @author bruno
+ */
+public final class KalmanFilter
+{
+
+    static final public double DEFAULT_HORIZONTAL_ACCELERATION_NOISE = 0.1;   // in m2.s-3
+    static final public double DEFAULT_VERTICAL_ACCELERATION_NOISE = 0.01;    // in m2.s-3
+    static final public double VERTICAL_ACCURACY_FACTOR = 1.5;                // GPS altitude is less accurate than position.
+    static final public double OUTLIER_THRESHOLD = 25.0;                      // Squared normalized innovation, 5 sigma.
+    static final public int MAX_REJECTED_FIXES = 3;
+    static final private double RECENTER_DISTANCE = 10000.0;                  // in m.
+    static final private double INITIAL_SPEED_VARIANCE = 100.0;               // (10 m.s-1)^2
+    static final private double INITIAL_VERTICAL_SPEED_VARIANCE = 1.0;
+    static final private double EARTH_RADIUS = WGS84.AVERAGE_VOLUMIC_EARTH_RADIUS_KM * 1000.0;
+    static final private double DEGREE = Math.PI / 180.0;
+
+    // Axis state : position, speed and covariance matrix [[pp, pv], [pv, vv]].
+    static final private int P = 0;
+    static final private int V = 1;
+    static final private int PP = 2;
+    static final private int PV = 3;
+    static final private int VV = 4;
+
+    private final double horizontalNoise;
+    private final double verticalNoise;
+    private final double[] east = new double[5];
+    private final double[] north = new double[5];
+    private final double[] up = new double[5];
+
+    private boolean initialized = false;
+    private boolean altitudeInitialized = false;
+    private long lastNanos = 0;
+    private int rejectedFixes = 0;
+    private double originLatitude = 0.0;
+    private double originLongitude = 0.0;
+    private double metersPerDegreeLatitude = EARTH_RADIUS * DEGREE;
+    private double metersPerDegreeLongitude = EARTH_RADIUS * DEGREE;
+
+
+    /**
+     * Constructor with the default noises, tuned for a runner.
+     */
+    public KalmanFilter()
+    {
+        this(DEFAULT_HORIZONTAL_ACCELERATION_NOISE, DEFAULT_VERTICAL_ACCELERATION_NOISE);
+    }
+
+
+    /**
+     * Constructor.
+     *
+     * @param horizontalNoise : horizontal acceleration noise density, in
+     * m2.s-3. Higher values follow the fixes more closely.
+     * @param verticalNoise : vertical acceleration noise density, in m2.s-3.
+     */
+    public KalmanFilter(double horizontalNoise, double verticalNoise)
+    {
+        if ((horizontalNoise <= 0.0) || (verticalNoise <= 0.0))
+        {
+            throw new IllegalArgumentException("Noise must be positive.");
+        }
+        this.horizontalNoise = horizontalNoise;
+        this.verticalNoise = verticalNoise;
+    }
+
+
+    /**
+     * Add a fix.
+     *
+     * @param nanos : monotonic time of the fix, in ns.
+     * @param latitude : in decimal degree.
+     * @param longitude : in decimal degree.
+     * @param altitude : in m.
+     * @param accuracy : horizontal accuracy in m, as reported by the GPS.
+     * @param hasAltitude : false if the fix altitude is meaningless (2D fix).
+     * @return false if the fix was rejected as an outlier.
+     */
+    public boolean update(long nanos, double latitude, double longitude, double altitude, float accuracy, boolean hasAltitude)
+    {
+        double variance = Math.max(accuracy, 1.0f);
+        variance *= variance;
+
+        if (initialized == false)
+        {
+            setOrigin(latitude, longitude);
+            start(east, 0.0, variance, INITIAL_SPEED_VARIANCE);
+            start(north, 0.0, variance, INITIAL_SPEED_VARIANCE);
+            altitudeInitialized = false;
+            updateAltitude(altitude, variance, hasAltitude);
+            lastNanos = nanos;
+            rejectedFixes = 0;
+            initialized = true;
+            return true;
+        }
+
+        double deltaT = (nanos - lastNanos) / 1000000000.0;
+        if (deltaT > 0.0)
+        {
+            predict(east, deltaT, horizontalNoise);
+            predict(north, deltaT, horizontalNoise);
+            predict(up, deltaT, verticalNoise);
+            lastNanos = nanos;
+        }
+
+        double e = (longitude - originLongitude) * metersPerDegreeLongitude;
+        double n = (latitude - originLatitude) * metersPerDegreeLatitude;
+        double innovationE = e - east[P];
+        double innovationN = n - north[P];
+        double distance2 = innovationE * innovationE / (east[PP] + variance) + innovationN * innovationN / (north[PP] + variance);
+        if (distance2 > OUTLIER_THRESHOLD)
+        {
+            rejectedFixes++;
+            if (rejectedFixes >= MAX_REJECTED_FIXES)
+            {
+                // The estimate is lost, not the fixes : restart from the next one.
+                initialized = false;
+            }
+            return false;
+        }
+        rejectedFixes = 0;
+
+        correct(east, e, variance);
+        correct(north, n, variance);
+        updateAltitude(altitude, variance, hasAltitude);
+
+        if ((Math.abs(east[P]) > RECENTER_DISTANCE) || (Math.abs(north[P]) > RECENTER_DISTANCE))
+        {
+            double lat = getLatitude();
+            double lon = getLongitude();
+            setOrigin(lat, lon);
+            east[P] = 0.0;
+            north[P] = 0.0;
+        }
+        return true;
+    }
+
+
+    /**
+     * Forget all fixes.
+     */
+    public void reset()
+    {
+        initialized = false;
+        altitudeInitialized = false;
+        rejectedFixes = 0;
+    }
+
+
+    /**
+     * Initialized getter.
+     *
+     * @return true once a fix was accepted.
+     */
+    public boolean isInitialized()
+    {
+        return initialized;
+    }
+
+
+    /**
+     * Estimated latitude.
+     *
+     * @return in decimal degree.
+     */
+    public double getLatitude()
+    {
+        return originLatitude + north[P] / metersPerDegreeLatitude;
+    }
+
+
+    /**
+     * Estimated longitude.
+     *
+     * @return in decimal degree.
+     */
+    public double getLongitude()
+    {
+        return originLongitude + east[P] / metersPerDegreeLongitude;
+    }
+
+
+    /**
+     * Estimated altitude.
+     *
+     * @return in m, NaN if no fix had an altitude.
+     */
+    public double getAltitude()
+    {
+        return (altitudeInitialized == true) ? up[P] : Double.NaN;
+    }
+
+
+    /**
+     * Estimated horizontal speed.
+     *
+     * @return in m.s-1
+     */
+    public double getSpeed()
+    {
+        return Math.sqrt(east[V] * east[V] + north[V] * north[V]);
+    }
+
+
+    /**
+     * Estimated horizontal accuracy, comparable to the GPS one.
+     *
+     * @return in m.
+     */
+    public double getAccuracy()
+    {
+        return Math.sqrt(Math.max(east[PP], north[PP]));
+    }
+
+
+    /**
+     * Altitude correction, or initialization with the first 3D fix.
+     */
+    private void updateAltitude(double altitude, double variance, boolean hasAltitude)
+    {
+        if ((hasAltitude == false) || (Double.isNaN(altitude) == true) || (Double.isInfinite(altitude) == true))
+        {
+            return;
+        }
+
+        double verticalVariance = variance * VERTICAL_ACCURACY_FACTOR * VERTICAL_ACCURACY_FACTOR;
+        if (altitudeInitialized == false)
+        {
+            start(up, altitude, verticalVariance, INITIAL_VERTICAL_SPEED_VARIANCE);
+            altitudeInitialized = true;
+        }
+        else
+        {
+            correct(up, altitude, verticalVariance);
+        }
+    }
+
+
+    /**
+     * Move the tangent plane origin.
+     */
+    private void setOrigin(double latitude, double longitude)
+    {
+        originLatitude = latitude;
+        originLongitude = longitude;
+        metersPerDegreeLatitude = EARTH_RADIUS * DEGREE;
+        metersPerDegreeLongitude = EARTH_RADIUS * DEGREE * Math.cos(latitude * DEGREE);
+    }
+
+
+    /**
+     * Axis at rest at a position.
+     */
+    static private void start(double[] axis, double position, double positionVariance, double speedVariance)
+    {
+        axis[P] = position;
+        axis[V] = 0.0;
+        axis[PP] = positionVariance;
+        axis[PV] = 0.0;
+        axis[VV] = speedVariance;
+    }
+
+
+    /**
+     * Constant velocity prediction over deltaT seconds.
+     */
+    static private void predict(double[] axis, double deltaT, double noise)
+    {
+        double deltaT2 = deltaT * deltaT;
+        axis[P] += axis[V] * deltaT;
+        axis[PP] += 2.0 * deltaT * axis[PV] + deltaT2 * axis[VV] + noise * deltaT2 * deltaT / 3.0;
+        axis[PV] += deltaT * axis[VV] + noise * deltaT2 / 2.0;
+        axis[VV] += noise * deltaT;
+    }
+
+
+    /**
+     * Correction with a position measure.
+     */
+    static private void correct(double[] axis, double measure, double variance)
+    {
+        double s = axis[PP] + variance;
+        double kp = axis[PP] / s;
+        double kv = axis[PV] / s;
+        double innovation = measure - axis[P];
+
+        axis[P] += kp * innovation;
+        axis[V] += kv * innovation;
+        axis[VV] -= kv * axis[PV];
+        axis[PV] -= kp * axis[PV];
+        axis[PP] -= kp * axis[PP];
+    }
+}
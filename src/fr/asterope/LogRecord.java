@@ -0,0 +1,161 @@
+/**
+ * 
+ * AndroidRun, basic runner's android application. Calculates distance, speed
+ * and other usefull values taken from GPS device.
+ * 
+ * Copyright (C) 2014 Bruno Vedder
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ * 
+ */
+
+package fr.asterope;
+
+import java.util.Locale;
+
+/**
+ * One location update, as logged in the OLC lines of the log file. Instances
+ * are mutable and meant to be reused : the producer fills one record per
+ * update, consumers read records into a single instance.
+ *
+ * @author bruno
+ */
+public class LogRecord
+{
+
+    // State codes.
+    static final public int STATE_NO_TRACKING = 0;
+    static final public int STATE_TRACKING_OK = 1;
+    static final public int STATE_BAD_ACCURACY = 2;
+    static final public int STATE_COUNT = 3;
+
+    public long time = 0;                   // Wall clock, in milliseconds.
+    public double distance = 0.0;           // Integrated distance in m.
+    public double deltaDistance = 0.0;      // in m.
+    public double accuracy = 0.0;           // in m.
+    public double speed = 0.0;              // Instant speed in m.s-1
+    public double deltaTime = 0.0;          // in seconds.
+    public double altitude = 0.0;           // in m.
+    public double bearing = 0.0;            // in degrees.
+    public double latitude = 0.0;
+    public double longitude = 0.0;
+    public double lastAltitude = 0.0;       // Altitude used for elevation gain, in m.
+    public double ascent = 0.0;             // in m.
+    public double descent = 0.0;            // in m.
+    public int satellites = 0;
+    public long updateCount = 0;
+    public int state = STATE_NO_TRACKING;
+
+
+    /**
+     * Copy all fields of another record.
+     *
+     * @param other : record to copy.
+     */
+    public void set(LogRecord other)
+    {
+        time = other.time;
+        distance = other.distance;
+        deltaDistance = other.deltaDistance;
+        accuracy = other.accuracy;
+        speed = other.speed;
+        deltaTime = other.deltaTime;
+        altitude = other.altitude;
+        bearing = other.bearing;
+        latitude = other.latitude;
+        longitude = other.longitude;
+        lastAltitude = other.lastAltitude;
+        ascent = other.ascent;
+        descent = other.descent;
+        satellites = other.satellites;
+        updateCount = other.updateCount;
+        state = other.state;
+    }
+
+
+    /**
+     * Format the record as an OLC line of the log file. CSV format : OLC;
+     * Distance; Delta Dist; Accuracy; Inst Speed; deltaTSeconds; altitude;
+     * bearing; latitude; longitude; lastAltitude; ascent; descent; SatNumber;
+     * UpdateNumber; State;
+     *
+     * @param stateLabels : label of each state code.
+     * @return formatted line, without date.
+     */
+    public String format(String[] stateLabels)
+    {
+        return format(Locale.getDefault(), stateLabels);
+    }
+
+
+    /**
+     * Format the record as an OLC line of the log file.
+     *
+     * @param locale : locale of the numbers.
+     * @param stateLabels : label of each state code.
+     * @return formatted line, without date.
+     */
+    public String format(Locale locale, String[] stateLabels)
+    {
+        StringBuilder line = new StringBuilder(160);
+        appendTo(line, new DecimalFormatter(locale), stateLabels);
+        return line.toString();
+    }
+
+
+    /**
+     * Append the OLC line of the record, without allocating anything.
+     *
+     * @param out : destination.
+     * @param formatter : number formatter, giving the locale.
+     * @param stateLabels : label of each state code.
+     * @return out.
+     */
+    public StringBuilder appendTo(StringBuilder out, DecimalFormatter formatter, String[] stateLabels)
+    {
+        out.append("OLC; ");
+        formatter.append(out, distance, 4, 2).append("; ");
+        formatter.append(out, deltaDistance, 4, 2).append("; ");
+        formatter.append(out, accuracy, 4, 2).append("; ");
+        formatter.append(out, speed, 4, 2).append("; ");
+        formatter.append(out, deltaTime, 4, 2).append("; ");
+        formatter.append(out, altitude, 4, 2).append("; ");
+        formatter.append(out, bearing, 4, 2).append("; ");
+        formatter.append(out, latitude, 9, 6).append("; ");
+        formatter.append(out, longitude, 9, 6).append("; ");
+        formatter.append(out, lastAltitude, 4, 1).append("; ");
+        formatter.append(out, ascent, 3, 1).append("; ");
+        formatter.append(out, descent, 3, 1).append("; ");
+        formatter.append(out, satellites).append("; ");
+        formatter.append(out, updateCount).append("; ");
+        return out.append(stateLabel(stateLabels)).append(';');
+    }
+
+
+    /**
+     * Label of the state, or its code if unknown.
+     *
+     * @param stateLabels : label of each state code.
+     * @return state label.
+     */
+    public String stateLabel(String[] stateLabels)
+    {
+        if ((state >= 0) && (state < stateLabels.length))
+        {
+            return stateLabels[state];
+        }
+        return Integer.toString(state);
+    }
+}
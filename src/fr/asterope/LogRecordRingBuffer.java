@@ -0,0 +1,357 @@
+/**
+ * 
+ * AndroidRun, basic runner's android application. Calculates distance, speed
+ * and other usefull values taken from GPS device.
+ * 
+ * Copyright (C) 2014 Bruno Vedder
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ * 
+ */
+
+package fr.asterope;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * Lock-free ring buffer of log records, between one producer thread and one
+ * consumer thread. Records are copied into a preallocated long array, so
+ * neither offer() nor poll() allocate.
+ *
+ * head and tail are ever increasing sequences, each on its own cache line :
+ * the producer publishes a record by moving tail, the consumer releases it by
+ * moving head. When the buffer is full, the overflow policy either drops the
+ * oldest record (the producer moves head itself), waits for the consumer, or
+ * drops the new record. As the producer may overwrite a record being read, the
+ * consumer only keeps a record if it can move head past it.
+ *
+ * @author bruno
+ */
+public class LogRecordRingBuffer
+{
+
+    // Overflow policies.
+    static final public int DROP_OLDEST = 1;
+    static final public int BLOCK = 2;
+    static final public int COUNT_AND_DROP = 3;
+
+    static final private int RECORD_SIZE = 16;      // longs per record.
+    static final private long BLOCK_PARK_NANOS = 100000L;
+
+    private final long[] slots;
+    private final int capacity;
+    private final int mask;
+    private final int overflowPolicy;
+
+    private final Sequence head = new Sequence();   // Next record to read.
+    private final Sequence tail = new Sequence();   // Next record to write.
+
+    private long cachedHead = 0;                    // Producer only.
+    private long cachedTail = 0;                    // Consumer only.
+    private long lastReadSequence = -1;             // Consumer only.
+
+    // Written by the producer only.
+    private volatile long droppedOldest = 0;
+    private volatile long droppedNewest = 0;
+    private volatile long blockedCount = 0;
+
+
+    /**
+     * Constructor.
+     *
+     * @param capacity : number of records, rounded up to a power of two.
+     * @param overflowPolicy : DROP_OLDEST, BLOCK or COUNT_AND_DROP.
+     */
+    public LogRecordRingBuffer(int capacity, int overflowPolicy)
+    {
+        if ((capacity < 1) || (capacity > (1 << 24)))
+        {
+            throw new IllegalArgumentException("Capacity out of range : " + capacity);
+        }
+        if ((overflowPolicy != DROP_OLDEST) && (overflowPolicy != BLOCK) && (overflowPolicy != COUNT_AND_DROP))
+        {
+            throw new IllegalArgumentException("Unknown overflow policy : " + overflowPolicy);
+        }
+
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity)
+        {
+            size <<= 1;
+        }
+
+        this.capacity = size;
+        this.mask = size - 1;
+        this.overflowPolicy = overflowPolicy;
+        slots = new long[size * RECORD_SIZE];
+    }
+
+
+    /**
+     * Copy a record into the buffer. Producer thread only.
+     *
+     * @param record : record to publish, may be reused after the call.
+     * @return false if the record was dropped (COUNT_AND_DROP only).
+     */
+    public boolean offer(LogRecord record)
+    {
+        long t = tail.get();
+
+        if (t - cachedHead >= capacity)
+        {
+            cachedHead = head.get();
+            boolean blocked = false;
+
+            while (t - cachedHead >= capacity)
+            {
+                if (overflowPolicy == DROP_OLDEST)
+                {
+                    if (head.compareAndSet(cachedHead, cachedHead + 1) == true)
+                    {
+                        droppedOldest++;
+                    }
+                }
+                else if (overflowPolicy == COUNT_AND_DROP)
+                {
+                    droppedNewest++;
+                    return false;
+                }
+                else
+                {
+                    if (blocked == false)
+                    {
+                        blocked = true;
+                        blockedCount++;
+                    }
+                    LockSupport.parkNanos(BLOCK_PARK_NANOS);
+                }
+                cachedHead = head.get();
+            }
+        }
+
+        int i = (int) (t & mask) * RECORD_SIZE;
+        slots[i] = record.time;
+        slots[i + 1] = Double.doubleToRawLongBits(record.distance);
+        slots[i + 2] = Double.doubleToRawLongBits(record.deltaDistance);
+        slots[i + 3] = Double.doubleToRawLongBits(record.accuracy);
+        slots[i + 4] = Double.doubleToRawLongBits(record.speed);
+        slots[i + 5] = Double.doubleToRawLongBits(record.deltaTime);
+        slots[i + 6] = Double.doubleToRawLongBits(record.altitude);
+        slots[i + 7] = Double.doubleToRawLongBits(record.bearing);
+        slots[i + 8] = Double.doubleToRawLongBits(record.latitude);
+        slots[i + 9] = Double.doubleToRawLongBits(record.longitude);
+        slots[i + 10] = Double.doubleToRawLongBits(record.lastAltitude);
+        slots[i + 11] = Double.doubleToRawLongBits(record.ascent);
+        slots[i + 12] = Double.doubleToRawLongBits(record.descent);
+        slots[i + 13] = record.satellites;
+        slots[i + 14] = record.updateCount;
+        slots[i + 15] = record.state;
+
+        // Ordered store : the record is visible before the new tail.
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+
+    /**
+     * Read the oldest record and remove it. Consumer thread only.
+     *
+     * @param record : destination, overwritten.
+     * @return false if the buffer is empty.
+     */
+    public boolean poll(LogRecord record)
+    {
+        while (true)
+        {
+            long h = head.get();
+            if (h >= cachedTail)
+            {
+                cachedTail = tail.get();
+                if (h >= cachedTail)
+                {
+                    return false;
+                }
+            }
+
+            int i = (int) (h & mask) * RECORD_SIZE;
+            record.time = slots[i];
+            record.distance = Double.longBitsToDouble(slots[i + 1]);
+            record.deltaDistance = Double.longBitsToDouble(slots[i + 2]);
+            record.accuracy = Double.longBitsToDouble(slots[i + 3]);
+            record.speed = Double.longBitsToDouble(slots[i + 4]);
+            record.deltaTime = Double.longBitsToDouble(slots[i + 5]);
+            record.altitude = Double.longBitsToDouble(slots[i + 6]);
+            record.bearing = Double.longBitsToDouble(slots[i + 7]);
+            record.latitude = Double.longBitsToDouble(slots[i + 8]);
+            record.longitude = Double.longBitsToDouble(slots[i + 9]);
+            record.lastAltitude = Double.longBitsToDouble(slots[i + 10]);
+            record.ascent = Double.longBitsToDouble(slots[i + 11]);
+            record.descent = Double.longBitsToDouble(slots[i + 12]);
+            record.satellites = (int) slots[i + 13];
+            record.updateCount = slots[i + 14];
+            record.state = (int) slots[i + 15];
+
+            if (head.compareAndSet(h, h + 1) == true)
+            {
+                lastReadSequence = h;
+                return true;
+            }
+            // The producer dropped this record while we were reading it.
+        }
+    }
+
+
+    /**
+     * Pass available records to a handler, through a single reused record.
+     * Consumer thread only.
+     *
+     * @param handler : receives each record.
+     * @param record : reused record instance.
+     * @param maxRecords : maximum number of records to drain.
+     * @return number of records drained.
+     * @throws IOException thrown by the handler. The record is lost.
+     */
+    public int drain(LogRecordHandler handler, LogRecord record, int maxRecords) throws IOException
+    {
+        int count = 0;
+        while ((count < maxRecords) && (poll(record) == true))
+        {
+            count++;
+            handler.onRecord(record);
+        }
+        return count;
+    }
+
+
+    /**
+     * Sequence number the next offered record will get. Producer thread.
+     *
+     * @return number of records published so far.
+     */
+    public long getWriteSequence()
+    {
+        return tail.get();
+    }
+
+
+    /**
+     * Sequence number of the last record returned by poll(). Consumer thread.
+     *
+     * @return record sequence, -1 if no record was read.
+     */
+    public long getLastReadSequence()
+    {
+        return lastReadSequence;
+    }
+
+
+    /**
+     * Number of records waiting, approximate while threads are running.
+     *
+     * @return record count.
+     */
+    public int size()
+    {
+        long h = head.get();
+        long t = tail.get();
+        return (int) Math.max(0, Math.min(capacity, t - h));
+    }
+
+
+    /**
+     * Capacity getter.
+     *
+     * @return number of records the buffer can hold.
+     */
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+
+    /**
+     * Overflow policy getter.
+     *
+     * @return DROP_OLDEST, BLOCK or COUNT_AND_DROP.
+     */
+    public int getOverflowPolicy()
+    {
+        return overflowPolicy;
+    }
+
+
+    /**
+     * Number of old records overwritten (DROP_OLDEST).
+     *
+     * @return dropped record count.
+     */
+    public long getDroppedOldest()
+    {
+        return droppedOldest;
+    }
+
+
+    /**
+     * Number of new records refused (COUNT_AND_DROP).
+     *
+     * @return dropped record count.
+     */
+    public long getDroppedNewest()
+    {
+        return droppedNewest;
+    }
+
+
+    /**
+     * Total number of records lost.
+     *
+     * @return dropped record count.
+     */
+    public long getDroppedCount()
+    {
+        return droppedOldest + droppedNewest;
+    }
+
+
+    /**
+     * Number of times the producer had to wait for the consumer (BLOCK).
+     *
+     * @return blocked offer count.
+     */
+    public long getBlockedCount()
+    {
+        return blockedCount;
+    }
+
+
+    /**
+     * Sequence padded to a cache line, so that head and tail updates don't
+     * invalidate each other.
+     */
+    @SuppressWarnings("serial")
+    private static final class Sequence extends AtomicLong
+    {
+
+        public volatile long p1, p2, p3, p4, p5, p6, p7 = 7L;
+
+
+        long padding()
+        {
+            return p1 + p2 + p3 + p4 + p5 + p6 + p7;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * 
+ * AndroidRun, basic runner's android application. Calculates distance, speed
+ * and other usefull values taken from GPS device.
+ * 
+ * Copyright (C) 2014 Bruno Vedder
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ * 
+ */
+
+package fr.asterope;
+
+
+/**
+ * When to start a new log segment : once the active file reaches a size, or
+ * has been open for a duration, whichever comes first.
+ *
+ * @author bruno
+ */
+public class LogRotationPolicy
+{
+
+    private final long maxBytes;
+    private final long maxDurationMs;
+
+
+    /**
+     * Constructor.
+     *
+     * @param maxBytes : maximum size of a segment, 0 for no limit.
+     * @param maxDurationMs : maximum duration of a segment in milliseconds, 0
+     * for no limit.
+     */
+    public LogRotationPolicy(long maxBytes, long maxDurationMs)
+    {
+        if ((maxBytes < 0) || (maxDurationMs < 0))
+        {
+            throw new IllegalArgumentException("Negative rotation limit.");
+        }
+        this.maxBytes = maxBytes;
+        this.maxDurationMs = maxDurationMs;
+    }
+
+
+    /**
+     * Check whether the active file must be rotated.
+     *
+     * @param bytes : current size of the active file.
+     * @param openedAt : time the active file was started, in milliseconds.
+     * @param now : current time in milliseconds.
+     * @return true if a new segment must be started.
+     */
+    public boolean isRotationDue(long bytes, long openedAt, long now)
+    {
+        if ((maxBytes > 0) && (bytes >= maxBytes))
+        {
+            return true;
+        }
+        return (maxDurationMs > 0) && (now - openedAt >= maxDurationMs);
+    }
+
+
+    /**
+     * Check the size limit only, for files that must not be rotated on time.
+     *
+     * @param bytes : current size of the active file.
+     * @return true if a new segment must be started.
+     */
+    public boolean isSizeLimitReached(long bytes)
+    {
+        return (maxBytes > 0) && (bytes >= maxBytes);
+    }
+
+
+    /**
+     * Size limit getter.
+     *
+     * @return maximum segment size, 0 for no limit.
+     */
+    public long getMaxBytes()
+    {
+        return maxBytes;
+    }
+
+
+    /**
+     * Duration limit getter.
+     *
+     * @return maximum segment duration in milliseconds, 0 for no limit.
+     */
+    public long getMaxDurationMs()
+    {
+        return maxDurationMs;
+    }
+}
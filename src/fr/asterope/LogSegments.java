@@ -0,0 +1,305 @@
+/**
+ * 
+ * AndroidRun, basic runner's android application. Calculates distance, speed
+ * and other usefull values taken from GPS device.
+ * 
+ * Copyright (C) 2014 Bruno Vedder
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ * 
+ */
+
+package fr.asterope;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.NoSuchElementException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+
+/**
+ * Naming and reading of rotated log segments.
+ *
+ * The active file keeps its name, e.g. Run_x.csv. Rotated segments are
+ * numbered before the extension : Run_x.001.csv, Run_x.002.csv... and become
+ * Run_x.001.csv.gz once compressed. A compressed segment is first written as
+ * .gz.tmp and renamed when complete, so an existing .gz is always valid and
+ * wins over the uncompressed segment left by an interrupted compression.
+ *
+ * Segments in index order, followed by the active file, hold the whole log :
+ * open() reads them as a single stream.
+ *
+ * @author bruno
+ */
+public final class LogSegments
+{
+
+    static final public String GZIP_EXTENSION = ".gz";
+    static final private String TEMPORARY_EXTENSION = ".tmp";
+    static final private int BUFFER_SIZE = 64 * 1024;
+
+
+    private LogSegments()
+    {
+    }
+
+
+    /**
+     * Name of a rotated segment.
+     *
+     * @param fileName : name of the active file.
+     * @param index : segment index, from 1.
+     * @return uncompressed segment name.
+     */
+    public static String segmentName(String fileName, int index)
+    {
+        int dot = extensionStart(fileName);
+        String digits = Integer.toString(index);
+        while (digits.length() < 3)
+        {
+            digits = "0" + digits;
+        }
+        return fileName.substring(0, dot) + "." + digits + fileName.substring(dot);
+    }
+
+
+    /**
+     * Rotated segments of an active file, in index order. For each index, the
+     * compressed segment if it exists, the uncompressed one otherwise.
+     *
+     * @param activeFile : active log file.
+     * @return segment files, without the active file.
+     */
+    public static File[] list(File activeFile)
+    {
+        String name = activeFile.getName();
+        int dot = extensionStart(name);
+        String prefix = name.substring(0, dot) + ".";
+        String extension = name.substring(dot);
+
+        File dir = activeFile.getAbsoluteFile().getParentFile();
+        String[] names = (dir != null) ? dir.list() : null;
+        if (names == null)
+        {
+            return new File[0];
+        }
+
+        ArrayList<Integer> indexes = new ArrayList<Integer>();
+        for (int i = 0; i < names.length; i++)
+        {
+            int index = segmentIndex(names[i], prefix, extension);
+            if ((index > 0) && (indexes.contains(index) == false))
+            {
+                indexes.add(index);
+            }
+        }
+
+        Integer[] sorted = indexes.toArray(new Integer[indexes.size()]);
+        Arrays.sort(sorted);
+
+        File[] segments = new File[sorted.length];
+        for (int i = 0; i < sorted.length; i++)
+        {
+            File plain = new File(dir, segmentName(name, sorted[i]));
+            File compressed = new File(dir, plain.getName() + GZIP_EXTENSION);
+            segments[i] = compressed.exists() ? compressed : plain;
+        }
+        return segments;
+    }
+
+
+    /**
+     * Index to give to the next rotated segment.
+     *
+     * @param activeFile : active log file.
+     * @return 1 + highest existing index.
+     */
+    public static int nextIndex(File activeFile)
+    {
+        File[] segments = list(activeFile);
+        if (segments.length == 0)
+        {
+            return 1;
+        }
+
+        String name = activeFile.getName();
+        int dot = extensionStart(name);
+        return segmentIndex(segments[segments.length - 1].getName(), name.substring(0, dot) + ".", name.substring(dot)) + 1;
+    }
+
+
+    /**
+     * Compress a segment into segment.gz, then delete it.
+     *
+     * @param segment : uncompressed segment.
+     * @return compressed segment.
+     * @throws IOException
+     */
+    public static File compress(File segment) throws IOException
+    {
+        File compressed = new File(segment.getPath() + GZIP_EXTENSION);
+        File temporary = new File(compressed.getPath() + TEMPORARY_EXTENSION);
+
+        InputStream in = new FileInputStream(segment);
+        try
+        {
+            OutputStream out = new GZIPOutputStream(new FileOutputStream(temporary), BUFFER_SIZE);
+            try
+            {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int n;
+                while ((n = in.read(buffer)) >= 0)
+                {
+                    out.write(buffer, 0, n);
+                }
+            }
+            finally
+            {
+                out.close();
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+
+        if (temporary.renameTo(compressed) == false)
+        {
+            temporary.delete();
+            throw new IOException("Can't rename " + temporary + " to " + compressed + ".");
+        }
+        segment.delete();
+        return compressed;
+    }
+
+
+    /**
+     * Read all segments then the active file as one stream, decompressing
+     * compressed segments. Files are opened one at a time.
+     *
+     * @param activeFile : active log file, may not exist.
+     * @return concatenated content.
+     */
+    public static InputStream open(File activeFile)
+    {
+        final ArrayList<File> files = new ArrayList<File>(Arrays.asList(list(activeFile)));
+        if (activeFile.exists() == true)
+        {
+            files.add(activeFile);
+        }
+
+        return new SequenceInputStream(new Enumeration<InputStream>()
+        {
+            private int next = 0;
+
+
+            public boolean hasMoreElements()
+            {
+                return next < files.size();
+            }
+
+
+            public InputStream nextElement()
+            {
+                if (next >= files.size())
+                {
+                    throw new NoSuchElementException();
+                }
+
+                File file = files.get(next++);
+                try
+                {
+                    InputStream in = new FileInputStream(file);
+                    if (file.getName().endsWith(GZIP_EXTENSION) == true)
+                    {
+                        return new GZIPInputStream(in, BUFFER_SIZE);
+                    }
+                    return in;
+                }
+                catch (IOException e)
+                {
+                    // Enumeration can't throw : report the failure on read.
+                    return new FailedInputStream(e);
+                }
+            }
+        });
+    }
+
+
+    /**
+     * Start of the extension, or end of the name if there is none.
+     */
+    private static int extensionStart(String fileName)
+    {
+        int dot = fileName.lastIndexOf('.');
+        return (dot > 0) ? dot : fileName.length();
+    }
+
+
+    /**
+     * Index of a segment name, -1 if it isn't a segment of prefix/extension.
+     */
+    private static int segmentIndex(String name, String prefix, String extension)
+    {
+        if (name.endsWith(GZIP_EXTENSION) == true)
+        {
+            name = name.substring(0, name.length() - GZIP_EXTENSION.length());
+        }
+        if ((name.startsWith(prefix) == false) || (name.endsWith(extension) == false)
+                || (name.length() <= prefix.length() + extension.length()))
+        {
+            return -1;
+        }
+
+        String digits = name.substring(prefix.length(), name.length() - extension.length());
+        if ((digits.length() > 9) || (digits.matches("[0-9]+") == false))
+        {
+            return -1;
+        }
+        return Integer.parseInt(digits);
+    }
+
+
+    /**
+     * Stream failing on first read.
+     */
+    private static final class FailedInputStream extends InputStream
+    {
+
+        private final IOException failure;
+
+
+        FailedInputStream(IOException failure)
+        {
+            this.failure = failure;
+        }
+
+
+        @Override
+        public int read() throws IOException
+        {
+            throw failure;
+        }
+    }
+}
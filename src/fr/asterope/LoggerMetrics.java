@@ -0,0 +1,406 @@
+/**
+ * 
+ * AndroidRun, basic runner's android application. Calculates distance, speed
+ * and other usefull values taken from GPS device.
+ * 
+ * Copyright (C) 2014 Bruno Vedder
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ * 
+ */
+
+package fr.asterope;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * Counters of an ExternalFileLogger : write latency as seen by callers,
+ * flush latency as seen by the writer thread (storage stalls show up there in
+ * asynchronous mode), lines, records, characters and record bytes written,
+ * failures, lines dropped on a full queue, time spent getting the log file,
+ * and queue depth.
+ *
+ * Counters are updated by the caller threads and the writer thread, without
+ * locking : a snapshot read while logging may mix values from slightly
+ * different instants.
+ *
+ * @author bruno
+ */
+public final class LoggerMetrics
+{
+
+    /**
+     * Latency histogram with power of two buckets : bucket i counts the
+     * latencies in [2^i, 2^(i+1)[ ns, the last one everything above.
+     */
+    public static final class LatencyHistogram
+    {
+
+        static final public int BUCKET_COUNT = 40;      // 2^40 ns is about 18 minutes.
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+
+        /**
+         * Count a latency.
+         *
+         * @param nanos : latency in ns.
+         */
+        public void add(long nanos)
+        {
+            int bucket = (nanos <= 0) ? 0 : Math.min(BUCKET_COUNT - 1, 63 - Long.numberOfLeadingZeros(nanos));
+            buckets.incrementAndGet(bucket);
+            count.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+
+            long max = maxNanos.get();
+            while ((nanos > max) && (maxNanos.compareAndSet(max, nanos) == false))
+            {
+                max = maxNanos.get();
+            }
+        }
+
+
+        /**
+         * Number of latencies counted.
+         *
+         * @return count.
+         */
+        public long getCount()
+        {
+            return count.get();
+        }
+
+
+        /**
+         * Largest latency.
+         *
+         * @return latency in ns.
+         */
+        public long getMaxNanos()
+        {
+            return maxNanos.get();
+        }
+
+
+        /**
+         * Average latency.
+         *
+         * @return latency in ns, 0 if none.
+         */
+        public long getMeanNanos()
+        {
+            long n = count.get();
+            return (n == 0) ? 0 : totalNanos.get() / n;
+        }
+
+
+        /**
+         * Latency percentile, to a power of two.
+         *
+         * @param percentile : in ]0, 100].
+         * @return upper bound of the bucket holding the percentile in ns, 0
+         * if none.
+         */
+        public long getPercentileNanos(double percentile)
+        {
+            long n = count.get();
+            if (n == 0)
+            {
+                return 0;
+            }
+
+            long rank = (long) Math.ceil(n * percentile / 100.0);
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT - 1; i++)
+            {
+                seen += buckets.get(i);
+                if (seen >= rank)
+                {
+                    return Math.min(1L << (i + 1), maxNanos.get());
+                }
+            }
+            return maxNanos.get();
+        }
+
+
+        /**
+         * Bucket counts.
+         *
+         * @return copy of the buckets, see the class comment.
+         */
+        public long[] getBuckets()
+        {
+            long[] copy = new long[BUCKET_COUNT];
+            for (int i = 0; i < BUCKET_COUNT; i++)
+            {
+                copy[i] = buckets.get(i);
+            }
+            return copy;
+        }
+
+
+        /**
+         * Append "p50/p99/max" in microseconds.
+         */
+        StringBuilder appendTo(StringBuilder out)
+        {
+            out.append(getPercentileNanos(50.0) / 1000L).append('/');
+            out.append(getPercentileNanos(99.0) / 1000L).append('/');
+            return out.append(maxNanos.get() / 1000L).append(" us");
+        }
+    }
+
+    private final LatencyHistogram writeLatency = new LatencyHistogram();
+    private final LatencyHistogram flushLatency = new LatencyHistogram();
+    private final AtomicLong failedWrites = new AtomicLong();
+    private final AtomicLong linesWritten = new AtomicLong();
+    private final AtomicLong recordsWritten = new AtomicLong();
+    private final AtomicLong charsWritten = new AtomicLong();
+    private final AtomicLong recordBytesWritten = new AtomicLong();
+    private final AtomicLong droppedLines = new AtomicLong();
+    private final AtomicLong logFileAttempts = new AtomicLong();
+    private final AtomicLong logFileFailures = new AtomicLong();
+    private final AtomicLong logFileNanos = new AtomicLong();
+    private final AtomicLong maxQueueDepth = new AtomicLong();
+
+
+    void addWrite(long nanos)
+    {
+        writeLatency.add(nanos);
+    }
+
+
+    void addFlush(long nanos)
+    {
+        flushLatency.add(nanos);
+    }
+
+
+    void addFailedWrite()
+    {
+        failedWrites.incrementAndGet();
+    }
+
+
+    void addLine(long chars)
+    {
+        linesWritten.incrementAndGet();
+        charsWritten.addAndGet(chars);
+    }
+
+
+    void addRecord(long bytes)
+    {
+        recordsWritten.incrementAndGet();
+        recordBytesWritten.addAndGet(bytes);
+    }
+
+
+    void addDroppedLine()
+    {
+        droppedLines.incrementAndGet();
+    }
+
+
+    void addLogFileAttempt(long nanos, boolean ready)
+    {
+        logFileAttempts.incrementAndGet();
+        logFileNanos.addAndGet(nanos);
+        if (ready == false)
+        {
+            logFileFailures.incrementAndGet();
+        }
+    }
+
+
+    void sampleQueueDepth(long depth)
+    {
+        long max = maxQueueDepth.get();
+        while ((depth > max) && (maxQueueDepth.compareAndSet(max, depth) == false))
+        {
+            max = maxQueueDepth.get();
+        }
+    }
+
+
+    /**
+     * Latency of write() and writeRecord() calls, as seen by the caller. In
+     * asynchronous mode, it only covers queuing.
+     *
+     * @return write latency histogram.
+     */
+    public LatencyHistogram getWriteLatency()
+    {
+        return writeLatency;
+    }
+
+
+    /**
+     * Latency of the flushes of the writer thread, asynchronous mode only.
+     *
+     * @return flush latency histogram.
+     */
+    public LatencyHistogram getFlushLatency()
+    {
+        return flushLatency;
+    }
+
+
+    /**
+     * Writes that failed, by exception to the caller or in the writer thread.
+     * Includes the failures safeWrite() turns into false.
+     *
+     * @return failed write count.
+     */
+    public long getFailedWrites()
+    {
+        return failedWrites.get();
+    }
+
+
+    /**
+     * Lines written into the log file, OLC lines included.
+     *
+     * @return line count.
+     */
+    public long getLinesWritten()
+    {
+        return linesWritten.get();
+    }
+
+
+    /**
+     * Location records written, as OLC lines or into the record file.
+     *
+     * @return record count.
+     */
+    public long getRecordsWritten()
+    {
+        return recordsWritten.get();
+    }
+
+
+    /**
+     * Characters of the text lines written, before encoding.
+     *
+     * @return character count.
+     */
+    public long getCharsWritten()
+    {
+        return charsWritten.get();
+    }
+
+
+    /**
+     * Bytes of the binary records written into the record file.
+     *
+     * @return byte count.
+     */
+    public long getRecordBytesWritten()
+    {
+        return recordBytesWritten.get();
+    }
+
+
+    /**
+     * Lines dropped because the queue of the writer thread was full. Each is
+     * also a failed write.
+     *
+     * @return dropped line count.
+     */
+    public long getDroppedLines()
+    {
+        return droppedLines.get();
+    }
+
+
+    /**
+     * Attempts to get the log file on the external storage.
+     *
+     * @return attempt count.
+     */
+    public long getLogFileAttempts()
+    {
+        return logFileAttempts.get();
+    }
+
+
+    /**
+     * Attempts to get the log file that failed, the storage being
+     * unavailable.
+     *
+     * @return failed attempt count.
+     */
+    public long getLogFileFailures()
+    {
+        return logFileFailures.get();
+    }
+
+
+    /**
+     * Time spent getting the log file.
+     *
+     * @return time in ns.
+     */
+    public long getLogFileNanos()
+    {
+        return logFileNanos.get();
+    }
+
+
+    /**
+     * Largest number of lines and records waiting for the writer thread.
+     *
+     * @return queue depth.
+     */
+    public long getMaxQueueDepth()
+    {
+        return maxQueueDepth.get();
+    }
+
+
+    /**
+     * Append the metrics as one log line.
+     *
+     * @param out : destination.
+     * @param queueDepth : current queue depth.
+     * @param droppedRecords : records dropped by the ring buffer, see
+     * LogRecordRingBuffer.getDroppedCount().
+     * @return out.
+     */
+    public StringBuilder appendTo(StringBuilder out, long queueDepth, long droppedRecords)
+    {
+        out.append("Logger metrics : writes ").append(writeLatency.getCount()).append(" (p50/p99/max ");
+        writeLatency.appendTo(out).append("), flushes ").append(flushLatency.getCount()).append(" (p50/p99/max ");
+        flushLatency.appendTo(out).append("), failed ").append(failedWrites.get());
+        out.append(", lines ").append(linesWritten.get());
+        out.append(", records ").append(recordsWritten.get());
+        out.append(", chars ").append(charsWritten.get());
+        out.append(", record bytes ").append(recordBytesWritten.get());
+        out.append(", dropped lines ").append(droppedLines.get());
+        out.append(", dropped records ").append(droppedRecords);
+        out.append(", log file attempts ").append(logFileAttempts.get());
+        out.append(" (failed ").append(logFileFailures.get());
+        out.append(", ").append(logFileNanos.get() / 1000000L).append(" ms)");
+        out.append(", queue ").append(queueDepth).append(" (max ").append(maxQueueDepth.get()).append(')');
+        return out;
+    }
+}
@@ -37,9 +37,10 @@ import android.content.Intent;
 import android.location.LocationProvider;
 import android.os.Environment;
 import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
 import android.os.SystemClock;
 import android.provider.Settings;
-import android.widget.TextView;
 import java.util.Timer;
 import java.util.TimerTask;
 import android.text.format.Time;
@@ -47,6 +48,9 @@ import android.widget.Toast;
 import java.io.File;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 
 public class MainActivity extends Activity implements LocationListener
@@ -54,69 +58,58 @@ public class MainActivity extends Activity implements LocationListener
 
     private ExternalFileLogger logs = null;
     private LocationManager gps = null;
-    private Location last_position = null;
-    private boolean started = false;
-    private float inst_speed = 0.0f;        // Speed in m.s-1
-    private float average_speed = 0.0f;     // Average Speed in m.s-1
-    private float distance = 0.0f;          // Integrated distance in m.
-    private long update_count = 0;          // gps update counter.
-    private float elapsed_seconds = 0;
-    private double latitude = 0.0;
-    private double longitude = 0.0;
     private String gpsStatus = "";
-    private int satelliteNumber = 0;
-    private long pauseStarted = -1;
+    private volatile long pauseStarted = -1;        // Set by the UI thread, journaled by the tracking thread.
     private String logFilename = null;
-    private boolean firstGPSFixReceived = false;
+    private final LogRecord logRecord = new LogRecord();
+    private RunJournal journal = null;
+    private final RunState runState = new RunState();
 
     // App constants
-    static final private float requiredAccuracy = 10.0f;       // Ignore precision below this value, in  meters. 
     static final private int gps_update_interval = 8000;       // in milliseconds, 0 means as fast as possibile
     static final private float gps_min_distance = 0.0f;        // in meter, 0 means any distances.
+    static final private boolean adaptiveSampling = true;       // Interval from speed and heading, see AdaptiveSamplingPolicy.
     static final private String fileExtension = ".csv";
-
-    /**
-     *
-     * Elevation Gain related variables. MAX_ELEVATION_DELTA_PER_SECOND is used
-     * to skip false values. False value occurs when the satellite number reach
-     * 4, the minimal number in order to get altitude. Before altitude was 0,
-     * and after the altitude is the altitude of your location. This cause an
-     * artificial elevation gain that we need to skip.
-     *
-     */
-    static final private double MAX_ELEVATION_DELTA_PER_SECOND = 5.0;
-    private double lastAltitude = -1.0f;        // -1.0f means non initialised.
-    private float ascent = 0.0f;                // positive elevation gain in m.
-    private float descent = 0.0f;               // negative elevation gain in m.
+    static final private String recordFileExtension = ".olc";       // Binary OLC records, see OlcRecordReader for CSV export.
+    static final private boolean binaryRecords = true;
+    static final private long logMaxBytes = 4 * 1024 * 1024;       // Log rotation, see LogSegments to read segments back.
+    static final private long logMaxDurationMs = 3600 * 1000;
+    static final private long logMetricsIntervalMs = 10 * 60 * 1000;   // Logger metrics line, see LoggerMetrics.
+    static final private String journalName = "run.journal";              // In internal storage.
+    static final private int logRecordCapacity = 1024;         // Location updates waiting to be written.
+    static final private long trackingStopTimeoutMs = 4500;    // Logs and journal closing, 2 s each at most.
+
+    private final TrackingEngine engine = TrackingEngine.createApplicationEngine();   // Run tracking, fed with each location, see KalmanFilter.
+    private final SamplingPolicy samplingPolicy = (adaptiveSampling == true) ? new AdaptiveSamplingPolicy() : new FixedSamplingPolicy(gps_update_interval, gps_min_distance);
+    private RunCatalog runCatalog = null;                       // Index of the runs of the save directory.
+    private File runFile = null;                                // File of this run in the catalog.
 
     private Handler myHandler = null;
     private Runnable myRunnable = null;
     private Timer myTimer = null;
 
+    // Location updates, engine, logs and journal are handled by the tracking thread.
+    // The UI thread only reads the last published snapshot.
+    private HandlerThread trackingThread = null;
+    private Handler trackingHandler = null;
+    private volatile TrackingSnapshot snapshot = null;
+    private final AtomicBoolean uiUpdatePending = new AtomicBoolean(false);
+    private Runnable uiUpdater = null;
+    private RunRenderer renderer = null;                        // Cached views, redrawn when their values change.
+
 
     /**
-     * resets all application data except log file name.
+     * resets all application data except log file name. Runs in the tracking
+     * thread.
      */
     private void reset()
     {
-        started = false;
-        inst_speed = 0.0f;        // Speed in m.s-1
-        average_speed = 0.0f;     // Average Speed in m.s-1
-        distance = 0.0f;          // Integrated distance in m.
-        update_count = 0;          // gps update counter.
-        elapsed_seconds = 0.0f;
+        engine.reset();
         gpsStatus = getString(R.string.gps_status_no_upd);
-        latitude = 0.0;
-        longitude = 0.0;
-        satelliteNumber = 0;
-        pauseStarted = -1;
-
-        lastAltitude = -1.0f;
-        ascent = 0.0f;
-        descent = 0.0f;
 
         logs.safeWrite(getString(R.string.logs_reset));
-
+        journalState();
+        publishSnapshot();
     }
 
 
@@ -133,93 +126,62 @@ public class MainActivity extends Activity implements LocationListener
     public void onCreate(Bundle savedInstanceState)
     {
         super.onCreate(savedInstanceState);
+        boolean recoveredFromJournal = false;
+        boolean restored = false;
 
         checkForAvailableGPS();
 
-        gps = (LocationManager) getSystemService(Context.LOCATION_SERVICE);
-        gps.requestLocationUpdates(LocationManager.GPS_PROVIDER, gps_update_interval, gps_min_distance, this);
-
         /*
-         Nested runnable used to update  Duration TextView.
-         Other UI fields are updated in UpdateUI called from onLocationChange.
+         Nested runnable used to update  Duration TextView, each second.
+         Other UI fields are updated when the tracking thread publishes a snapshot.
          */
         myRunnable = new Runnable()
         {
             public void run()
             {
-
-                TextView tv = (TextView) findViewById(R.id.duration_label);
-                if (tv != null)
-                {
-                    long local_elapsed_seconds;
-
-                    if ((started == true) && (last_position != null))
-                    {
-                        local_elapsed_seconds = (long) elapsed_seconds + ((SystemClock.elapsedRealtimeNanos() - last_position.getElapsedRealtimeNanos()) / 1000000000);
-                    }
-                    else
-                    {
-                        local_elapsed_seconds = (long) elapsed_seconds;
-                    }
-
-                    long hour = local_elapsed_seconds / 3600;
-                    long min = (local_elapsed_seconds % 3600) / 60;
-                    long sec = local_elapsed_seconds % 60;
-
-                    String result = String.format("%02d:%02d:%02d", hour, min, sec);
-                    tv.setText(result);
-                }
+                updateUI();
             }
         };
 
         myHandler = new Handler();
-
-        if (savedInstanceState != null)
-        {
-            latitude = savedInstanceState.getDouble("latitude");
-            longitude = savedInstanceState.getDouble("longitude");
-            satelliteNumber = savedInstanceState.getInt("satelliteNumber");
-            last_position = (Location) savedInstanceState.getParcelable("last_position");
-            started = savedInstanceState.getBoolean("started");
-            inst_speed = savedInstanceState.getFloat("inst_speed");
-            average_speed = savedInstanceState.getFloat("average_speed");
-            distance = savedInstanceState.getFloat("distance");
-            update_count = savedInstanceState.getLong("update_count");
-            elapsed_seconds = savedInstanceState.getFloat("elapsed_seconds");
-            gpsStatus = savedInstanceState.getString("gpsStatus");
-            logFilename = savedInstanceState.getString("logFilename");
-            firstGPSFixReceived = savedInstanceState.getBoolean("firstGPSFixReceived");
-            lastAltitude = savedInstanceState.getFloat("lastAltitude");
-            ascent = savedInstanceState.getFloat("ascent");
-            descent = savedInstanceState.getFloat("descent");
-
-            setContentView(R.layout.main);
-
-            updateUI();
-
-            if (firstGPSFixReceived == true)
+        uiUpdater = new Runnable()
+        {
+            public void run()
             {
-                Button myButton = (Button) findViewById(R.id.button_start_resume);
-                myButton.setEnabled(true);
-                if (started == true)
-                {
-                    myButton.setText(getString(R.string.button_stop));
-                }
-                else
-                {
-                    myButton.setText(getString(R.string.button_start_resume));
-                }
+                uiUpdatePending.set(false);
+                updateUI();
             }
+        };
+
+        if ((savedInstanceState != null) && (savedInstanceState.getSerializable("runState") != null))
+        {
+            restoreState((RunState) savedInstanceState.getSerializable("runState"));
+            restored = true;
+        }
+        else if (RunJournal.recover(new File(getFilesDir(), journalName), runState) == true)
+        {
+            // Process was killed during a run : resume it from the journal.
+            restoreState(runState);
+            recoveredFromJournal = true;
+            restored = true;
         }
         else
         {
             SimpleDateFormat sdf = new SimpleDateFormat("E_dd_MMM_yyyy__HH_mm_ss");
             String now = sdf.format(new Date());
             logFilename = getString(R.string.saveDirectory) + "/Run_" + now + fileExtension;
-            setContentView(R.layout.main);
+            snapshot = new TrackingSnapshot(engine, pauseStarted, gpsStatus, logFilename);
         }
 
-        if (firstGPSFixReceived == false)
+        setContentView(R.layout.main);
+        renderer = new RunRenderer(this);
+        if (restored == true)
+        {
+            updateUI();
+            updateStartButton();
+        }
+
+        if (snapshot.isFirstFixReceived() == false)
         {
             Toast.makeText(this, getString(R.string.gps_waiting_fix), Toast.LENGTH_LONG).show();
         }
@@ -241,13 +203,51 @@ public class MainActivity extends Activity implements LocationListener
             saveSubDirExists = false;
         }
 
-        logs = new ExternalFileLogger(logFilename);
+        String[] stateLabels = new String[LogRecord.STATE_COUNT];
+        stateLabels[LogRecord.STATE_NO_TRACKING] = getString(R.string.logs_no_tracking);
+        stateLabels[LogRecord.STATE_TRACKING_OK] = getString(R.string.logs_tracking_ok);
+        stateLabels[LogRecord.STATE_BAD_ACCURACY] = getString(R.string.logs_bad_accuracy);
+        String recordFilename = null;
+        if (binaryRecords == true)
+        {
+            recordFilename = logFilename.substring(0, logFilename.length() - fileExtension.length()) + recordFileExtension;
+        }
+        logs = new ExternalFileLogger(logFilename, new LogRecordRingBuffer(logRecordCapacity, LogRecordRingBuffer.DROP_OLDEST), stateLabels, recordFilename);
+        logs.setRotationPolicy(new LogRotationPolicy(logMaxBytes, logMaxDurationMs));
+        logs.setMetricsInterval(logMetricsIntervalMs);
+
+        if (saveSubDirExists == true)
+        {
+            runCatalog = new RunCatalog(new File(Environment.getExternalStorageDirectory(), getString(R.string.saveDirectory)));
+            runFile = new File(Environment.getExternalStorageDirectory(), (recordFilename != null) ? recordFilename : logFilename);
+        }
 
         logs.safeWrite(getString(R.string.logs_start_session));
         logs.safeWrite(getString(R.string.app_name));
-        logs.safeWrite(getString(R.string.logs_gps_update_interval) + gps_update_interval + " ms,  " + getString(R.string.logs_gps_min_distance) + gps_min_distance + " m.");
-        logs.safeWrite(getString(R.string.logs_required_accuracy) + requiredAccuracy + " m.");
+        logs.safeWrite(getString(R.string.logs_gps_update_interval) + samplingPolicy.getInterval() + " ms,  " + getString(R.string.logs_gps_min_distance) + samplingPolicy.getMinDistance() + " m.");
+        logs.safeWrite(getString(R.string.logs_required_accuracy) + engine.getRequiredAccuracy() + " m.");
         logs.safeWrite(getString(R.string.logs_csv_format));
+        if (recoveredFromJournal == true)
+        {
+            logs.safeWrite(getString(R.string.logs_run_recovered));
+        }
+
+        journal = new RunJournal(new File(getFilesDir(), journalName));
+        journalState();
+
+        // From now on, engine, logs and journal belong to the tracking thread.
+        trackingThread = new HandlerThread("tracking", Process.THREAD_PRIORITY_BACKGROUND);
+        trackingThread.start();
+        trackingHandler = new Handler(trackingThread.getLooper());
+
+        gps = (LocationManager) getSystemService(Context.LOCATION_SERVICE);
+        trackingHandler.post(new Runnable()
+        {
+            public void run()
+            {
+                requestLocationUpdates();
+            }
+        });
 
         if ((ExternalFileLogger.isExternalStorageWritable() == false) || (saveSubDirExists == false))
         {
@@ -345,7 +345,7 @@ public class MainActivity extends Activity implements LocationListener
     {
         super.onResume();
 
-        if ((started == true) && (pauseStarted != -1))
+        if ((snapshot.isStarted() == true) && (pauseStarted != -1))
         {
             // Update elapsed_second with the second we sleept.
             Time now = new Time();
@@ -353,7 +353,7 @@ public class MainActivity extends Activity implements LocationListener
             long nowSeconds = (now.toMillis(false) / 1000);
             long deltaT = nowSeconds - pauseStarted;
 
-            logs.safeWrite(getString(R.string.logs_pause_resume) + nowSeconds + getString(R.string.logs_pause_duration) + deltaT + getString(R.string.logs_pause_duration_unit) + ".");
+            writeLog(getString(R.string.logs_pause_resume) + nowSeconds + getString(R.string.logs_pause_duration) + deltaT + getString(R.string.logs_pause_duration_unit) + ".");
 
             updateUI();
             pauseStarted = -1; // invalidate pause start time.
@@ -395,13 +395,25 @@ public class MainActivity extends Activity implements LocationListener
             myTimer = null;
         }
 
-        if (started)
+        if (snapshot.isStarted())
         {
             Time now = new Time();
             now.setToNow();
             pauseStarted = now.toMillis(false) / 1000;
-            logs.safeWrite(getString(R.string.logs_entering_pause) + pauseStarted);
+            writeLog(getString(R.string.logs_entering_pause) + pauseStarted);
         }
+
+        // Process may be killed from now on : get buffered logs and run state on disk.
+        trackingHandler.post(new Runnable()
+        {
+            public void run()
+            {
+                logs.flush();
+                captureState(runState);
+                journal.checkpoint(runState);
+                journal.commit();
+            }
+        });
     }
 
 
@@ -437,23 +449,12 @@ public class MainActivity extends Activity implements LocationListener
         // Save UI state changes to the savedInstanceState.
         // This bundle will be passed to onCreate if the process is
         // killed and restarted.
-        savedInstanceState.putBoolean("started", started);
-        savedInstanceState.putFloat("inst_speed", inst_speed);
-        savedInstanceState.putFloat("average_speed", average_speed);
-        savedInstanceState.putFloat("distance", distance);
-        savedInstanceState.putLong("update_count", update_count);
-        savedInstanceState.putFloat("elapsed_seconds", elapsed_seconds);
-        savedInstanceState.putString("gpsStatus", gpsStatus);
-        savedInstanceState.putParcelable("last_position", last_position);
-        savedInstanceState.putDouble("latitude", latitude);
-        savedInstanceState.putDouble("longitude", longitude);
-        savedInstanceState.putInt("satelliteNumber", satelliteNumber);
-        savedInstanceState.putString("logFilename", logFilename);
-        savedInstanceState.putBoolean("firstGPSFixReceived", firstGPSFixReceived);
-
-        savedInstanceState.putDouble("lastAltitude", lastAltitude);
-        savedInstanceState.putFloat("ascent", ascent);
-        savedInstanceState.putFloat("descent", descent);
+        // The UI thread doesn't wait for the tracking thread : this is the last
+        // published snapshot, fixes being processed meanwhile may be missing.
+        RunState state = new RunState();
+        snapshot.copyTo(state);
+        state.pauseStarted = pauseStarted;
+        savedInstanceState.putSerializable("runState", state);
     }
 
 
@@ -471,15 +472,51 @@ public class MainActivity extends Activity implements LocationListener
     protected void onDestroy()
     {
         super.onDestroy();
-        gps.removeUpdates(this);
-        gps = null;
         if (myTimer != null)
         {
             myTimer.cancel();
             myTimer = null;
         }
-        myRunnable = null;
-        myHandler = null;
+        myHandler.removeCallbacks(myRunnable);
+        myHandler.removeCallbacks(uiUpdater);
+        renderer.release();
+
+        // After the location updates already queued, then the tracking thread ends.
+        // Updates are removed there, the sampling policy requests them again in this thread.
+        final boolean finishing = isFinishing();
+        final CountDownLatch closed = new CountDownLatch(1);
+        trackingHandler.post(new Runnable()
+        {
+            public void run()
+            {
+                gps.removeUpdates(MainActivity.this);
+                gps = null;
+                logs.close();
+
+                journal.close();
+                closed.countDown();
+                if (finishing == true)
+                {
+                    // The run is over : nothing to recover.
+                    RunJournal.delete(new File(getFilesDir(), journalName));
+                    if (runCatalog != null)
+                    {
+                        runCatalog.safeUpdate(runFile);
+                    }
+                }
+                trackingThread.quit();
+            }
+        });
+
+        // A recreated activity opens the same log, record and journal files : their writer threads must be done.
+        try
+        {
+            closed.await(trackingStopTimeoutMs, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
     }
 
 
@@ -501,21 +538,31 @@ public class MainActivity extends Activity implements LocationListener
      */
     public void startResume(View view)
     {
-        String action;
+        final String action;
+        final boolean start = (snapshot.isStarted() == false);
         Button myButton = (Button) findViewById(R.id.button_start_resume);
-        if (started == true)
+        if (start == false)
         {
             myButton.setText(getString(R.string.button_start_resume));
-            started = false;
             action = getString(R.string.logs_tracking_stopped);
         }
         else
         {
             myButton.setText(getString(R.string.button_stop));
-            started = true;
             action = getString(R.string.logs_tracking_started);
         }
-        logs.safeWrite(getString(R.string.logs_tracking_is) + action + ".");
+
+        trackingHandler.post(new Runnable()
+        {
+            public void run()
+            {
+                engine.setStarted(start);
+                logs.safeWrite(getString(R.string.logs_tracking_is) + action + ".");
+                journalState();
+                journal.commit();
+                publishSnapshot();
+            }
+        });
     }
 
 
@@ -542,7 +589,14 @@ public class MainActivity extends Activity implements LocationListener
                 myButton.setText(R.string.button_start_resume);
 
                 // reset things.
-                reset();
+                pauseStarted = -1;
+                trackingHandler.post(new Runnable()
+                {
+                    public void run()
+                    {
+                        reset();
+                    }
+                });
             }
         });
 
@@ -559,208 +613,161 @@ public class MainActivity extends Activity implements LocationListener
 
 
     /**
-     * This method updates User Interface. No calculation are done here, except
-     * some minor volatile speed conversions.
+     * This method updates User Interface, on the next display frame, from the
+     * last published snapshot. See RunRenderer.
      */
     private void updateUI()
     {
-        TextView tv = (TextView) findViewById(R.id.distance_label);
-        if (tv != null)
-        {
-            String result = String.format("%3.2f km", distance / 1000.0f);
-            tv.setText(result);
-        }
+        renderer.update(snapshot);
+    }
 
-        tv = (TextView) findViewById(R.id.instant_speed_label);
-        if (tv != null)
-        {
-            String result = String.format("%3.2f km/h", inst_speed * 3.6f);
-            tv.setText(result);
-        }
 
-        tv = (TextView) findViewById(R.id.coordinateN);
-        if (tv != null)
+    /**
+     * Callback called when the GPS has updated location, in the tracking
+     * thread. The location is handed to the TrackingEngine and logged, then
+     * a snapshot is published for the UI.
+     *
+     * @param location : Location containing GPS informations.
+     */
+    public void onLocationChanged(Location location)
+    {
+        if (location != null)
         {
-            String msg = Location.convert(latitude, Location.FORMAT_DEGREES) + " North";
-            tv.setText(msg);
-        }
+            Bundle extras = location.getExtras();
+            int satellites = (extras != null) ? extras.getInt("satellites") : 0;
 
-        tv = (TextView) findViewById(R.id.coordinateE);
-        if (tv != null)
-        {
-            String msg = Location.convert(longitude, Location.FORMAT_DEGREES) + " East";
-            tv.setText(msg);
-        }
+            engine.onFix(location.getElapsedRealtimeNanos(), location.getTime(), location.getLatitude(), location.getLongitude(),
+                location.getAltitude(), location.getAccuracy(), location.getSpeed(), location.getBearing(), satellites);
 
-        tv = (TextView) findViewById(R.id.satellite);
-        if (tv != null)
-        {
-            String satDiag = "";
-            if (satelliteNumber <= 2)
-            {
-                tv.setTextColor(0xFFFF0000);
-                satDiag = getString(R.string.gps_no_signal);
-            }
-            if ((satelliteNumber >= 3) && (satelliteNumber < 5))
-            {
-                tv.setTextColor(0xFFFFA500);
-                satDiag = getString(R.string.gps_low_signal);
-            }
-            if ((satelliteNumber >= 5) && (satelliteNumber < 7))
-            {
-                tv.setTextColor(0xFFFFFF00);
-                satDiag = getString(R.string.gps_aver_signal);
-            }
-            if ((satelliteNumber >= 7) && (satelliteNumber < 9))
-            {
-                tv.setTextColor(0xFF00FF00);
-                satDiag = getString(R.string.gps_good_signal);
-            }
-            if (satelliteNumber >= 9)
-            {
-                tv.setTextColor(0xFF00FF00);
-                satDiag = getString(R.string.gps_excel_signal);
-            }
+            // Formatted as an OLC line by the logger thread.
+            engine.fillRecord(logRecord);
+            logRecord.time = System.currentTimeMillis();
 
-            String msg = String.format("%s (%d sat.)", satDiag, satelliteNumber);
-            tv.setText(msg);
-        }
+            logs.safeWriteRecord(logRecord);
+            journalState();
+            publishSnapshot();
 
-        tv = (TextView) findViewById(R.id.elevation_label);
-        if (tv != null)
-        {
-            String msg = String.format("+%3.0fm / %3.0fm", ascent, descent);
-            tv.setText(msg);
+            if ((samplingPolicy.onFix(location.getElapsedRealtimeNanos(), location.getSpeed(), location.getBearing(), location.getAccuracy()) == true) && (gps != null))
+            {
+                requestLocationUpdates();
+            }
         }
-
-        tv = (TextView) findViewById(R.id.average_speed_label);
-        if (tv != null)
+        else
         {
-            String msg = String.format("%3.2f km/h av.", average_speed * 3.6f);
-            tv.setText(msg);
+            logs.safeWrite(getString(R.string.logs_location_is_null));
         }
     }
 
 
     /**
-     * Callback called when the GPS has updated location. This is the main
-     * tracker method.
+     * Write a line into the logs from the UI thread : the line is queued to
+     * the tracking thread, which owns the logs.
      *
-     * @param location : Location containing GPS informations.
+     * @param message : line to write.
      */
-    public void onLocationChanged(Location location)
+    private void writeLog(final String message)
     {
-        if (location != null)
+        trackingHandler.post(new Runnable()
         {
-            float accuracy = location.getAccuracy();
-            double deltaD = 0.0f;                           // Delta distance between two location updates.
-            float deltaTseconds = 0.0f;                     // Delta Time between two location updates, in seconds.
-            String state = getString(R.string.logs_no_tracking);
-            double altitude = 0.0;
-            float bearing = 0.0f;
-
-            // check for required precision otherwise just ignore the location.
-            if (accuracy <= requiredAccuracy)
+            public void run()
             {
-                if (firstGPSFixReceived == false)
-                {
-                    Button myButton = (Button) findViewById(R.id.button_start_resume);
-                    myButton.setEnabled(true);
-                    firstGPSFixReceived = true;
-                }
+                logs.safeWrite(message);
+            }
+        });
+    }
 
-                update_count++;
 
-                latitude = location.getLatitude();
-                longitude = location.getLongitude();
-                satelliteNumber = location.getExtras().getInt("satellites");
-                inst_speed = location.getSpeed();
-                altitude = location.getAltitude();
-                bearing = location.getBearing();
+    /**
+     * Request location updates with the interval and minimum distance of the
+     * sampling policy, replacing the previous request. Tracking thread only,
+     * once started.
+     */
+    private void requestLocationUpdates()
+    {
+        logs.safeWrite(getString(R.string.logs_sampling) + samplingPolicy.getMode() + ", " + samplingPolicy.getInterval() + " ms, " + samplingPolicy.getMinDistance() + " m.");
+        gps.requestLocationUpdates(LocationManager.GPS_PROVIDER, samplingPolicy.getInterval(), samplingPolicy.getMinDistance(), this, trackingThread.getLooper());
+    }
+
+
+    /**
+     * Publish the engine state to the UI thread, from the tracking thread.
+     * Fixes coming faster than the UI draws only replace the snapshot : one
+     * UI update at most is pending.
+     */
+    private void publishSnapshot()
+    {
+        snapshot = new TrackingSnapshot(engine, pauseStarted, gpsStatus, logFilename);
+        if (uiUpdatePending.compareAndSet(false, true) == true)
+        {
+            myHandler.post(uiUpdater);
+        }
+    }
 
-                // Integrate distance if we already have one valid position.
-                if (last_position != null)
-                {
-                    if (started == true)
-                    {
-                        WGS84Point src = new WGS84Point(last_position.getLatitude(), last_position.getLongitude());
-                        WGS84Point dst = new WGS84Point(location.getLatitude(), location.getLongitude());
-                        deltaD = WGS84.vincentyDistance(src, dst) * 1000.0; // Distance is returned in kilometer !
-
-                        deltaTseconds = (float) ((location.getElapsedRealtimeNanos() - last_position.getElapsedRealtimeNanos()) / 1000000000.0);
-                        elapsed_seconds += deltaTseconds;
-                        distance += deltaD;
-                        average_speed = (distance / (float) elapsed_seconds);
-                        if (satelliteNumber >= 4)
-                        {
-                            // 4 satellites are the least expected to get 3D GPS fix (with altitude).
-                            computeElevationGain(altitude, deltaTseconds);
-                        }
-
-                        state = getString(R.string.logs_tracking_ok);
-                    }
-                }
 
-                // Always update last position
-                last_position = location;
+    /**
+     * Enable the start / stop button once a GPS fix was received, with the
+     * label matching the tracking state.
+     */
+    private void updateStartButton()
+    {
+        if (snapshot.isFirstFixReceived() == true)
+        {
+            Button myButton = (Button) findViewById(R.id.button_start_resume);
+            myButton.setEnabled(true);
+            if (snapshot.isStarted() == true)
+            {
+                myButton.setText(getString(R.string.button_stop));
             }
             else
             {
-                state = getString(R.string.logs_bad_accuracy);
+                myButton.setText(getString(R.string.button_start_resume));
             }
+        }
+    }
 
-            updateUI();
-            /* 
-             CSV format : OLC; Distance; Delta Dist; Accuracy; Inst Speed; deltaTSeconds; altitude; bearing; latitude; longitude; lastAltitude; ascent; descent; SatNumber; UpdateNumber; State;
-             */
-            String toLog = String.format("OLC; %4.2f; %4.2f; %4.2f; %4.2f; %4.2f; %4.2f; %4.2f; %9.6f; %9.6f; %4.1f; %3.1f; %3.1f; %d; %d; %s;", distance, deltaD, accuracy, inst_speed, deltaTseconds, altitude, bearing, latitude, longitude, lastAltitude, ascent, descent, satelliteNumber, update_count, state);
 
-            logs.safeWrite(toLog);
-        }
-        else
+    /**
+     * Journal the fields of the run state that changed. Tracking thread only,
+     * once started.
+     */
+    private void journalState()
+    {
+        if (journal != null)
         {
-            logs.safeWrite(getString(R.string.logs_location_is_null));
+            captureState(runState);
+            journal.append(runState);
         }
     }
 
 
     /**
-     * Compute elevation gain, based on altitude received on location update.
+     * Copy the run state into a RunState.
      *
-     * @param alt : raw altitude received in Location oject.
-     * @param deltaT: delta time between two measures in seconds.
+     * @param state : destination.
      */
-    void computeElevationGain(double alt, float deltaT)
+    private void captureState(RunState state)
     {
-        // Check for infinity / NaN values.
-        if (Double.isInfinite(alt) || Double.isNaN(alt) || (alt < 0.0))
-        {
-            return;
-        }
+        engine.snapshot(state);
+        state.pauseStarted = pauseStarted;
+        state.gpsStatus = gpsStatus;
+        state.logFilename = logFilename;
+    }
 
-        // lastAltitude first value is -1.0, meaning never updated, so update it once with alt value.
-        if (lastAltitude > 0.0)
-        {
-            // We already have an averaged altitude value, we can compute elevation gain.
-            double deltaH = alt - lastAltitude;
 
-            // Basic check on delta elevation : No more  than a max value per second.
-            if ((Math.abs(deltaH) / deltaT) <= MAX_ELEVATION_DELTA_PER_SECOND)
-            {
-                if (deltaH < 0)
-                {
-                    // descent only cumulates negatives values.
-                    descent += deltaH;
-                }
-                else
-                {
-                    // ascent only cumulates positives values.
-                    ascent += deltaH;
-                }
-            }
-        }
-        
-        lastAltitude = alt;
+    /**
+     * Restore the run state from a RunState, before the tracking thread is
+     * started.
+     *
+     * @param state : state to restore.
+     */
+    private void restoreState(RunState state)
+    {
+        // Elapsed realtime restarts on reboot : an older position can't give the time between updates.
+        engine.restore(state, SystemClock.elapsedRealtimeNanos());
+        pauseStarted = state.pauseStarted;
+        gpsStatus = state.gpsStatus;
+        logFilename = state.logFilename;
+        snapshot = new TrackingSnapshot(engine, pauseStarted, gpsStatus, logFilename);
     }
 
 
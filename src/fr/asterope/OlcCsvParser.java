@@ -0,0 +1,380 @@
+/**
+ * 
+ * AndroidRun, basic runner's android application. Calculates distance, speed
+ * and other usefull values taken from GPS device.
+ * 
+ * Copyright (C) 2014 Bruno Vedder
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ * 
+ */
+
+package fr.asterope;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+
+
+/**
+ * Fast reader for the OLC lines of CSV logs : "HH:mm:ss : OLC; ...; state;".
+ *
+ * The log is parsed in place from a large byte buffer : lines are skipped
+ * unless "OLC;" follows the time, and numbers are read by DecimalParser,
+ * whatever the locale separator. Each OLC line is pushed to a
+ * LogRecordHandler as a LogRecord, reused from line to line. Malformed OLC
+ * lines are counted and skipped.
+ *
+ * CSV logs only give the time of the day : record times are milliseconds
+ * since the midnight of the first line, a day being added each time the time
+ * goes back by more than half a day. Records without a readable time get -1.
+ *
+ * One parser per log : line counters and times go on from one parse() to
+ * the next, so that the segments of a log may be parsed one by one.
+ *
+ * @author bruno
+ */
+public final class OlcCsvParser
+{
+
+    static final private int BUFFER_SIZE = 1024 * 1024;
+    static final private int MAX_TIME_LENGTH = 32;          // Where to look for the OLC tag.
+    static final private int NUMERIC_FIELDS = 14;           // Fields before the state.
+    static final private byte SEPARATOR = ';';
+    static final private byte[] OLC_TAG =
+    {
+        ' ', ':', ' ', 'O', 'L', 'C', ';'
+    };
+    static final private long DAY_MS = 24L * 3600L * 1000L;
+
+    private final byte[][] stateLabels;
+    private final LogRecord record = new LogRecord();
+    private final double[] values = new double[NUMERIC_FIELDS];
+    private byte[] buffer = null;
+
+    private long lastTimeOfDay = -1;
+    private long dayOffset = 0;
+    private long lines = 0;
+    private long skippedLines = 0;
+    private long malformedLines = 0;
+
+
+    /**
+     * Constructor.
+     *
+     * @param stateLabels : label of each state code, as given to
+     * ExternalFileLogger.
+     */
+    public OlcCsvParser(String[] stateLabels)
+    {
+        this.stateLabels = new byte[stateLabels.length][];
+        try
+        {
+            for (int i = 0; i < stateLabels.length; i++)
+            {
+                this.stateLabels[i] = stateLabels[i].getBytes("UTF-8");
+            }
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+
+    /**
+     * Parse a CSV log and push every OLC line to the handler, in log order.
+     *
+     * @param in : log content, not closed.
+     * @param handler : receives records.
+     * @return number of records pushed.
+     * @throws IOException
+     */
+    public long parse(InputStream in, LogRecordHandler handler) throws IOException
+    {
+        if (buffer == null)
+        {
+            buffer = new byte[BUFFER_SIZE];
+        }
+
+        long count = 0;
+        int length = 0;             // Bytes in buffer.
+        int scanned = 0;            // Bytes already searched for an end of line.
+
+        while (true)
+        {
+            int read = in.read(buffer, length, buffer.length - length);
+            if (read < 0)
+            {
+                break;
+            }
+            length += read;
+
+            int lineStart = 0;
+            for (int i = scanned; i < length; i++)
+            {
+                if (buffer[i] == '\n')
+                {
+                    if (parseLine(buffer, lineStart, i) == true)
+                    {
+                        handler.onRecord(record);
+                        count++;
+                    }
+                    lineStart = i + 1;
+                }
+            }
+
+            // Keep the partial last line, growing the buffer for a very long one.
+            length -= lineStart;
+            System.arraycopy(buffer, lineStart, buffer, 0, length);
+            scanned = length;
+            if (length == buffer.length)
+            {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+        }
+
+        if ((length > 0) && (parseLine(buffer, 0, length) == true))
+        {
+            handler.onRecord(record);
+            count++;
+        }
+        return count;
+    }
+
+
+    /**
+     * Lines read.
+     *
+     * @return line count.
+     */
+    public long getLineCount()
+    {
+        return lines;
+    }
+
+
+    /**
+     * Lines that are not OLC lines.
+     *
+     * @return skipped line count.
+     */
+    public long getSkippedLineCount()
+    {
+        return skippedLines;
+    }
+
+
+    /**
+     * OLC lines that couldn't be parsed.
+     *
+     * @return malformed line count.
+     */
+    public long getMalformedLineCount()
+    {
+        return malformedLines;
+    }
+
+
+    /**
+     * Parse one line into record.
+     *
+     * @return true if it is a valid OLC line.
+     */
+    private boolean parseLine(byte[] buffer, int start, int end)
+    {
+        lines++;
+
+        int tag = findTag(buffer, start, Math.min(end, start + MAX_TIME_LENGTH), end);
+        if (tag < 0)
+        {
+            skippedLines++;
+            return false;
+        }
+
+        int pos = tag + OLC_TAG.length;
+        try
+        {
+            for (int field = 0; field < NUMERIC_FIELDS; field++)
+            {
+                pos = DecimalParser.skipSeparators(buffer, pos, end, SEPARATOR);
+                int tokenEnd = DecimalParser.tokenEnd(buffer, pos, end, SEPARATOR);
+                if (tokenEnd == pos)
+                {
+                    malformedLines++;
+                    return false;
+                }
+                values[field] = DecimalParser.parse(buffer, pos, tokenEnd);
+                pos = tokenEnd;
+            }
+        }
+        catch (NumberFormatException e)
+        {
+            malformedLines++;
+            return false;
+        }
+
+        int state = parseState(buffer, DecimalParser.skipSeparators(buffer, pos, end, SEPARATOR), end);
+        if (state < 0)
+        {
+            malformedLines++;
+            return false;
+        }
+
+        long timeOfDay = parseTimeOfDay(buffer, start, tag);
+        if (timeOfDay >= 0)
+        {
+            // Past midnight : times go back by more than half a day.
+            if ((lastTimeOfDay >= 0) && (timeOfDay < lastTimeOfDay - DAY_MS / 2))
+            {
+                dayOffset += DAY_MS;
+            }
+            lastTimeOfDay = timeOfDay;
+            record.time = dayOffset + timeOfDay;
+        }
+        else
+        {
+            record.time = -1;
+        }
+
+        record.distance = values[0];
+        record.deltaDistance = values[1];
+        record.accuracy = values[2];
+        record.speed = values[3];
+        record.deltaTime = values[4];
+        record.altitude = values[5];
+        record.bearing = values[6];
+        record.latitude = values[7];
+        record.longitude = values[8];
+        record.lastAltitude = values[9];
+        record.ascent = values[10];
+        record.descent = values[11];
+        record.satellites = (int) values[12];
+        record.updateCount = (long) values[13];
+        record.state = state;
+        return true;
+    }
+
+
+    /**
+     * Find the first " : " in buffer[start, end[, and check that "OLC;"
+     * follows.
+     *
+     * @return index of the tag, -1 if not an OLC line.
+     */
+    private static int findTag(byte[] buffer, int start, int end, int lineEnd)
+    {
+        for (int i = start; i <= end - 3; i++)
+        {
+            if (buffer[i] == ' ' && buffer[i + 1] == ':' && buffer[i + 2] == ' ')
+            {
+                if (i + OLC_TAG.length > lineEnd)
+                {
+                    return -1;
+                }
+                for (int j = 3; j < OLC_TAG.length; j++)
+                {
+                    if (buffer[i + j] != OLC_TAG[j])
+                    {
+                        return -1;
+                    }
+                }
+                return i;
+            }
+        }
+        return -1;
+    }
+
+
+    /**
+     * Parse "HH:mm:ss" written with ASCII digits.
+     *
+     * @return milliseconds since midnight, -1 if not a time.
+     */
+    private static long parseTimeOfDay(byte[] buffer, int start, int end)
+    {
+        if (end - start != 8 || buffer[start + 2] != ':' || buffer[start + 5] != ':')
+        {
+            return -1;
+        }
+
+        long seconds = 0;
+        for (int i = start; i < end; i += 3)
+        {
+            int high = buffer[i] - '0';
+            int low = buffer[i + 1] - '0';
+            if (high < 0 || high > 9 || low < 0 || low > 9)
+            {
+                return -1;
+            }
+            seconds = seconds * 60 + high * 10 + low;
+        }
+        return seconds * 1000L;
+    }
+
+
+    /**
+     * Find the state code of the label ending at the next ';'. Unknown labels
+     * are written as their code.
+     *
+     * @return state code, -1 if unknown.
+     */
+    private int parseState(byte[] buffer, int start, int end)
+    {
+        int labelEnd = start;
+        while (labelEnd < end && buffer[labelEnd] != SEPARATOR)
+        {
+            labelEnd++;
+        }
+        while (labelEnd > start && (buffer[labelEnd - 1] == ' ' || buffer[labelEnd - 1] == '\r'))
+        {
+            labelEnd--;
+        }
+
+        for (int state = 0; state < stateLabels.length; state++)
+        {
+            byte[] label = stateLabels[state];
+            if (label.length != labelEnd - start)
+            {
+                continue;
+            }
+            int i = 0;
+            while (i < label.length && buffer[start + i] == label[i])
+            {
+                i++;
+            }
+            if (i == label.length)
+            {
+                return state;
+            }
+        }
+
+        if (labelEnd == start)
+        {
+            return -1;
+        }
+        int code = 0;
+        for (int i = start; i < labelEnd; i++)
+        {
+            if (buffer[i] < '0' || buffer[i] > '9' || code > LogRecord.STATE_COUNT)
+            {
+                return -1;
+            }
+            code = code * 10 + (buffer[i] - '0');
+        }
+        return code;
+    }
+}
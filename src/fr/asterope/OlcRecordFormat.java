@@ -0,0 +1,410 @@
+/**
+ * 
+ * AndroidRun, basic runner's android application. Calculates distance, speed
+ * and other usefull values taken from GPS device.
+ * 
+ * Copyright (C) 2014 Bruno Vedder
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ * 
+ */
+
+package fr.asterope;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Locale;
+import java.util.TimeZone;
+
+
+/**
+ * Binary OLC log file layout, little endian.
+ *
+ * Header :
+ * - magic "AOLC" (int), version (short), header size (short), record size
+ * (short), field count (short),
+ * - for each field : type (byte), name length (byte), ASCII name,
+ * - locale and time zone used to format the CSV (short length + UTF-8),
+ * - state count (short), then each state label (short length + UTF-8).
+ *
+ * Then fixed size records, fields in header order. Readers map fields by name,
+ * and skip unknown ones.
+ *
+ * @author bruno
+ */
+final class OlcRecordFormat
+{
+
+    static final int MAGIC = 'A' | ('O' << 8) | ('L' << 16) | ('C' << 24);
+    static final int VERSION = 1;
+    static final int PREAMBLE_SIZE = 12;        // Up to field count.
+
+    static final int TYPE_INT32 = 1;
+    static final int TYPE_INT64 = 2;
+    static final int TYPE_FLOAT64 = 3;
+
+    // Field ids are indexes in these arrays.
+    static final int FIELD_TIME = 0;
+    static final int FIELD_DISTANCE = 1;
+    static final int FIELD_DELTA_DISTANCE = 2;
+    static final int FIELD_ACCURACY = 3;
+    static final int FIELD_SPEED = 4;
+    static final int FIELD_DELTA_TIME = 5;
+    static final int FIELD_ALTITUDE = 6;
+    static final int FIELD_BEARING = 7;
+    static final int FIELD_LATITUDE = 8;
+    static final int FIELD_LONGITUDE = 9;
+    static final int FIELD_LAST_ALTITUDE = 10;
+    static final int FIELD_ASCENT = 11;
+    static final int FIELD_DESCENT = 12;
+    static final int FIELD_SATELLITES = 13;
+    static final int FIELD_UPDATE_COUNT = 14;
+    static final int FIELD_STATE = 15;
+
+    static final String[] FIELD_NAMES =
+    {
+        "time", "distance", "deltaDistance", "accuracy", "speed", "deltaTime", "altitude", "bearing",
+        "latitude", "longitude", "lastAltitude", "ascent", "descent", "satellites", "updateCount", "state"
+    };
+
+    static final int[] FIELD_TYPES =
+    {
+        TYPE_INT64, TYPE_FLOAT64, TYPE_FLOAT64, TYPE_FLOAT64, TYPE_FLOAT64, TYPE_FLOAT64, TYPE_FLOAT64, TYPE_FLOAT64,
+        TYPE_FLOAT64, TYPE_FLOAT64, TYPE_FLOAT64, TYPE_FLOAT64, TYPE_FLOAT64, TYPE_INT32, TYPE_INT64, TYPE_INT32
+    };
+
+    static final int RECORD_SIZE = 120;
+
+
+    private OlcRecordFormat()
+    {
+    }
+
+
+    /**
+     * Size of a field type, in bytes.
+     */
+    static int typeSize(int type) throws IOException
+    {
+        switch (type)
+        {
+            case TYPE_INT32:
+                return 4;
+            case TYPE_INT64:
+            case TYPE_FLOAT64:
+                return 8;
+            default:
+                throw new IOException("Unknown field type " + type + ".");
+        }
+    }
+
+
+    /**
+     * Build the file header of this version.
+     *
+     * @param stateLabels : label of each state code.
+     * @param locale : locale of the CSV numbers.
+     * @param timeZone : time zone of the CSV times.
+     * @return header, ready to be written.
+     */
+    static ByteBuffer encodeHeader(String[] stateLabels, Locale locale, TimeZone timeZone)
+    {
+        byte[][] names = new byte[FIELD_NAMES.length][];
+        byte[][] labels = new byte[stateLabels.length][];
+        byte[] localeBytes = utf8(locale.toString());
+        byte[] timeZoneBytes = utf8(timeZone.getID());
+
+        int size = PREAMBLE_SIZE + 2 + localeBytes.length + 2 + timeZoneBytes.length + 2;
+        for (int i = 0; i < FIELD_NAMES.length; i++)
+        {
+            names[i] = utf8(FIELD_NAMES[i]);
+            size += 2 + names[i].length;
+        }
+        for (int i = 0; i < stateLabels.length; i++)
+        {
+            labels[i] = utf8(stateLabels[i]);
+            size += 2 + labels[i].length;
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(size);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC);
+        header.putShort((short) VERSION);
+        header.putShort((short) size);
+        header.putShort((short) RECORD_SIZE);
+        header.putShort((short) FIELD_NAMES.length);
+        for (int i = 0; i < FIELD_NAMES.length; i++)
+        {
+            header.put((byte) FIELD_TYPES[i]);
+            header.put((byte) names[i].length);
+            header.put(names[i]);
+        }
+        putString(header, localeBytes);
+        putString(header, timeZoneBytes);
+        header.putShort((short) labels.length);
+        for (int i = 0; i < labels.length; i++)
+        {
+            putString(header, labels[i]);
+        }
+
+        header.flip();
+        return header;
+    }
+
+
+    /**
+     * Append a record.
+     *
+     * @param record : record to encode.
+     * @param out : little endian buffer with at least RECORD_SIZE bytes left.
+     */
+    static void encode(LogRecord record, ByteBuffer out)
+    {
+        out.putLong(record.time);
+        out.putDouble(record.distance);
+        out.putDouble(record.deltaDistance);
+        out.putDouble(record.accuracy);
+        out.putDouble(record.speed);
+        out.putDouble(record.deltaTime);
+        out.putDouble(record.altitude);
+        out.putDouble(record.bearing);
+        out.putDouble(record.latitude);
+        out.putDouble(record.longitude);
+        out.putDouble(record.lastAltitude);
+        out.putDouble(record.ascent);
+        out.putDouble(record.descent);
+        out.putInt(record.satellites);
+        out.putLong(record.updateCount);
+        out.putInt(record.state);
+    }
+
+
+    /**
+     * Decoded header.
+     */
+    static final class Header
+    {
+
+        int headerSize;
+        int recordSize;
+        int[] fieldIds;         // Field id of each stored field, -1 if unknown.
+        int[] fieldTypes;
+        Locale locale;
+        TimeZone timeZone;
+        String[] stateLabels;
+
+
+        /**
+         * Decode a full header.
+         *
+         * @param in : little endian buffer holding headerSize bytes.
+         */
+        Header(ByteBuffer in) throws IOException
+        {
+            if (in.getInt() != MAGIC)
+            {
+                throw new IOException("Not an OLC record file (bad magic).");
+            }
+            int version = in.getShort();
+            if (version != VERSION)
+            {
+                throw new IOException("Unsupported OLC record file version " + version + ".");
+            }
+            headerSize = in.getShort() & 0xFFFF;
+            recordSize = in.getShort() & 0xFFFF;
+
+            int fieldCount = in.getShort() & 0xFFFF;
+            fieldIds = new int[fieldCount];
+            fieldTypes = new int[fieldCount];
+            int size = 0;
+            for (int i = 0; i < fieldCount; i++)
+            {
+                fieldTypes[i] = in.get();
+                byte[] name = new byte[in.get() & 0xFF];
+                in.get(name);
+                fieldIds[i] = fieldId(new String(name, "UTF-8"), fieldTypes[i]);
+                size += typeSize(fieldTypes[i]);
+            }
+            if (size != recordSize)
+            {
+                throw new IOException("Record size " + recordSize + " doesn't match fields (" + size + " bytes).");
+            }
+
+            String[] localeParts = (getString(in) + "__").split("_", 3);
+            locale = new Locale(localeParts[0], localeParts[1], localeParts[2].replace("_", ""));
+            timeZone = TimeZone.getTimeZone(getString(in));
+
+            stateLabels = new String[in.getShort() & 0xFFFF];
+            for (int i = 0; i < stateLabels.length; i++)
+            {
+                stateLabels[i] = getString(in);
+            }
+        }
+
+
+        /**
+         * True if records can be appended by this version.
+         */
+        boolean isCurrentSchema()
+        {
+            if ((recordSize != RECORD_SIZE) || (fieldIds.length != FIELD_NAMES.length))
+            {
+                return false;
+            }
+            for (int i = 0; i < fieldIds.length; i++)
+            {
+                if (fieldIds[i] != i)
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+
+        /**
+         * Decode a record.
+         *
+         * @param in : little endian buffer with at least recordSize bytes left.
+         * @param record : destination.
+         */
+        void decode(ByteBuffer in, LogRecord record) throws IOException
+        {
+            for (int i = 0; i < fieldIds.length; i++)
+            {
+                long bits;
+                double value;
+
+                switch (fieldTypes[i])
+                {
+                    case TYPE_INT32:
+                        bits = in.getInt();
+                        value = bits;
+                        break;
+                    case TYPE_INT64:
+                        bits = in.getLong();
+                        value = bits;
+                        break;
+                    default:
+                        value = in.getDouble();
+                        bits = (long) value;
+                        break;
+                }
+
+                switch (fieldIds[i])
+                {
+                    case FIELD_TIME:
+                        record.time = bits;
+                        break;
+                    case FIELD_DISTANCE:
+                        record.distance = value;
+                        break;
+                    case FIELD_DELTA_DISTANCE:
+                        record.deltaDistance = value;
+                        break;
+                    case FIELD_ACCURACY:
+                        record.accuracy = value;
+                        break;
+                    case FIELD_SPEED:
+                        record.speed = value;
+                        break;
+                    case FIELD_DELTA_TIME:
+                        record.deltaTime = value;
+                        break;
+                    case FIELD_ALTITUDE:
+                        record.altitude = value;
+                        break;
+                    case FIELD_BEARING:
+                        record.bearing = value;
+                        break;
+                    case FIELD_LATITUDE:
+                        record.latitude = value;
+                        break;
+                    case FIELD_LONGITUDE:
+                        record.longitude = value;
+                        break;
+                    case FIELD_LAST_ALTITUDE:
+                        record.lastAltitude = value;
+                        break;
+                    case FIELD_ASCENT:
+                        record.ascent = value;
+                        break;
+                    case FIELD_DESCENT:
+                        record.descent = value;
+                        break;
+                    case FIELD_SATELLITES:
+                        record.satellites = (int) bits;
+                        break;
+                    case FIELD_UPDATE_COUNT:
+                        record.updateCount = bits;
+                        break;
+                    case FIELD_STATE:
+                        record.state = (int) bits;
+                        break;
+                    default:
+                        // Unknown field, skipped.
+                        break;
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Field id of a stored field, -1 if unknown or of another type.
+     */
+    private static int fieldId(String name, int type)
+    {
+        for (int i = 0; i < FIELD_NAMES.length; i++)
+        {
+            if ((FIELD_NAMES[i].equals(name) == true) && (FIELD_TYPES[i] == type))
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+
+    private static void putString(ByteBuffer out, byte[] bytes)
+    {
+        out.putShort((short) bytes.length);
+        out.put(bytes);
+    }
+
+
+    private static String getString(ByteBuffer in) throws IOException
+    {
+        byte[] bytes = new byte[in.getShort() & 0xFFFF];
+        in.get(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+
+    private static byte[] utf8(String s)
+    {
+        try
+        {
+            return s.getBytes("UTF-8");
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            // UTF-8 is always supported.
+            throw new IllegalStateException(e);
+        }
+    }
+}
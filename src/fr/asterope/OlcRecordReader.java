@@ -0,0 +1,316 @@
+/**
+ * 
+ * AndroidRun, basic runner's android application. Calculates distance, speed
+ * and other usefull values taken from GPS device.
+ * 
+ * Copyright (C) 2014 Bruno Vedder
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ * 
+ */
+
+package fr.asterope;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+
+/**
+ * Reads binary OLC record files, see OlcRecordFormat, and converts them back
+ * to the OLC lines of the CSV log.
+ *
+ * @author bruno
+ */
+public class OlcRecordReader implements Closeable
+{
+
+    static final private int BUFFER_SIZE = 64 * 1024;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final OlcRecordFormat.Header header;
+    private final long recordCount;
+    private final ByteBuffer buffer;
+    private long recordsRead = 0;
+
+
+    /**
+     * Constructor : open the file and read its header.
+     *
+     * @param absoluteFilename : file to read.
+     * @throws java.io.FileNotFoundException
+     * @throws IOException if the file isn't a valid record file.
+     */
+    public OlcRecordReader(String absoluteFilename) throws IOException
+    {
+        file = new RandomAccessFile(absoluteFilename, "r");
+
+        try
+        {
+            channel = file.getChannel();
+
+            ByteBuffer preamble = ByteBuffer.allocate(OlcRecordFormat.PREAMBLE_SIZE);
+            preamble.order(ByteOrder.LITTLE_ENDIAN);
+            readFully(preamble, 0);
+            int headerSize = preamble.getShort(6) & 0xFFFF;
+            if ((preamble.getInt(0) != OlcRecordFormat.MAGIC) || (headerSize < OlcRecordFormat.PREAMBLE_SIZE))
+            {
+                throw new IOException(absoluteFilename + " is not an OLC record file.");
+            }
+
+            ByteBuffer headerBytes = ByteBuffer.allocate(headerSize);
+            headerBytes.order(ByteOrder.LITTLE_ENDIAN);
+            readFully(headerBytes, 0);
+            header = new OlcRecordFormat.Header(headerBytes);
+
+            // A partially written last record is ignored.
+            recordCount = (channel.size() - header.headerSize) / header.recordSize;
+            channel.position(header.headerSize);
+        }
+        catch (IOException e)
+        {
+            file.close();
+            throw e;
+        }
+
+        buffer = ByteBuffer.allocate(Math.max(BUFFER_SIZE, header.recordSize));
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.flip();
+    }
+
+
+    /**
+     * Read the next record.
+     *
+     * @param record : destination, overwritten.
+     * @return false at end of file.
+     * @throws IOException
+     */
+    public boolean read(LogRecord record) throws IOException
+    {
+        if (recordsRead >= recordCount)
+        {
+            return false;
+        }
+
+        if (buffer.remaining() < header.recordSize)
+        {
+            buffer.compact();
+            while (buffer.position() < header.recordSize)
+            {
+                if (channel.read(buffer) < 0)
+                {
+                    throw new IOException("Unexpected end of file after " + recordsRead + " records.");
+                }
+            }
+            buffer.flip();
+        }
+
+        int end = buffer.position() + header.recordSize;
+        header.decode(buffer, record);
+        buffer.position(end);
+        recordsRead++;
+        return true;
+    }
+
+
+    /**
+     * Pass all remaining records to a handler, through a single reused record.
+     *
+     * @param handler : receives each record.
+     * @return number of records read.
+     * @throws IOException
+     */
+    public long drain(LogRecordHandler handler) throws IOException
+    {
+        LogRecord record = new LogRecord();
+        long count = 0;
+        while (read(record) == true)
+        {
+            handler.onRecord(record);
+            count++;
+        }
+        return count;
+    }
+
+
+    /**
+     * Close the file.
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException
+    {
+        file.close();
+    }
+
+
+    /**
+     * Number of complete records in the file.
+     *
+     * @return record count.
+     */
+    public long getRecordCount()
+    {
+        return recordCount;
+    }
+
+
+    /**
+     * State labels getter.
+     *
+     * @return label of each state code.
+     */
+    public String[] getStateLabels()
+    {
+        return header.stateLabels.clone();
+    }
+
+
+    /**
+     * Locale the CSV numbers are formatted with.
+     *
+     * @return locale of the writer.
+     */
+    public Locale getLocale()
+    {
+        return header.locale;
+    }
+
+
+    /**
+     * Time zone the CSV times are formatted with.
+     *
+     * @return time zone of the writer.
+     */
+    public TimeZone getTimeZone()
+    {
+        return header.timeZone;
+    }
+
+
+    OlcRecordFormat.Header getHeader()
+    {
+        return header;
+    }
+
+
+    /**
+     * Write the records as the OLC lines of the CSV log, exactly as the
+     * synchronous logger writes them.
+     *
+     * @param absoluteFilename : record file to read.
+     * @param out : destination of the lines.
+     * @return number of lines written.
+     * @throws IOException
+     */
+    public static long toCsv(String absoluteFilename, final Appendable out) throws IOException
+    {
+        final OlcRecordReader reader = new OlcRecordReader(absoluteFilename);
+
+        try
+        {
+            final SimpleDateFormat dateFormat = new SimpleDateFormat("HH:mm:ss", reader.getLocale());
+            dateFormat.setTimeZone(reader.getTimeZone());
+            final Date date = new Date();
+            final String[] stateLabels = reader.getStateLabels();
+            final DecimalFormatter formatter = new DecimalFormatter(reader.getLocale());
+            final StringBuilder line = new StringBuilder(192);
+
+            return reader.drain(new LogRecordHandler()
+            {
+                public void onRecord(LogRecord record) throws IOException
+                {
+                    date.setTime(record.time);
+                    line.setLength(0);
+                    line.append(dateFormat.format(date)).append(" : ");
+                    record.appendTo(line, formatter, stateLabels).append('\n');
+                    out.append(line);
+                }
+            });
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+
+    private void readFully(ByteBuffer dst, long position) throws IOException
+    {
+        while (dst.hasRemaining())
+        {
+            if (channel.read(dst, position + dst.position()) < 0)
+            {
+                throw new IOException("Not an OLC record file (too short).");
+            }
+        }
+        dst.flip();
+    }
+
+
+    /**
+     * Convert a binary record file to CSV.
+     *
+     * @param args : record file, and optional CSV file (default : standard
+     * output).
+     */
+    public static void main(String[] args)
+    {
+        if ((args.length < 1) || (args.length > 2))
+        {
+            System.out.println("Usage : OlcRecordReader <record file> [csv file]");
+            return;
+        }
+
+        try
+        {
+            if (args.length == 1)
+            {
+                Writer out = new BufferedWriter(new OutputStreamWriter(System.out));
+                toCsv(args[0], out);
+                out.flush();
+            }
+            else
+            {
+                Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(args[1])));
+                try
+                {
+                    toCsv(args[0], out);
+                }
+                finally
+                {
+                    out.close();
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            System.out.println("Got exception ! " + e.getMessage());
+        }
+    }
+}
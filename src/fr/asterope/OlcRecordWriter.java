@@ -0,0 +1,185 @@
+/**
+ * 
+ * AndroidRun, basic runner's android application. Calculates distance, speed
+ * and other usefull values taken from GPS device.
+ * 
+ * Copyright (C) 2014 Bruno Vedder
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ * 
+ */
+
+package fr.asterope;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Locale;
+import java.util.TimeZone;
+
+
+/**
+ * Writes log records into a binary OLC record file, see OlcRecordFormat.
+ * Records are encoded into a 64 KB buffer, written when full or on flush().
+ * An existing file is appended to, after dropping a partially written last
+ * record.
+ *
+ * @author bruno
+ */
+public class OlcRecordWriter implements LogRecordHandler, Closeable
+{
+
+    static final private int BUFFER_SIZE = 64 * 1024;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private long recordCount = 0;
+
+
+    /**
+     * Constructor, CSV numbers and times will use the default locale and time
+     * zone.
+     *
+     * @param absoluteFilename : file to write.
+     * @param stateLabels : label of each state code.
+     * @throws IOException
+     */
+    public OlcRecordWriter(String absoluteFilename, String[] stateLabels) throws IOException
+    {
+        this(absoluteFilename, stateLabels, Locale.getDefault(), TimeZone.getDefault());
+    }
+
+
+    /**
+     * Constructor.
+     *
+     * @param absoluteFilename : file to write.
+     * @param stateLabels : label of each state code.
+     * @param locale : locale of the CSV numbers.
+     * @param timeZone : time zone of the CSV times.
+     * @throws IOException if the file exists with another schema.
+     */
+    public OlcRecordWriter(String absoluteFilename, String[] stateLabels, Locale locale, TimeZone timeZone) throws IOException
+    {
+        file = new RandomAccessFile(absoluteFilename, "rw");
+        channel = file.getChannel();
+        buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        try
+        {
+            long size = channel.size();
+            if (size == 0)
+            {
+                ByteBuffer header = OlcRecordFormat.encodeHeader(stateLabels, locale, timeZone);
+                while (header.hasRemaining())
+                {
+                    channel.write(header);
+                }
+            }
+            else
+            {
+                OlcRecordReader reader = new OlcRecordReader(absoluteFilename);
+                OlcRecordFormat.Header header = reader.getHeader();
+                long count = reader.getRecordCount();
+                reader.close();
+
+                if (header.isCurrentSchema() == false)
+                {
+                    throw new IOException(absoluteFilename + " has another record schema.");
+                }
+
+                long end = header.headerSize + count * OlcRecordFormat.RECORD_SIZE;
+                if (end != size)
+                {
+                    file.setLength(end);
+                }
+                channel.position(end);
+                recordCount = count;
+            }
+        }
+        catch (IOException e)
+        {
+            file.close();
+            throw e;
+        }
+    }
+
+
+    /**
+     * Append a record.
+     *
+     * @param record : record to write.
+     * @throws IOException
+     */
+    public void onRecord(LogRecord record) throws IOException
+    {
+        if (buffer.remaining() < OlcRecordFormat.RECORD_SIZE)
+        {
+            flush();
+        }
+        OlcRecordFormat.encode(record, buffer);
+        recordCount++;
+    }
+
+
+    /**
+     * Write buffered records.
+     *
+     * @throws IOException
+     */
+    public void flush() throws IOException
+    {
+        buffer.flip();
+        while (buffer.hasRemaining())
+        {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+
+    /**
+     * Write buffered records and close the file.
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException
+    {
+        try
+        {
+            flush();
+        }
+        finally
+        {
+            file.close();
+        }
+    }
+
+
+    /**
+     * Number of records in the file, written or buffered.
+     *
+     * @return record count.
+     */
+    public long getRecordCount()
+    {
+        return recordCount;
+    }
+}
@@ -0,0 +1,389 @@
+/**
+ * 
+ * AndroidRun, basic runner's android application. Calculates distance, speed
+ * and other usefull values taken from GPS device.
+ * 
+ * Copyright (C) 2014 Bruno Vedder
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ * 
+ */
+
+package fr.asterope;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+
+/**
+ * Replay of run logs : the logged fixes go through a TrackingEngine again, set
+ * up as MainActivity's by default, and the recomputed metrics are reported
+ * next to the logged ones. Used to validate algorithm or setting changes
+ * against real runs.
+ *
+ * Inputs are CSV logs (Run_*.csv, with their rotated and compressed segments)
+ * and binary record files (Run_*.olc). CSV logs are read by OlcCsvParser :
+ * only OLC lines are used, malformed ones are counted and skipped.
+ *
+ * Records hold the raw fixes (see TrackingEngine.fillRecord()), so that the
+ * filter sees the same input as in the application. The logged state of each
+ * fix tells whether tracking was started, so that pauses are replayed. Fix
+ * times come from the logged times, taken when the fix was logged : the
+ * replayed distance may differ slightly from the logged one, more so with
+ * CSV logs which only give times to the second and round the fields.
+ *
+ * Runs are independent : many logs can be replayed in parallel on an
+ * ExecutorService. An OlcReplay holds settings only, and can be shared.
+ *
+ * @author bruno
+ */
+public final class OlcReplay
+{
+
+    static final public String[] DEFAULT_STATE_LABELS =
+    {
+        "Not tracking", "OK", "Bad accuracy"
+    };
+
+    static final private String CSV_EXTENSION = ".csv";
+    static final private String RUN_PREFIX = "Run_";
+    static final private long DAY_MS = 24L * 3600L * 1000L;
+    static final private long NANOS_PER_MS = 1000000L;
+
+    private final boolean filtered;
+    private final float requiredAccuracy;
+    private final String[] stateLabels;
+
+
+    /**
+     * Constructor with the application settings.
+     */
+    public OlcReplay()
+    {
+        this(TrackingEngine.APPLICATION_FILTERED, DEFAULT_STATE_LABELS);
+    }
+
+
+    /**
+     * Constructor with the required accuracy of the application for this
+     * filter setting, see TrackingEngine.create().
+     *
+     * @param filtered : true to smooth fixes with a KalmanFilter.
+     * @param stateLabels : label of each state code in CSV logs, as given to
+     * ExternalFileLogger.
+     */
+    public OlcReplay(boolean filtered, String[] stateLabels)
+    {
+        this(filtered, (filtered == true) ? TrackingEngine.FILTERED_REQUIRED_ACCURACY : TrackingEngine.DEFAULT_REQUIRED_ACCURACY, stateLabels);
+    }
+
+
+    /**
+     * Constructor.
+     *
+     * @param filtered : true to smooth fixes with a KalmanFilter.
+     * @param requiredAccuracy : fixes less accurate are ignored, in meters.
+     * @param stateLabels : label of each state code in CSV logs, as given to
+     * ExternalFileLogger.
+     */
+    public OlcReplay(boolean filtered, float requiredAccuracy, String[] stateLabels)
+    {
+        this.filtered = filtered;
+        this.requiredAccuracy = requiredAccuracy;
+        this.stateLabels = stateLabels.clone();
+    }
+
+
+    /**
+     * Replay one run : a record file if its name ends with .olc, a CSV log
+     * otherwise, including its rotated segments.
+     *
+     * @param file : record file, or active CSV log.
+     * @return recomputed and logged metrics.
+     * @throws IOException
+     */
+    public RunSummary replay(File file) throws IOException
+    {
+        Replayer replayer = new Replayer(file.getName());
+        return replayer.finish(RunFiles.read(file, replayer, stateLabels));
+    }
+
+
+    /**
+     * Replay many runs, in parallel on the executor.
+     *
+     * @param files : runs to replay, see replay(File).
+     * @param executor : where runs are replayed, null to replay them in the
+     * calling thread.
+     * @return one summary per file, in files order.
+     * @throws IOException if a run couldn't be read.
+     */
+    public RunSummary[] replay(File[] files, ExecutorService executor) throws IOException
+    {
+        ArrayList<RunSummary> summaries = RunFiles.forEach(files, new RunFiles.Task<RunSummary>()
+        {
+            public RunSummary call(File run) throws IOException
+            {
+                return replay(run);
+            }
+        }, executor);
+        return summaries.toArray(new RunSummary[summaries.size()]);
+    }
+
+
+    /**
+     * Replay a CSV log. Only OLC lines are used.
+     *
+     * @param in : log content, not closed.
+     * @param name : name of the run in the summary.
+     * @return recomputed and logged metrics.
+     * @throws IOException
+     */
+    public RunSummary replayCsv(InputStream in, String name) throws IOException
+    {
+        Replayer replayer = new Replayer(name);
+        OlcCsvParser parser = new OlcCsvParser(stateLabels);
+        parser.parse(in, replayer);
+        return replayer.finish(parser);
+    }
+
+
+    /**
+     * Find the runs of a log directory : record files, and CSV logs without a
+     * record file. Rotated segments are not listed, they are replayed with
+     * their CSV log.
+     *
+     * @param directory : log directory.
+     * @return runs, sorted by name.
+     */
+    public static File[] listRuns(File directory)
+    {
+        File[] files = directory.listFiles();
+        if (files == null)
+        {
+            return new File[0];
+        }
+
+        ArrayList<File> runs = new ArrayList<File>();
+        for (File file : files)
+        {
+            String name = file.getName();
+            if ((name.startsWith(RUN_PREFIX) == false) || (file.isFile() == false))
+            {
+                continue;
+            }
+            if (name.endsWith(RunFiles.RECORD_EXTENSION) == true)
+            {
+                runs.add(file);
+            }
+            else if ((name.endsWith(CSV_EXTENSION) == true) && (isSegment(name) == false))
+            {
+                String base = name.substring(0, name.length() - CSV_EXTENSION.length());
+                if (new File(directory, base + RunFiles.RECORD_EXTENSION).exists() == false)
+                {
+                    runs.add(file);
+                }
+            }
+        }
+
+        File[] result = runs.toArray(new File[runs.size()]);
+        Arrays.sort(result);
+        return result;
+    }
+
+
+    /**
+     * Is this CSV log a rotated segment, named as LogSegments.segmentName().
+     */
+    private static boolean isSegment(String name)
+    {
+        int end = name.length() - CSV_EXTENSION.length();
+        if (end < 4 || name.charAt(end - 4) != '.')
+        {
+            return false;
+        }
+        for (int i = end - 3; i < end; i++)
+        {
+            if (name.charAt(i) < '0' || name.charAt(i) > '9')
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Replay state of one run : the logged fixes are fed to a TrackingEngine,
+     * as MainActivity does with each location.
+     */
+    private final class Replayer implements LogRecordHandler
+    {
+
+        private final RunSummary summary;
+        private final TrackingEngine engine;
+
+        private boolean appHasPosition = false;         // The application had a last position.
+        private long lastTime = -1;
+        private long dayOffset = 0;                     // CSV times start again from 0 at midnight.
+
+
+        Replayer(String name)
+        {
+            summary = new RunSummary(name);
+            engine = new TrackingEngine(requiredAccuracy, (filtered == true) ? new KalmanFilter() : null);
+        }
+
+
+        /**
+         * Same as MainActivity.onLocationChanged, on a logged fix.
+         */
+        public void onRecord(LogRecord fix)
+        {
+            summary.fixes++;
+
+            // update_count only goes back to zero on reset.
+            if (fix.updateCount < summary.loggedUpdateCount)
+            {
+                summary.resets++;
+                summary.clearRun();
+                engine.reset();
+            }
+
+            if (fix.state != LogRecord.STATE_BAD_ACCURACY)
+            {
+                // Only the first fix ever is not tracked while started.
+                if (appHasPosition == true)
+                {
+                    engine.setStarted(fix.state == LogRecord.STATE_TRACKING_OK);
+                }
+                appHasPosition = true;
+            }
+
+            if ((lastTime >= 0) && (fix.time + dayOffset < lastTime - DAY_MS / 2))
+            {
+                dayOffset += DAY_MS;
+            }
+            long time = fix.time + dayOffset;
+            lastTime = time;
+
+            if (summary.startTime < 0)
+            {
+                summary.startTime = fix.time;
+            }
+            summary.endTime = fix.time;
+
+            int state = engine.onFix(time * NANOS_PER_MS, time, fix.latitude, fix.longitude, fix.altitude, (float) fix.accuracy, (float) fix.speed,
+                (float) fix.bearing, fix.satellites);
+            if (state != LogRecord.STATE_BAD_ACCURACY)
+            {
+                summary.acceptedFixes++;
+                summary.addPosition(fix.latitude, fix.longitude);
+            }
+            if (state == LogRecord.STATE_TRACKING_OK)
+            {
+                summary.maxSpeed = Math.max(summary.maxSpeed, (float) fix.speed);
+            }
+
+            summary.distance = engine.getDistance();
+            summary.elapsedSeconds = engine.getElapsedSeconds();
+            summary.averageSpeed = engine.getAverageSpeed();
+            summary.updateCount = engine.getUpdateCount();
+            summary.loggedDistance = fix.distance;
+            summary.loggedAscent = fix.ascent;
+            summary.loggedDescent = fix.descent;
+            summary.loggedUpdateCount = fix.updateCount;
+        }
+
+
+        RunSummary finish(OlcCsvParser parser)
+        {
+            if (parser != null)
+            {
+                summary.lines = parser.getLineCount();
+                summary.skippedLines = parser.getSkippedLineCount();
+                summary.malformedLines = parser.getMalformedLineCount();
+            }
+            summary.ascent = engine.getAscent();
+            summary.descent = engine.getDescent();
+            return summary;
+        }
+    }
+
+
+    public static void main(String[] args)
+    {
+        if (args.length < 1)
+        {
+            System.out.println("Usage : OlcReplay [-r raw fixes, without filter] [-a required accuracy] <log file or directory>...");
+            return;
+        }
+
+        boolean filtered = TrackingEngine.APPLICATION_FILTERED;
+        float accuracy = -1.0f;
+        ArrayList<File> files = new ArrayList<File>();
+        for (int i = 0; i < args.length; i++)
+        {
+            if (args[i].equals("-r") == true)
+            {
+                filtered = false;
+            }
+            else if (args[i].equals("-a") == true && i + 1 < args.length)
+            {
+                accuracy = Float.parseFloat(args[++i]);
+            }
+            else if (new File(args[i]).isDirectory() == true)
+            {
+                files.addAll(Arrays.asList(listRuns(new File(args[i]))));
+            }
+            else
+            {
+                files.add(new File(args[i]));
+            }
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try
+        {
+            long start = System.currentTimeMillis();
+            OlcReplay replay = (accuracy < 0.0f) ? new OlcReplay(filtered, DEFAULT_STATE_LABELS) : new OlcReplay(filtered, accuracy, DEFAULT_STATE_LABELS);
+            RunSummary[] summaries = replay.replay(files.toArray(new File[files.size()]), executor);
+            long duration = System.currentTimeMillis() - start;
+
+            DecimalFormatter formatter = new DecimalFormatter();
+            StringBuilder line = new StringBuilder(256);
+            System.out.println(RunSummary.CSV_HEADER);
+            for (RunSummary summary : summaries)
+            {
+                line.setLength(0);
+                System.out.println(summary.appendTo(line, formatter));
+            }
+            System.out.println(summaries.length + " runs replayed in " + duration + " ms.");
+        }
+        catch (IOException e)
+        {
+            System.out.println("Got exception ! " + e.getMessage());
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+}
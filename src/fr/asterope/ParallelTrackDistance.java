@@ -0,0 +1,266 @@
+/**
+ * 
+ * AndroidRun, basic runner's android application. Calculates distance, speed
+ * and other usefull values taken from GPS device.
+ * 
+ * Copyright (C) 2014 Bruno Vedder
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ * 
+ */
+
+package fr.asterope;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+
+/**
+ * Parallel version of WGS84.computeTrackDistance(double[], double[], int,
+ * int, int, double[]) for long tracks.
+ *
+ * The track is cut into chunks of a fixed number of segments. Each chunk also
+ * takes the first point of the next chunk, so the segment crossing the
+ * boundary is computed once, by the chunk on its left. Chunks are summed with
+ * compensated summation, and the chunk sums are added in track order : the
+ * result only depends on the chunk size, never on the number of threads or on
+ * which thread finished first.
+ *
+ * Tracks shorter than the threshold are computed by the calling thread, chunk
+ * after chunk, which gives the very same result.
+ *
+ * Any ExecutorService can be used (a ForkJoinPool on a desktop JVM); by
+ * default a pool of daemon threads, one per processor, is shared.
+ *
+ * @author bruno
+ */
+public class ParallelTrackDistance
+{
+
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;       // Segments per chunk.
+    public static final int DEFAULT_THRESHOLD = 4 * DEFAULT_CHUNK_SIZE;
+
+    private static ExecutorService defaultExecutor = null;
+
+    private final ExecutorService executor;
+    private final int chunkSize;
+    private final int threshold;
+
+
+    /**
+     * Constructor using the shared default pool, chunk size and threshold.
+     */
+    public ParallelTrackDistance()
+    {
+        this(getDefaultExecutor(), DEFAULT_CHUNK_SIZE, DEFAULT_THRESHOLD);
+    }
+
+
+    /**
+     * Constructor.
+     *
+     * @param executor : runs the chunks.
+     * @param chunkSize : number of segments per chunk.
+     * @param threshold : tracks with less points are computed by the calling
+     * thread.
+     */
+    public ParallelTrackDistance(ExecutorService executor, int chunkSize, int threshold)
+    {
+        if (chunkSize < 1)
+        {
+            throw new IllegalArgumentException("Chunk size must be >= 1.");
+        }
+
+        this.executor = executor;
+        this.chunkSize = chunkSize;
+        this.threshold = threshold;
+    }
+
+
+    /**
+     * Shared pool of daemon threads, one per available processor. Created on
+     * first use.
+     *
+     * @return default executor.
+     */
+    public static synchronized ExecutorService getDefaultExecutor()
+    {
+        if (defaultExecutor == null)
+        {
+            defaultExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory()
+            {
+                public Thread newThread(Runnable r)
+                {
+                    Thread thread = new Thread(r, "track-distance");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return defaultExecutor;
+    }
+
+
+    /**
+     * Compute integral distance over a track stored as two parallel arrays,
+     * same contract as WGS84.computeTrackDistance(double[], double[], int, int,
+     * int, double[]).
+     *
+     * @param latitudes : latitudes of the track, in decimal degree.
+     * @param longitudes : longitudes of the track, in decimal degree.
+     * @param offset : index of the first point of the track.
+     * @param length : number of points of the track.
+     * @param algorithm : Great-Circle, Haversine, Vincenty.
+     * @param segments : per segment distances in kilometers, may be null.
+     * @return distance in kilometers, -1.0 if algorithm is unknown.
+     */
+    public double computeTrackDistance(final double[] latitudes, final double[] longitudes, int offset, int length, final int algorithm, final double[] segments)
+    {
+        if ((algorithm != WGS84.GREAT_CIRCLE) && (algorithm != WGS84.HAVERSINE) && (algorithm != WGS84.VINCENTY))
+        {
+            return -1.0;
+        }
+
+        if ((offset < 0) || (length < 0) || (offset + length > latitudes.length) || (offset + length > longitudes.length))
+        {
+            throw new IndexOutOfBoundsException("Track [" + offset + ", " + (offset + length) + "[ is out of arrays bounds.");
+        }
+
+        int segmentCount = Math.max(length - 1, 0);
+        int chunkCount = (segmentCount + chunkSize - 1) / chunkSize;
+
+        CompensatedSum sum = new CompensatedSum();
+
+        if ((length < threshold) || (chunkCount < 2))
+        {
+            // Same chunks, computed by this thread.
+            for (int chunk = 0; chunk < chunkCount; chunk++)
+            {
+                double dist = computeChunk(latitudes, longitudes, offset, segmentCount, chunk, algorithm, segments);
+                sum.add(dist);
+            }
+            return sum.get();
+        }
+
+        ArrayList<Future<Double>> results = new ArrayList<Future<Double>>(chunkCount);
+        final int trackOffset = offset;
+        final int trackSegments = segmentCount;
+
+        for (int chunk = 0; chunk < chunkCount; chunk++)
+        {
+            final int chunkIndex = chunk;
+            results.add(executor.submit(new Callable<Double>()
+            {
+                public Double call()
+                {
+                    return computeChunk(latitudes, longitudes, trackOffset, trackSegments, chunkIndex, algorithm, segments);
+                }
+            }));
+        }
+
+        try
+        {
+            // Chunk sums are added in track order, whatever the completion order.
+            for (int chunk = 0; chunk < chunkCount; chunk++)
+            {
+                double dist = results.get(chunk).get();
+                sum.add(dist);
+            }
+        }
+        catch (InterruptedException e)
+        {
+            cancel(results);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while computing track distance.", e);
+        }
+        catch (ExecutionException e)
+        {
+            cancel(results);
+            if (e.getCause() instanceof RuntimeException)
+            {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+
+        return sum.get();
+    }
+
+
+    /**
+     * Compute integral distance over the whole track.
+     *
+     * @param latitudes : latitudes of the track, in decimal degree.
+     * @param longitudes : longitudes of the track, in decimal degree.
+     * @param algorithm : Great-Circle, Haversine, Vincenty.
+     * @return distance in kilometers, -1.0 if algorithm is unknown.
+     */
+    public double computeTrackDistance(double[] latitudes, double[] longitudes, int algorithm)
+    {
+        return computeTrackDistance(latitudes, longitudes, 0, latitudes.length, algorithm, null);
+    }
+
+
+    /**
+     * Distance of one chunk : its segments, including the one ending on the
+     * first point of the next chunk.
+     */
+    private double computeChunk(double[] latitudes, double[] longitudes, int offset, int segmentCount, int chunk, int algorithm, double[] segments)
+    {
+        int firstSegment = chunk * chunkSize;
+        int chunkSegments = Math.min(chunkSize, segmentCount - firstSegment);
+
+        return WGS84.computeTrackDistance(latitudes, longitudes, offset + firstSegment, chunkSegments + 1, algorithm, segments);
+    }
+
+
+    /**
+     * Cancel the chunks not yet computed.
+     */
+    private static void cancel(ArrayList<Future<Double>> results)
+    {
+        for (Future<Double> result : results)
+        {
+            result.cancel(false);
+        }
+    }
+
+
+    /**
+     * Chunk size getter.
+     *
+     * @return number of segments per chunk.
+     */
+    public int getChunkSize()
+    {
+        return chunkSize;
+    }
+
+
+    /**
+     * Threshold getter.
+     *
+     * @return tracks with less points are computed by the calling thread.
+     */
+    public int getThreshold()
+    {
+        return threshold;
+    }
+}
@@ -0,0 +1,243 @@
+/**
+ * 
+ * AndroidRun, basic runner's android application. Calculates distance, speed
+ * and other usefull values taken from GPS device.
+ * 
+ * Copyright (C) 2014 Bruno Vedder
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ * 
+ */
+
+package fr.asterope;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+
+/**
+ * Fast reader for position files. Expected file format : Latitude Longitude in
+ * decimal degree, separated by spaces or tabulations. One couple of value per
+ * line, no more. Blank lines are ignored.
+ *
+ * The file is memory mapped by windows, copied into a large byte buffer and
+ * parsed in place : no Scanner, no String, no WGS84Point per line. Each
+ * position is pushed to a PositionListener, or stored into primitive arrays.
+ *
+ * A malformed line stops the parsing with a PositionFormatException giving
+ * its line number.
+ *
+ * @author bruno
+ */
+public final class PositionFileParser
+{
+
+    static final private long MAP_WINDOW_SIZE = 64L * 1024L * 1024L;
+    static final private int BUFFER_SIZE = 1024 * 1024;
+
+
+    private PositionFileParser()
+    {
+    }
+
+
+    /**
+     * Read a position file and push every position to the listener, in file
+     * order.
+     *
+     * @param absoluteFilename : file to read.
+     * @param listener : receives positions.
+     * @return number of positions read.
+     * @throws java.io.FileNotFoundException
+     * @throws PositionFormatException if a line is malformed.
+     * @throws IOException
+     */
+    public static long parse(String absoluteFilename, PositionListener listener) throws IOException
+    {
+        RandomAccessFile file = new RandomAccessFile(absoluteFilename, "r");
+
+        try
+        {
+            FileChannel channel = file.getChannel();
+            long size = channel.size();
+            long position = 0;
+
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int pending = 0;            // Bytes of an unfinished line at buffer start.
+            long[] counters = new long[2];    // Line number, positions read.
+
+            while (position < size)
+            {
+                long windowSize = Math.min(MAP_WINDOW_SIZE, size - position);
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, windowSize);
+                position += windowSize;
+
+                while (window.hasRemaining())
+                {
+                    if (pending == buffer.length)
+                    {
+                        throw new PositionFormatException(counters[0] + 1, "line is longer than " + buffer.length + " bytes.");
+                    }
+
+                    int count = Math.min(buffer.length - pending, window.remaining());
+                    window.get(buffer, pending, count);
+
+                    int limit = pending + count;
+                    int consumed = parseLines(buffer, limit, listener, counters);
+
+                    // Keep the unfinished line for the next round.
+                    pending = limit - consumed;
+                    System.arraycopy(buffer, consumed, buffer, 0, pending);
+                }
+            }
+
+            // Last line without end of line.
+            if (pending > 0)
+            {
+                counters[0]++;
+                parseLine(buffer, 0, pending, listener, counters);
+            }
+
+            return counters[1];
+        }
+        finally
+        {
+            file.close();
+        }
+    }
+
+
+    /**
+     * Read a position file into two arrays.
+     *
+     * @param absoluteFilename : file to read.
+     * @return {latitudes, longitudes} in decimal degree, sized to the number
+     * of positions.
+     * @throws java.io.FileNotFoundException
+     * @throws PositionFormatException if a line is malformed.
+     * @throws IOException
+     */
+    public static double[][] load(String absoluteFilename) throws IOException
+    {
+        ArrayCollector collector = new ArrayCollector();
+        parse(absoluteFilename, collector);
+        return collector.toArrays();
+    }
+
+
+    /**
+     * Parse every complete line of buffer[0, limit[.
+     *
+     * @return index after the last end of line found.
+     */
+    private static int parseLines(byte[] buffer, int limit, PositionListener listener, long[] counters) throws PositionFormatException
+    {
+        int lineStart = 0;
+
+        for (int i = 0; i < limit; i++)
+        {
+            if (buffer[i] == '\n')
+            {
+                counters[0]++;
+                parseLine(buffer, lineStart, i, listener, counters);
+                lineStart = i + 1;
+            }
+        }
+        return lineStart;
+    }
+
+
+    /**
+     * Parse a single line buffer[start, end[ (end of line excluded).
+     */
+    private static void parseLine(byte[] buffer, int start, int end, PositionListener listener, long[] counters) throws PositionFormatException
+    {
+        if (end > start && buffer[end - 1] == '\r')
+        {
+            end--;
+        }
+
+        int latStart = DecimalParser.skipSeparators(buffer, start, end, (byte) 0);
+        if (latStart == end)
+        {
+            return; // Blank line.
+        }
+        int latEnd = DecimalParser.tokenEnd(buffer, latStart, end, (byte) 0);
+
+        int longStart = DecimalParser.skipSeparators(buffer, latEnd, end, (byte) 0);
+        if (longStart == end)
+        {
+            throw new PositionFormatException(counters[0], "longitude is missing.");
+        }
+        int longEnd = DecimalParser.tokenEnd(buffer, longStart, end, (byte) 0);
+
+        if (DecimalParser.skipSeparators(buffer, longEnd, end, (byte) 0) != end)
+        {
+            throw new PositionFormatException(counters[0], "more than two values.");
+        }
+
+        double lati;
+        double longi;
+        try
+        {
+            lati = DecimalParser.parse(buffer, latStart, latEnd);
+            longi = DecimalParser.parse(buffer, longStart, longEnd);
+        }
+        catch (NumberFormatException e)
+        {
+            throw new PositionFormatException(counters[0], "invalid number (" + e.getMessage() + ").");
+        }
+
+        counters[1]++;
+        listener.onPosition(lati, longi);
+    }
+
+
+    /**
+     * Store positions into growable primitive arrays.
+     */
+    private static class ArrayCollector implements PositionListener
+    {
+
+        private double[] latitudes = new double[10000];
+        private double[] longitudes = new double[10000];
+        private int size = 0;
+
+
+        public void onPosition(double latitude, double longitude)
+        {
+            if (size == latitudes.length)
+            {
+                latitudes = Arrays.copyOf(latitudes, size * 2);
+                longitudes = Arrays.copyOf(longitudes, size * 2);
+            }
+            latitudes[size] = latitude;
+            longitudes[size] = longitude;
+            size++;
+        }
+
+
+        double[][] toArrays()
+        {
+            return new double[][]
+            {
+                Arrays.copyOf(latitudes, size), Arrays.copyOf(longitudes, size)
+            };
+        }
+    }
+}
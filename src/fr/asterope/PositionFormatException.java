@@ -0,0 +1,65 @@
+/**
+ * 
+ * AndroidRun, basic runner's android application. Calculates distance, speed
+ * and other usefull values taken from GPS device.
+ * 
+ * Copyright (C) 2014 Bruno Vedder
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ * 
+ */
+
+package fr.asterope;
+
+import java.io.IOException;
+
+
+/**
+ * Thrown when a line of a position file can't be parsed. The line number
+ * (starting at 1) is kept so that the faulty line can be found.
+ *
+ * @author bruno
+ */
+public class PositionFormatException extends IOException
+{
+
+    private static final long serialVersionUID = 1L;
+
+    private final long lineNumber;
+
+
+    /**
+     * Constructor.
+     *
+     * @param lineNumber : line number, starting at 1.
+     * @param message : what is wrong with the line.
+     */
+    public PositionFormatException(long lineNumber, String message)
+    {
+        super("Line " + lineNumber + " : " + message);
+        this.lineNumber = lineNumber;
+    }
+
+
+    /**
+     * Line number getter.
+     *
+     * @return line number of the malformed line, starting at 1.
+     */
+    public long getLineNumber()
+    {
+        return lineNumber;
+    }
+}
@@ -0,0 +1,42 @@
+/**
+ * 
+ * AndroidRun, basic runner's android application. Calculates distance, speed
+ * and other usefull values taken from GPS device.
+ * 
+ * Copyright (C) 2014 Bruno Vedder
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ * 
+ */
+
+package fr.asterope;
+
+/**
+ * Receives positions one at a time, e.g. from PositionFileParser. Allows to
+ * process a track without storing it.
+ *
+ * @author bruno
+ */
+public interface PositionListener
+{
+
+    /**
+     * Called for each position, in track order.
+     *
+     * @param latitude : latitude in decimal degree.
+     * @param longitude : longitude in decimal degree.
+     */
+    void onPosition(double latitude, double longitude);
+}
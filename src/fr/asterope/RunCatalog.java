@@ -0,0 +1,576 @@
+/**
+ * 
+ * AndroidRun, basic runner's android application. Calculates distance, speed
+ * and other usefull values taken from GPS device.
+ * 
+ * Copyright (C) 2014 Bruno Vedder
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ * 
+ */
+
+package fr.asterope;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+
+
+/**
+ * On-disk index of the runs of a log directory, so that past runs are listed
+ * and summed without parsing their logs.
+ *
+ * Each run is summarised once by OlcReplay : distance, ascent and descent
+ * are the values the application logged in the last record, the duration,
+ * the fixes and the bounding box come from the replay.
+ * An entry stays valid while the size and the modification time of the run
+ * files are unchanged : update() replays a run only when its entry is stale,
+ * refresh() does it for the whole directory. Listing and aggregate queries
+ * only read the index, in O(runs).
+ *
+ * The index file starts with magic "ARCI" (int), version (short), reserved
+ * (short), entry count (int). Then, little endian, each entry is : name
+ * length (short), UTF-8 name, then the fixed size fields of Entry, in
+ * declaration order. A CRC32 of all the previous bytes ends the file. A
+ * missing or corrupted index is an empty one : refresh() rebuilds it. The
+ * index is written to a temporary file then renamed, never in place.
+ *
+ * Methods are synchronized : the application updates the index from its
+ * tracking thread once a run is closed.
+ *
+ * @author bruno
+ */
+public class RunCatalog
+{
+
+    static final public String INDEX_NAME = "runs.index";
+
+    static final int MAGIC = 'A' | ('R' << 8) | ('C' << 16) | ('I' << 24);
+    static final int VERSION = 2;                   // 2 : logged distance, ascent and descent.
+
+    static final private String TEMPORARY_EXTENSION = ".tmp";
+    static final private int FILE_HEADER_SIZE = 12;
+    static final private int ENTRY_SIZE = 2 + 8 * 4 + 8 + 4 + 4 + 8 + 8 * 4;   // Without name bytes.
+    static final private Comparator<Entry> START_TIME_ORDER = new Comparator<Entry>()
+    {
+        public int compare(Entry e1, Entry e2)
+        {
+            if (e1.startTime != e2.startTime)
+            {
+                return (e1.startTime < e2.startTime) ? -1 : 1;
+            }
+            return e1.name.compareTo(e2.name);
+        }
+    };
+
+    private final File indexFile;
+    private final OlcReplay replay = new OlcReplay();
+    private final HashMap<String, Entry> entries = new HashMap<String, Entry>();
+
+
+    /**
+     * One indexed run.
+     */
+    public static final class Entry
+    {
+
+        public final String name;               // Run file name, in the log directory.
+        public final long size;                 // Total size of the run files, to validate the entry.
+        public final long lastModified;         // Last modification of the run files, to validate the entry.
+        public final long startTime;            // ms since Epoch.
+        public final long duration;             // ms.
+        public final double distance;           // m.
+        public final float ascent;              // m.
+        public final float descent;             // m, negative.
+        public final long points;               // Accepted fixes.
+        public final double minLatitude;        // Bounding box, NaN if no fix.
+        public final double maxLatitude;
+        public final double minLongitude;
+        public final double maxLongitude;
+
+
+        Entry(String name, long size, long lastModified, long startTime, long duration, double distance, float ascent, float descent,
+            long points, double minLatitude, double maxLatitude, double minLongitude, double maxLongitude)
+        {
+            this.name = name;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.startTime = startTime;
+            this.duration = duration;
+            this.distance = distance;
+            this.ascent = ascent;
+            this.descent = descent;
+            this.points = points;
+            this.minLatitude = minLatitude;
+            this.maxLatitude = maxLatitude;
+            this.minLongitude = minLongitude;
+            this.maxLongitude = maxLongitude;
+        }
+    }
+
+
+    /**
+     * Constructor, loading the index of the directory if any.
+     *
+     * @param directory : log directory.
+     */
+    public RunCatalog(File directory)
+    {
+        indexFile = new File(directory, INDEX_NAME);
+        load();
+    }
+
+
+    /**
+     * Bring the entry of a run up to date, replaying it if it is new or if
+     * it changed since it was indexed. The index is saved when updated.
+     *
+     * @param run : record file, or active CSV log of the run.
+     * @return entry of the run.
+     * @throws IOException
+     */
+    public synchronized Entry update(File run) throws IOException
+    {
+        Entry entry = entries.get(run.getName());
+        if ((entry != null) && (isValid(entry, run) == true))
+        {
+            return entry;
+        }
+
+        entry = index(run);
+        entries.put(entry.name, entry);
+        save();
+        return entry;
+    }
+
+
+    /**
+     * Bring the entry of a run up to date, ignoring failures.
+     *
+     * @param run : record file, or active CSV log of the run.
+     * @return entry of the run, null on failure.
+     */
+    public Entry safeUpdate(File run)
+    {
+        try
+        {
+            return update(run);
+        }
+        catch (IOException e)
+        {
+            return null;
+        }
+        catch (RuntimeException e)
+        {
+            return null;
+        }
+    }
+
+
+    /**
+     * Bring the whole index up to date : new and modified runs of the
+     * directory are replayed, deleted runs are removed.
+     *
+     * @return number of runs replayed.
+     * @throws IOException
+     */
+    public synchronized int refresh() throws IOException
+    {
+        File[] runs = OlcReplay.listRuns(indexFile.getParentFile());
+        HashMap<String, Entry> current = new HashMap<String, Entry>(runs.length * 2);
+        int replayed = 0;
+
+        for (File run : runs)
+        {
+            Entry entry = entries.get(run.getName());
+            if ((entry == null) || (isValid(entry, run) == false))
+            {
+                entry = index(run);
+                replayed++;
+            }
+            current.put(entry.name, entry);
+        }
+
+        boolean changed = (replayed > 0) || (current.size() != entries.size());
+        entries.clear();
+        entries.putAll(current);
+        if (changed == true)
+        {
+            save();
+        }
+        return replayed;
+    }
+
+
+    /**
+     * Indexed runs, oldest first.
+     *
+     * @return entries sorted by start time.
+     */
+    public synchronized Entry[] list()
+    {
+        Entry[] result = entries.values().toArray(new Entry[entries.size()]);
+        Arrays.sort(result, START_TIME_ORDER);
+        return result;
+    }
+
+
+    /**
+     * Indexed runs started within [from, to[, oldest first.
+     *
+     * @param from : ms since Epoch.
+     * @param to : ms since Epoch.
+     * @return entries sorted by start time.
+     */
+    public synchronized Entry[] list(long from, long to)
+    {
+        ArrayList<Entry> result = new ArrayList<Entry>();
+        for (Entry entry : entries.values())
+        {
+            if ((entry.startTime >= from) && (entry.startTime < to))
+            {
+                result.add(entry);
+            }
+        }
+        Collections.sort(result, START_TIME_ORDER);
+        return result.toArray(new Entry[result.size()]);
+    }
+
+
+    /**
+     * Entry of a run.
+     *
+     * @param name : run file name.
+     * @return entry, null if the run isn't indexed.
+     */
+    public synchronized Entry get(String name)
+    {
+        return entries.get(name);
+    }
+
+
+    /**
+     * Number of indexed runs.
+     *
+     * @return run count.
+     */
+    public synchronized int size()
+    {
+        return entries.size();
+    }
+
+
+    /**
+     * Distance of all indexed runs.
+     *
+     * @return distance in m.
+     */
+    public synchronized double getTotalDistance()
+    {
+        double total = 0.0;
+        for (Entry entry : entries.values())
+        {
+            total += entry.distance;
+        }
+        return total;
+    }
+
+
+    /**
+     * Duration of all indexed runs.
+     *
+     * @return duration in ms.
+     */
+    public synchronized long getTotalDuration()
+    {
+        long total = 0;
+        for (Entry entry : entries.values())
+        {
+            total += entry.duration;
+        }
+        return total;
+    }
+
+
+    /**
+     * Ascent of all indexed runs.
+     *
+     * @return positive elevation gain in m.
+     */
+    public synchronized double getTotalAscent()
+    {
+        double total = 0.0;
+        for (Entry entry : entries.values())
+        {
+            total += entry.ascent;
+        }
+        return total;
+    }
+
+
+    /**
+     * Descent of all indexed runs.
+     *
+     * @return negative elevation gain in m.
+     */
+    public synchronized double getTotalDescent()
+    {
+        double total = 0.0;
+        for (Entry entry : entries.values())
+        {
+            total += entry.descent;
+        }
+        return total;
+    }
+
+
+    /**
+     * Index file getter.
+     *
+     * @return index file, in the log directory.
+     */
+    public File getIndexFile()
+    {
+        return indexFile;
+    }
+
+
+    /**
+     * Replay a run and build its entry.
+     */
+    private Entry index(File run) throws IOException
+    {
+        // Read before the replay : a run growing meanwhile gets a stale entry.
+        long size = getSize(run);
+        long lastModified = getLastModified(run);
+        RunSummary summary = replay.replay(run);
+
+        long startTime = summary.startTime;
+        if (RunFiles.isRecordFile(run) == false)
+        {
+            // CSV logs only give the time of the day : the run ended when the log was last written.
+            startTime = lastModified - summary.getDuration();
+        }
+
+        // The logged values are the ones the application displayed.
+        return new Entry(run.getName(), size, lastModified, startTime, summary.getDuration(), summary.loggedDistance, (float) summary.loggedAscent, (float) summary.loggedDescent,
+            summary.acceptedFixes, summary.minLatitude, summary.maxLatitude, summary.minLongitude, summary.maxLongitude);
+    }
+
+
+    private static boolean isValid(Entry entry, File run)
+    {
+        return (entry.size == getSize(run)) && (entry.lastModified == getLastModified(run));
+    }
+
+
+    /**
+     * Size of the run files : a CSV log and its rotated segments.
+     */
+    private static long getSize(File run)
+    {
+        long size = run.length();
+        if (RunFiles.isRecordFile(run) == false)
+        {
+            for (File segment : LogSegments.list(run))
+            {
+                size += segment.length();
+            }
+        }
+        return size;
+    }
+
+
+    private static long getLastModified(File run)
+    {
+        long lastModified = run.lastModified();
+        if (RunFiles.isRecordFile(run) == false)
+        {
+            for (File segment : LogSegments.list(run))
+            {
+                lastModified = Math.max(lastModified, segment.lastModified());
+            }
+        }
+        return lastModified;
+    }
+
+
+    /**
+     * Write the index to a temporary file, then rename it.
+     */
+    private void save() throws IOException
+    {
+        ArrayList<byte[]> names = new ArrayList<byte[]>(entries.size());
+        int length = FILE_HEADER_SIZE + 4;
+        for (Entry entry : entries.values())
+        {
+            byte[] name = utf8(entry.name);
+            names.add(name);
+            length += ENTRY_SIZE + name.length;
+        }
+
+        ByteBuffer data = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        data.putInt(MAGIC);
+        data.putShort((short) VERSION);
+        data.putShort((short) 0);
+        data.putInt(entries.size());
+        int i = 0;
+        for (Entry entry : entries.values())
+        {
+            byte[] name = names.get(i++);
+            data.putShort((short) name.length);
+            data.put(name);
+            data.putLong(entry.size);
+            data.putLong(entry.lastModified);
+            data.putLong(entry.startTime);
+            data.putLong(entry.duration);
+            data.putDouble(entry.distance);
+            data.putFloat(entry.ascent);
+            data.putFloat(entry.descent);
+            data.putLong(entry.points);
+            data.putDouble(entry.minLatitude);
+            data.putDouble(entry.maxLatitude);
+            data.putDouble(entry.minLongitude);
+            data.putDouble(entry.maxLongitude);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data.array(), 0, data.position());
+        data.putInt((int) crc.getValue());
+
+        File temporary = new File(indexFile.getPath() + TEMPORARY_EXTENSION);
+        OutputStream out = new FileOutputStream(temporary);
+        try
+        {
+            out.write(data.array(), 0, data.position());
+        }
+        finally
+        {
+            out.close();
+        }
+
+        // Rename doesn't replace an existing file everywhere.
+        if ((temporary.renameTo(indexFile) == false) && ((indexFile.delete() == false) || (temporary.renameTo(indexFile) == false)))
+        {
+            temporary.delete();
+            throw new IOException("Can't rename " + temporary + " to " + indexFile + ".");
+        }
+    }
+
+
+    /**
+     * Read the index, if valid.
+     */
+    private void load()
+    {
+        entries.clear();
+        if (indexFile.exists() == false)
+        {
+            return;
+        }
+
+        try
+        {
+            ByteBuffer data = readIndex();
+            if ((data.remaining() < FILE_HEADER_SIZE + 4) || (data.getInt() != MAGIC) || (data.getShort() != VERSION))
+            {
+                return;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(data.array(), 0, data.limit() - 4);
+            if (data.getInt(data.limit() - 4) != (int) crc.getValue())
+            {
+                return;
+            }
+            data.limit(data.limit() - 4);
+            data.getShort();
+
+            int count = data.getInt();
+            for (int i = 0; i < count; i++)
+            {
+                byte[] name = new byte[data.getShort() & 0xFFFF];
+                data.get(name);
+                Entry entry = new Entry(new String(name, "UTF-8"), data.getLong(), data.getLong(), data.getLong(), data.getLong(),
+                    data.getDouble(), data.getFloat(), data.getFloat(), data.getLong(),
+                    data.getDouble(), data.getDouble(), data.getDouble(), data.getDouble());
+                entries.put(entry.name, entry);
+            }
+        }
+        catch (IOException e)
+        {
+            entries.clear();
+        }
+        catch (RuntimeException e)
+        {
+            // Truncated entries : BufferUnderflowException.
+            entries.clear();
+        }
+    }
+
+
+    private ByteBuffer readIndex() throws IOException
+    {
+        long length = indexFile.length();
+        if (length > Integer.MAX_VALUE)
+        {
+            throw new IOException("Run index too large : " + length);
+        }
+
+        byte[] bytes = new byte[(int) length];
+        InputStream in = new FileInputStream(indexFile);
+        try
+        {
+            int read = 0;
+            while (read < bytes.length)
+            {
+                int n = in.read(bytes, read, bytes.length - read);
+                if (n < 0)
+                {
+                    break;
+                }
+                read += n;
+            }
+            return ByteBuffer.wrap(bytes, 0, read).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+
+    private static byte[] utf8(String s)
+    {
+        try
+        {
+            return s.getBytes("UTF-8");
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+}
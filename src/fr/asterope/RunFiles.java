@@ -0,0 +1,200 @@
+/**
+ * 
+ * AndroidRun, basic runner's android application. Calculates distance, speed
+ * and other usefull values taken from GPS device.
+ * 
+ * Copyright (C) 2014 Bruno Vedder
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ * 
+ */
+
+package fr.asterope;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+
+/**
+ * Reading of run files, shared by the tools working on logged runs (replay,
+ * export, catalog...) : a run is a binary record file (Run_*.olc) or a CSV
+ * log (Run_*.csv) with its rotated and compressed segments.
+ *
+ * @author bruno
+ */
+public final class RunFiles
+{
+
+    static final public String RECORD_EXTENSION = ".olc";
+
+
+    /**
+     * Work done on one run, see forEach().
+     */
+    public interface Task<T>
+    {
+
+        /**
+         * Process a run.
+         *
+         * @param run : run file.
+         * @return result of the run.
+         * @throws IOException
+         */
+        T call(File run) throws IOException;
+    }
+
+
+    private RunFiles()
+    {
+    }
+
+
+    /**
+     * Binary record file check.
+     *
+     * @param run : run file.
+     * @return true for a record file, false for a CSV log.
+     */
+    public static boolean isRecordFile(File run)
+    {
+        return run.getName().endsWith(RECORD_EXTENSION);
+    }
+
+
+    /**
+     * Read the fixes of a run : a record file if its name ends with .olc, a
+     * CSV log otherwise, including its rotated segments. Only OLC lines of CSV
+     * logs are read.
+     *
+     * @param run : record file, or active CSV log.
+     * @param handler : receives each fix.
+     * @param stateLabels : state labels of the CSV log, see OlcCsvParser.
+     * @return parser used for a CSV log, for its line counters, null for a
+     * record file.
+     * @throws IOException
+     */
+    public static OlcCsvParser read(File run, LogRecordHandler handler, String[] stateLabels) throws IOException
+    {
+        if (isRecordFile(run) == true)
+        {
+            OlcRecordReader reader = new OlcRecordReader(run.getPath());
+            try
+            {
+                reader.drain(handler);
+            }
+            finally
+            {
+                reader.close();
+            }
+            return null;
+        }
+
+        OlcCsvParser parser = new OlcCsvParser(stateLabels);
+        InputStream in = LogSegments.open(run);
+        try
+        {
+            parser.parse(in, handler);
+        }
+        finally
+        {
+            in.close();
+        }
+        return parser;
+    }
+
+
+    /**
+     * Process many runs, in parallel on the executor. On failure, runs not
+     * yet started are cancelled.
+     *
+     * @param runs : runs to process.
+     * @param task : work done on each run.
+     * @param executor : where runs are processed, null to process them in the
+     * calling thread.
+     * @return one result per run, in runs order.
+     * @throws IOException if a run couldn't be processed.
+     */
+    public static <T> ArrayList<T> forEach(File[] runs, final Task<T> task, ExecutorService executor) throws IOException
+    {
+        ArrayList<T> values = new ArrayList<T>(runs.length);
+        if (executor == null)
+        {
+            for (File run : runs)
+            {
+                values.add(task.call(run));
+            }
+            return values;
+        }
+
+        ArrayList<Future<T>> results = new ArrayList<Future<T>>(runs.length);
+        for (final File run : runs)
+        {
+            results.add(executor.submit(new Callable<T>()
+            {
+                public T call() throws IOException
+                {
+                    return task.call(run);
+                }
+            }));
+        }
+
+        try
+        {
+            for (Future<T> result : results)
+            {
+                values.add(result.get());
+            }
+        }
+        catch (InterruptedException e)
+        {
+            cancel(results);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while processing runs.", e);
+        }
+        catch (ExecutionException e)
+        {
+            cancel(results);
+            if (e.getCause() instanceof IOException)
+            {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException)
+            {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+        return values;
+    }
+
+
+    /**
+     * Cancel the runs not yet processed.
+     */
+    private static <T> void cancel(ArrayList<Future<T>> results)
+    {
+        for (Future<T> result : results)
+        {
+            result.cancel(false);
+        }
+    }
+}
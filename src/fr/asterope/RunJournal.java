@@ -0,0 +1,941 @@
+/**
+ * 
+ * AndroidRun, basic runner's android application. Calculates distance, speed
+ * and other usefull values taken from GPS device.
+ * 
+ * Copyright (C) 2014 Bruno Vedder
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ * 
+ */
+
+package fr.asterope;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+
+
+/**
+ * Crash-safe, append-only journal of the run state.
+ *
+ * Each append() journals only the fields that changed since the previous one
+ * (a delta entry). Every checkpointInterval deltas, a checkpoint entry with
+ * all fields starts a new segment file, and older segments are deleted once
+ * it is on disk. Recovery thus reads one checkpoint and at most
+ * checkpointInterval deltas, whatever the length of the run.
+ *
+ * Entries are encoded in memory by the caller, which never waits for the
+ * disk : a committer thread writes and fsyncs them every commit interval
+ * (group commit). A crash loses at most one interval of updates.
+ *
+ * Segment files are named after the journal file (see LogSegments) and start
+ * with magic "ARJN" (int), version (short), reserved (short). Then, little
+ * endian, each entry is : type (byte), payload length (short), payload, CRC32
+ * of the previous fields (int). The payload is the mask of the fields
+ * present (int) followed by these fields, in field order. Replay stops at the
+ * first truncated or corrupted entry.
+ *
+ * @author bruno
+ */
+public class RunJournal implements Closeable
+{
+
+    static final public long DEFAULT_COMMIT_INTERVAL_MS = 2000;
+    static final public int DEFAULT_CHECKPOINT_INTERVAL = 512;
+
+    static final int MAGIC = 'A' | ('R' << 8) | ('J' << 16) | ('N' << 24);
+    static final int VERSION = 1;
+    static final int ENTRY_CHECKPOINT = 1;
+    static final int ENTRY_DELTA = 2;
+
+    static final private int FILE_HEADER_SIZE = 8;
+    static final private int ENTRY_OVERHEAD = 1 + 2 + 4 + 4;     // type, length, crc, mask.
+    static final private int BUFFER_SIZE = 64 * 1024;
+    static final private long CLOSE_TIMEOUT_MS = 2000;
+
+    // Field types.
+    static final private int BOOLEAN = 1;
+    static final private int INT = 4;
+    static final private int FLOAT = 5;
+    static final private int LONG = 8;
+    static final private int DOUBLE = 9;
+    static final private int STRING = 10;
+
+    // Field ids are bit numbers of the entry mask : never reuse one.
+    static final private int FIELD_STARTED = 0;
+    static final private int FIELD_FIRST_FIX_RECEIVED = 1;
+    static final private int FIELD_DISTANCE = 2;
+    static final private int FIELD_INST_SPEED = 3;
+    static final private int FIELD_AVERAGE_SPEED = 4;
+    static final private int FIELD_ELAPSED_SECONDS = 5;
+    static final private int FIELD_UPDATE_COUNT = 6;
+    static final private int FIELD_LATITUDE = 7;
+    static final private int FIELD_LONGITUDE = 8;
+    static final private int FIELD_SATELLITE_NUMBER = 9;
+    static final private int FIELD_LAST_ALTITUDE = 10;
+    static final private int FIELD_ASCENT = 11;
+    static final private int FIELD_DESCENT = 12;
+    static final private int FIELD_PAUSE_STARTED = 13;
+    static final private int FIELD_HAS_LAST_POSITION = 14;
+    static final private int FIELD_LAST_POSITION_LATITUDE = 15;
+    static final private int FIELD_LAST_POSITION_LONGITUDE = 16;
+    static final private int FIELD_LAST_POSITION_ALTITUDE = 17;
+    static final private int FIELD_LAST_POSITION_ELAPSED_NANOS = 18;
+    static final private int FIELD_LAST_POSITION_TIME = 19;
+    static final private int FIELD_LAST_POSITION_SPEED = 20;
+    static final private int FIELD_LAST_POSITION_BEARING = 21;
+    static final private int FIELD_LAST_POSITION_ACCURACY = 22;
+    static final private int FIELD_GPS_STATUS = 23;
+    static final private int FIELD_LOG_FILENAME = 24;
+
+    static final private int[] FIELD_TYPES =
+    {
+        BOOLEAN, BOOLEAN, FLOAT, FLOAT, FLOAT, FLOAT, LONG, DOUBLE,
+        DOUBLE, INT, DOUBLE, FLOAT, FLOAT, LONG, BOOLEAN, DOUBLE,
+        DOUBLE, DOUBLE, LONG, LONG, FLOAT, FLOAT, FLOAT, STRING,
+        STRING
+    };
+
+    static final private int FIELD_COUNT = FIELD_TYPES.length;
+    static final private int ALL_FIELDS = (1 << FIELD_COUNT) - 1;
+
+    private final File journalFile;
+    private final long commitIntervalMs;
+    private final int checkpointInterval;
+
+    // Guarded by lock.
+    private final Object lock = new Object();
+    private final CRC32 crc = new CRC32();
+    private final RunState journaled = new RunState();
+    private ByteBuffer active;
+    private ByteBuffer spare;
+    private boolean newSegmentPending = false;
+    private boolean checkpointNeeded = true;
+    private int deltasSinceCheckpoint = 0;
+    private byte[] gpsStatusBytes = new byte[0];
+    private byte[] logFilenameBytes = new byte[0];
+
+    // Committer thread only.
+    private RandomAccessFile segmentFile = null;
+    private FileChannel segment = null;
+    private int segmentIndex = -1;
+
+    private final Thread committer;
+    private volatile boolean closing = false;
+    private volatile IOException lastFailure = null;
+    private volatile long commitCount = 0;
+    private volatile long checkpointCount = 0;
+
+
+    /**
+     * Constructor, with default intervals.
+     *
+     * @param journalFile : journal file name, segments are created next to it.
+     */
+    public RunJournal(File journalFile)
+    {
+        this(journalFile, DEFAULT_COMMIT_INTERVAL_MS, DEFAULT_CHECKPOINT_INTERVAL);
+    }
+
+
+    /**
+     * Constructor.
+     *
+     * @param journalFile : journal file name, segments are created next to it.
+     * @param commitIntervalMs : delay between two fsyncs, in milliseconds.
+     * @param checkpointInterval : number of deltas between two checkpoints.
+     */
+    public RunJournal(File journalFile, long commitIntervalMs, int checkpointInterval)
+    {
+        if ((commitIntervalMs <= 0) || (checkpointInterval <= 0))
+        {
+            throw new IllegalArgumentException("Intervals must be positive.");
+        }
+
+        this.journalFile = journalFile;
+        this.commitIntervalMs = commitIntervalMs;
+        this.checkpointInterval = checkpointInterval;
+
+        active = ByteBuffer.allocate(BUFFER_SIZE);
+        active.order(ByteOrder.LITTLE_ENDIAN);
+        spare = ByteBuffer.allocate(BUFFER_SIZE);
+        spare.order(ByteOrder.LITTLE_ENDIAN);
+
+        committer = new Thread(new Runnable()
+        {
+            public void run()
+            {
+                commitLoop();
+            }
+        }, "RunJournal");
+        committer.setDaemon(true);
+        committer.start();
+    }
+
+
+    /**
+     * Journal the fields that changed since the last call. A checkpoint is
+     * written instead when due.
+     *
+     * @param state : current run state.
+     */
+    public void append(RunState state)
+    {
+        synchronized (lock)
+        {
+            if ((checkpointNeeded == true) || (deltasSinceCheckpoint >= checkpointInterval))
+            {
+                putCheckpoint(state);
+                return;
+            }
+
+            int mask = 0;
+            for (int field = 0; field < FIELD_COUNT; field++)
+            {
+                if (isFieldChanged(journaled, state, field) == true)
+                {
+                    mask |= 1 << field;
+                }
+            }
+            if (mask == 0)
+            {
+                return;
+            }
+
+            updateStringBytes(state, mask);
+            if (active.remaining() < entrySize(state, mask))
+            {
+                // Committer is late : the checkpoint supersedes buffered deltas.
+                putCheckpoint(state);
+                return;
+            }
+
+            putEntry(ENTRY_DELTA, state, mask);
+            journaled.set(state);
+            deltasSinceCheckpoint++;
+        }
+    }
+
+
+    /**
+     * Journal the full state in a new segment.
+     *
+     * @param state : current run state.
+     */
+    public void checkpoint(RunState state)
+    {
+        synchronized (lock)
+        {
+            putCheckpoint(state);
+        }
+    }
+
+
+    /**
+     * Ask the committer thread to write and fsync pending entries now,
+     * without waiting for it.
+     */
+    public void commit()
+    {
+        LockSupport.unpark(committer);
+    }
+
+
+    /**
+     * Write and fsync pending entries, then close the journal. Waits for the
+     * committer thread at most CLOSE_TIMEOUT_MS milliseconds.
+     */
+    public void close()
+    {
+        closing = true;
+        LockSupport.unpark(committer);
+
+        try
+        {
+            committer.join(CLOSE_TIMEOUT_MS);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    /**
+     * Number of group commits (write + fsync) done.
+     *
+     * @return commit count.
+     */
+    public long getCommitCount()
+    {
+        return commitCount;
+    }
+
+
+    /**
+     * Number of checkpoints written.
+     *
+     * @return checkpoint count.
+     */
+    public long getCheckpointCount()
+    {
+        return checkpointCount;
+    }
+
+
+    /**
+     * Last write failure. The journal restarts with a checkpoint after a
+     * failure.
+     *
+     * @return last failure, null if none.
+     */
+    public IOException getLastFailure()
+    {
+        return lastFailure;
+    }
+
+
+    /**
+     * Rebuild the last journaled state : the last valid checkpoint, then the
+     * deltas following it.
+     *
+     * @param journalFile : journal file name.
+     * @param state : destination, only modified if a state is found.
+     * @return false if there is no valid journal.
+     */
+    public static boolean recover(File journalFile, RunState state)
+    {
+        File[] segments = LogSegments.list(journalFile);
+        RunState candidate = new RunState();
+
+        // Last segment first : it may lack its checkpoint if the crash occurred while creating it.
+        for (int i = segments.length - 1; i >= 0; i--)
+        {
+            ByteBuffer data;
+            try
+            {
+                data = readSegment(segments[i]);
+            }
+            catch (IOException e)
+            {
+                continue;
+            }
+
+            if ((data.remaining() < FILE_HEADER_SIZE) || (data.getInt() != MAGIC) || (data.getShort() != VERSION))
+            {
+                continue;
+            }
+            data.getShort();
+
+            candidate.clear();
+            if (readEntry(data, candidate, ENTRY_CHECKPOINT) == false)
+            {
+                continue;
+            }
+            while (readEntry(data, candidate, ENTRY_DELTA) == true)
+            {
+                // Replay.
+            }
+
+            state.set(candidate);
+            return true;
+        }
+        return false;
+    }
+
+
+    /**
+     * Delete all segments of a journal, e.g. when the run is over.
+     *
+     * @param journalFile : journal file name.
+     */
+    public static void delete(File journalFile)
+    {
+        File[] segments = LogSegments.list(journalFile);
+        for (int i = 0; i < segments.length; i++)
+        {
+            segments[i].delete();
+        }
+    }
+
+
+    /**
+     * Encode a checkpoint, replacing entries not yet written.
+     */
+    private void putCheckpoint(RunState state)
+    {
+        active.clear();
+        updateStringBytes(state, ALL_FIELDS);
+        putEntry(ENTRY_CHECKPOINT, state, ALL_FIELDS);
+
+        journaled.set(state);
+        newSegmentPending = true;
+        checkpointNeeded = false;
+        deltasSinceCheckpoint = 0;
+    }
+
+
+    private void putEntry(int type, RunState state, int mask)
+    {
+        int start = active.position();
+        active.put((byte) type);
+        active.putShort((short) 0);             // Payload length, set below.
+        active.putInt(mask);
+
+        for (int field = 0; field < FIELD_COUNT; field++)
+        {
+            if ((mask & (1 << field)) != 0)
+            {
+                putField(state, field);
+            }
+        }
+
+        active.putShort(start + 1, (short) (active.position() - start - 3));
+        crc.reset();
+        crc.update(active.array(), active.arrayOffset() + start, active.position() - start);
+        active.putInt((int) crc.getValue());
+    }
+
+
+    /**
+     * Size of an entry, strings bytes being up to date.
+     */
+    private int entrySize(RunState state, int mask)
+    {
+        int size = ENTRY_OVERHEAD;
+        for (int field = 0; field < FIELD_COUNT; field++)
+        {
+            if ((mask & (1 << field)) != 0)
+            {
+                switch (FIELD_TYPES[field])
+                {
+                    case BOOLEAN:
+                        size += 1;
+                        break;
+                    case INT:
+                    case FLOAT:
+                        size += 4;
+                        break;
+                    case STRING:
+                        size += 2 + ((field == FIELD_GPS_STATUS) ? gpsStatusBytes.length : logFilenameBytes.length);
+                        break;
+                    default:
+                        size += 8;
+                        break;
+                }
+            }
+        }
+        return size;
+    }
+
+
+    private void updateStringBytes(RunState state, int mask)
+    {
+        if ((mask & (1 << FIELD_GPS_STATUS)) != 0)
+        {
+            gpsStatusBytes = utf8(state.gpsStatus);
+        }
+        if ((mask & (1 << FIELD_LOG_FILENAME)) != 0)
+        {
+            logFilenameBytes = utf8(state.logFilename);
+        }
+    }
+
+
+    private void putField(RunState s, int field)
+    {
+        switch (field)
+        {
+            case FIELD_STARTED:
+                active.put((byte) (s.started ? 1 : 0));
+                break;
+            case FIELD_FIRST_FIX_RECEIVED:
+                active.put((byte) (s.firstFixReceived ? 1 : 0));
+                break;
+            case FIELD_DISTANCE:
+                active.putFloat(s.distance);
+                break;
+            case FIELD_INST_SPEED:
+                active.putFloat(s.instSpeed);
+                break;
+            case FIELD_AVERAGE_SPEED:
+                active.putFloat(s.averageSpeed);
+                break;
+            case FIELD_ELAPSED_SECONDS:
+                active.putFloat(s.elapsedSeconds);
+                break;
+            case FIELD_UPDATE_COUNT:
+                active.putLong(s.updateCount);
+                break;
+            case FIELD_LATITUDE:
+                active.putDouble(s.latitude);
+                break;
+            case FIELD_LONGITUDE:
+                active.putDouble(s.longitude);
+                break;
+            case FIELD_SATELLITE_NUMBER:
+                active.putInt(s.satelliteNumber);
+                break;
+            case FIELD_LAST_ALTITUDE:
+                active.putDouble(s.lastAltitude);
+                break;
+            case FIELD_ASCENT:
+                active.putFloat(s.ascent);
+                break;
+            case FIELD_DESCENT:
+                active.putFloat(s.descent);
+                break;
+            case FIELD_PAUSE_STARTED:
+                active.putLong(s.pauseStarted);
+                break;
+            case FIELD_HAS_LAST_POSITION:
+                active.put((byte) (s.hasLastPosition ? 1 : 0));
+                break;
+            case FIELD_LAST_POSITION_LATITUDE:
+                active.putDouble(s.lastPositionLatitude);
+                break;
+            case FIELD_LAST_POSITION_LONGITUDE:
+                active.putDouble(s.lastPositionLongitude);
+                break;
+            case FIELD_LAST_POSITION_ALTITUDE:
+                active.putDouble(s.lastPositionAltitude);
+                break;
+            case FIELD_LAST_POSITION_ELAPSED_NANOS:
+                active.putLong(s.lastPositionElapsedRealtimeNanos);
+                break;
+            case FIELD_LAST_POSITION_TIME:
+                active.putLong(s.lastPositionTime);
+                break;
+            case FIELD_LAST_POSITION_SPEED:
+                active.putFloat(s.lastPositionSpeed);
+                break;
+            case FIELD_LAST_POSITION_BEARING:
+                active.putFloat(s.lastPositionBearing);
+                break;
+            case FIELD_LAST_POSITION_ACCURACY:
+                active.putFloat(s.lastPositionAccuracy);
+                break;
+            case FIELD_GPS_STATUS:
+                active.putShort((short) gpsStatusBytes.length);
+                active.put(gpsStatusBytes);
+                break;
+            default:
+                active.putShort((short) logFilenameBytes.length);
+                active.put(logFilenameBytes);
+                break;
+        }
+    }
+
+
+    private static void getField(ByteBuffer in, RunState s, int field) throws IOException
+    {
+        switch (field)
+        {
+            case FIELD_STARTED:
+                s.started = (in.get() != 0);
+                break;
+            case FIELD_FIRST_FIX_RECEIVED:
+                s.firstFixReceived = (in.get() != 0);
+                break;
+            case FIELD_DISTANCE:
+                s.distance = in.getFloat();
+                break;
+            case FIELD_INST_SPEED:
+                s.instSpeed = in.getFloat();
+                break;
+            case FIELD_AVERAGE_SPEED:
+                s.averageSpeed = in.getFloat();
+                break;
+            case FIELD_ELAPSED_SECONDS:
+                s.elapsedSeconds = in.getFloat();
+                break;
+            case FIELD_UPDATE_COUNT:
+                s.updateCount = in.getLong();
+                break;
+            case FIELD_LATITUDE:
+                s.latitude = in.getDouble();
+                break;
+            case FIELD_LONGITUDE:
+                s.longitude = in.getDouble();
+                break;
+            case FIELD_SATELLITE_NUMBER:
+                s.satelliteNumber = in.getInt();
+                break;
+            case FIELD_LAST_ALTITUDE:
+                s.lastAltitude = in.getDouble();
+                break;
+            case FIELD_ASCENT:
+                s.ascent = in.getFloat();
+                break;
+            case FIELD_DESCENT:
+                s.descent = in.getFloat();
+                break;
+            case FIELD_PAUSE_STARTED:
+                s.pauseStarted = in.getLong();
+                break;
+            case FIELD_HAS_LAST_POSITION:
+                s.hasLastPosition = (in.get() != 0);
+                break;
+            case FIELD_LAST_POSITION_LATITUDE:
+                s.lastPositionLatitude = in.getDouble();
+                break;
+            case FIELD_LAST_POSITION_LONGITUDE:
+                s.lastPositionLongitude = in.getDouble();
+                break;
+            case FIELD_LAST_POSITION_ALTITUDE:
+                s.lastPositionAltitude = in.getDouble();
+                break;
+            case FIELD_LAST_POSITION_ELAPSED_NANOS:
+                s.lastPositionElapsedRealtimeNanos = in.getLong();
+                break;
+            case FIELD_LAST_POSITION_TIME:
+                s.lastPositionTime = in.getLong();
+                break;
+            case FIELD_LAST_POSITION_SPEED:
+                s.lastPositionSpeed = in.getFloat();
+                break;
+            case FIELD_LAST_POSITION_BEARING:
+                s.lastPositionBearing = in.getFloat();
+                break;
+            case FIELD_LAST_POSITION_ACCURACY:
+                s.lastPositionAccuracy = in.getFloat();
+                break;
+            case FIELD_GPS_STATUS:
+                s.gpsStatus = getString(in);
+                break;
+            default:
+                s.logFilename = getString(in);
+                break;
+        }
+    }
+
+
+    private static boolean isFieldChanged(RunState a, RunState b, int field)
+    {
+        switch (field)
+        {
+            case FIELD_STARTED:
+                return a.started != b.started;
+            case FIELD_FIRST_FIX_RECEIVED:
+                return a.firstFixReceived != b.firstFixReceived;
+            case FIELD_DISTANCE:
+                return Float.floatToIntBits(a.distance) != Float.floatToIntBits(b.distance);
+            case FIELD_INST_SPEED:
+                return Float.floatToIntBits(a.instSpeed) != Float.floatToIntBits(b.instSpeed);
+            case FIELD_AVERAGE_SPEED:
+                return Float.floatToIntBits(a.averageSpeed) != Float.floatToIntBits(b.averageSpeed);
+            case FIELD_ELAPSED_SECONDS:
+                return Float.floatToIntBits(a.elapsedSeconds) != Float.floatToIntBits(b.elapsedSeconds);
+            case FIELD_UPDATE_COUNT:
+                return a.updateCount != b.updateCount;
+            case FIELD_LATITUDE:
+                return Double.doubleToLongBits(a.latitude) != Double.doubleToLongBits(b.latitude);
+            case FIELD_LONGITUDE:
+                return Double.doubleToLongBits(a.longitude) != Double.doubleToLongBits(b.longitude);
+            case FIELD_SATELLITE_NUMBER:
+                return a.satelliteNumber != b.satelliteNumber;
+            case FIELD_LAST_ALTITUDE:
+                return Double.doubleToLongBits(a.lastAltitude) != Double.doubleToLongBits(b.lastAltitude);
+            case FIELD_ASCENT:
+                return Float.floatToIntBits(a.ascent) != Float.floatToIntBits(b.ascent);
+            case FIELD_DESCENT:
+                return Float.floatToIntBits(a.descent) != Float.floatToIntBits(b.descent);
+            case FIELD_PAUSE_STARTED:
+                return a.pauseStarted != b.pauseStarted;
+            case FIELD_HAS_LAST_POSITION:
+                return a.hasLastPosition != b.hasLastPosition;
+            case FIELD_LAST_POSITION_LATITUDE:
+                return Double.doubleToLongBits(a.lastPositionLatitude) != Double.doubleToLongBits(b.lastPositionLatitude);
+            case FIELD_LAST_POSITION_LONGITUDE:
+                return Double.doubleToLongBits(a.lastPositionLongitude) != Double.doubleToLongBits(b.lastPositionLongitude);
+            case FIELD_LAST_POSITION_ALTITUDE:
+                return Double.doubleToLongBits(a.lastPositionAltitude) != Double.doubleToLongBits(b.lastPositionAltitude);
+            case FIELD_LAST_POSITION_ELAPSED_NANOS:
+                return a.lastPositionElapsedRealtimeNanos != b.lastPositionElapsedRealtimeNanos;
+            case FIELD_LAST_POSITION_TIME:
+                return a.lastPositionTime != b.lastPositionTime;
+            case FIELD_LAST_POSITION_SPEED:
+                return Float.floatToIntBits(a.lastPositionSpeed) != Float.floatToIntBits(b.lastPositionSpeed);
+            case FIELD_LAST_POSITION_BEARING:
+                return Float.floatToIntBits(a.lastPositionBearing) != Float.floatToIntBits(b.lastPositionBearing);
+            case FIELD_LAST_POSITION_ACCURACY:
+                return Float.floatToIntBits(a.lastPositionAccuracy) != Float.floatToIntBits(b.lastPositionAccuracy);
+            case FIELD_GPS_STATUS:
+                return isStringChanged(a.gpsStatus, b.gpsStatus);
+            default:
+                return isStringChanged(a.logFilename, b.logFilename);
+        }
+    }
+
+
+    private static boolean isStringChanged(String a, String b)
+    {
+        if (a == b)
+        {
+            return false;
+        }
+        return (a == null) || (a.equals(b) == false);
+    }
+
+
+    /**
+     * Decode the next entry if it is valid and of the expected type.
+     */
+    private static boolean readEntry(ByteBuffer in, RunState state, int expectedType)
+    {
+        int start = in.position();
+        if (in.remaining() < ENTRY_OVERHEAD)
+        {
+            return false;
+        }
+
+        int type = in.get();
+        int length = in.getShort() & 0xFFFF;
+        if ((type != expectedType) || (length < 4) || (in.remaining() < length + 4))
+        {
+            return false;
+        }
+
+        CRC32 check = new CRC32();
+        check.update(in.array(), in.arrayOffset() + start, 3 + length);
+        if (in.getInt(start + 3 + length) != (int) check.getValue())
+        {
+            return false;
+        }
+
+        int mask = in.getInt();
+        if ((mask & ~ALL_FIELDS) != 0)
+        {
+            return false;
+        }
+
+        try
+        {
+            for (int field = 0; field < FIELD_COUNT; field++)
+            {
+                if ((mask & (1 << field)) != 0)
+                {
+                    getField(in, state, field);
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            return false;
+        }
+        catch (BufferUnderflowException e)
+        {
+            return false;
+        }
+
+        if (in.position() != start + 3 + length)
+        {
+            return false;
+        }
+        in.position(start + 3 + length + 4);
+        return true;
+    }
+
+
+    /**
+     * Committer thread : write and fsync the buffered entries every commit
+     * interval, or when asked to.
+     */
+    private void commitLoop()
+    {
+        while (true)
+        {
+            // Read closing first : everything appended before close() is written.
+            boolean stop = closing;
+            ByteBuffer pending = null;
+            boolean newSegment = false;
+
+            synchronized (lock)
+            {
+                if ((active.position() > 0) || (newSegmentPending == true))
+                {
+                    pending = active;
+                    active = spare;
+                    spare = pending;
+                    newSegment = newSegmentPending;
+                    newSegmentPending = false;
+                }
+            }
+
+            if (pending != null)
+            {
+                try
+                {
+                    writeEntries(pending, newSegment);
+                }
+                catch (IOException e)
+                {
+                    lastFailure = e;
+                    closeSegment();
+                    synchronized (lock)
+                    {
+                        checkpointNeeded = true;
+                    }
+                }
+                finally
+                {
+                    pending.clear();
+                }
+            }
+
+            if (stop == true)
+            {
+                break;
+            }
+            LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(commitIntervalMs));
+        }
+
+        closeSegment();
+    }
+
+
+    private void writeEntries(ByteBuffer entries, boolean newSegment) throws IOException
+    {
+        if (newSegment == true)
+        {
+            openSegment();
+        }
+        if (segment == null)
+        {
+            // Previous failure : wait for the next checkpoint.
+            return;
+        }
+
+        entries.flip();
+        while (entries.hasRemaining())
+        {
+            segment.write(entries);
+        }
+        segment.force(false);
+        commitCount++;
+
+        if (newSegment == true)
+        {
+            // The new checkpoint is on disk : older segments are useless.
+            checkpointCount++;
+            File current = new File(journalFile.getParentFile(), LogSegments.segmentName(journalFile.getName(), segmentIndex));
+            File[] segments = LogSegments.list(journalFile);
+            for (int i = 0; i < segments.length; i++)
+            {
+                if (segments[i].getName().equals(current.getName()) == false)
+                {
+                    segments[i].delete();
+                }
+            }
+        }
+    }
+
+
+    private void openSegment() throws IOException
+    {
+        closeSegment();
+
+        segmentIndex = (segmentIndex < 0) ? LogSegments.nextIndex(journalFile) : segmentIndex + 1;
+        File file = new File(journalFile.getParentFile(), LogSegments.segmentName(journalFile.getName(), segmentIndex));
+        segmentFile = new RandomAccessFile(file, "rw");
+        segmentFile.setLength(0);
+        segment = segmentFile.getChannel();
+
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC);
+        header.putShort((short) VERSION);
+        header.putShort((short) 0);
+        header.flip();
+        while (header.hasRemaining())
+        {
+            segment.write(header);
+        }
+    }
+
+
+    private void closeSegment()
+    {
+        if (segmentFile != null)
+        {
+            try
+            {
+                segmentFile.close();
+            }
+            catch (IOException e)
+            {
+                // Nothing more to do.
+            }
+        }
+        segmentFile = null;
+        segment = null;
+    }
+
+
+    private static ByteBuffer readSegment(File file) throws IOException
+    {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try
+        {
+            long size = in.length();
+            if (size > Integer.MAX_VALUE)
+            {
+                throw new IOException(file + " is too large.");
+            }
+            byte[] data = new byte[(int) size];
+            in.readFully(data);
+
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            return buffer;
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+
+    private static String getString(ByteBuffer in) throws IOException
+    {
+        byte[] bytes = new byte[in.getShort() & 0xFFFF];
+        in.get(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+
+    private static byte[] utf8(String s)
+    {
+        try
+        {
+            return (s == null) ? new byte[0] : s.getBytes("UTF-8");
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            // UTF-8 is always supported.
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,283 @@
+/**
+ * 
+ * AndroidRun, basic runner's android application. Calculates distance, speed
+ * and other usefull values taken from GPS device.
+ * 
+ * Copyright (C) 2014 Bruno Vedder
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ * 
+ */
+
+package fr.asterope;
+
+import android.app.Activity;
+import android.location.Location;
+import android.os.SystemClock;
+import android.view.Choreographer;
+import android.widget.Button;
+import android.widget.TextView;
+
+
+/**
+ * Draws the run values of the main screen from TrackingSnapshot.
+ *
+ * Views are looked up once. Each label remembers what it shows : the exact
+ * value for positions, satellites and duration, the formatted text for the
+ * rounded values (distance, speeds, elevation). A label is only set when
+ * this changes, rounded values being formatted into a reused buffer. Updates
+ * are coalesced, at most one render per display frame, with the last
+ * snapshot given.
+ *
+ * UI thread only.
+ *
+ * @author bruno
+ */
+public class RunRenderer implements Choreographer.FrameCallback
+{
+
+    static final private int[] SATELLITE_COLORS =
+    {
+        0xFFFF0000, 0xFFFFA500, 0xFFFFFF00, 0xFF00FF00, 0xFF00FF00
+    };
+
+    private final TextView distanceView;
+    private final TextView instantSpeedView;
+    private final TextView latitudeView;
+    private final TextView longitudeView;
+    private final TextView satelliteView;
+    private final TextView elevationView;
+    private final TextView averageSpeedView;
+    private final TextView durationView;
+    private final Button startButton;
+    private final String[] satelliteDiagnostics;
+    private final Choreographer choreographer = Choreographer.getInstance();
+    private final DecimalFormatter formatter = new DecimalFormatter();
+    private final StringBuilder text = new StringBuilder(64);
+
+    private TrackingSnapshot snapshot = null;
+    private boolean frameScheduled = false;
+    private boolean released = false;
+
+    // Displayed values, null, Long.MIN_VALUE or NaN when never drawn.
+    private String shownDistance = null;
+    private String shownInstantSpeed = null;
+    private String shownAverageSpeed = null;
+    private String shownElevation = null;
+    private double shownLatitude = Double.NaN;
+    private double shownLongitude = Double.NaN;
+    private long shownSatellites = Long.MIN_VALUE;
+    private long shownDuration = Long.MIN_VALUE;            // in seconds.
+    private boolean shownStartEnabled = false;
+
+
+    /**
+     * Constructor : binds the views of the activity content, which must be
+     * set.
+     *
+     * @param activity : main activity.
+     */
+    public RunRenderer(Activity activity)
+    {
+        distanceView = (TextView) activity.findViewById(R.id.distance_label);
+        instantSpeedView = (TextView) activity.findViewById(R.id.instant_speed_label);
+        latitudeView = (TextView) activity.findViewById(R.id.coordinateN);
+        longitudeView = (TextView) activity.findViewById(R.id.coordinateE);
+        satelliteView = (TextView) activity.findViewById(R.id.satellite);
+        elevationView = (TextView) activity.findViewById(R.id.elevation_label);
+        averageSpeedView = (TextView) activity.findViewById(R.id.average_speed_label);
+        durationView = (TextView) activity.findViewById(R.id.duration_label);
+        startButton = (Button) activity.findViewById(R.id.button_start_resume);
+
+        satelliteDiagnostics = new String[]
+        {
+            activity.getString(R.string.gps_no_signal),
+            activity.getString(R.string.gps_low_signal),
+            activity.getString(R.string.gps_aver_signal),
+            activity.getString(R.string.gps_good_signal),
+            activity.getString(R.string.gps_excel_signal)
+        };
+    }
+
+
+    /**
+     * Render a snapshot on the next display frame. Snapshots given before
+     * that frame replace this one.
+     *
+     * @param snapshot : run state to show.
+     */
+    public void update(TrackingSnapshot snapshot)
+    {
+        this.snapshot = snapshot;
+        if ((frameScheduled == false) && (released == false))
+        {
+            frameScheduled = true;
+            choreographer.postFrameCallback(this);
+        }
+    }
+
+
+    /**
+     * Cancel the pending render, if any. Later updates are ignored.
+     */
+    public void release()
+    {
+        choreographer.removeFrameCallback(this);
+        frameScheduled = false;
+        released = true;
+    }
+
+
+    public void doFrame(long frameTimeNanos)
+    {
+        frameScheduled = false;
+        if (snapshot != null)
+        {
+            render(snapshot, SystemClock.elapsedRealtimeNanos());
+        }
+    }
+
+
+    /**
+     * Set the labels whose displayed value changed.
+     *
+     * @param s : run state to show.
+     * @param now : current monotonic time in ns, for the duration.
+     */
+    private void render(TrackingSnapshot s, long now)
+    {
+        if ((s.isFirstFixReceived() == true) && (shownStartEnabled == false) && (startButton != null))
+        {
+            startButton.setEnabled(true);
+            shownStartEnabled = true;
+        }
+
+        if (distanceView != null)
+        {
+            text.setLength(0);
+            formatter.append(text, s.getDistance() / 1000.0f, 3, 2).append(" km");
+            shownDistance = setText(distanceView, shownDistance);
+        }
+
+        if (instantSpeedView != null)
+        {
+            text.setLength(0);
+            formatter.append(text, s.getInstSpeed() * 3.6f, 3, 2).append(" km/h");
+            shownInstantSpeed = setText(instantSpeedView, shownInstantSpeed);
+        }
+
+        if ((s.getLatitude() != shownLatitude) && (latitudeView != null))
+        {
+            latitudeView.setText(Location.convert(s.getLatitude(), Location.FORMAT_DEGREES) + " North");
+            shownLatitude = s.getLatitude();
+        }
+
+        if ((s.getLongitude() != shownLongitude) && (longitudeView != null))
+        {
+            longitudeView.setText(Location.convert(s.getLongitude(), Location.FORMAT_DEGREES) + " East");
+            shownLongitude = s.getLongitude();
+        }
+
+        int satellites = s.getSatelliteNumber();
+        if ((satellites != shownSatellites) && (satelliteView != null))
+        {
+            int level = getSignalLevel(satellites);
+            satelliteView.setTextColor(SATELLITE_COLORS[level]);
+            text.setLength(0);
+            text.append(satelliteDiagnostics[level]).append(" (");
+            formatter.append(text, satellites).append(" sat.)");
+            satelliteView.setText(text);
+            shownSatellites = satellites;
+        }
+
+        if (elevationView != null)
+        {
+            text.setLength(0);
+            text.append('+');
+            formatter.append(text, s.getAscent(), 3, 0).append("m / ");
+            formatter.append(text, s.getDescent(), 3, 0).append('m');
+            shownElevation = setText(elevationView, shownElevation);
+        }
+
+        if (averageSpeedView != null)
+        {
+            text.setLength(0);
+            formatter.append(text, s.getAverageSpeed() * 3.6f, 3, 2).append(" km/h av.");
+            shownAverageSpeed = setText(averageSpeedView, shownAverageSpeed);
+        }
+
+        long duration = (long) s.getElapsedSeconds();
+        if ((s.isStarted() == true) && (s.hasLastPosition() == true))
+        {
+            // Runs on from the last fix.
+            duration += (now - s.getLastPositionElapsedRealtimeNanos()) / 1000000000;
+        }
+        if ((duration != shownDuration) && (durationView != null))
+        {
+            text.setLength(0);
+            formatter.append(text, duration / 3600, 2, true).append(':');
+            formatter.append(text, (duration % 3600) / 60, 2, true).append(':');
+            formatter.append(text, duration % 60, 2, true);
+            durationView.setText(text);
+            shownDuration = duration;
+        }
+    }
+
+
+    /**
+     * Set the formatted text into a view, unless it already shows it.
+     *
+     * @param view : label to set.
+     * @param shown : text the label shows, null if never drawn.
+     * @return text the label now shows.
+     */
+    private String setText(TextView view, String shown)
+    {
+        if ((shown != null) && (shown.contentEquals(text) == true))
+        {
+            return shown;
+        }
+        String value = text.toString();
+        view.setText(value);
+        return value;
+    }
+
+
+    /**
+     * Signal level from the satellites number.
+     *
+     * @return index in SATELLITE_COLORS and satelliteDiagnostics.
+     */
+    private static int getSignalLevel(int satellites)
+    {
+        if (satellites <= 2)
+        {
+            return 0;
+        }
+        if (satellites < 5)
+        {
+            return 1;
+        }
+        if (satellites < 7)
+        {
+            return 2;
+        }
+        if (satellites < 9)
+        {
+            return 3;
+        }
+        return 4;
+    }
+}
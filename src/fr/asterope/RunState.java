@@ -0,0 +1,112 @@
+/**
+ * 
+ * AndroidRun, basic runner's android application. Calculates distance, speed
+ * and other usefull values taken from GPS device.
+ * 
+ * Copyright (C) 2014 Bruno Vedder
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ * 
+ */
+
+package fr.asterope;
+
+import java.io.Serializable;
+
+/**
+ * State of a run : everything needed to resume it after the process was
+ * killed. Instances are mutable and meant to be reused. Serializable to be
+ * saved in the activity instance state.
+ *
+ * @author bruno
+ */
+public class RunState implements Serializable
+{
+
+    static final private long serialVersionUID = 1L;
+
+    public boolean started = false;
+    public boolean firstFixReceived = false;
+    public float distance = 0.0f;               // Integrated distance in m.
+    public float instSpeed = 0.0f;              // Speed in m.s-1
+    public float averageSpeed = 0.0f;           // Average Speed in m.s-1
+    public float elapsedSeconds = 0.0f;
+    public long updateCount = 0;
+    public double latitude = 0.0;
+    public double longitude = 0.0;
+    public int satelliteNumber = 0;
+    public double lastAltitude = -1.0;          // Altitude used for elevation gain, -1.0 means non initialised.
+    public float ascent = 0.0f;
+    public float descent = 0.0f;
+    public long pauseStarted = -1;              // in seconds, -1 when not paused.
+
+    // Last valid location.
+    public boolean hasLastPosition = false;
+    public double lastPositionLatitude = 0.0;
+    public double lastPositionLongitude = 0.0;
+    public double lastPositionAltitude = 0.0;
+    public long lastPositionElapsedRealtimeNanos = 0;
+    public long lastPositionTime = 0;           // Wall clock, in milliseconds.
+    public float lastPositionSpeed = 0.0f;
+    public float lastPositionBearing = 0.0f;
+    public float lastPositionAccuracy = 0.0f;
+
+    public String gpsStatus = "";
+    public String logFilename = "";
+
+
+    /**
+     * Copy all fields of another state.
+     *
+     * @param other : state to copy.
+     */
+    public void set(RunState other)
+    {
+        started = other.started;
+        firstFixReceived = other.firstFixReceived;
+        distance = other.distance;
+        instSpeed = other.instSpeed;
+        averageSpeed = other.averageSpeed;
+        elapsedSeconds = other.elapsedSeconds;
+        updateCount = other.updateCount;
+        latitude = other.latitude;
+        longitude = other.longitude;
+        satelliteNumber = other.satelliteNumber;
+        lastAltitude = other.lastAltitude;
+        ascent = other.ascent;
+        descent = other.descent;
+        pauseStarted = other.pauseStarted;
+        hasLastPosition = other.hasLastPosition;
+        lastPositionLatitude = other.lastPositionLatitude;
+        lastPositionLongitude = other.lastPositionLongitude;
+        lastPositionAltitude = other.lastPositionAltitude;
+        lastPositionElapsedRealtimeNanos = other.lastPositionElapsedRealtimeNanos;
+        lastPositionTime = other.lastPositionTime;
+        lastPositionSpeed = other.lastPositionSpeed;
+        lastPositionBearing = other.lastPositionBearing;
+        lastPositionAccuracy = other.lastPositionAccuracy;
+        gpsStatus = other.gpsStatus;
+        logFilename = other.logFilename;
+    }
+
+
+    /**
+     * Back to the state of a new run.
+     */
+    public void clear()
+    {
+        set(new RunState());
+    }
+}
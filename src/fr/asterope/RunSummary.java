@@ -0,0 +1,201 @@
+/**
+ * 
+ * AndroidRun, basic runner's android application. Calculates distance, speed
+ * and other usefull values taken from GPS device.
+ * 
+ * Copyright (C) 2014 Bruno Vedder
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ * 
+ */
+
+package fr.asterope;
+
+
+/**
+ * Metrics of one run, recomputed by OlcReplay from the logged fixes, next to
+ * the values the application logged for the same run.
+ *
+ * Recomputed values use the same float accumulators as MainActivity, so that
+ * replaying a log with the application settings gives back the logged values
+ * (up to the rounding of the logged fields). Times are in milliseconds: since
+ * Epoch for record files, since the midnight of the first line for CSV logs,
+ * which only hold the time of the day.
+ *
+ * @author bruno
+ */
+public class RunSummary
+{
+
+    static final public String CSV_HEADER = "Run; Lines; Skipped; Malformed; Fixes; Accepted; Resets; Start; Duration; "
+        + "Distance; Logged Distance; Elapsed; Avg Speed; Max Speed; Ascent; Logged Ascent; Descent; Logged Descent; "
+        + "Updates; Logged Updates; South; North; West; East;";
+
+    public String name = null;
+
+    // Input.
+    public long lines = 0;                  // Lines read, CSV logs only.
+    public long skippedLines = 0;           // Non OLC lines.
+    public long malformedLines = 0;         // OLC lines that couldn't be parsed.
+    public long fixes = 0;                  // Location updates replayed.
+    public long acceptedFixes = 0;          // Location updates within required accuracy.
+    public int resets = 0;                  // Application resets found in the log, only the last run is summed.
+
+    // Recomputed.
+    public long startTime = -1;             // Time of the first fix, -1 if none.
+    public long endTime = -1;               // Time of the last fix, -1 if none.
+    public float distance = 0.0f;           // Integrated distance in m.
+    public float elapsedSeconds = 0.0f;     // Tracking time in s.
+    public float averageSpeed = 0.0f;       // Average Speed in m.s-1
+    public float maxSpeed = 0.0f;           // Max instant Speed in m.s-1
+    public float ascent = 0.0f;             // positive elevation gain in m.
+    public float descent = 0.0f;            // negative elevation gain in m.
+    public long updateCount = 0;            // gps update counter.
+    public double minLatitude = Double.NaN;  // Bounding box of the accepted fixes.
+    public double maxLatitude = Double.NaN;
+    public double minLongitude = Double.NaN;
+    public double maxLongitude = Double.NaN;
+
+    // Logged, as found on the last fix.
+    public double loggedDistance = 0.0;
+    public double loggedAscent = 0.0;
+    public double loggedDescent = 0.0;
+    public long loggedUpdateCount = 0;
+
+
+    /**
+     * Constructor.
+     *
+     * @param name : name of the replayed log.
+     */
+    public RunSummary(String name)
+    {
+        this.name = name;
+    }
+
+
+    /**
+     * Back to an empty run, keeping the name and the input counters.
+     */
+    void clearRun()
+    {
+        startTime = -1;
+        endTime = -1;
+        distance = 0.0f;
+        elapsedSeconds = 0.0f;
+        averageSpeed = 0.0f;
+        maxSpeed = 0.0f;
+        ascent = 0.0f;
+        descent = 0.0f;
+        updateCount = 0;
+        minLatitude = Double.NaN;
+        maxLatitude = Double.NaN;
+        minLongitude = Double.NaN;
+        maxLongitude = Double.NaN;
+        loggedDistance = 0.0;
+        loggedAscent = 0.0;
+        loggedDescent = 0.0;
+        loggedUpdateCount = 0;
+    }
+
+
+    /**
+     * Extend the bounding box to the given position.
+     */
+    void addPosition(double latitude, double longitude)
+    {
+        if (Double.isNaN(minLatitude) == true)
+        {
+            minLatitude = latitude;
+            maxLatitude = latitude;
+            minLongitude = longitude;
+            maxLongitude = longitude;
+            return;
+        }
+        minLatitude = Math.min(minLatitude, latitude);
+        maxLatitude = Math.max(maxLatitude, latitude);
+        minLongitude = Math.min(minLongitude, longitude);
+        maxLongitude = Math.max(maxLongitude, longitude);
+    }
+
+
+    /**
+     * Duration getter.
+     *
+     * @return time between the first and the last fix in ms, 0 if unknown.
+     */
+    public long getDuration()
+    {
+        if ((startTime < 0) || (endTime < startTime))
+        {
+            return 0;
+        }
+        return endTime - startTime;
+    }
+
+
+    /**
+     * Difference between recomputed and logged distance.
+     *
+     * @return recomputed minus logged distance, in m.
+     */
+    public double getDistanceError()
+    {
+        return distance - loggedDistance;
+    }
+
+
+    /**
+     * Append the summary as a CSV line, see CSV_HEADER.
+     *
+     * @param out : destination.
+     * @param formatter : number formatter, giving the locale.
+     * @return out.
+     */
+    public StringBuilder appendTo(StringBuilder out, DecimalFormatter formatter)
+    {
+        out.append(name).append("; ");
+        formatter.append(out, lines).append("; ");
+        formatter.append(out, skippedLines).append("; ");
+        formatter.append(out, malformedLines).append("; ");
+        formatter.append(out, fixes).append("; ");
+        formatter.append(out, acceptedFixes).append("; ");
+        formatter.append(out, resets).append("; ");
+        formatter.append(out, startTime).append("; ");
+        formatter.append(out, getDuration() / 1000L).append("; ");
+        formatter.append(out, distance, 4, 2).append("; ");
+        formatter.append(out, loggedDistance, 4, 2).append("; ");
+        formatter.append(out, elapsedSeconds, 4, 1).append("; ");
+        formatter.append(out, averageSpeed, 2, 2).append("; ");
+        formatter.append(out, maxSpeed, 2, 2).append("; ");
+        formatter.append(out, ascent, 3, 1).append("; ");
+        formatter.append(out, loggedAscent, 3, 1).append("; ");
+        formatter.append(out, descent, 3, 1).append("; ");
+        formatter.append(out, loggedDescent, 3, 1).append("; ");
+        formatter.append(out, updateCount).append("; ");
+        formatter.append(out, loggedUpdateCount).append("; ");
+        formatter.append(out, minLatitude, 2, 6).append("; ");
+        formatter.append(out, maxLatitude, 2, 6).append("; ");
+        formatter.append(out, minLongitude, 3, 6).append("; ");
+        return formatter.append(out, maxLongitude, 3, 6).append(';');
+    }
+
+
+    @Override
+    public String toString()
+    {
+        return appendTo(new StringBuilder(256), new DecimalFormatter()).toString();
+    }
+}
@@ -0,0 +1,74 @@
+/**
+ * 
+ * AndroidRun, basic runner's android application. Calculates distance, speed
+ * and other usefull values taken from GPS device.
+ * 
+ * Copyright (C) 2014 Bruno Vedder
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ * 
+ */
+
+package fr.asterope;
+
+
+/**
+ * Chooses how often the GPS is sampled : the interval and minimum distance
+ * given to requestLocationUpdates, from the fixes received so far.
+ *
+ * Policies only see primitive fix values, so they can be driven by logged
+ * runs, see SamplingReplay.
+ *
+ * @author bruno
+ */
+public interface SamplingPolicy
+{
+
+    /**
+     * Take a fix into account, accurate or not.
+     *
+     * @param elapsedRealtimeNanos : monotonic time of the fix, in ns.
+     * @param speed : in m.s-1
+     * @param bearing : in degree.
+     * @param accuracy : in m.
+     * @return true if the interval or the minimum distance changed : location
+     * updates must be requested again.
+     */
+    boolean onFix(long elapsedRealtimeNanos, float speed, float bearing, float accuracy);
+
+
+    /**
+     * Current interval.
+     *
+     * @return minimum time between location updates, in milliseconds.
+     */
+    long getInterval();
+
+
+    /**
+     * Current minimum distance.
+     *
+     * @return minimum distance between location updates, in m.
+     */
+    float getMinDistance();
+
+
+    /**
+     * Current choice, for the logs.
+     *
+     * @return short name of the sampling mode.
+     */
+    String getMode();
+}
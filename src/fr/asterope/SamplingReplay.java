@@ -0,0 +1,196 @@
+/**
+ * 
+ * AndroidRun, basic runner's android application. Calculates distance, speed
+ * and other usefull values taken from GPS device.
+ * 
+ * Copyright (C) 2014 Bruno Vedder
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ * 
+ */
+
+package fr.asterope;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+
+
+/**
+ * Replay of a logged run through a SamplingPolicy : each logged fix is given
+ * to the policy, and the fixes it would have requested over the run are
+ * counted, next to the fixes actually logged. Used to tune policies against
+ * real runs.
+ *
+ * Logged runs were sampled by the policy of the application at the time :
+ * between two logged fixes, the replayed policy can only be followed by time,
+ * so requested fixes are an estimate of the GPS load, not a new track.
+ *
+ * @author bruno
+ */
+public class SamplingReplay implements LogRecordHandler
+{
+
+    static final private long MIN_GPS_INTERVAL = 1000;     // A GPS fix per second at most, in milliseconds.
+
+    private final SamplingPolicy policy;
+    private final PrintStream decisions;
+    private long fixes = 0;
+    private long changes = 0;
+    private double requestedFixes = 0.0;
+    private long lastTime = -1;
+
+
+    /**
+     * Constructor.
+     *
+     * @param policy : policy to replay, fresh.
+     * @param decisions : where policy changes are printed, null for none.
+     */
+    public SamplingReplay(SamplingPolicy policy, PrintStream decisions)
+    {
+        this.policy = policy;
+        this.decisions = decisions;
+    }
+
+
+    public void onRecord(LogRecord fix)
+    {
+        fixes++;
+        if ((lastTime >= 0) && (fix.time > lastTime))
+        {
+            requestedFixes += (fix.time - lastTime) / (double) Math.max(policy.getInterval(), MIN_GPS_INTERVAL);
+        }
+        lastTime = fix.time;
+
+        if (policy.onFix(fix.time * 1000000L, (float) fix.speed, (float) fix.bearing, (float) fix.accuracy) == true)
+        {
+            changes++;
+            if (decisions != null)
+            {
+                decisions.println(fix.time + " : " + policy.getMode() + ", " + policy.getInterval() + " ms, " + policy.getMinDistance() + " m.");
+            }
+        }
+    }
+
+
+    /**
+     * Logged fixes getter.
+     *
+     * @return number of fixes replayed.
+     */
+    public long getFixCount()
+    {
+        return fixes;
+    }
+
+
+    /**
+     * Requested fixes getter.
+     *
+     * @return number of fixes the policy would have requested.
+     */
+    public long getRequestedFixCount()
+    {
+        return Math.round(requestedFixes);
+    }
+
+
+    /**
+     * Changes getter.
+     *
+     * @return number of times location updates would have been requested
+     * again.
+     */
+    public long getChangeCount()
+    {
+        return changes;
+    }
+
+
+    /**
+     * Replay a run : a record file if its name ends with .olc, a CSV log
+     * otherwise, including its rotated segments.
+     *
+     * @param run : record file, or active CSV log.
+     * @param policy : policy to replay, fresh.
+     * @param decisions : where policy changes are printed, null for none.
+     * @return replay counters.
+     * @throws IOException
+     */
+    public static SamplingReplay replay(File run, SamplingPolicy policy, PrintStream decisions) throws IOException
+    {
+        SamplingReplay replay = new SamplingReplay(policy, decisions);
+        RunFiles.read(run, replay, OlcReplay.DEFAULT_STATE_LABELS);
+        return replay;
+    }
+
+
+    public static void main(String[] args)
+    {
+        if (args.length < 1)
+        {
+            System.out.println("Usage : SamplingReplay [-v] [-f fixed interval in ms] <log file or directory>...");
+            return;
+        }
+
+        boolean verbose = false;
+        long fixedInterval = 8000;
+        ArrayList<File> runs = new ArrayList<File>();
+        for (int i = 0; i < args.length; i++)
+        {
+            if (args[i].equals("-v") == true)
+            {
+                verbose = true;
+            }
+            else if (args[i].equals("-f") == true && i + 1 < args.length)
+            {
+                fixedInterval = Long.parseLong(args[++i]);
+            }
+            else if (new File(args[i]).isDirectory() == true)
+            {
+                for (File run : OlcReplay.listRuns(new File(args[i])))
+                {
+                    runs.add(run);
+                }
+            }
+            else
+            {
+                runs.add(new File(args[i]));
+            }
+        }
+
+        System.out.println("Run; Logged fixes; Fixed fixes; Adaptive fixes; Adaptive changes;");
+        try
+        {
+            for (File run : runs)
+            {
+                if (verbose == true)
+                {
+                    System.out.println(run.getName() + " :");
+                }
+                SamplingReplay fixed = replay(run, new FixedSamplingPolicy(fixedInterval, 0.0f), null);
+                SamplingReplay adaptive = replay(run, new AdaptiveSamplingPolicy(), (verbose == true) ? System.out : null);
+                System.out.println(run.getName() + "; " + fixed.getFixCount() + "; " + fixed.getRequestedFixCount() + "; " + adaptive.getRequestedFixCount() + "; "
+                    + adaptive.getChangeCount() + ";");
+            }
+        }
+        catch (IOException e)
+        {
+            System.out.println("Got exception ! " + e.getMessage());
+        }
+    }
+}
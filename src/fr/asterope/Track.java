@@ -0,0 +1,628 @@
+/**
+ * 
+ * AndroidRun, basic runner's android application. Calculates distance, speed
+ * and other usefull values taken from GPS device.
+ * 
+ * Copyright (C) 2014 Bruno Vedder
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ * 
+ */
+
+package fr.asterope;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+
+/**
+ * Growable storage for a track, one primitive array per coordinate instead of
+ * one WGS84Point per position.
+ *
+ * Two encodings are available :
+ * - double : 16 bytes per position, 24 with altitude, exact values.
+ * - fixed point : latitude and longitude in integer micro-degrees (about 11
+ * cm), altitude in integer centimeters : 8 bytes per position, 12 with
+ * altitude.
+ *
+ * The altitude column is only created when a non zero altitude is added, the
+ * time column (milliseconds, 8 bytes) when a position with a time is added.
+ * An ArrayList&lt;WGS84Point&gt; needs about 40 bytes per position.
+ *
+ * Positions are read by index, or with a Cursor that walks the track without
+ * creating any object.
+ *
+ * @author bruno
+ */
+public class Track implements PositionListener
+{
+
+    public static final double MICRO_DEGREES_PER_DEGREE = 1e6;
+    public static final double CENTIMETERS_PER_METER = 100.0;
+
+    static final private int DEFAULT_CAPACITY = 10000;
+
+    private final boolean fixedPoint;
+    private int size = 0;
+    private int capacity;
+
+    // Double encoding.
+    private double[] latitudes = null;
+    private double[] longitudes = null;
+    private double[] altitudes = null;
+
+    // Fixed point encoding.
+    private int[] microLatitudes = null;
+    private int[] microLongitudes = null;
+    private int[] centiAltitudes = null;
+
+    // Time in milliseconds, any encoding.
+    private long[] times = null;
+
+
+    /**
+     * Constructor of an empty double encoded track.
+     */
+    public Track()
+    {
+        this(DEFAULT_CAPACITY, false);
+    }
+
+
+    /**
+     * Constructor of an empty track.
+     *
+     * @param capacity : initial number of positions.
+     * @param fixedPoint : true for the fixed point encoding.
+     */
+    public Track(int capacity, boolean fixedPoint)
+    {
+        this.fixedPoint = fixedPoint;
+        this.capacity = Math.max(capacity, 1);
+
+        if (fixedPoint)
+        {
+            microLatitudes = new int[this.capacity];
+            microLongitudes = new int[this.capacity];
+        }
+        else
+        {
+            latitudes = new double[this.capacity];
+            longitudes = new double[this.capacity];
+        }
+    }
+
+
+    /**
+     * Read a position file (see PositionFileParser) into a new track.
+     *
+     * @param absoluteFilename : file to read.
+     * @param fixedPoint : true for the fixed point encoding.
+     * @return track.
+     * @throws java.io.FileNotFoundException
+     * @throws PositionFormatException if a line is malformed.
+     * @throws IOException
+     */
+    public static Track load(String absoluteFilename, boolean fixedPoint) throws IOException
+    {
+        Track track = new Track(DEFAULT_CAPACITY, fixedPoint);
+        PositionFileParser.parse(absoluteFilename, track);
+        track.trimToSize();
+        return track;
+    }
+
+
+    /**
+     * Copy a list of points into a new track.
+     *
+     * @param points : points to copy.
+     * @param fixedPoint : true for the fixed point encoding.
+     * @return track.
+     */
+    public static Track fromPoints(ArrayList<WGS84Point> points, boolean fixedPoint)
+    {
+        Track track = new Track(points.size(), fixedPoint);
+        for (int i = 0; i < points.size(); i++)
+        {
+            WGS84Point p = points.get(i);
+            track.add(p.getLatitude(), p.getLongitude(), p.getAltitude());
+        }
+        return track;
+    }
+
+
+    /**
+     * Add a position without altitude.
+     *
+     * @param latitude : latitude in decimal degree.
+     * @param longitude : longitude in decimal degree.
+     */
+    public void add(double latitude, double longitude)
+    {
+        add(latitude, longitude, 0.0);
+    }
+
+
+    /**
+     * Add a position.
+     *
+     * @param latitude : latitude in decimal degree.
+     * @param longitude : longitude in decimal degree.
+     * @param altitude : altitude in meters.
+     */
+    public void add(double latitude, double longitude, double altitude)
+    {
+        if (fixedPoint)
+        {
+            addFixed((int) Math.round(latitude * MICRO_DEGREES_PER_DEGREE), (int) Math.round(longitude * MICRO_DEGREES_PER_DEGREE), (int) Math.round(altitude * CENTIMETERS_PER_METER));
+            return;
+        }
+
+        if (size == capacity)
+        {
+            grow(capacity + (capacity >> 1) + 1);
+        }
+
+        if ((altitude != 0.0) && (altitudes == null))
+        {
+            // First altitude : create the column, previous positions are at 0.
+            altitudes = new double[capacity];
+        }
+
+        latitudes[size] = latitude;
+        longitudes[size] = longitude;
+        if (altitudes != null)
+        {
+            altitudes[size] = altitude;
+        }
+        size++;
+    }
+
+
+    /**
+     * Add a position with its time.
+     *
+     * @param latitude : latitude in decimal degree.
+     * @param longitude : longitude in decimal degree.
+     * @param altitude : altitude in meters.
+     * @param time : time in milliseconds.
+     */
+    public void add(double latitude, double longitude, double altitude, long time)
+    {
+        add(latitude, longitude, altitude);
+        setLastTime(time);
+    }
+
+
+    /**
+     * Add a position already in fixed point, to a fixed point track.
+     *
+     * @param microLatitude : latitude in micro-degrees.
+     * @param microLongitude : longitude in micro-degrees.
+     * @param centiAltitude : altitude in centimeters.
+     */
+    void addFixed(int microLatitude, int microLongitude, int centiAltitude)
+    {
+        if (fixedPoint == false)
+        {
+            throw new IllegalStateException("Track is not fixed point.");
+        }
+
+        if (size == capacity)
+        {
+            grow(capacity + (capacity >> 1) + 1);
+        }
+
+        if ((centiAltitude != 0) && (centiAltitudes == null))
+        {
+            // First altitude : create the column, previous positions are at 0.
+            centiAltitudes = new int[capacity];
+        }
+
+        microLatitudes[size] = microLatitude;
+        microLongitudes[size] = microLongitude;
+        if (centiAltitudes != null)
+        {
+            centiAltitudes[size] = centiAltitude;
+        }
+        size++;
+    }
+
+
+    /**
+     * Set the time of the last position added. The time column is created on
+     * first use, previous positions are at 0.
+     *
+     * @param time : time in milliseconds.
+     */
+    void setLastTime(long time)
+    {
+        if (times == null)
+        {
+            times = new long[capacity];
+        }
+        times[size - 1] = time;
+    }
+
+
+    /**
+     * Add a position without altitude, so that a track can be filled by
+     * PositionFileParser.
+     *
+     * @param latitude : latitude in decimal degree.
+     * @param longitude : longitude in decimal degree.
+     */
+    public void onPosition(double latitude, double longitude)
+    {
+        add(latitude, longitude, 0.0);
+    }
+
+
+    /**
+     * Resize every column.
+     */
+    private void grow(int newCapacity)
+    {
+        if (fixedPoint)
+        {
+            microLatitudes = Arrays.copyOf(microLatitudes, newCapacity);
+            microLongitudes = Arrays.copyOf(microLongitudes, newCapacity);
+            if (centiAltitudes != null)
+            {
+                centiAltitudes = Arrays.copyOf(centiAltitudes, newCapacity);
+            }
+        }
+        else
+        {
+            latitudes = Arrays.copyOf(latitudes, newCapacity);
+            longitudes = Arrays.copyOf(longitudes, newCapacity);
+            if (altitudes != null)
+            {
+                altitudes = Arrays.copyOf(altitudes, newCapacity);
+            }
+        }
+        if (times != null)
+        {
+            times = Arrays.copyOf(times, newCapacity);
+        }
+        capacity = newCapacity;
+    }
+
+
+    /**
+     * Release unused capacity.
+     */
+    public void trimToSize()
+    {
+        if (size < capacity)
+        {
+            grow(Math.max(size, 1));
+        }
+    }
+
+
+    /**
+     * Remove every position, capacity is kept. Altitude and time columns are
+     * dropped, as in a new track : positions added later don't show the
+     * values of the removed ones.
+     */
+    public void clear()
+    {
+        size = 0;
+        altitudes = null;
+        centiAltitudes = null;
+        times = null;
+    }
+
+
+    /**
+     * Number of positions.
+     *
+     * @return size.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+
+    /**
+     * Return true if positions are stored in fixed point.
+     *
+     * @return encoding.
+     */
+    public boolean isFixedPoint()
+    {
+        return fixedPoint;
+    }
+
+
+    /**
+     * Return true if at least one non zero altitude was added.
+     *
+     * @return true if the altitude column exists.
+     */
+    public boolean hasAltitude()
+    {
+        return (altitudes != null) || (centiAltitudes != null);
+    }
+
+
+    /**
+     * Return true if positions have a time.
+     *
+     * @return true if the time column exists.
+     */
+    public boolean hasTime()
+    {
+        return times != null;
+    }
+
+
+    /**
+     * Latitude getter.
+     *
+     * @param index : 0..size() - 1.
+     * @return latitude in decimal degree.
+     */
+    public double getLatitude(int index)
+    {
+        checkIndex(index);
+        return fixedPoint ? microLatitudes[index] / MICRO_DEGREES_PER_DEGREE : latitudes[index];
+    }
+
+
+    /**
+     * Longitude getter.
+     *
+     * @param index : 0..size() - 1.
+     * @return longitude in decimal degree.
+     */
+    public double getLongitude(int index)
+    {
+        checkIndex(index);
+        return fixedPoint ? microLongitudes[index] / MICRO_DEGREES_PER_DEGREE : longitudes[index];
+    }
+
+
+    /**
+     * Altitude getter.
+     *
+     * @param index : 0..size() - 1.
+     * @return altitude in meters, 0 if the track has no altitude.
+     */
+    public double getAltitude(int index)
+    {
+        checkIndex(index);
+        if (fixedPoint)
+        {
+            return (centiAltitudes != null) ? centiAltitudes[index] / CENTIMETERS_PER_METER : 0.0;
+        }
+        return (altitudes != null) ? altitudes[index] : 0.0;
+    }
+
+
+    /**
+     * Time getter.
+     *
+     * @param index : 0..size() - 1.
+     * @return time in milliseconds, 0 if the track has no time.
+     */
+    public long getTime(int index)
+    {
+        checkIndex(index);
+        return (times != null) ? times[index] : 0L;
+    }
+
+
+    /**
+     * Raw latitude of a fixed point track.
+     *
+     * @param index : 0..size() - 1.
+     * @return latitude in micro-degrees.
+     */
+    int getMicroLatitude(int index)
+    {
+        return microLatitudes[index];
+    }
+
+
+    /**
+     * Raw longitude of a fixed point track.
+     *
+     * @param index : 0..size() - 1.
+     * @return longitude in micro-degrees.
+     */
+    int getMicroLongitude(int index)
+    {
+        return microLongitudes[index];
+    }
+
+
+    /**
+     * Raw altitude of a fixed point track.
+     *
+     * @param index : 0..size() - 1.
+     * @return altitude in centimeters.
+     */
+    int getCentiAltitude(int index)
+    {
+        return (centiAltitudes != null) ? centiAltitudes[index] : 0;
+    }
+
+
+    /**
+     * Return a new WGS84Point for the given position.
+     *
+     * @param index : 0..size() - 1.
+     * @return point.
+     */
+    public WGS84Point getPoint(int index)
+    {
+        return new WGS84Point(getLatitude(index), getLongitude(index), getAltitude(index));
+    }
+
+
+    private void checkIndex(int index)
+    {
+        if ((index < 0) || (index >= size))
+        {
+            throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+        }
+    }
+
+
+    /**
+     * Latitude column of a double encoded track, not copied : only the first
+     * size() values are meaningful.
+     */
+    double[] latitudeColumn()
+    {
+        return latitudes;
+    }
+
+
+    /**
+     * Longitude column of a double encoded track, not copied : only the first
+     * size() values are meaningful.
+     */
+    double[] longitudeColumn()
+    {
+        return longitudes;
+    }
+
+
+    /**
+     * Memory used by the columns, object headers excluded.
+     *
+     * @return bytes.
+     */
+    public long getColumnBytes()
+    {
+        int columns = hasAltitude() ? 3 : 2;
+        long bytes = (long) capacity * columns * (fixedPoint ? 4 : 8);
+        return hasTime() ? bytes + (long) capacity * 8 : bytes;
+    }
+
+
+    /**
+     * Create a cursor placed before the first position.
+     *
+     * @return new cursor.
+     */
+    public Cursor cursor()
+    {
+        return new Cursor();
+    }
+
+
+    /**
+     * Flyweight walking the track without creating objects :
+     *
+     * Track.Cursor c = track.cursor();
+     * while (c.next()) { ... c.getLatitude() ... }
+     */
+    public class Cursor
+    {
+
+        private int index = -1;
+
+
+        /**
+         * Move to the next position.
+         *
+         * @return false when the end of the track is reached.
+         */
+        public boolean next()
+        {
+            if (index + 1 < size)
+            {
+                index++;
+                return true;
+            }
+            index = size;
+            return false;
+        }
+
+
+        /**
+         * Move to the given position.
+         *
+         * @param index : 0..size() - 1.
+         */
+        public void moveTo(int index)
+        {
+            checkIndex(index);
+            this.index = index;
+        }
+
+
+        /**
+         * Place the cursor before the first position again.
+         */
+        public void reset()
+        {
+            index = -1;
+        }
+
+
+        /**
+         * Current index getter.
+         *
+         * @return index of the current position.
+         */
+        public int getIndex()
+        {
+            return index;
+        }
+
+
+        /**
+         * @return latitude of the current position in decimal degree.
+         */
+        public double getLatitude()
+        {
+            return Track.this.getLatitude(index);
+        }
+
+
+        /**
+         * @return longitude of the current position in decimal degree.
+         */
+        public double getLongitude()
+        {
+            return Track.this.getLongitude(index);
+        }
+
+
+        /**
+         * @return altitude of the current position in meters.
+         */
+        public double getAltitude()
+        {
+            return Track.this.getAltitude(index);
+        }
+
+
+        /**
+         * @return time of the current position in milliseconds.
+         */
+        public long getTime()
+        {
+            return Track.this.getTime(index);
+        }
+    }
+}
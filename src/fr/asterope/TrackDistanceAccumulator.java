@@ -0,0 +1,168 @@
+/**
+ * 
+ * AndroidRun, basic runner's android application. Calculates distance, speed
+ * and other usefull values taken from GPS device.
+ * 
+ * Copyright (C) 2014 Bruno Vedder
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ * 
+ */
+
+package fr.asterope;
+
+/**
+ * Running integral distance over a track, fed one position at a time. Only
+ * the previous position is kept, so a track of any size is scored with
+ * constant memory, e.g. straight from PositionFileParser.parse().
+ *
+ * Each position is prepared once (radians, sin/cos of the latitude, reduced
+ * latitude for Vincenty), and the compensated sum is done in the same order as
+ * WGS84.computeTrackDistance(double[], double[], int, int, int, double[]),
+ * so both give the same result.
+ *
+ * @author bruno
+ */
+public class TrackDistanceAccumulator implements PositionListener
+{
+
+    private final int algorithm;
+    private final VincentySolver solver;
+
+    private final CompensatedSum distance = new CompensatedSum();    // Integrated distance in km.
+    private long pointCount = 0;
+
+    // Prepared terms of the previous position.
+    private double lat1;
+    private double long1;
+    private double sinLat1;                 // sin(lat) or sin(U) for Vincenty.
+    private double cosLat1;                 // cos(lat) or cos(U) for Vincenty.
+
+
+    /**
+     * Constructor.
+     *
+     * @param algorithm : WGS84.GREAT_CIRCLE, WGS84.HAVERSINE or
+     * WGS84.VINCENTY.
+     */
+    public TrackDistanceAccumulator(int algorithm)
+    {
+        if ((algorithm != WGS84.GREAT_CIRCLE) && (algorithm != WGS84.HAVERSINE) && (algorithm != WGS84.VINCENTY))
+        {
+            throw new IllegalArgumentException("Unknown algorithm : " + algorithm);
+        }
+
+        this.algorithm = algorithm;
+        solver = (algorithm == WGS84.VINCENTY) ? new VincentySolver() : null;
+    }
+
+
+    /**
+     * Add the next position of the track.
+     *
+     * @param latitude : latitude in decimal degree.
+     * @param longitude : longitude in decimal degree.
+     */
+    public void onPosition(double latitude, double longitude)
+    {
+        double lat2 = WGS84.toRadian(latitude);
+        double long2 = WGS84.toRadian(longitude);
+        double sinLat2;
+        double cosLat2;
+
+        if (algorithm == WGS84.VINCENTY)
+        {
+            double tanU2 = solver.reducedTan(lat2);
+            cosLat2 = 1.0 / Math.sqrt((1.0 + tanU2 * tanU2));
+            sinLat2 = tanU2 * cosLat2;
+        }
+        else
+        {
+            sinLat2 = Math.sin(lat2);
+            cosLat2 = Math.cos(lat2);
+        }
+
+        if (pointCount > 0)
+        {
+            double dist;
+
+            switch (algorithm)
+            {
+                case WGS84.GREAT_CIRCLE:
+                    dist = WGS84.greatCircleDistance(lat1, sinLat1, cosLat1, long1, lat2, sinLat2, cosLat2, long2);
+                    break;
+
+                case WGS84.HAVERSINE:
+                    dist = WGS84.haversineDistance(lat1, cosLat1, long1, lat2, cosLat2, long2);
+                    break;
+
+                default:
+                    dist = solver.distance(sinLat1, cosLat1, sinLat2, cosLat2, long2 - long1);
+                    break;
+            }
+
+            distance.add(dist);
+        }
+
+        lat1 = lat2;
+        long1 = long2;
+        sinLat1 = sinLat2;
+        cosLat1 = cosLat2;
+        pointCount++;
+    }
+
+
+    /**
+     * Forget every position, and restart from zero.
+     */
+    public void reset()
+    {
+        distance.reset();
+        pointCount = 0;
+    }
+
+
+    /**
+     * Distance getter.
+     *
+     * @return distance integrated so far, in kilometers.
+     */
+    public double getDistance()
+    {
+        return distance.get();
+    }
+
+
+    /**
+     * Number of positions received so far.
+     *
+     * @return point count.
+     */
+    public long getPointCount()
+    {
+        return pointCount;
+    }
+
+
+    /**
+     * Algorithm getter.
+     *
+     * @return WGS84.GREAT_CIRCLE, WGS84.HAVERSINE or WGS84.VINCENTY.
+     */
+    public int getAlgorithm()
+    {
+        return algorithm;
+    }
+}
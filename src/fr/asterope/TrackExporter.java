@@ -0,0 +1,634 @@
+/**
+ * 
+ * AndroidRun, basic runner's android application. Calculates distance, speed
+ * and other usefull values taken from GPS device.
+ * 
+ * Copyright (C) 2014 Bruno Vedder
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ * 
+ */
+
+package fr.asterope;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+
+/**
+ * Streaming GPX 1.1 or TCX v2 export of a run.
+ *
+ * The exporter is a LogRecordHandler : it gets the fixes one by one, from a
+ * record file (OlcRecordReader), a CSV log (OlcCsvParser) or the live
+ * session, and writes each one as soon as it gets it. No DOM, no list of
+ * points : memory doesn't depend on the length of the run.
+ *
+ * Fixes logged while tracking become track points. Each pause ends the
+ * track segment (GPX trkseg, TCX Track), the next one starting with the last
+ * fix received before tracking went on again. Fixes with a bad accuracy are
+ * dropped, and altitude is only written with at least 4 satellites.
+ *
+ * A TCX lap starts with its total time and distance, only known at the end :
+ * they are written as blanks, and filled in place on close(). The output is
+ * pure ASCII, so that characters and bytes have the same offsets.
+ *
+ * @author bruno
+ */
+public class TrackExporter implements LogRecordHandler, Closeable
+{
+
+    static final public int GPX = 1;
+    static final public int TCX = 2;
+    static final public String GPX_EXTENSION = ".gpx";
+    static final public String TCX_EXTENSION = ".tcx";
+
+    static final private int BUFFER_SIZE = 64 * 1024;
+    static final private int MIN_ALTITUDE_SATELLITES = 4;
+    static final private int TOTAL_WIDTH = 16;              // Room for TCX lap totals.
+    static final private long DAY_MS = 24L * 3600L * 1000L;
+    static final private String CREATOR = "AndroidRun";
+
+    private final File destination;
+    private final int format;
+    private final String name;
+    private final Writer out;
+    private long written = 0;                               // Characters written to out.
+
+    private final StringBuilder line = new StringBuilder(512);
+    private final DecimalFormatter formatter = new DecimalFormatter(Locale.US);
+    private final Calendar calendar = new GregorianCalendar(TimeZone.getTimeZone("UTC"), Locale.US);
+    private final LogRecord segmentStart = new LogRecord();
+    private long timeOffset = 0;
+
+    private boolean headerWritten = false;
+    private boolean inSegment = false;
+    private boolean hasSegmentStart = false;
+    private boolean closed = false;
+    private long pointCount = 0;
+    private double firstDistance = -1.0;
+    private double lastDistance = 0.0;
+    private double movingSeconds = 0.0;
+    private long totalTimePosition = -1;                    // Offsets of the TCX lap totals.
+    private long totalDistancePosition = -1;
+
+
+    /**
+     * Constructor, creating the destination file.
+     *
+     * @param destination : GPX or TCX file.
+     * @param format : GPX or TCX.
+     * @param name : name of the track.
+     * @throws IOException
+     */
+    public TrackExporter(File destination, int format, String name) throws IOException
+    {
+        if ((format != GPX) && (format != TCX))
+        {
+            throw new IllegalArgumentException("Unknown export format : " + format);
+        }
+
+        this.destination = destination;
+        this.format = format;
+        this.name = name;
+        out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(destination), "US-ASCII"), BUFFER_SIZE);
+    }
+
+
+    /**
+     * Set the offset added to record times, to get ms since Epoch. CSV logs
+     * only give the time of the day, see getCsvTimeOffset().
+     *
+     * @param offset : in ms.
+     */
+    public void setTimeOffset(long offset)
+    {
+        timeOffset = offset;
+    }
+
+
+    /**
+     * Export a fix.
+     *
+     * @param record : logged fix.
+     * @throws IOException
+     */
+    public void onRecord(LogRecord record) throws IOException
+    {
+        if (closed == true)
+        {
+            throw new IOException("Track export is closed.");
+        }
+        if (record.state == LogRecord.STATE_BAD_ACCURACY)
+        {
+            return;
+        }
+        if ((format == TCX) && (record.time < 0))
+        {
+            // Time is required.
+            return;
+        }
+
+        if (record.state != LogRecord.STATE_TRACKING_OK)
+        {
+            // Not tracking : the fix may start the next segment.
+            if (inSegment == true)
+            {
+                endSegment();
+            }
+            segmentStart.set(record);
+            hasSegmentStart = true;
+            return;
+        }
+
+        if (inSegment == false)
+        {
+            beginSegment(record);
+            if (hasSegmentStart == true)
+            {
+                writePoint(segmentStart);
+                hasSegmentStart = false;
+            }
+        }
+        movingSeconds += record.deltaTime;
+        writePoint(record);
+    }
+
+
+    /**
+     * Write the end of the document, and fill the TCX lap totals.
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException
+    {
+        if (closed == true)
+        {
+            return;
+        }
+        closed = true;
+
+        try
+        {
+            if (inSegment == true)
+            {
+                endSegment();
+            }
+            if (headerWritten == false)
+            {
+                writeHeader(-1);
+            }
+            writeFooter();
+        }
+        finally
+        {
+            out.close();
+        }
+
+        if (totalTimePosition >= 0)
+        {
+            RandomAccessFile file = new RandomAccessFile(destination, "rw");
+            try
+            {
+                line.setLength(0);
+                patch(file, totalTimePosition, formatter.append(line, movingSeconds, TOTAL_WIDTH, 1));
+                line.setLength(0);
+                patch(file, totalDistancePosition, formatter.append(line, Math.max(0.0, lastDistance - firstDistance), TOTAL_WIDTH, 2));
+            }
+            finally
+            {
+                file.close();
+            }
+        }
+    }
+
+
+    /**
+     * Number of track points written.
+     *
+     * @return point count.
+     */
+    public long getPointCount()
+    {
+        return pointCount;
+    }
+
+
+    /**
+     * Export a run : a record file if its name ends with .olc, a CSV log
+     * otherwise, including its rotated segments.
+     *
+     * @param run : record file, or active CSV log.
+     * @param destination : GPX or TCX file.
+     * @param format : GPX or TCX.
+     * @return number of track points written.
+     * @throws IOException
+     */
+    public static long export(File run, File destination, int format) throws IOException
+    {
+        TrackExporter exporter = new TrackExporter(destination, format, baseName(run));
+        try
+        {
+            if (RunFiles.isRecordFile(run) == false)
+            {
+                exporter.setTimeOffset(getCsvTimeOffset(run));
+            }
+            RunFiles.read(run, exporter, OlcReplay.DEFAULT_STATE_LABELS);
+        }
+        finally
+        {
+            exporter.close();
+        }
+        return exporter.getPointCount();
+    }
+
+
+    /**
+     * Export many runs in a directory, in parallel on the executor.
+     *
+     * @param runs : runs to export, see export(File, File, int).
+     * @param directory : destination directory, files are named after runs.
+     * @param format : GPX or TCX.
+     * @param executor : where runs are exported, null to export them in the
+     * calling thread.
+     * @return exported files, in runs order.
+     * @throws IOException if a run couldn't be exported.
+     */
+    public static File[] exportAll(File[] runs, final File directory, final int format, ExecutorService executor) throws IOException
+    {
+        File[] destinations = new File[runs.length];
+        for (int i = 0; i < runs.length; i++)
+        {
+            destinations[i] = destination(runs[i], directory, format);
+        }
+
+        RunFiles.forEach(runs, new RunFiles.Task<Long>()
+        {
+            public Long call(File run) throws IOException
+            {
+                return export(run, destination(run, directory, format), format);
+            }
+        }, executor);
+        return destinations;
+    }
+
+
+    /**
+     * Destination of the export of a run into a directory.
+     *
+     * @author bruno
+     */
+    private static File destination(File run, File directory, int format)
+    {
+        return new File(directory, baseName(run) + ((format == TCX) ? TCX_EXTENSION : GPX_EXTENSION));
+    }
+
+
+    /**
+     * Time offset of a CSV log : the midnight, in the default time zone, of
+     * the day of its first line. Found from the time of the last fix and the
+     * modification time of the log, so the log must not have been touched
+     * since the run.
+     *
+     * @param run : active CSV log.
+     * @return offset in ms, 0 if the log has no fix.
+     * @throws IOException
+     */
+    public static long getCsvTimeOffset(File run) throws IOException
+    {
+        final long[] lastTime =
+        {
+            -1
+        };
+
+        RunFiles.read(run, new LogRecordHandler()
+        {
+            public void onRecord(LogRecord record)
+            {
+                if (record.time >= 0)
+                {
+                    lastTime[0] = record.time;
+                }
+            }
+        }, OlcReplay.DEFAULT_STATE_LABELS);
+
+        if (lastTime[0] < 0)
+        {
+            return 0;
+        }
+
+        // Nearest local midnight : the log is written a few seconds after the fix.
+        TimeZone timeZone = TimeZone.getDefault();
+        long start = run.lastModified() - lastTime[0];
+        long localMidnight = ((start + timeZone.getOffset(start) + DAY_MS / 2) / DAY_MS) * DAY_MS;
+        return localMidnight - timeZone.getOffset(localMidnight);
+    }
+
+
+    private void beginSegment(LogRecord record) throws IOException
+    {
+        if (headerWritten == false)
+        {
+            writeHeader((hasSegmentStart == true) ? segmentStart.time : record.time);
+        }
+
+        write((format == GPX) ? "    <trkseg>\n" : "        <Track>\n");
+        inSegment = true;
+    }
+
+
+    private void endSegment() throws IOException
+    {
+        write((format == GPX) ? "    </trkseg>\n" : "        </Track>\n");
+        inSegment = false;
+    }
+
+
+    private void writePoint(LogRecord record) throws IOException
+    {
+        boolean hasAltitude = (record.satellites >= MIN_ALTITUDE_SATELLITES) && (Double.isNaN(record.altitude) == false);
+
+        line.setLength(0);
+        if (format == GPX)
+        {
+            line.append("      <trkpt lat=\"");
+            formatter.append(line, record.latitude, 0, 7).append("\" lon=\"");
+            formatter.append(line, record.longitude, 0, 7).append("\">");
+            if (hasAltitude == true)
+            {
+                line.append("<ele>");
+                formatter.append(line, record.altitude, 0, 2).append("</ele>");
+            }
+            if (record.time >= 0)
+            {
+                line.append("<time>");
+                appendTime(line, record.time).append("</time>");
+            }
+            line.append("<sat>");
+            formatter.append(line, record.satellites).append("</sat></trkpt>\n");
+        }
+        else
+        {
+            line.append("          <Trackpoint>\n            <Time>");
+            appendTime(line, record.time).append("</Time>\n            <Position><LatitudeDegrees>");
+            formatter.append(line, record.latitude, 0, 7).append("</LatitudeDegrees><LongitudeDegrees>");
+            formatter.append(line, record.longitude, 0, 7).append("</LongitudeDegrees></Position>\n");
+            if (hasAltitude == true)
+            {
+                line.append("            <AltitudeMeters>");
+                formatter.append(line, record.altitude, 0, 2).append("</AltitudeMeters>\n");
+            }
+            line.append("            <DistanceMeters>");
+            formatter.append(line, record.distance, 0, 2).append("</DistanceMeters>\n          </Trackpoint>\n");
+        }
+        write(line);
+
+        if (firstDistance < 0.0)
+        {
+            firstDistance = record.distance;
+        }
+        lastDistance = record.distance;
+        pointCount++;
+    }
+
+
+    /**
+     * Beginning of the document, up to the first track segment.
+     *
+     * @param time : time of the first point, -1 if none.
+     */
+    private void writeHeader(long time) throws IOException
+    {
+        headerWritten = true;
+
+        line.setLength(0);
+        line.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        if (format == GPX)
+        {
+            line.append("<gpx version=\"1.1\" creator=\"").append(CREATOR).append("\" xmlns=\"http://www.topografix.com/GPX/1/1\">\n");
+            line.append("  <metadata>\n    <name>");
+            appendEscaped(line, name).append("</name>\n");
+            if (time >= 0)
+            {
+                line.append("    <time>");
+                appendTime(line, time).append("</time>\n");
+            }
+            line.append("  </metadata>\n  <trk>\n    <name>");
+            appendEscaped(line, name).append("</name>\n");
+            write(line);
+            return;
+        }
+
+        line.append("<TrainingCenterDatabase xmlns=\"http://www.garmin.com/xmlschemas/TrainingCenterDatabase/v2\">\n");
+        line.append("  <Activities>\n");
+        if (time < 0)
+        {
+            write(line);
+            return;
+        }
+        line.append("    <Activity Sport=\"Running\">\n      <Id>");
+        appendTime(line, time).append("</Id>\n      <Lap StartTime=\"");
+        appendTime(line, time).append("\">\n        <TotalTimeSeconds>");
+        totalTimePosition = written + line.length();
+        appendBlanks(line, TOTAL_WIDTH).append("</TotalTimeSeconds>\n        <DistanceMeters>");
+        totalDistancePosition = written + line.length();
+        appendBlanks(line, TOTAL_WIDTH).append("</DistanceMeters>\n");
+        line.append("        <Calories>0</Calories>\n        <Intensity>Active</Intensity>\n        <TriggerMethod>Manual</TriggerMethod>\n");
+        write(line);
+    }
+
+
+    private void writeFooter() throws IOException
+    {
+        line.setLength(0);
+        if (format == GPX)
+        {
+            line.append("  </trk>\n</gpx>\n");
+        }
+        else
+        {
+            if (totalTimePosition >= 0)
+            {
+                line.append("      </Lap>\n      <Notes>");
+                appendEscaped(line, name).append("</Notes>\n    </Activity>\n");
+            }
+            line.append("  </Activities>\n</TrainingCenterDatabase>\n");
+        }
+        write(line);
+    }
+
+
+    private void write(CharSequence text) throws IOException
+    {
+        out.append(text);
+        written += text.length();
+    }
+
+
+    /**
+     * Append an ISO 8601 UTC time : yyyy-MM-ddTHH:mm:ss[.SSS]Z.
+     */
+    private StringBuilder appendTime(StringBuilder sb, long time)
+    {
+        calendar.setTimeInMillis(time + timeOffset);
+        formatter.append(sb, calendar.get(Calendar.YEAR), 4, true).append('-');
+        formatter.append(sb, calendar.get(Calendar.MONTH) + 1, 2, true).append('-');
+        formatter.append(sb, calendar.get(Calendar.DAY_OF_MONTH), 2, true).append('T');
+        formatter.append(sb, calendar.get(Calendar.HOUR_OF_DAY), 2, true).append(':');
+        formatter.append(sb, calendar.get(Calendar.MINUTE), 2, true).append(':');
+        formatter.append(sb, calendar.get(Calendar.SECOND), 2, true);
+        int milliseconds = calendar.get(Calendar.MILLISECOND);
+        if (milliseconds != 0)
+        {
+            formatter.append(sb.append('.'), milliseconds, 3, true);
+        }
+        return sb.append('Z');
+    }
+
+
+    /**
+     * Append text as XML character data, non ASCII characters as references.
+     */
+    private static StringBuilder appendEscaped(StringBuilder sb, String text)
+    {
+        for (int i = 0; i < text.length(); i++)
+        {
+            char c = text.charAt(i);
+            if (c == '&')
+            {
+                sb.append("&amp;");
+            }
+            else if (c == '<')
+            {
+                sb.append("&lt;");
+            }
+            else if (c == '>')
+            {
+                sb.append("&gt;");
+            }
+            else if (c == '"')
+            {
+                sb.append("&quot;");
+            }
+            else if ((c < 0x20) || (c > 0x7E))
+            {
+                int codePoint = text.codePointAt(i);
+                if (Character.isSupplementaryCodePoint(codePoint) == true)
+                {
+                    i++;
+                }
+                sb.append("&#").append(codePoint).append(';');
+            }
+            else
+            {
+                sb.append(c);
+            }
+        }
+        return sb;
+    }
+
+
+    private static StringBuilder appendBlanks(StringBuilder sb, int count)
+    {
+        for (int i = 0; i < count; i++)
+        {
+            sb.append(' ');
+        }
+        return sb;
+    }
+
+
+    /**
+     * Overwrite blanks left in the file with text, right aligned.
+     */
+    private static void patch(RandomAccessFile file, long position, CharSequence text) throws IOException
+    {
+        int length = Math.min(text.length(), TOTAL_WIDTH);
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++)
+        {
+            bytes[i] = (byte) text.charAt(text.length() - length + i);
+        }
+        file.seek(position + TOTAL_WIDTH - length);
+        file.write(bytes);
+    }
+
+
+    private static String baseName(File run)
+    {
+        String name = run.getName();
+        int dot = name.lastIndexOf('.');
+        return (dot > 0) ? name.substring(0, dot) : name;
+    }
+
+
+    public static void main(String[] args)
+    {
+        if (args.length < 2)
+        {
+            System.out.println("Usage : TrackExporter [-tcx] <log file or directory>... <output directory>");
+            return;
+        }
+
+        int format = GPX;
+        ArrayList<File> runs = new ArrayList<File>();
+        for (int i = 0; i < args.length - 1; i++)
+        {
+            if (args[i].equals("-tcx") == true)
+            {
+                format = TCX;
+            }
+            else if (new File(args[i]).isDirectory() == true)
+            {
+                for (File run : OlcReplay.listRuns(new File(args[i])))
+                {
+                    runs.add(run);
+                }
+            }
+            else
+            {
+                runs.add(new File(args[i]));
+            }
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try
+        {
+            long start = System.currentTimeMillis();
+            File[] exported = exportAll(runs.toArray(new File[runs.size()]), new File(args[args.length - 1]), format, executor);
+            System.out.println(exported.length + " runs exported in " + (System.currentTimeMillis() - start) + " ms.");
+        }
+        catch (IOException e)
+        {
+            System.out.println("Got exception ! " + e.getMessage());
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+}
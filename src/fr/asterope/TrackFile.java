@@ -0,0 +1,359 @@
+/**
+ * 
+ * AndroidRun, basic runner's android application. Calculates distance, speed
+ * and other usefull values taken from GPS device.
+ * 
+ * Copyright (C) 2014 Bruno Vedder
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ * 
+ */
+
+package fr.asterope;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+
+/**
+ * Compact binary track files.
+ *
+ * Header, 32 bytes, little endian :
+ * - magic "ARTK" (int), version (short), ellipsoid (short, 1 = WGS84),
+ * - flags (int) : 1 = altitude, 2 = time,
+ * - sample count (long), 0 if the writer didn't close the file,
+ * - time base in milliseconds (long), time unit in milliseconds (int).
+ *
+ * Then for each sample, as zig-zag varints of the delta with the previous
+ * sample (the first one is relative to 0, and to the time base) : latitude
+ * and longitude in micro-degrees, altitude in centimeters, time in time
+ * units. Positions a few meters apart take 2 or 3 bytes per coordinate.
+ *
+ * Files are read memory mapped, straight into a fixed point Track.
+ *
+ * @author bruno
+ */
+public final class TrackFile
+{
+
+    public static final int MAGIC = 'A' | ('R' << 8) | ('T' << 16) | ('K' << 24);
+    public static final int VERSION = 1;
+    public static final int ELLIPSOID_WGS84 = 1;
+    public static final int FLAG_ALTITUDE = 1;
+    public static final int FLAG_TIME = 2;
+    public static final int TIME_UNIT_MILLISECONDS = 1;
+    public static final int HEADER_SIZE = 32;
+    static final int COUNT_OFFSET = 12;
+
+
+    private TrackFile()
+    {
+    }
+
+
+    /**
+     * Read a binary track file.
+     *
+     * @param absoluteFilename : file to read.
+     * @return fixed point track.
+     * @throws java.io.FileNotFoundException
+     * @throws IOException if the file isn't a valid track file.
+     */
+    public static Track read(String absoluteFilename) throws IOException
+    {
+        RandomAccessFile file = new RandomAccessFile(absoluteFilename, "r");
+
+        try
+        {
+            FileChannel channel = file.getChannel();
+            long size = channel.size();
+            if (size < HEADER_SIZE)
+            {
+                throw new IOException(absoluteFilename + " is not a track file (too short).");
+            }
+            if (size > Integer.MAX_VALUE)
+            {
+                throw new IOException(absoluteFilename + " is too large.");
+            }
+
+            MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            data.order(ByteOrder.LITTLE_ENDIAN);
+
+            if (data.getInt() != MAGIC)
+            {
+                throw new IOException(absoluteFilename + " is not a track file (bad magic).");
+            }
+            int version = data.getShort();
+            int ellipsoid = data.getShort();
+            int flags = data.getInt();
+            long count = data.getLong();
+            long timeBase = data.getLong();
+            long timeUnit = data.getInt();
+
+            if ((version != VERSION) || (ellipsoid != ELLIPSOID_WGS84))
+            {
+                throw new IOException(absoluteFilename + " : unsupported version " + version + " or ellipsoid " + ellipsoid + ".");
+            }
+
+            boolean withAltitude = (flags & FLAG_ALTITUDE) != 0;
+            boolean withTime = (flags & FLAG_TIME) != 0;
+
+            // Unclosed file : read samples up to the end.
+            boolean complete = (count > 0);
+            int capacity = complete ? (int) Math.min(count, Integer.MAX_VALUE) : (int) ((size - HEADER_SIZE) / 4) + 1;
+            Track track = new Track(capacity, true);
+
+            int microLatitude = 0;
+            int microLongitude = 0;
+            int centiAltitude = 0;
+            long time = timeBase;
+
+            try
+            {
+                for (long i = 0; complete ? (i < count) : data.hasRemaining(); i++)
+                {
+                    microLatitude += (int) unZigZag(getVarint(data));
+                    microLongitude += (int) unZigZag(getVarint(data));
+                    if (withAltitude)
+                    {
+                        centiAltitude += (int) unZigZag(getVarint(data));
+                    }
+                    if (withTime)
+                    {
+                        time += unZigZag(getVarint(data)) * timeUnit;
+                    }
+
+                    track.addFixed(microLatitude, microLongitude, centiAltitude);
+                    if (withTime)
+                    {
+                        track.setLastTime(time);
+                    }
+                }
+            }
+            catch (BufferUnderflowException e)
+            {
+                if (complete)
+                {
+                    throw new IOException(absoluteFilename + " is truncated after " + track.size() + " samples.");
+                }
+                // Unclosed file : last sample was partially written.
+            }
+
+            track.trimToSize();
+            return track;
+        }
+        finally
+        {
+            file.close();
+        }
+    }
+
+
+    /**
+     * Write a track into a binary track file.
+     *
+     * @param track : positions to write.
+     * @param absoluteFilename : file to write.
+     * @throws IOException
+     */
+    public static void write(Track track, String absoluteFilename) throws IOException
+    {
+        long timeBase = (track.hasTime() && track.size() > 0) ? track.getTime(0) : 0L;
+        TrackFileWriter writer = new TrackFileWriter(absoluteFilename, track.hasAltitude(), track.hasTime(), timeBase);
+
+        try
+        {
+            for (int i = 0; i < track.size(); i++)
+            {
+                if (track.isFixedPoint())
+                {
+                    writer.writeFixed(track.getMicroLatitude(i), track.getMicroLongitude(i), track.getCentiAltitude(i), track.getTime(i));
+                }
+                else
+                {
+                    writer.write(track.getLatitude(i), track.getLongitude(i), track.getAltitude(i), track.getTime(i));
+                }
+            }
+        }
+        finally
+        {
+            writer.close();
+        }
+    }
+
+
+    /**
+     * Convert a text position file (see PositionFileParser) into a binary
+     * track file, without loading it.
+     *
+     * @param textFilename : position file to read.
+     * @param binaryFilename : track file to write.
+     * @return number of samples written.
+     * @throws PositionFormatException if a line is malformed.
+     * @throws IOException
+     */
+    public static long convert(String textFilename, String binaryFilename) throws IOException
+    {
+        final TrackFileWriter writer = new TrackFileWriter(binaryFilename, false, false, 0L);
+        final IOException[] failure = new IOException[1];
+
+        try
+        {
+            PositionFileParser.parse(textFilename, new PositionListener()
+            {
+                public void onPosition(double latitude, double longitude)
+                {
+                    if (failure[0] != null)
+                    {
+                        return;
+                    }
+                    try
+                    {
+                        writer.write(latitude, longitude, 0.0, 0L);
+                    }
+                    catch (IOException e)
+                    {
+                        failure[0] = e;
+                    }
+                }
+            });
+        }
+        finally
+        {
+            writer.close();
+        }
+
+        if (failure[0] != null)
+        {
+            throw failure[0];
+        }
+        return writer.getSampleCount();
+    }
+
+
+    /**
+     * Convert a run log (binary records Run_*.olc, or CSV log Run_*.csv with
+     * its rotated segments) into a binary track file with altitudes and
+     * times, without loading it. Only the fixes tracked with a good accuracy
+     * are written. CSV logs only hold the time of the day : their date is
+     * rebuilt by TrackExporter.getCsvTimeOffset().
+     *
+     * @param run : run log to read.
+     * @param binaryFilename : track file to write.
+     * @return number of samples written.
+     * @throws IOException
+     */
+    public static long convertRun(File run, String binaryFilename) throws IOException
+    {
+        final long timeOffset = (RunFiles.isRecordFile(run) == true) ? 0L : TrackExporter.getCsvTimeOffset(run);
+        final TrackFileWriter writer = new TrackFileWriter(binaryFilename, true, true, timeOffset);
+        final IOException[] failure = new IOException[1];
+
+        try
+        {
+            RunFiles.read(run, new LogRecordHandler()
+            {
+                public void onRecord(LogRecord record)
+                {
+                    if ((failure[0] != null) || (record.state != LogRecord.STATE_TRACKING_OK))
+                    {
+                        return;
+                    }
+                    try
+                    {
+                        writer.write(record.latitude, record.longitude, record.altitude, timeOffset + record.time);
+                    }
+                    catch (IOException e)
+                    {
+                        failure[0] = e;
+                    }
+                }
+            }, OlcReplay.DEFAULT_STATE_LABELS);
+        }
+        finally
+        {
+            writer.close();
+        }
+
+        if (failure[0] != null)
+        {
+            throw failure[0];
+        }
+        return writer.getSampleCount();
+    }
+
+
+    static long unZigZag(long value)
+    {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+
+    private static long getVarint(MappedByteBuffer data) throws IOException
+    {
+        long value = 0;
+        int shift = 0;
+        byte b;
+
+        do
+        {
+            if (shift > 63)
+            {
+                throw new IOException("Malformed varint at offset " + data.position() + ".");
+            }
+            b = data.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        }
+        while ((b & 0x80) != 0);
+
+        return value;
+    }
+
+
+    /**
+     * Convert text position files or run logs (*.olc, *.csv) to binary
+     * track files.
+     *
+     * @param args : position file or run log, binary file.
+     */
+    public static void main(String[] args)
+    {
+        if (args.length != 2)
+        {
+            System.out.println("Usage : TrackFile <position file or run log> <track file>");
+            return;
+        }
+
+        try
+        {
+            long start = System.nanoTime();
+            File source = new File(args[0]);
+            boolean runLog = (RunFiles.isRecordFile(source) == true) || (args[0].endsWith(".csv") == true);
+            long samples = runLog ? convertRun(source, args[1]) : convert(args[0], args[1]);
+            long elapsed = (System.nanoTime() - start) / 1000000;
+            System.out.println(samples + " samples converted in " + elapsed + " ms.");
+        }
+        catch (IOException e)
+        {
+            System.out.println("Got exception ! " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,237 @@
+/**
+ * 
+ * AndroidRun, basic runner's android application. Calculates distance, speed
+ * and other usefull values taken from GPS device.
+ * 
+ * Copyright (C) 2014 Bruno Vedder
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ * 
+ */
+
+package fr.asterope;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+
+/**
+ * Streaming writer of binary track files, see TrackFile for the format.
+ * Samples are encoded into a 64 KB buffer, written when full. The sample
+ * count of the header is written on close().
+ *
+ * @author bruno
+ */
+public class TrackFileWriter implements Closeable
+{
+
+    static final private int BUFFER_SIZE = 64 * 1024;
+    static final private int MAX_SAMPLE_SIZE = 4 * 10;     // 4 varints of 10 bytes max.
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final boolean withAltitude;
+    private final boolean withTime;
+    private final long timeBase;
+
+    private long sampleCount = 0;
+    private int lastMicroLatitude = 0;
+    private int lastMicroLongitude = 0;
+    private int lastCentiAltitude = 0;
+    private long lastTime;
+    private boolean closed = false;
+
+
+    /**
+     * Constructor : create (or truncate) the file and write its header.
+     *
+     * @param absoluteFilename : file to write.
+     * @param withAltitude : true to store altitudes.
+     * @param withTime : true to store times.
+     * @param timeBase : time origin in milliseconds (e.g. time of the first
+     * sample), times are stored relative to it.
+     * @throws IOException
+     */
+    public TrackFileWriter(String absoluteFilename, boolean withAltitude, boolean withTime, long timeBase) throws IOException
+    {
+        this.withAltitude = withAltitude;
+        this.withTime = withTime;
+        this.timeBase = timeBase;
+        lastTime = timeBase;
+
+        file = new RandomAccessFile(absoluteFilename, "rw");
+        file.setLength(0);
+        channel = file.getChannel();
+
+        buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        int flags = (withAltitude ? TrackFile.FLAG_ALTITUDE : 0) | (withTime ? TrackFile.FLAG_TIME : 0);
+        buffer.putInt(TrackFile.MAGIC);
+        buffer.putShort((short) TrackFile.VERSION);
+        buffer.putShort((short) TrackFile.ELLIPSOID_WGS84);
+        buffer.putInt(flags);
+        buffer.putLong(0L);                     // Sample count, written on close.
+        buffer.putLong(timeBase);
+        buffer.putInt(TrackFile.TIME_UNIT_MILLISECONDS);
+    }
+
+
+    /**
+     * Append a sample.
+     *
+     * @param latitude : latitude in decimal degree.
+     * @param longitude : longitude in decimal degree.
+     * @param altitude : altitude in meters, ignored without altitude.
+     * @param time : time in milliseconds, ignored without time.
+     * @throws IOException
+     */
+    public void write(double latitude, double longitude, double altitude, long time) throws IOException
+    {
+        writeFixed((int) Math.round(latitude * Track.MICRO_DEGREES_PER_DEGREE), (int) Math.round(longitude * Track.MICRO_DEGREES_PER_DEGREE),
+                (int) Math.round(altitude * Track.CENTIMETERS_PER_METER), time);
+    }
+
+
+    /**
+     * Append a sample already in fixed point.
+     *
+     * @param microLatitude : latitude in micro-degrees.
+     * @param microLongitude : longitude in micro-degrees.
+     * @param centiAltitude : altitude in centimeters, ignored without altitude.
+     * @param time : time in milliseconds, ignored without time.
+     * @throws IOException if the file is closed.
+     */
+    public void writeFixed(int microLatitude, int microLongitude, int centiAltitude, long time) throws IOException
+    {
+        if (closed == true)
+        {
+            throw new IOException("Track file already closed.");
+        }
+        if (buffer.remaining() < MAX_SAMPLE_SIZE)
+        {
+            flushBuffer();
+        }
+
+        putVarint(zigZag((long) microLatitude - lastMicroLatitude));
+        putVarint(zigZag((long) microLongitude - lastMicroLongitude));
+        lastMicroLatitude = microLatitude;
+        lastMicroLongitude = microLongitude;
+
+        if (withAltitude)
+        {
+            putVarint(zigZag((long) centiAltitude - lastCentiAltitude));
+            lastCentiAltitude = centiAltitude;
+        }
+
+        if (withTime)
+        {
+            putVarint(zigZag(time - lastTime));
+            lastTime = time;
+        }
+        sampleCount++;
+    }
+
+
+    /**
+     * Write the buffered samples, patch the sample count of the header and
+     * close the file. Further calls do nothing.
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException
+    {
+        if (closed == true)
+        {
+            return;
+        }
+        closed = true;
+
+        try
+        {
+            flushBuffer();
+
+            ByteBuffer count = ByteBuffer.allocate(8);
+            count.order(ByteOrder.LITTLE_ENDIAN);
+            count.putLong(0, sampleCount);
+            channel.write(count, TrackFile.COUNT_OFFSET);
+        }
+        finally
+        {
+            file.close();
+        }
+    }
+
+
+    /**
+     * Number of samples written so far.
+     *
+     * @return sample count.
+     */
+    public long getSampleCount()
+    {
+        return sampleCount;
+    }
+
+
+    /**
+     * Time origin getter.
+     *
+     * @return time base in milliseconds.
+     */
+    public long getTimeBase()
+    {
+        return timeBase;
+    }
+
+
+    private void flushBuffer() throws IOException
+    {
+        buffer.flip();
+        while (buffer.hasRemaining())
+        {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+
+    /**
+     * Zig-zag encoding : small negative values become small positive values.
+     */
+    static long zigZag(long value)
+    {
+        return (value << 1) ^ (value >> 63);
+    }
+
+
+    /**
+     * Unsigned LEB128 : 7 bits per byte, high bit set when more bytes follow.
+     */
+    private void putVarint(long value)
+    {
+        while ((value & ~0x7FL) != 0)
+        {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+}
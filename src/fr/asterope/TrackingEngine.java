@@ -0,0 +1,507 @@
+/**
+ * 
+ * AndroidRun, basic runner's android application. Calculates distance, speed
+ * and other usefull values taken from GPS device.
+ * 
+ * Copyright (C) 2014 Bruno Vedder
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ * 
+ */
+
+package fr.asterope;
+
+
+/**
+ * Run tracking, without Android : accuracy gating, distance integration,
+ * average speed and elevation gain, from primitive fixes.
+ *
+ * MainActivity feeds it with each Location, a replay or a benchmark with
+ * logged or synthetic fixes : onFix() doesn't allocate anything. Fixes less
+ * accurate than the required accuracy are ignored. The others update the
+ * position, and while tracking is started, distance is integrated from the
+ * previous valid fix, with the Vincenty formula.
+ *
+ * With a KalmanFilter, accepted fixes are smoothed before they are used :
+ * distance and elevation gain come from the filtered positions and
+ * altitudes, and the required accuracy can be relaxed since fixes are
+ * weighted by their accuracy. Fixes rejected by the filter as outliers are
+ * ignored, as inaccurate ones. Filtered positions still jitter within the
+ * filter accuracy : a step is only counted once it exceeds MOVE_THRESHOLD
+ * times that accuracy, shorter steps are measured again from the same point
+ * with the next fix.
+ *
+ * The run state can be copied into a RunState and restored from it, see
+ * snapshot() and restore(). Not thread safe : one thread at a time.
+ *
+ * @author bruno
+ */
+public class TrackingEngine
+{
+
+    static final public float DEFAULT_REQUIRED_ACCURACY = 10.0f;      // in meters.
+    static final public float FILTERED_REQUIRED_ACCURACY = 50.0f;     // in meters, when fixes are filtered.
+    static final public boolean APPLICATION_FILTERED = true;          // The application smoothes fixes with a KalmanFilter.
+    static final public int MIN_ELEVATION_SATELLITES = 4;              // 4 satellites are the least expected to get 3D GPS fix.
+    static final public double MOVE_THRESHOLD = 3.0;                   // Filtered steps are counted beyond 3 filter accuracies.
+
+    private final float requiredAccuracy;
+    private final KalmanFilter filter;      // null when fixes are used raw.
+    private final VincentySolver geodesic = new VincentySolver();
+    private final ElevationGainAccumulator elevation = new ElevationGainAccumulator();
+
+    private boolean started = false;
+    private boolean firstFixReceived = false;
+    private float instSpeed = 0.0f;         // Speed in m.s-1
+    private float averageSpeed = 0.0f;      // Average Speed in m.s-1
+    private float distance = 0.0f;          // Integrated distance in m.
+    private long updateCount = 0;           // gps update counter.
+    private float elapsedSeconds = 0.0f;
+    private double latitude = 0.0;
+    private double longitude = 0.0;
+    private int satelliteNumber = 0;
+
+    // Last valid fix.
+    private boolean hasLastPosition = false;
+    private double lastPositionLatitude = 0.0;
+    private double lastPositionLongitude = 0.0;
+    private double lastPositionAltitude = 0.0;
+    private long lastPositionElapsedRealtimeNanos = 0;
+    private long lastPositionTime = 0;
+    private float lastPositionSpeed = 0.0f;
+    private float lastPositionBearing = 0.0f;
+    private float lastPositionAccuracy = 0.0f;
+
+    // Last fix, as logged : position and altitude are the raw fix ones, so that replays see the same input.
+    private int lastState = LogRecord.STATE_NO_TRACKING;
+    private float lastAccuracy = 0.0f;
+    private double lastDeltaDistance = 0.0;
+    private float lastDeltaSeconds = 0.0f;
+    private double lastLatitude = 0.0;
+    private double lastLongitude = 0.0;
+    private double lastAltitude = 0.0;
+    private float lastBearing = 0.0f;
+
+
+    /**
+     * Engine set up as the application, see APPLICATION_FILTERED.
+     *
+     * @return engine for MainActivity and the replays of its logs.
+     */
+    public static TrackingEngine createApplicationEngine()
+    {
+        return create(APPLICATION_FILTERED);
+    }
+
+
+    /**
+     * Engine with a KalmanFilter and FILTERED_REQUIRED_ACCURACY, or with raw
+     * fixes and DEFAULT_REQUIRED_ACCURACY.
+     *
+     * @param filtered : true to smooth fixes.
+     * @return new engine.
+     */
+    public static TrackingEngine create(boolean filtered)
+    {
+        if (filtered == true)
+        {
+            return new TrackingEngine(FILTERED_REQUIRED_ACCURACY, new KalmanFilter());
+        }
+        return new TrackingEngine(DEFAULT_REQUIRED_ACCURACY);
+    }
+
+
+    /**
+     * Constructor without filter, with the default required accuracy.
+     */
+    public TrackingEngine()
+    {
+        this(DEFAULT_REQUIRED_ACCURACY);
+    }
+
+
+    /**
+     * Constructor, without filter.
+     *
+     * @param requiredAccuracy : fixes less accurate are ignored, in meters.
+     */
+    public TrackingEngine(float requiredAccuracy)
+    {
+        this(requiredAccuracy, null);
+    }
+
+
+    /**
+     * Constructor.
+     *
+     * @param requiredAccuracy : fixes less accurate are ignored, in meters.
+     * @param filter : filter smoothing the fixes, null to use them raw.
+     */
+    public TrackingEngine(float requiredAccuracy, KalmanFilter filter)
+    {
+        this.requiredAccuracy = requiredAccuracy;
+        this.filter = filter;
+    }
+
+
+    /**
+     * Process a GPS fix.
+     *
+     * @param elapsedRealtimeNanos : monotonic time of the fix, in ns.
+     * @param time : wall clock time of the fix, in ms.
+     * @param latitude : in decimal degree.
+     * @param longitude : in decimal degree.
+     * @param altitude : in m.
+     * @param accuracy : in m.
+     * @param speed : in m.s-1
+     * @param bearing : in degree.
+     * @param satellites : satellites used for the fix.
+     * @return state of the fix : LogRecord.STATE_TRACKING_OK if the distance
+     * was integrated, STATE_BAD_ACCURACY if the fix was ignored (inaccurate or
+     * outlier),
+     * STATE_NO_TRACKING otherwise.
+     */
+    public int onFix(long elapsedRealtimeNanos, long time, double latitude, double longitude, double altitude, float accuracy, float speed,
+        float bearing, int satellites)
+    {
+        lastAccuracy = accuracy;
+        lastDeltaDistance = 0.0;
+        lastDeltaSeconds = 0.0f;
+        lastLatitude = latitude;
+        lastLongitude = longitude;
+        lastAltitude = altitude;
+        lastBearing = 0.0f;
+
+        // check for required precision otherwise just ignore the location.
+        if (accuracy > requiredAccuracy)
+        {
+            lastState = LogRecord.STATE_BAD_ACCURACY;
+            return lastState;
+        }
+
+        if (filter != null)
+        {
+            if (filter.update(elapsedRealtimeNanos, latitude, longitude, altitude, accuracy, satellites >= MIN_ELEVATION_SATELLITES) == false)
+            {
+                lastState = LogRecord.STATE_BAD_ACCURACY;
+                return lastState;
+            }
+
+            latitude = filter.getLatitude();
+            longitude = filter.getLongitude();
+            if (Double.isNaN(filter.getAltitude()) == false)
+            {
+                altitude = filter.getAltitude();
+            }
+        }
+
+        lastState = LogRecord.STATE_NO_TRACKING;
+        firstFixReceived = true;
+        updateCount++;
+
+        this.latitude = latitude;
+        this.longitude = longitude;
+        satelliteNumber = satellites;
+        instSpeed = speed;
+        lastBearing = bearing;
+
+        // Integrate distance if we already have one valid position.
+        boolean moved = true;
+        if ((hasLastPosition == true) && (started == true))
+        {
+            double step = geodesic.distance(lastPositionLatitude, lastPositionLongitude, latitude, longitude) * 1000.0; // Distance is returned in kilometer !
+
+            // Filtered positions still wander within their uncertainty : a shorter step is jitter, not a move.
+            moved = (filter == null) || (step > filter.getAccuracy() * MOVE_THRESHOLD);
+            if (moved == true)
+            {
+                lastDeltaDistance = step;
+                distance += step;
+            }
+
+            lastDeltaSeconds = (float) ((elapsedRealtimeNanos - lastPositionElapsedRealtimeNanos) / 1000000000.0);
+            elapsedSeconds += lastDeltaSeconds;
+            averageSpeed = distance / elapsedSeconds;
+            if (satellites >= MIN_ELEVATION_SATELLITES)
+            {
+                elevation.update(altitude, lastDeltaSeconds);
+            }
+
+            lastState = LogRecord.STATE_TRACKING_OK;
+        }
+
+        // Always update last position, but the point the next step is measured from.
+        hasLastPosition = true;
+        if (moved == true)
+        {
+            lastPositionLatitude = latitude;
+            lastPositionLongitude = longitude;
+        }
+        lastPositionAltitude = altitude;
+        lastPositionElapsedRealtimeNanos = elapsedRealtimeNanos;
+        lastPositionTime = time;
+        lastPositionSpeed = speed;
+        lastPositionBearing = bearing;
+        lastPositionAccuracy = accuracy;
+        return lastState;
+    }
+
+
+    /**
+     * Copy the last fix and the run totals into a record, time excepted.
+     * Latitude, longitude and altitude are the raw ones of the last fix,
+     * even ignored : filtered positions only give the distance, and the
+     * altitude used for elevation gain is lastAltitude.
+     *
+     * @param record : destination.
+     */
+    public void fillRecord(LogRecord record)
+    {
+        record.distance = distance;
+        record.deltaDistance = lastDeltaDistance;
+        record.accuracy = lastAccuracy;
+        record.speed = instSpeed;
+        record.deltaTime = lastDeltaSeconds;
+        record.altitude = lastAltitude;
+        record.bearing = lastBearing;
+        record.latitude = lastLatitude;
+        record.longitude = lastLongitude;
+        record.lastAltitude = elevation.getLastAltitude();
+        record.ascent = elevation.getAscent();
+        record.descent = elevation.getDescent();
+        record.satellites = satelliteNumber;
+        record.updateCount = updateCount;
+        record.state = lastState;
+    }
+
+
+    /**
+     * Back to a new run. Tracking is stopped, the last valid fix is kept.
+     */
+    public void reset()
+    {
+        started = false;
+        instSpeed = 0.0f;
+        averageSpeed = 0.0f;
+        distance = 0.0f;
+        updateCount = 0;
+        elapsedSeconds = 0.0f;
+        latitude = 0.0;
+        longitude = 0.0;
+        satelliteNumber = 0;
+        elevation.reset();
+    }
+
+
+    /**
+     * Copy the run state into a RunState. Fields the engine doesn't know
+     * (pause, GPS status, log file) are left unchanged.
+     *
+     * @param state : destination.
+     */
+    public void snapshot(RunState state)
+    {
+        state.started = started;
+        state.firstFixReceived = firstFixReceived;
+        state.distance = distance;
+        state.instSpeed = instSpeed;
+        state.averageSpeed = averageSpeed;
+        state.elapsedSeconds = elapsedSeconds;
+        state.updateCount = updateCount;
+        state.latitude = latitude;
+        state.longitude = longitude;
+        state.satelliteNumber = satelliteNumber;
+        state.lastAltitude = elevation.getLastAltitude();
+        state.ascent = elevation.getAscent();
+        state.descent = elevation.getDescent();
+
+        state.hasLastPosition = hasLastPosition;
+        state.lastPositionLatitude = lastPositionLatitude;
+        state.lastPositionLongitude = lastPositionLongitude;
+        state.lastPositionAltitude = lastPositionAltitude;
+        state.lastPositionElapsedRealtimeNanos = lastPositionElapsedRealtimeNanos;
+        state.lastPositionTime = lastPositionTime;
+        state.lastPositionSpeed = lastPositionSpeed;
+        state.lastPositionBearing = lastPositionBearing;
+        state.lastPositionAccuracy = lastPositionAccuracy;
+    }
+
+
+    /**
+     * Restore the run state from a RunState.
+     *
+     * @param state : state to restore.
+     * @param elapsedRealtimeNanos : current monotonic time, in ns. A last
+     * fix later than that was taken before a reboot : it is dropped, as it
+     * can't give the time to the next fix.
+     */
+    public void restore(RunState state, long elapsedRealtimeNanos)
+    {
+        started = state.started;
+        firstFixReceived = state.firstFixReceived;
+        distance = state.distance;
+        instSpeed = state.instSpeed;
+        averageSpeed = state.averageSpeed;
+        elapsedSeconds = state.elapsedSeconds;
+        updateCount = state.updateCount;
+        latitude = state.latitude;
+        longitude = state.longitude;
+        satelliteNumber = state.satelliteNumber;
+        elevation.restore(state.lastAltitude, state.ascent, state.descent);
+
+        hasLastPosition = (state.hasLastPosition == true) && (state.lastPositionElapsedRealtimeNanos <= elapsedRealtimeNanos);
+        lastPositionLatitude = state.lastPositionLatitude;
+        lastPositionLongitude = state.lastPositionLongitude;
+        lastPositionAltitude = state.lastPositionAltitude;
+        lastPositionElapsedRealtimeNanos = state.lastPositionElapsedRealtimeNanos;
+        lastPositionTime = state.lastPositionTime;
+        lastPositionSpeed = state.lastPositionSpeed;
+        lastPositionBearing = state.lastPositionBearing;
+        lastPositionAccuracy = state.lastPositionAccuracy;
+        lastState = LogRecord.STATE_NO_TRACKING;
+        if (filter != null)
+        {
+            // The filter state isn't saved : it restarts with the next fix.
+            filter.reset();
+        }
+    }
+
+
+    /**
+     * Start or stop tracking : distance is only integrated while started.
+     *
+     * @param started : true to start.
+     */
+    public void setStarted(boolean started)
+    {
+        this.started = started;
+    }
+
+
+    public boolean isStarted()
+    {
+        return started;
+    }
+
+
+    /**
+     * First fix getter.
+     *
+     * @return true once a fix was accurate enough.
+     */
+    public boolean isFirstFixReceived()
+    {
+        return firstFixReceived;
+    }
+
+
+    /**
+     * Last valid fix getter.
+     *
+     * @return true if a fix can give the distance to the next one.
+     */
+    public boolean hasLastPosition()
+    {
+        return hasLastPosition;
+    }
+
+
+    /**
+     * Time of the last valid fix.
+     *
+     * @return monotonic time in ns.
+     */
+    public long getLastPositionElapsedRealtimeNanos()
+    {
+        return lastPositionElapsedRealtimeNanos;
+    }
+
+
+    /**
+     * Filter getter.
+     *
+     * @return filter smoothing the fixes, null if none.
+     */
+    public KalmanFilter getFilter()
+    {
+        return filter;
+    }
+
+
+    public float getRequiredAccuracy()
+    {
+        return requiredAccuracy;
+    }
+
+
+    public float getDistance()
+    {
+        return distance;
+    }
+
+
+    public float getInstSpeed()
+    {
+        return instSpeed;
+    }
+
+
+    public float getAverageSpeed()
+    {
+        return averageSpeed;
+    }
+
+
+    public float getElapsedSeconds()
+    {
+        return elapsedSeconds;
+    }
+
+
+    public long getUpdateCount()
+    {
+        return updateCount;
+    }
+
+
+    public double getLatitude()
+    {
+        return latitude;
+    }
+
+
+    public double getLongitude()
+    {
+        return longitude;
+    }
+
+
+    public int getSatelliteNumber()
+    {
+        return satelliteNumber;
+    }
+
+
+    public float getAscent()
+    {
+        return elevation.getAscent();
+    }
+
+
+    public float getDescent()
+    {
+        return elevation.getDescent();
+    }
+}
@@ -0,0 +1,175 @@
+/**
+ * 
+ * AndroidRun, basic runner's android application. Calculates distance, speed
+ * and other usefull values taken from GPS device.
+ * 
+ * Copyright (C) 2014 Bruno Vedder
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ * 
+ */
+
+package fr.asterope;
+
+
+/**
+ * Immutable copy of the run state of a TrackingEngine, built by the thread
+ * that owns the engine and handed to the UI thread.
+ *
+ * Fields are final : a snapshot published through a volatile reference or a
+ * Handler is seen complete by the reader, without locking.
+ *
+ * @author bruno
+ */
+public final class TrackingSnapshot
+{
+
+    private final RunState state = new RunState();
+
+
+    /**
+     * Copy the run state of an engine. To be called by the thread owning it.
+     *
+     * @param engine : engine to copy.
+     * @param pauseStarted : in seconds, -1 when not paused.
+     * @param gpsStatus : last GPS status message.
+     * @param logFilename : log file of the run.
+     */
+    public TrackingSnapshot(TrackingEngine engine, long pauseStarted, String gpsStatus, String logFilename)
+    {
+        engine.snapshot(state);
+        state.pauseStarted = pauseStarted;
+        state.gpsStatus = gpsStatus;
+        state.logFilename = logFilename;
+    }
+
+
+    /**
+     * Copy this snapshot into a RunState, for the journal or the instance
+     * state.
+     *
+     * @param destination : state to fill.
+     */
+    public void copyTo(RunState destination)
+    {
+        destination.set(state);
+    }
+
+
+    public boolean isStarted()
+    {
+        return state.started;
+    }
+
+
+    public boolean isFirstFixReceived()
+    {
+        return state.firstFixReceived;
+    }
+
+
+    public float getDistance()
+    {
+        return state.distance;
+    }
+
+
+    public float getInstSpeed()
+    {
+        return state.instSpeed;
+    }
+
+
+    public float getAverageSpeed()
+    {
+        return state.averageSpeed;
+    }
+
+
+    public float getElapsedSeconds()
+    {
+        return state.elapsedSeconds;
+    }
+
+
+    public long getUpdateCount()
+    {
+        return state.updateCount;
+    }
+
+
+    public double getLatitude()
+    {
+        return state.latitude;
+    }
+
+
+    public double getLongitude()
+    {
+        return state.longitude;
+    }
+
+
+    public int getSatelliteNumber()
+    {
+        return state.satelliteNumber;
+    }
+
+
+    public float getAscent()
+    {
+        return state.ascent;
+    }
+
+
+    public float getDescent()
+    {
+        return state.descent;
+    }
+
+
+    /**
+     * Last valid fix getter.
+     *
+     * @return true if the duration runs on from the last valid fix.
+     */
+    public boolean hasLastPosition()
+    {
+        return state.hasLastPosition;
+    }
+
+
+    /**
+     * Time of the last valid fix.
+     *
+     * @return monotonic time in ns.
+     */
+    public long getLastPositionElapsedRealtimeNanos()
+    {
+        return state.lastPositionElapsedRealtimeNanos;
+    }
+
+
+    public long getPauseStarted()
+    {
+        return state.pauseStarted;
+    }
+
+
+    public String getGpsStatus()
+    {
+        return state.gpsStatus;
+    }
+}
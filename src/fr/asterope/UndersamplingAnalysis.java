@@ -0,0 +1,491 @@
+/**
+ * 
+ * AndroidRun, basic runner's android application. Calculates distance, speed
+ * and other usefull values taken from GPS device.
+ * 
+ * Copyright (C) 2014 Bruno Vedder
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ * 
+ */
+
+package fr.asterope;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+
+/**
+ * Sampling sensitivity study : how much distance is lost when only one GPS
+ * position out of u is kept ?
+ *
+ * For every stride u in 1..maxStride, and every algorithm, the distance of the
+ * undersampled tracks (positions phase, phase + u, phase + 2u...) is computed.
+ * With allPhases, every phase in 0..u-1 has its own accumulator, otherwise
+ * only phase 0 (the first position is always kept) is computed.
+ *
+ * All the strides are computed in a single pass over the track : the last
+ * maxStride prepared positions are kept in a ring, and each new position
+ * closes one segment for every stride. On large tracks, strides are shared
+ * between threads, each thread doing its own pass.
+ *
+ * @author bruno
+ */
+public class UndersamplingAnalysis
+{
+
+    public static final int PARALLEL_THRESHOLD = 100000;      // Points.
+
+    static final private int[] ALGORITHMS =
+    {
+        WGS84.GREAT_CIRCLE, WGS84.HAVERSINE, WGS84.VINCENTY
+    };
+
+    private final int maxStride;
+    private final boolean allPhases;
+
+
+    /**
+     * Constructor.
+     *
+     * @param maxStride : highest stride studied.
+     * @param allPhases : true to compute every phase of each stride, false for
+     * phase 0 only.
+     */
+    public UndersamplingAnalysis(int maxStride, boolean allPhases)
+    {
+        if (maxStride < 1)
+        {
+            throw new IllegalArgumentException("maxStride must be >= 1.");
+        }
+
+        this.maxStride = maxStride;
+        this.allPhases = allPhases;
+    }
+
+
+    /**
+     * Run the analysis on a track stored as two parallel arrays. Tracks of
+     * PARALLEL_THRESHOLD points or more use the shared pool of
+     * ParallelTrackDistance.
+     *
+     * @param latitudes : latitudes of the track, in decimal degree.
+     * @param longitudes : longitudes of the track, in decimal degree.
+     * @param offset : index of the first point of the track.
+     * @param length : number of points of the track.
+     * @return distances for every stride, phase and algorithm.
+     */
+    public Result analyse(double[] latitudes, double[] longitudes, int offset, int length)
+    {
+        ExecutorService executor = (length >= PARALLEL_THRESHOLD) ? ParallelTrackDistance.getDefaultExecutor() : null;
+        return analyse(latitudes, longitudes, offset, length, executor);
+    }
+
+
+    /**
+     * Run the analysis on a track stored as two parallel arrays.
+     *
+     * @param latitudes : latitudes of the track, in decimal degree.
+     * @param longitudes : longitudes of the track, in decimal degree.
+     * @param offset : index of the first point of the track.
+     * @param length : number of points of the track.
+     * @param executor : shares strides between threads, null to use the
+     * calling thread only.
+     * @return distances for every stride, phase and algorithm.
+     */
+    public Result analyse(final double[] latitudes, final double[] longitudes, final int offset, final int length, ExecutorService executor)
+    {
+        if ((offset < 0) || (length < 0) || (offset + length > latitudes.length) || (offset + length > longitudes.length))
+        {
+            throw new IndexOutOfBoundsException("Track [" + offset + ", " + (offset + length) + "[ is out of arrays bounds.");
+        }
+
+        final Result result = new Result(maxStride, allPhases, length);
+        int tasks = (executor == null) ? 1 : Math.min(Runtime.getRuntime().availableProcessors(), maxStride);
+
+        if (tasks <= 1)
+        {
+            pass(latitudes, longitudes, offset, length, 0, 1, result);
+            return result;
+        }
+
+        // Strides are dealt round robin, as small strides have more segments.
+        ArrayList<Future<Object>> passes = new ArrayList<Future<Object>>(tasks);
+        for (int task = 0; task < tasks; task++)
+        {
+            final int first = task;
+            final int step = tasks;
+            passes.add(executor.submit(new Callable<Object>()
+            {
+                public Object call()
+                {
+                    pass(latitudes, longitudes, offset, length, first, step, result);
+                    return null;
+                }
+            }));
+        }
+
+        try
+        {
+            for (Future<Object> pass : passes)
+            {
+                pass.get();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted during undersampling analysis.", e);
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof RuntimeException)
+            {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+        return result;
+    }
+
+
+    /**
+     * One pass over the track for strides first + 1, first + 1 + step, ...
+     * Each stride only writes its own accumulators.
+     */
+    private void pass(double[] latitudes, double[] longitudes, int offset, int length, int first, int step, Result result)
+    {
+        VincentySolver solver = new VincentySolver();
+
+        // Ring of the last maxStride prepared positions.
+        int ring = maxStride + 1;
+        double[] lat = new double[ring];
+        double[] lon = new double[ring];
+        double[] sinLat = new double[ring];
+        double[] cosLat = new double[ring];
+        double[] sinU = new double[ring];
+        double[] cosU = new double[ring];
+
+        for (int i = 0; i < length; i++)
+        {
+            int cur = i % ring;
+            lat[cur] = WGS84.toRadian(latitudes[offset + i]);
+            lon[cur] = WGS84.toRadian(longitudes[offset + i]);
+            sinLat[cur] = Math.sin(lat[cur]);
+            cosLat[cur] = Math.cos(lat[cur]);
+            double tanU = solver.reducedTan(lat[cur]);
+            cosU[cur] = 1.0 / Math.sqrt((1.0 + tanU * tanU));
+            sinU[cur] = tanU * cosU[cur];
+
+            for (int stride = first + 1; (stride <= maxStride) && (stride <= i); stride += step)
+            {
+                int phase = i % stride;
+                if ((allPhases == false) && (phase != 0))
+                {
+                    continue;
+                }
+
+                int prev = (i - stride) % ring;
+                int index = result.index(stride, phase);
+
+                result.add(0, index, WGS84.greatCircleDistance(lat[prev], sinLat[prev], cosLat[prev], lon[prev], lat[cur], sinLat[cur], cosLat[cur], lon[cur]));
+                result.add(1, index, WGS84.haversineDistance(lat[prev], cosLat[prev], lon[prev], lat[cur], cosLat[cur], lon[cur]));
+                result.add(2, index, solver.distance(sinU[prev], cosU[prev], sinU[cur], cosU[cur], lon[cur] - lon[prev]));
+            }
+        }
+    }
+
+
+    /**
+     * Distances of the undersampled tracks.
+     */
+    public static class Result
+    {
+
+        private final int maxStride;
+        private final boolean allPhases;
+        private final int pointCount;
+
+        // [algorithm][index(stride, phase)], Neumaier compensated sums.
+        private final double[][] sums;
+        private final double[][] compensations;
+
+
+        Result(int maxStride, boolean allPhases, int pointCount)
+        {
+            this.maxStride = maxStride;
+            this.allPhases = allPhases;
+            this.pointCount = pointCount;
+
+            int size = allPhases ? (maxStride * (maxStride + 1)) / 2 : maxStride + 1;
+            sums = new double[ALGORITHMS.length][size];
+            compensations = new double[ALGORITHMS.length][size];
+        }
+
+
+        /**
+         * Accumulator index of a stride and phase : with all phases, strides
+         * are stored one after the other, stride u having u phases.
+         */
+        int index(int stride, int phase)
+        {
+            return allPhases ? (stride * (stride - 1)) / 2 + phase : stride;
+        }
+
+
+        private int slot(int stride, int phase)
+        {
+            if ((stride < 1) || (stride > maxStride) || (phase < 0) || (phase >= getPhaseCount(stride)))
+            {
+                throw new IndexOutOfBoundsException("No result for stride " + stride + ", phase " + phase + ".");
+            }
+            return index(stride, phase);
+        }
+
+
+        private static int algorithmIndex(int algorithm)
+        {
+            for (int i = 0; i < ALGORITHMS.length; i++)
+            {
+                if (ALGORITHMS[i] == algorithm)
+                {
+                    return i;
+                }
+            }
+            throw new IllegalArgumentException("Unknown algorithm : " + algorithm);
+        }
+
+
+        void add(int algorithm, int index, double dist)
+        {
+            double sum = sums[algorithm][index];
+            double t = sum + dist;
+            compensations[algorithm][index] += CompensatedSum.error(sum, dist, t);
+            sums[algorithm][index] = t;
+        }
+
+
+        /**
+         * Number of phases computed for a stride.
+         *
+         * @param stride : 1..maxStride.
+         * @return stride if all phases were computed, 1 otherwise.
+         */
+        public int getPhaseCount(int stride)
+        {
+            return allPhases ? stride : 1;
+        }
+
+
+        /**
+         * Distance of the track keeping positions phase, phase + stride, ...
+         *
+         * @param algorithm : Great-Circle, Haversine, Vincenty.
+         * @param stride : 1..maxStride.
+         * @param phase : 0..getPhaseCount(stride) - 1.
+         * @return distance in kilometers.
+         */
+        public double getDistance(int algorithm, int stride, int phase)
+        {
+            int a = algorithmIndex(algorithm);
+            int i = slot(stride, phase);
+            return sums[a][i] + compensations[a][i];
+        }
+
+
+        /**
+         * Distance of the track keeping positions 0, stride, 2 * stride, ...
+         *
+         * @param algorithm : Great-Circle, Haversine, Vincenty.
+         * @param stride : 1..maxStride.
+         * @return distance in kilometers.
+         */
+        public double getDistance(int algorithm, int stride)
+        {
+            return getDistance(algorithm, stride, 0);
+        }
+
+
+        /**
+         * Average distance over the phases of a stride.
+         *
+         * @param algorithm : Great-Circle, Haversine, Vincenty.
+         * @param stride : 1..maxStride.
+         * @return distance in kilometers.
+         */
+        public double getMeanDistance(int algorithm, int stride)
+        {
+            double sum = 0.0;
+            for (int phase = 0; phase < getPhaseCount(stride); phase++)
+            {
+                sum += getDistance(algorithm, stride, phase);
+            }
+            return sum / getPhaseCount(stride);
+        }
+
+
+        /**
+         * Shortest distance over the phases of a stride.
+         *
+         * @param algorithm : Great-Circle, Haversine, Vincenty.
+         * @param stride : 1..maxStride.
+         * @return distance in kilometers.
+         */
+        public double getMinDistance(int algorithm, int stride)
+        {
+            double min = Double.MAX_VALUE;
+            for (int phase = 0; phase < getPhaseCount(stride); phase++)
+            {
+                min = Math.min(min, getDistance(algorithm, stride, phase));
+            }
+            return min;
+        }
+
+
+        /**
+         * Longest distance over the phases of a stride.
+         *
+         * @param algorithm : Great-Circle, Haversine, Vincenty.
+         * @param stride : 1..maxStride.
+         * @return distance in kilometers.
+         */
+        public double getMaxDistance(int algorithm, int stride)
+        {
+            double max = 0.0;
+            for (int phase = 0; phase < getPhaseCount(stride); phase++)
+            {
+                max = Math.max(max, getDistance(algorithm, stride, phase));
+            }
+            return max;
+        }
+
+
+        /**
+         * Highest stride of the analysis.
+         *
+         * @return max stride.
+         */
+        public int getMaxStride()
+        {
+            return maxStride;
+        }
+
+
+        /**
+         * Number of positions of the source track.
+         *
+         * @return point count.
+         */
+        public int getPointCount()
+        {
+            return pointCount;
+        }
+
+
+        /**
+         * Write the results as CSV, one line per stride. Columns are the
+         * phase 0 distance of each algorithm, then, if all phases were
+         * computed, the mean, min and max of each algorithm.
+         *
+         * @param out : destination.
+         * @throws IOException
+         */
+        public void writeCsv(Appendable out) throws IOException
+        {
+            write(out, true);
+        }
+
+
+        /**
+         * Write the results as an aligned text table, one line per stride.
+         *
+         * @param out : destination.
+         * @throws IOException
+         */
+        public void writeTable(Appendable out) throws IOException
+        {
+            write(out, false);
+        }
+
+
+        private void write(Appendable out, boolean csv) throws IOException
+        {
+            String[] names =
+            {
+                "great_circle", "haversine", "vincenty"
+            };
+
+            column(out, "stride", csv, 6);
+            for (String name : names)
+            {
+                column(out, name, csv, 14);
+            }
+            if (allPhases)
+            {
+                for (String name : names)
+                {
+                    column(out, name + "_mean", csv, 18);
+                    column(out, name + "_min", csv, 18);
+                    column(out, name + "_max", csv, 18);
+                }
+            }
+            out.append('\n');
+
+            for (int stride = 1; stride <= maxStride; stride++)
+            {
+                column(out, Integer.toString(stride), csv, 6);
+                for (int algorithm : ALGORITHMS)
+                {
+                    column(out, number(getDistance(algorithm, stride), csv), csv, 14);
+                }
+                if (allPhases)
+                {
+                    for (int algorithm : ALGORITHMS)
+                    {
+                        column(out, number(getMeanDistance(algorithm, stride), csv), csv, 18);
+                        column(out, number(getMinDistance(algorithm, stride), csv), csv, 18);
+                        column(out, number(getMaxDistance(algorithm, stride), csv), csv, 18);
+                    }
+                }
+                out.append('\n');
+            }
+        }
+
+
+        private static String number(double value, boolean csv)
+        {
+            return csv ? Double.toString(value) : String.format("%.6f", value);
+        }
+
+
+        private static void column(Appendable out, String value, boolean csv, int width) throws IOException
+        {
+            if (csv)
+            {
+                out.append(value).append("; ");
+                return;
+            }
+            for (int i = value.length(); i < width; i++)
+            {
+                out.append(' ');
+            }
+            out.append(value).append(' ');
+        }
+    }
+}
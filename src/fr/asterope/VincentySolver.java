@@ -0,0 +1,496 @@
+/**
+ *
+ * AndroidRun, basic runner's android application. Calculates distance, speed
+ * and other usefull values taken from GPS device.
+ *
+ * Copyright (C) 2014 Bruno Vedder
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program; if not, write to the Free Software Foundation, Inc., 51
+ * Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA
+ *
+ *
+ *
+ * Equations were taken from :
+ * https://en.wikipedia.org/wiki/Vincenty%27s_formulae
+ *
+ * C. F. F. Karney, Algorithms for geodesics, J. Geodesy 87, 43-55 (2013)
+ * https://arxiv.org/abs/1109.4448
+ *
+ */
+
+package fr.asterope;
+
+/**
+ * Reusable solver for the inverse geodesic problem (distance between two
+ * points) on an ellipsoid, WGS84 by default.
+ *
+ * Ellipsoid constants are computed once at construction, and the Vincenty
+ * iteration stops when lambda moves by less than the configured tolerance.
+ * When the iteration doesn't converge (nearly antipodal points), the
+ * distance is computed again by bisection on the start azimuth, as described
+ * by Karney: this one always converges, so no -1.0 is ever returned.
+ *
+ * The solver counts its iterations. It is not thread safe: use one instance
+ * per thread.
+ *
+ * @author bruno
+ */
+public class VincentySolver
+{
+
+    public static final double DEFAULT_TOLERANCE = 1e-12;
+    public static final int DEFAULT_MAX_ITERATIONS = 100;
+
+    // Bisection on [0, PI] reaches double precision in about 52 steps.
+    static final private int FALLBACK_MAX_ITERATIONS = 64;
+
+    private final double a;                 // Equator radius in km.
+    private final double f;                 // Flattening.
+    private final double b;                 // Polar radius in km.
+    private final double oneMinusF;
+    private final double secondEccentricitySq;  // (a^2 - b^2) / b^2
+    private final double tolerance;
+    private final int maxIterations;
+
+    private int lastIterations = 0;         // Iterations of the last call.
+    private boolean lastFallback = false;   // Last call used the fallback.
+    private long callCount = 0;
+    private long totalIterations = 0;
+    private long fallbackCount = 0;
+    private int maxObservedIterations = 0;
+
+
+    /**
+     * Constructor for the WGS84 ellipsoid with default tolerance and iteration
+     * limit.
+     */
+    public VincentySolver()
+    {
+        this(DEFAULT_TOLERANCE, DEFAULT_MAX_ITERATIONS);
+    }
+
+
+    /**
+     * Constructor for the WGS84 ellipsoid.
+     *
+     * @param tolerance : convergence tolerance on lambda, in radian.
+     * @param maxIterations : Vincenty iterations before using the fallback.
+     */
+    public VincentySolver(double tolerance, int maxIterations)
+    {
+        this(WGS84.EQUATOR_EARTH_RADIUS_KM, WGS84.FLATTENING, tolerance, maxIterations);
+    }
+
+
+    /**
+     * Constructor.
+     *
+     * @param equatorRadius : semi major axis in kilometer.
+     * @param flattening : ellipsoid flattening.
+     * @param tolerance : convergence tolerance on lambda, in radian.
+     * @param maxIterations : Vincenty iterations before using the fallback.
+     */
+    public VincentySolver(double equatorRadius, double flattening, double tolerance, int maxIterations)
+    {
+        if ((tolerance <= 0.0) || (maxIterations < 1))
+        {
+            throw new IllegalArgumentException("Tolerance must be > 0 and maxIterations >= 1.");
+        }
+
+        a = equatorRadius;
+        f = flattening;
+        oneMinusF = 1.0 - f;
+        b = oneMinusF * a;
+        secondEccentricitySq = (a * a - b * b) / (b * b);
+        this.tolerance = tolerance;
+        this.maxIterations = maxIterations;
+    }
+
+
+    /**
+     * Compute the shortest distance between points (lat1, long1) and (lat2,
+     * long2). Position are expected in Degree.
+     *
+     * @param lat1 : point 1 latitude.
+     * @param long1: point 1 longitude.
+     * @param lat2 : point 2 latitude.
+     * @param long2: point 2 longitude.
+     * @return distance in kilometer.
+     */
+    public double distance(double lat1, double long1, double lat2, double long2)
+    {
+        double tanU1 = reducedTan(WGS84.toRadian(lat1));
+        double cosU1 = 1.0 / Math.sqrt((1.0 + tanU1 * tanU1));
+        double sinU1 = tanU1 * cosU1;
+
+        double tanU2 = reducedTan(WGS84.toRadian(lat2));
+        double cosU2 = 1.0 / Math.sqrt((1.0 + tanU2 * tanU2));
+        double sinU2 = tanU2 * cosU2;
+
+        return distance(sinU1, cosU1, sinU2, cosU2, WGS84.toRadian(long2) - WGS84.toRadian(long1));
+    }
+
+
+    /**
+     * Compute the shortest distance between 2 WGPS84Points.
+     *
+     * @param src : source point.
+     * @param dest: destination point.
+     * @return distance in kilometer.
+     */
+    public double distance(WGS84Point src, WGS84Point dest)
+    {
+        return distance(src.getLatitude(), src.getLongitude(), dest.getLatitude(), dest.getLongitude());
+    }
+
+
+    /**
+     * Return tan(U) of the reduced latitude U of the given latitude, so that
+     * track loops can prepare each point once: cos(U) = 1 / sqrt(1 + tan(U)^2)
+     * and sin(U) = tan(U) * cos(U).
+     *
+     * @param latitude : latitude in radian.
+     * @return tangent of the reduced latitude.
+     */
+    double reducedTan(double latitude)
+    {
+        return oneMinusF * Math.tan(latitude);
+    }
+
+
+    /**
+     * Distance from already prepared points: the sine and cosine of the
+     * reduced latitude of each point are given, with the longitude difference
+     * L in radian.
+     *
+     * @return distance in kilometer.
+     */
+    double distance(double sinU1, double cosU1, double sinU2, double cosU2, double L)
+    {
+        double lambda = L;
+        double lambdaPrime;
+        int iterations = 0;
+
+        double cosSqalpha;
+        double cossigma;
+        double sinlambda;
+        double sigma;
+        double sinSqsigma;
+        double sinsigma;
+        double cos2sigmaM;
+        double coslambda;
+        double sinalpha;
+
+        do
+        {
+            iterations++;
+            sinlambda = Math.sin(lambda);
+            coslambda = Math.cos(lambda);
+            sinSqsigma = (cosU2 * sinlambda) * (cosU2 * sinlambda) + (cosU1 * sinU2 - sinU1 * cosU2 * coslambda) * (cosU1 * sinU2 - sinU1 * cosU2 * coslambda);
+
+            sinsigma = Math.sqrt(sinSqsigma);
+
+            if (sinsigma == 0.0)
+            {
+                record(iterations, false);
+                return 0.0;  // co-incident points
+            }
+
+            cossigma = sinU1 * sinU2 + cosU1 * cosU2 * coslambda;
+            sigma = Math.atan2(sinsigma, cossigma);
+            sinalpha = cosU1 * cosU2 * sinlambda / sinsigma;
+            cosSqalpha = 1.0 - sinalpha * sinalpha;
+            if (cosSqalpha != 0.0)
+            {
+                cos2sigmaM = cossigma - 2.0 * sinU1 * sinU2 / cosSqalpha;
+            }
+            else
+            {
+                cos2sigmaM = 0.0;  // equatorial line: cosSqalpha=0 (§6)
+            }
+            double C = f / 16.0 * cosSqalpha * (4.0 + f * (4.0 - 3.0 * cosSqalpha));
+            lambdaPrime = lambda;
+            lambda = L + (1.0 - C) * f * sinalpha * (sigma + C * sinsigma * (cos2sigmaM + C * cossigma * (-1.0 + 2.0 * cos2sigmaM * cos2sigmaM)));
+        }
+        while (Math.abs(lambda - lambdaPrime) > tolerance && iterations < maxIterations);
+
+        if ((Math.abs(lambda - lambdaPrime) > tolerance) || Double.isNaN(lambda))
+        {
+            // Nearly antipodal points: Vincenty doesn't converge.
+            return fallbackDistance(sinU1, cosU1, sinU2, cosU2, L, iterations);
+        }
+
+        record(iterations, false);
+        return geodesicLength(cosSqalpha, sigma, sinsigma, cossigma, cos2sigmaM);
+    }
+
+
+    /**
+     * Length of the geodesic from its parameters on the auxiliary sphere.
+     *
+     * @return distance in kilometer.
+     */
+    private double geodesicLength(double cosSqalpha, double sigma, double sinsigma, double cossigma, double cos2sigmaM)
+    {
+        double uSq = cosSqalpha * secondEccentricitySq;
+        double A = 1.0 + uSq / 16384.0 * (4096.0 + uSq * (-768.0 + uSq * (320.0 - 175.0 * uSq)));
+        double B = uSq / 1024.0 * (256.0 + uSq * (-128.0 + uSq * (74.0 - 47.0 * uSq)));
+        double deltasigma = B * sinsigma * (cos2sigmaM + B / 4.0 * (cossigma * (-1.0 + 2.0 * cos2sigmaM * cos2sigmaM)
+                - (B / 6.0 * cos2sigmaM * (-3.0 + 4.0 * sinsigma * sinsigma) * (-3.0 + 4.0 * cos2sigmaM * cos2sigmaM))));
+
+        return b * A * (sigma - deltasigma);
+    }
+
+
+    /**
+     * Fallback used when Vincenty iteration doesn't converge. Instead of
+     * iterating on lambda, the start azimuth alpha1 is searched by bisection
+     * so that the geodesic reaches the latitude of point 2 at the requested
+     * longitude difference (Karney, 2013, section 4).
+     *
+     * Points are first put in canonical position : |U1| &gt;= |U2|, U1 &lt;= 0
+     * and 0 &lt;= L &lt;= PI. Then the longitude reached is an increasing
+     * function of alpha1 in [0, PI], so the bisection always converges.
+     *
+     * @return distance in kilometer.
+     */
+    private double fallbackDistance(double sinU1, double cosU1, double sinU2, double cosU2, double L, int iterations)
+    {
+        // Longitude difference in [0, PI].
+        double lambda12 = Math.abs(Math.IEEEremainder(L, 2.0 * Math.PI));
+
+        // |U1| >= |U2|, distance is symmetric.
+        if (Math.abs(sinU1) < Math.abs(sinU2))
+        {
+            double tmp = sinU1;
+            sinU1 = sinU2;
+            sinU2 = tmp;
+            tmp = cosU1;
+            cosU1 = cosU2;
+            cosU2 = tmp;
+        }
+
+        // U1 <= 0 (a negative zero keeps atan2 on the right side of the cut).
+        if (sinU1 >= 0.0)
+        {
+            sinU1 = -sinU1;
+            sinU2 = -sinU2;
+        }
+
+        double low = 0.0;
+        double high = Math.PI;
+        double alpha1 = 0.5 * Math.PI;
+
+        for (int i = 0; i < FALLBACK_MAX_ITERATIONS; i++)
+        {
+            iterations++;
+            alpha1 = 0.5 * (low + high);
+            if ((alpha1 <= low) || (alpha1 >= high))
+            {
+                break;  // Interval can't be split anymore.
+            }
+
+            if (solveForAzimuth(alpha1, sinU1, cosU1, sinU2, cosU2, false) < lambda12)
+            {
+                low = alpha1;
+            }
+            else
+            {
+                high = alpha1;
+            }
+        }
+
+        record(iterations, true);
+        return solveForAzimuth(alpha1, sinU1, cosU1, sinU2, cosU2, true);
+    }
+
+
+    /**
+     * Follow the geodesic starting from point 1 with azimuth alpha1 until it
+     * reaches the latitude of point 2 (going northward).
+     *
+     * @param length : true to get the geodesic length, false to get the
+     * longitude difference reached.
+     * @return geodesic length in kilometer, or longitude difference in radian.
+     */
+    private double solveForAzimuth(double alpha1, double sinU1, double cosU1, double sinU2, double cosU2, boolean length)
+    {
+        double sinalpha1 = Math.sin(alpha1);
+        double cosalpha1 = Math.cos(alpha1);
+
+        // Clairaut: sin(alpha0) = sin(alpha1) * cos(U1).
+        double sinalpha0 = sinalpha1 * cosU1;
+        double cosSqalpha = 1.0 - sinalpha0 * sinalpha0;
+
+        // Azimuth at point 2, taken northward.
+        double cosalpha2Sq = cosalpha1 * cosalpha1 * cosU1 * cosU1 + (cosU2 * cosU2 - cosU1 * cosU1);
+        double cosalpha2 = Math.sqrt(Math.max(cosalpha2Sq, 0.0)) / cosU2;
+
+        double sigma1 = Math.atan2(sinU1, cosalpha1 * cosU1);
+        double sigma2 = Math.atan2(sinU2, cosalpha2 * cosU2);
+        double sigma = sigma2 - sigma1;
+        double sinsigma = Math.sin(sigma);
+        double cossigma = Math.cos(sigma);
+        double cos2sigmaM = Math.cos(sigma1 + sigma2);
+
+        if (length == true)
+        {
+            return geodesicLength(cosSqalpha, sigma, sinsigma, cossigma, cos2sigmaM);
+        }
+
+        // Longitude on the auxiliary sphere.
+        double omega1 = Math.atan2(sinalpha0 * sinU1, cosalpha1 * cosU1);
+        double omega2 = Math.atan2(sinalpha0 * sinU2, cosalpha2 * cosU2);
+
+        double C = f / 16.0 * cosSqalpha * (4.0 + f * (4.0 - 3.0 * cosSqalpha));
+        return (omega2 - omega1) - (1.0 - C) * f * sinalpha0 * (sigma + C * sinsigma * (cos2sigmaM + C * cossigma * (-1.0 + 2.0 * cos2sigmaM * cos2sigmaM)));
+    }
+
+
+    /**
+     * Update iteration counters at the end of a call.
+     */
+    private void record(int iterations, boolean fallback)
+    {
+        lastIterations = iterations;
+        lastFallback = fallback;
+        callCount++;
+        totalIterations += iterations;
+        if (fallback == true)
+        {
+            fallbackCount++;
+        }
+        if (iterations > maxObservedIterations)
+        {
+            maxObservedIterations = iterations;
+        }
+    }
+
+
+    /**
+     * Reset all counters.
+     */
+    public void resetStatistics()
+    {
+        lastIterations = 0;
+        lastFallback = false;
+        callCount = 0;
+        totalIterations = 0;
+        fallbackCount = 0;
+        maxObservedIterations = 0;
+    }
+
+
+    /**
+     * Iterations getter: Vincenty plus fallback iterations of the last call.
+     *
+     * @return iterations of the last call.
+     */
+    public int getLastIterations()
+    {
+        return lastIterations;
+    }
+
+
+    /**
+     * Return true if the last call needed the fallback.
+     *
+     * @return true if the last call didn't converge with Vincenty.
+     */
+    public boolean isLastFallback()
+    {
+        return lastFallback;
+    }
+
+
+    /**
+     * Number of distances computed since creation or last reset.
+     *
+     * @return call count.
+     */
+    public long getCallCount()
+    {
+        return callCount;
+    }
+
+
+    /**
+     * Iterations done since creation or last reset.
+     *
+     * @return total iterations.
+     */
+    public long getTotalIterations()
+    {
+        return totalIterations;
+    }
+
+
+    /**
+     * Average iterations per call since creation or last reset.
+     *
+     * @return average iterations, 0 if no call was made.
+     */
+    public double getAverageIterations()
+    {
+        if (callCount == 0)
+        {
+            return 0.0;
+        }
+        return (double) totalIterations / (double) callCount;
+    }
+
+
+    /**
+     * Highest iteration count of a single call since creation or last reset.
+     *
+     * @return max iterations.
+     */
+    public int getMaxObservedIterations()
+    {
+        return maxObservedIterations;
+    }
+
+
+    /**
+     * Number of calls that needed the fallback since creation or last reset.
+     *
+     * @return fallback count.
+     */
+    public long getFallbackCount()
+    {
+        return fallbackCount;
+    }
+
+
+    /**
+     * Convergence tolerance getter.
+     *
+     * @return tolerance on lambda, in radian.
+     */
+    public double getTolerance()
+    {
+        return tolerance;
+    }
+
+
+    /**
+     * Iteration limit getter.
+     *
+     * @return Vincenty iterations before using the fallback.
+     */
+    public int getMaxIterations()
+    {
+        return maxIterations;
+    }
+}
@@ -30,12 +30,9 @@
 
 package fr.asterope;
 
-import java.io.BufferedReader;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Scanner;
 
 
 /**
@@ -51,6 +48,7 @@ public class WGS84
     public static final double EQUATOR_EARTH_RADIUS_KM = 6378.137;
     public static final double POLAR_EARTH_RADIUS_KM = 6356.752;
     public static final double AVERAGE_VOLUMIC_EARTH_RADIUS_KM = 6371.0;
+    public static final double FLATTENING = 1.0 / 298.257223563;
 
 
     /**
@@ -114,12 +112,25 @@ public class WGS84
         lat2 = WGS84.toRadian(lat2);
         long2 = WGS84.toRadian(long2);
 
+        return greatCircleDistance(lat1, Math.sin(lat1), Math.cos(lat1), long1, lat2, Math.sin(lat2), Math.cos(lat2), long2);
+    }
+
+
+    /**
+     * Great-Circle distance from already prepared points: positions are in
+     * radian, and the sine and cosine of each latitude are given, so that a
+     * track loop computes them only once per point.
+     *
+     * @return distance in kilometer.
+     */
+    static double greatCircleDistance(double lat1, double sinLat1, double cosLat1, double long1, double lat2, double sinLat2, double cosLat2, double long2)
+    {
         // Avoid NaN for position latitudes too close.
         if (Math.abs(lat1 - lat2) < 0.0000001)
         {
             return 0;
         }
-        double dist = EQUATOR_EARTH_RADIUS_KM * Math.acos(Math.cos(lat1) * Math.cos(lat2) * Math.cos(long2 - long1) + Math.sin(lat1) * Math.sin(lat2));
+        double dist = EQUATOR_EARTH_RADIUS_KM * Math.acos(cosLat1 * cosLat2 * Math.cos(long2 - long1) + sinLat1 * sinLat2);
         return dist;
     }
 
@@ -168,10 +179,22 @@ public class WGS84
         lat2 = WGS84.toRadian(lat2);
         long2 = WGS84.toRadian(long2);
 
+        return haversineDistance(lat1, Math.cos(lat1), long1, lat2, Math.cos(lat2), long2);
+    }
+
+
+    /**
+     * Haversine distance from already prepared points: positions are in
+     * radian, and the cosine of each latitude is given.
+     *
+     * @return distance in kilometer.
+     */
+    static double haversineDistance(double lat1, double cosLat1, double long1, double lat2, double cosLat2, double long2)
+    {
         double sinSquareLat = Math.sin((lat1 - lat2) / 2.0);
         sinSquareLat *= sinSquareLat;
 
-        double cosLat = Math.cos(lat1) * Math.cos(lat2);
+        double cosLat = cosLat1 * cosLat2;
 
         double sinSquareLong = Math.sin((long1 - long2) / 2.0);
         sinSquareLong *= sinSquareLong;
@@ -208,11 +231,14 @@ public class WGS84
      * long2) in the WGS84 geodesic system using Vincenty formula. Position are
      * expected in Degree. This method is more accurate for short distance.
      *
+     * Note : for nearly antipodal points the formula doesn't converge and -1.0
+     * is returned. VincentySolver never fails, and should be prefered.
+     *
      * @param lat1 : point 1 latitude.
      * @param long1: point 1 longitude.
      * @param lat2 : point 2 latitude.
      * @param long2: point 2 longitude.
-     * @return distance in kilometer.
+     * @return distance in kilometer, -1.0 if the formula doesn't converge.
      */
     static double vincentyDistance(double lat1, double long1, double lat2, double long2)
     {
@@ -222,19 +248,31 @@ public class WGS84
         lat2 = WGS84.toRadian(lat2);
         long2 = WGS84.toRadian(long2);
 
-        double a = EQUATOR_EARTH_RADIUS_KM;
-        double f = 1.0 / 298.257223563;
-        double b = (1.0 - f) * a;
-        double L = long2 - long1;
-
-        double tanU1 = (1.0 - f) * Math.tan(lat1);
+        double tanU1 = (1.0 - FLATTENING) * Math.tan(lat1);
         double cosU1 = 1.0 / Math.sqrt((1.0 + tanU1 * tanU1));
         double sinU1 = tanU1 * cosU1;
 
-        double tanU2 = (1.0 - f) * Math.tan(lat2);
+        double tanU2 = (1.0 - FLATTENING) * Math.tan(lat2);
         double cosU2 = 1.0 / Math.sqrt((1.0 + tanU2 * tanU2));
         double sinU2 = tanU2 * cosU2;
 
+        return vincentyDistance(sinU1, cosU1, sinU2, cosU2, long2 - long1);
+    }
+
+
+    /**
+     * Vincenty distance from already prepared points: the sine and cosine of
+     * the reduced latitude U = atan((1 - f) * tan(latitude)) of each point
+     * are given, with the longitude difference L in radian.
+     *
+     * @return distance in kilometer, -1.0 if the formula doesn't converge.
+     */
+    static double vincentyDistance(double sinU1, double cosU1, double sinU2, double cosU2, double L)
+    {
+        double a = EQUATOR_EARTH_RADIUS_KM;
+        double f = FLATTENING;
+        double b = (1.0 - f) * a;
+
         double lambda = L;
         double lambdaPrime;
         double iterationLimit = 100.0;
@@ -341,40 +379,26 @@ public class WGS84
      * list. Expected file format: Latitude1 Longitude1 in decimal degree. One
      * couple of value per line, no more.
      *
+     * PositionFileParser does the parsing, use it directly to get primitive
+     * arrays instead of WGS84Point objects.
+     *
      * @param absoluteFilename
      * @return
      * @throws FileNotFoundException
+     * @throws PositionFormatException if a line is malformed.
      * @throws IOException
      */
     static public ArrayList<WGS84Point> loadPosition(String absoluteFilename) throws FileNotFoundException, IOException
     {
-        ArrayList<WGS84Point> pos = new ArrayList<WGS84Point>(10000);
-
-        // Open File and load couples of values.
-        double d;
-        FileReader fileReader = new FileReader(absoluteFilename);
-        BufferedReader reader = null;
+        final ArrayList<WGS84Point> pos = new ArrayList<WGS84Point>(10000);
 
-        try
+        PositionFileParser.parse(absoluteFilename, new PositionListener()
         {
-            reader = new BufferedReader(fileReader);
-            String line = reader.readLine();
-
-            while (line != null)
+            public void onPosition(double latitude, double longitude)
             {
-                double lati, longi;
-
-                Scanner s = new Scanner(line);
-                lati = s.nextDouble();
-                longi = s.nextDouble();
-                pos.add(new WGS84Point(lati, longi));
-                line = reader.readLine();
+                pos.add(new WGS84Point(latitude, longitude));
             }
-        }
-        catch (IOException e)
-        {
-            reader = null;
-        }
+        });
         return pos;
     }
 
@@ -383,49 +407,290 @@ public class WGS84
      * Compute integral distance over a track. Sum distance between each points.
      * Distance between each point can be calculated with different algorithm.
      *
+     * Points are fed to a TrackDistanceAccumulator, so each point is prepared
+     * once (radians, sin/cos of the latitude or reduced latitude) and the
+     * prepared start point is kept from one segment to the next. Result is the
+     * same as computeTrackDistance(double[], double[], int, int, int,
+     * double[]) on the same positions.
+     *
      * @param points : Point measured along the track.
      * @param algorithm : Great-Circle, Haversine, Vincenty.
-     * @return distance in kilometers.
+     * @return distance in kilometers, -1.0 if algorithm is unknown.
      */
     public static double computeTrackDistance(ArrayList<WGS84Point> points, int algorithm)
     {
-        double cumul = 0.0;
+        if ((algorithm != GREAT_CIRCLE) && (algorithm != HAVERSINE) && (algorithm != VINCENTY))
+        {
+            return -1.0;
+        }
+
+        TrackDistanceAccumulator accumulator = new TrackDistanceAccumulator(algorithm);
+        for (int i = 0; i < points.size(); i++)
+        {
+            WGS84Point point = points.get(i);
+            accumulator.onPosition(point.getLatitude(), point.getLongitude());
+        }
+        return accumulator.getDistance();
+    }
+
+
+    /**
+     * Compute integral distance over a track stored as two parallel arrays of
+     * latitudes and longitudes (decimal degree). Only the points in [offset,
+     * offset + length[ are used. This is the batch version of
+     * computeTrackDistance(ArrayList, int): no WGS84Point is needed, and each
+     * algorithm runs its own loop.
+     *
+     * Segments are summed with Neumaier compensated summation, so that the
+     * rounding error doesn't grow with the number of points.
+     *
+     * If segments is not null, the distance between point i and point i + 1 is
+     * stored in segments[i], for offset &lt;= i &lt; offset + length - 1. The
+     * array must therefore be at least offset + length - 1 long.
+     *
+     * @param latitudes : latitudes of the track, in decimal degree.
+     * @param longitudes : longitudes of the track, in decimal degree.
+     * @param offset : index of the first point of the track.
+     * @param length : number of points of the track.
+     * @param algorithm : Great-Circle, Haversine, Vincenty.
+     * @param segments : per segment distances in kilometers, may be null.
+     * @return distance in kilometers, -1.0 if algorithm is unknown.
+     */
+    public static double computeTrackDistance(double[] latitudes, double[] longitudes, int offset, int length, int algorithm, double[] segments)
+    {
+        if ((offset < 0) || (length < 0) || (offset + length > latitudes.length) || (offset + length > longitudes.length))
+        {
+            throw new IndexOutOfBoundsException("Track [" + offset + ", " + (offset + length) + "[ is out of arrays bounds.");
+        }
 
-        WGS84Point start = points.get(0);
-        double dist = 0.0;
+        if ((segments != null) && (length > 1) && (segments.length < offset + length - 1))
+        {
+            throw new IndexOutOfBoundsException("Segments array is too short for " + (length - 1) + " segments.");
+        }
 
-        for (int i = 1; i < points.size(); i++)
+        switch (algorithm)
         {
-            WGS84Point dest = points.get(i);
+            case GREAT_CIRCLE:
+                return greatCircleTrackDistance(latitudes, longitudes, offset, length, segments);
 
-            switch (algorithm)
+            case HAVERSINE:
+                return haversineTrackDistance(latitudes, longitudes, offset, length, segments);
+
+            case VINCENTY:
+                return vincentyTrackDistance(latitudes, longitudes, offset, length, segments);
+
+            default:
+                return -1.0;
+        }
+    }
+
+
+    /**
+     * Compute integral distance over the whole track stored as two parallel
+     * arrays of latitudes and longitudes (decimal degree).
+     *
+     * @param latitudes : latitudes of the track, in decimal degree.
+     * @param longitudes : longitudes of the track, in decimal degree.
+     * @param algorithm : Great-Circle, Haversine, Vincenty.
+     * @return distance in kilometers, -1.0 if algorithm is unknown.
+     */
+    public static double computeTrackDistance(double[] latitudes, double[] longitudes, int algorithm)
+    {
+        return computeTrackDistance(latitudes, longitudes, 0, latitudes.length, algorithm, null);
+    }
+
+
+    /**
+     * Compute integral distance over a Track. Double encoded tracks are
+     * computed in place by the array loops; fixed point tracks are walked
+     * with a cursor into a TrackDistanceAccumulator. No position is copied.
+     *
+     * @param track : positions of the track.
+     * @param algorithm : Great-Circle, Haversine, Vincenty.
+     * @return distance in kilometers, -1.0 if algorithm is unknown.
+     */
+    public static double computeTrackDistance(Track track, int algorithm)
+    {
+        if ((algorithm != GREAT_CIRCLE) && (algorithm != HAVERSINE) && (algorithm != VINCENTY))
+        {
+            return -1.0;
+        }
+
+        if (track.isFixedPoint() == false)
+        {
+            return computeTrackDistance(track.latitudeColumn(), track.longitudeColumn(), 0, track.size(), algorithm, null);
+        }
+
+        TrackDistanceAccumulator accumulator = new TrackDistanceAccumulator(algorithm);
+        Track.Cursor cursor = track.cursor();
+        while (cursor.next())
+        {
+            accumulator.onPosition(cursor.getLatitude(), cursor.getLongitude());
+        }
+        return accumulator.getDistance();
+    }
+
+
+    /**
+     * Compute integral distance over the track stored in a position file,
+     * without loading it : positions are streamed from the file to a
+     * TrackDistanceAccumulator, so memory use doesn't depend on the track
+     * size. Result is the same as loading the file and calling
+     * computeTrackDistance(double[], double[], int).
+     *
+     * @param absoluteFilename : position file, see PositionFileParser.
+     * @param algorithm : Great-Circle, Haversine, Vincenty.
+     * @return distance in kilometers, -1.0 if algorithm is unknown.
+     * @throws FileNotFoundException
+     * @throws PositionFormatException if a line is malformed.
+     * @throws IOException
+     */
+    public static double computeTrackDistance(String absoluteFilename, int algorithm) throws FileNotFoundException, IOException
+    {
+        if ((algorithm != GREAT_CIRCLE) && (algorithm != HAVERSINE) && (algorithm != VINCENTY))
+        {
+            return -1.0;
+        }
+
+        TrackDistanceAccumulator accumulator = new TrackDistanceAccumulator(algorithm);
+        PositionFileParser.parse(absoluteFilename, accumulator);
+        return accumulator.getDistance();
+    }
+
+
+    /**
+     * Great-Circle loop of computeTrackDistance(double[], double[], int, int,
+     * int, double[]).
+     */
+    private static double greatCircleTrackDistance(double[] latitudes, double[] longitudes, int offset, int length, double[] segments)
+    {
+        CompensatedSum cumul = new CompensatedSum();
+        int end = offset + length;
+
+        if (length < 2)
+        {
+            return 0.0;
+        }
+
+        // Terms of the start point are kept from one segment to the next.
+        double lat1 = toRadian(latitudes[offset]);
+        double long1 = toRadian(longitudes[offset]);
+        double sinLat1 = Math.sin(lat1);
+        double cosLat1 = Math.cos(lat1);
+
+        for (int i = offset + 1; i < end; i++)
+        {
+            double lat2 = toRadian(latitudes[i]);
+            double long2 = toRadian(longitudes[i]);
+            double sinLat2 = Math.sin(lat2);
+            double cosLat2 = Math.cos(lat2);
+
+            double dist = greatCircleDistance(lat1, sinLat1, cosLat1, long1, lat2, sinLat2, cosLat2, long2);
+            if (segments != null)
+            {
+                segments[i - 1] = dist;
+            }
+            cumul.add(dist);
+
+            lat1 = lat2;
+            long1 = long2;
+            sinLat1 = sinLat2;
+            cosLat1 = cosLat2;
+        }
+        return cumul.get();
+    }
+
+
+    /**
+     * Haversine loop of computeTrackDistance(double[], double[], int, int, int,
+     * double[]).
+     */
+    private static double haversineTrackDistance(double[] latitudes, double[] longitudes, int offset, int length, double[] segments)
+    {
+        CompensatedSum cumul = new CompensatedSum();
+        int end = offset + length;
+
+        if (length < 2)
+        {
+            return 0.0;
+        }
+
+        // Terms of the start point are kept from one segment to the next.
+        double lat1 = toRadian(latitudes[offset]);
+        double long1 = toRadian(longitudes[offset]);
+        double cosLat1 = Math.cos(lat1);
+
+        for (int i = offset + 1; i < end; i++)
+        {
+            double lat2 = toRadian(latitudes[i]);
+            double long2 = toRadian(longitudes[i]);
+            double cosLat2 = Math.cos(lat2);
+
+            double dist = haversineDistance(lat1, cosLat1, long1, lat2, cosLat2, long2);
+            if (segments != null)
             {
-                case GREAT_CIRCLE:
-                    dist += distance(start, dest);
-                    break;
+                segments[i - 1] = dist;
+            }
+            cumul.add(dist);
 
-                case HAVERSINE:
-                    dist += haversineDistance(start, dest);
-                    break;
+            lat1 = lat2;
+            long1 = long2;
+            cosLat1 = cosLat2;
+        }
+        return cumul.get();
+    }
 
-                case VINCENTY:
-                    dist += WGS84.vincentyDistance(start, dest);
-                    break;
 
-                default:
-                    dist = -1.0;
-                    break;
+    /**
+     * Vincenty loop of computeTrackDistance(double[], double[], int, int, int,
+     * double[]). A VincentySolver is used, so nearly antipodal segments don't
+     * spoil the sum with -1.0.
+     */
+    private static double vincentyTrackDistance(double[] latitudes, double[] longitudes, int offset, int length, double[] segments)
+    {
+        CompensatedSum cumul = new CompensatedSum();
+        int end = offset + length;
+
+        if (length < 2)
+        {
+            return 0.0;
+        }
+
+        VincentySolver solver = new VincentySolver();
+
+        // Reduced latitude of the start point is kept from one segment to the next.
+        double long1 = toRadian(longitudes[offset]);
+        double tanU1 = solver.reducedTan(toRadian(latitudes[offset]));
+        double cosU1 = 1.0 / Math.sqrt((1.0 + tanU1 * tanU1));
+        double sinU1 = tanU1 * cosU1;
+
+        for (int i = offset + 1; i < end; i++)
+        {
+            double long2 = toRadian(longitudes[i]);
+            double tanU2 = solver.reducedTan(toRadian(latitudes[i]));
+            double cosU2 = 1.0 / Math.sqrt((1.0 + tanU2 * tanU2));
+            double sinU2 = tanU2 * cosU2;
+
+            double dist = solver.distance(sinU1, cosU1, sinU2, cosU2, long2 - long1);
+            if (segments != null)
+            {
+                segments[i - 1] = dist;
             }
+            cumul.add(dist);
 
-            cumul = cumul + dist;
-            start = dest; // Destination becomes next start point.
+            long1 = long2;
+            cosU1 = cosU2;
+            sinU1 = sinU2;
         }
-        return dist;
+        return cumul.get();
     }
 
 
     /**
-     * @param args the command line arguments
+     * Small demonstration and undersampling study. Performance measurements
+     * are done with the JMH benchmarks of the benchmark/ module.
+     *
+     * @param args the command line arguments : optional position file.
      */
     public static void main(String[] args)
     {
@@ -450,34 +715,20 @@ public class WGS84
         System.out.println("Paris -> La Mure = " + distanceVincenty + " km(s) (Vincenty).");
         System.out.println("121.136° is " + WGS84.toSexagesimal(121.136) + " in sexagesimal representation.");
 
-        String sourceFile = "/home/bruno/Data-Position.txt";
-
-        ArrayList<WGS84Point> dataPos;
+        String sourceFile = (args.length > 0) ? args[0] : "/home/bruno/Data-Position.txt";
 
         try
         {
-            dataPos = loadPosition(sourceFile);
-            System.out.println((dataPos.size()) + " position read from " + sourceFile);
+            double[][] dataPos = PositionFileParser.load(sourceFile);
+            System.out.println(dataPos[0].length + " position read from " + sourceFile);
 
-            for (int u = 1; u < 150; u++)
-            {
-                ArrayList<WGS84Point> underSampled = new ArrayList<WGS84Point>(dataPos.size());
-
-                for (int i = 0; i < dataPos.size(); i += u)
-                {
-                    underSampled.add(dataPos.get(i));
-                }
-                double gc = computeTrackDistance(underSampled, GREAT_CIRCLE);
-                double h = computeTrackDistance(underSampled, HAVERSINE);
-                double vinc = computeTrackDistance(underSampled, VINCENTY);
-
-                System.out.println(gc + "; " + h + "; " + vinc + ";");
-
-            }
+            // Distance when keeping one position out of u, for u in 1..149.
+            UndersamplingAnalysis analysis = new UndersamplingAnalysis(149, false);
+            analysis.analyse(dataPos[0], dataPos[1], 0, dataPos[0].length).writeCsv(System.out);
         }
         catch (IOException ex)
         {
-            System.out.println("Got exception !");
+            System.out.println("Got exception ! " + ex.getMessage());
         }
 
         WGS84Point p1 = new WGS84Point(2.0, 2.0, 2.0);